@@ -0,0 +1,51 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import com.underarmour.interview.chat.ChatApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the chat-service application context for benchmarks that need the real JPA repositories. The web
+ * server listens on a random port, the service registry is off, and the database is an in-memory H2 unless
+ * a JDBC URL is given.
+ *
+ * @author david.moore
+ */
+public final class ChatServiceContext {
+    public static final String H2_URL = "jdbc:h2:mem:chatdb;DB_CLOSE_DELAY=-1";
+
+    private ChatServiceContext() {
+    }
+
+    /**
+     * @param jdbcUrl    Database of the hot and cold storage, credentials can be passed as
+     *                   {@code -Dspring.datasource.username} and {@code -Dspring.datasource.password}
+     * @param properties Additional application properties, {@code key=value}
+     * @return Started context, close it in the teardown
+     */
+    public static ConfigurableApplicationContext start(String jdbcUrl, String... properties) {
+        // Passed as command line arguments, default properties would lose against application.yml
+        List<String> args = new ArrayList<>(Arrays.asList("--server.port=0", "--eureka.client.enabled=false",
+                "--spring.datasource.url=" + jdbcUrl,
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--logging.level.com.underarmour.interview.chat=WARN"));
+        Arrays.stream(properties).map(p -> "--" + p).forEach(args::add);
+        return new SpringApplicationBuilder(ChatApplication.class).run(args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.underarmour.interview.chat.config.HazelcastConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts hazelcast members using the chat-service configuration, isolated from any other cluster on
+ * the network.
+ *
+ * @author david.moore
+ */
+public final class EmbeddedHazelcast {
+
+    private EmbeddedHazelcast() {
+    }
+
+    /**
+     * Starts a single member that does not join anything.
+     *
+     * @return Hazelcast instance
+     */
+    public static HazelcastInstance newInstance() {
+        return newInstance(chatConfig());
+    }
+
+    /**
+     * Starts a single member that does not join anything.
+     *
+     * @param config Configuration from {@link #chatConfig()}, possibly modified
+     * @return Hazelcast instance
+     */
+    public static HazelcastInstance newInstance(Config config) {
+        config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+        return Hazelcast.newHazelcastInstance(config);
+    }
+
+    /**
+     * Starts a cluster of members on the loopback interface.
+     *
+     * @param size Number of members
+     * @return Hazelcast instances, in start order
+     */
+    public static List<HazelcastInstance> newCluster(int size) {
+        String group = chatConfig().getGroupConfig().getName();
+        List<HazelcastInstance> members = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Config config = chatConfig()
+                    .setInstanceName(group + "-" + i)
+                    .setProperty("hazelcast.wait.seconds.before.join", "0");
+            config.getGroupConfig().setName(group);
+            JoinConfig join = config.getNetworkConfig().getJoin();
+            join.getMulticastConfig().setEnabled(false);
+            join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+            members.add(Hazelcast.newHazelcastInstance(config));
+        }
+        return members;
+    }
+
+    /**
+     * Chat-service configuration with a unique instance and group name, so several benchmark runs
+     * on one host never form a cluster together.
+     *
+     * @return Configuration
+     */
+    public static Config chatConfig() {
+        Config config = new HazelcastConfiguration().chatConfig()
+                .setInstanceName("benchmark-" + UUID.randomUUID())
+                .setProperty("hazelcast.phone.home.enabled", "false");
+        config.getGroupConfig().setName(config.getInstanceName());
+        JoinConfig join = config.getNetworkConfig().getJoin();
+        join.getAwsConfig().setEnabled(false);
+        return config;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.storage.ColdStore;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * In memory {@link ColdStore}.
+ *
+ * @author david.moore
+ */
+public class InMemoryColdStore implements ColdStore {
+    private final Map<Integer, ColdMessage> messages = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the messages. The benchmarks keep their hot messages in the cache only, there are no hot
+     * storage rows to delete.
+     */
+    @Override
+    public Set<Integer> archive(Collection<ColdMessage> messages, boolean deleteHotMessages) {
+        Set<Integer> added = new HashSet<>();
+        messages.forEach(message -> {
+            if (this.messages.putIfAbsent(message.getId(), message) == null) {
+                added.add(message.getId());
+            }
+        });
+        return added;
+    }
+
+    @Override
+    public Optional<ColdMessage> findById(int id) {
+        return Optional.ofNullable(messages.get(id));
+    }
+
+    @Override
+    public int findMaxId() {
+        return messages.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    @Override
+    public void forEachId(IntConsumer action) {
+        messages.keySet().forEach(action::accept);
+    }
+
+    @Override
+    public void forEachId(int minId, int maxId, IntConsumer action) {
+        messages.keySet().stream().filter(id -> id >= minId && id <= maxId).forEach(action::accept);
+    }
+
+    @Override
+    public long count() {
+        return messages.size();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import org.springframework.data.domain.Pageable;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * In memory {@link HotChatRepository}, assigns ids the way the database would.
+ *
+ * @author david.moore
+ */
+public class InMemoryHotChatRepository extends InMemoryRepository<HotMessage> implements HotChatRepository {
+    public InMemoryHotChatRepository() {
+        super(HotMessage::getId);
+    }
+
+    @Override
+    public void insert(HotMessage message) {
+        save(message);
+    }
+
+    @Override
+    public void insertAll(Collection<HotMessage> messages) {
+        saveAll(messages);
+    }
+
+    @Override
+    public List<HotMessage> findByUsername(String username) {
+        return entities.values().stream()
+                .filter(m -> username.equals(m.getUsername()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Pages the messages in id order, the sort of the pageable is ignored.
+     */
+    @Override
+    public List<HotMessage> findByUsername(String username, Pageable pageable) {
+        return entities.values().stream()
+                .filter(m -> username.equals(m.getUsername()))
+                .sorted(Comparator.comparingInt(HotMessage::getId))
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int deleteIfPresent(int id) {
+        return entities.remove(id) != null ? 1 : 0;
+    }
+
+    @Override
+    public int deleteByIds(Collection<Integer> ids) {
+        return (int) ids.stream().filter(id -> entities.remove(id) != null).count();
+    }
+
+    @Override
+    public void forEachUsernameAndId(ObjIntConsumer<String> action) {
+        entities.values().forEach(m -> action.accept(m.getUsername(), m.getId()));
+    }
+
+    @Override
+    public int findMaxId() {
+        return entities.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+}
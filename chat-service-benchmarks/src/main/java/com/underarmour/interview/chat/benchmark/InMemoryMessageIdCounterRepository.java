@@ -0,0 +1,53 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import com.underarmour.interview.chat.entity.MessageIdCounter;
+import com.underarmour.interview.chat.repository.MessageIdCounterRepository;
+
+/**
+ * In memory {@link MessageIdCounterRepository}.
+ *
+ * @author david.moore
+ */
+public class InMemoryMessageIdCounterRepository extends InMemoryRepository<MessageIdCounter>
+        implements MessageIdCounterRepository {
+    public InMemoryMessageIdCounterRepository() {
+        super(MessageIdCounter::getId);
+    }
+
+    @Override
+    public int createIfAbsent(int id) {
+        MessageIdCounter counter = new MessageIdCounter();
+        counter.setId(id);
+        return entities.putIfAbsent(id, counter) == null ? 1 : 0;
+    }
+
+    @Override
+    public long findHighWater(int id) {
+        MessageIdCounter counter = entities.get(id);
+        return counter != null ? counter.getHighWater() : 0;
+    }
+
+    @Override
+    public int raise(int id, long highWater) {
+        MessageIdCounter counter = entities.get(id);
+        synchronized (counter) {
+            if (counter.getHighWater() >= highWater) {
+                return 0;
+            }
+            counter.setHighWater(highWater);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Map backed {@link CrudRepository} standing in for the JPA repositories, so benchmarks that are not
+ * about the database do not measure it.
+ *
+ * @param <T> Entity type
+ * @author david.moore
+ */
+public abstract class InMemoryRepository<T> implements CrudRepository<T, Integer> {
+    protected final Map<Integer, T> entities = new ConcurrentHashMap<>();
+    private final ToIntFunction<T> idExtractor;
+
+    protected InMemoryRepository(ToIntFunction<T> idExtractor) {
+        this.idExtractor = idExtractor;
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        entities.put(idExtractor.applyAsInt(entity), entity);
+        return entity;
+    }
+
+    @Override
+    public <S extends T> Iterable<S> saveAll(Iterable<S> entities) {
+        entities.forEach(this::save);
+        return entities;
+    }
+
+    @Override
+    public Optional<T> findById(Integer id) {
+        return Optional.ofNullable(entities.get(id));
+    }
+
+    @Override
+    public boolean existsById(Integer id) {
+        return entities.containsKey(id);
+    }
+
+    @Override
+    public Iterable<T> findAll() {
+        return new ArrayList<>(entities.values());
+    }
+
+    @Override
+    public Iterable<T> findAllById(Iterable<Integer> ids) {
+        List<T> found = new ArrayList<>();
+        ids.forEach(id -> findById(id).ifPresent(found::add));
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return entities.size();
+    }
+
+    @Override
+    public void deleteById(Integer id) {
+        entities.remove(id);
+    }
+
+    @Override
+    public void delete(T entity) {
+        entities.remove(idExtractor.applyAsInt(entity));
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends T> entities) {
+        entities.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        entities.clear();
+    }
+}
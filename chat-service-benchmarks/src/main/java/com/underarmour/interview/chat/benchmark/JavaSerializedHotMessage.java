@@ -0,0 +1,52 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.benchmark;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * The hot message as it was cached before it became portable, Java serialized with a {@link LocalDateTime}
+ * expiration date. Baseline of the serialization benchmarks.
+ *
+ * @author david.moore
+ */
+public class JavaSerializedHotMessage implements Serializable {
+    private int id;
+    private String username;
+    private String text;
+    private LocalDateTime expirationDate;
+
+    public JavaSerializedHotMessage(int id, String username, String text, LocalDateTime expirationDate) {
+        this.id = id;
+        this.username = username;
+        this.text = text;
+        this.expirationDate = expirationDate;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public LocalDateTime getExpirationDate() {
+        return expirationDate;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.Predicates;
+import com.underarmour.interview.chat.benchmark.EmbeddedHazelcast;
+import com.underarmour.interview.chat.entity.HotMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two hot cache queries, the username query and the eviction tick's expiration date range, with and without
+ * the cache indexes, for growing cache sizes and numbers of matching messages. Without the indexes a query
+ * costs about the same for any number of matches and grows with the cache; with them it follows the number of
+ * matches and hardly depends on the cache size.
+ * <p>{@code matches} messages belong to the queried user and are expired, the others are unexpired messages of
+ * other users. The queries only read, every invocation sees the same cache.
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar CacheIndexBenchmark
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class CacheIndexBenchmark {
+    private static final int PUT_ALL_CHUNK = 10_000;
+    private static final int USERS = 1000;
+    private static final String USERNAME = "david";
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    @Param({"10", "1000"})
+    public int matches;
+
+    private HazelcastInstance instance;
+    private IMap<Integer, HotMessage> hotChatCache;
+    private Predicate usernamePredicate;
+    private Predicate expirationPredicate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The chat-service indexes, or none
+        Config config = EmbeddedHazelcast.chatConfig();
+        if (!indexed) {
+            config.getMapConfig("hotChatCache").getMapIndexConfigs().clear();
+        }
+        instance = EmbeddedHazelcast.newInstance(config);
+        hotChatCache = instance.getMap("hotChatCache");
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime farFuture = now.plusDays(1);
+        Map<Integer, HotMessage> chunk = new HashMap<>();
+        for (int id = 1; id <= entries; id++) {
+            HotMessage message = id <= matches
+                    ? new HotMessage(USERNAME, "An expired message", now.minusMinutes(1))
+                    : new HotMessage("user" + (id % USERS), "An unexpired message", farFuture);
+            message.setId(id);
+            chunk.put(id, message);
+            if (chunk.size() == PUT_ALL_CHUNK || id == entries) {
+                hotChatCache.putAll(chunk);
+                chunk.clear();
+            }
+        }
+
+        usernamePredicate = Predicates.equal("username", USERNAME);
+        expirationPredicate = Predicates.lessEqual("expirationDate", HotMessage.epochMillis(now));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        instance.getLifecycleService().terminate();
+    }
+
+    @Benchmark
+    public Set<Integer> usernameQuery() {
+        return hotChatCache.keySet(usernamePredicate);
+    }
+
+    @Benchmark
+    public Set<Integer> expirationQuery() {
+        return hotChatCache.localKeySet(expirationPredicate);
+    }
+}
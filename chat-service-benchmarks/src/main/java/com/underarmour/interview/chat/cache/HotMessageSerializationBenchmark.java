@@ -0,0 +1,155 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.nio.serialization.Data;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.Predicates;
+import com.hazelcast.spi.impl.SerializationServiceSupport;
+import com.hazelcast.spi.serialization.SerializationService;
+import com.underarmour.interview.chat.benchmark.EmbeddedHazelcast;
+import com.underarmour.interview.chat.benchmark.JavaSerializedHotMessage;
+import com.underarmour.interview.chat.entity.HotMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot cache entries Java serialized, as before, against portable {@link HotMessage}s: the eviction query and
+ * the username query over the whole cache, and serializing and deserializing a single message. Bytes per
+ * entry, serialized and as stored by the map, are printed once the cache is filled.
+ * <p>Queries evaluate the partitions in parallel, run with {@code -prof gc} or {@code -prof perfnorm} for the
+ * CPU spent rather than the elapsed time.
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar HotMessageSerializationBenchmark
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class HotMessageSerializationBenchmark {
+    private static final int PUT_ALL_CHUNK = 10_000;
+    private static final int USERS = 1000;
+
+    @Param({"JAVA", "PORTABLE"})
+    public Format format;
+
+    @Param({"1000000"})
+    public int entries;
+
+    private HazelcastInstance instance;
+    private IMap<Integer, Object> hotChatCache;
+    private SerializationService serializationService;
+    private Object message;
+    private Data serializedMessage;
+    private Predicate expirationPredicate;
+    private Predicate usernamePredicate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Without the cache indexes, the queries deserialize every entry, see CacheIndexBenchmark for the indexes
+        Config config = EmbeddedHazelcast.chatConfig();
+        config.getMapConfig("hotChatCache").getMapIndexConfigs().clear();
+        instance = EmbeddedHazelcast.newInstance(config);
+        hotChatCache = instance.getMap("hotChatCache");
+        serializationService = ((SerializationServiceSupport) instance).getSerializationService();
+
+        // Unexpired messages, the eviction query evaluates every entry and matches none
+        LocalDateTime expirationDate = LocalDateTime.now().plusDays(1);
+        Map<Integer, Object> chunk = new HashMap<>();
+        for (int id = 1; id <= entries; id++) {
+            chunk.put(id, message(id, expirationDate));
+            if (chunk.size() == PUT_ALL_CHUNK || id == entries) {
+                hotChatCache.putAll(chunk);
+                chunk.clear();
+            }
+        }
+
+        message = message(0, expirationDate);
+        serializedMessage = serializationService.toData(message);
+        LocalDateTime now = LocalDateTime.now();
+        expirationPredicate = format == Format.JAVA
+                ? Predicates.lessEqual("expirationDate", now)
+                : Predicates.lessEqual("expirationDate", HotMessage.epochMillis(now));
+        usernamePredicate = Predicates.equal("username", "user0");
+
+        System.out.printf("%n%s: %d serialized bytes per message, %d map bytes per entry%n", format,
+                serializedMessage.totalSize(), hotChatCache.getLocalMapStats().getOwnedEntryMemoryCost() / entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        instance.getLifecycleService().terminate();
+    }
+
+    @Benchmark
+    public Set<Integer> expirationQuery() {
+        return hotChatCache.localKeySet(expirationPredicate);
+    }
+
+    @Benchmark
+    public Set<Integer> usernameQuery() {
+        return hotChatCache.localKeySet(usernamePredicate);
+    }
+
+    @Benchmark
+    public Data serialize() {
+        return serializationService.toData(message);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializationService.toObject(serializedMessage);
+    }
+
+    private Object message(int id, LocalDateTime expirationDate) {
+        String username = "user" + (id % USERS);
+        String text = "A short-lived message";
+        if (format == Format.JAVA) {
+            return new JavaSerializedHotMessage(id, username, text, expirationDate);
+        }
+        HotMessage hotMessage = new HotMessage(username, text, expirationDate);
+        hotMessage.setId(id);
+        return hotMessage;
+    }
+
+    public enum Format {
+        JAVA,
+        PORTABLE
+    }
+}
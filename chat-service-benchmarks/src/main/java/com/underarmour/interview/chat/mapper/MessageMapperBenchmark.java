@@ -0,0 +1,136 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.mapper;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.view.IdView;
+import com.underarmour.interview.chat.view.LongView;
+import com.underarmour.interview.chat.view.TextView;
+import org.modelmapper.ModelMapper;
+import org.modelmapper.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per request conversion cost, the way the controller and the archival called ModelMapper before, against
+ * the {@link MessageMapper}. One benchmark per response: POST /chat, GET /chat/{id}, GET /chats/{username}
+ * with {@code messagesPerUser} messages, and the cold messages of an archived wave of {@code waveSize}.
+ * <p>Run with {@code -prof gc} for the bytes allocated per operation.
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar MessageMapperBenchmark -prof gc
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MessageMapperBenchmark {
+
+    @Param({"MODEL_MAPPER", "MESSAGE_MAPPER"})
+    public Mapper mapper;
+
+    @Param({"10"})
+    public int messagesPerUser;
+
+    @Param({"100"})
+    public int waveSize;
+
+    private ModelMapper modelMapper;
+    private MessageMapper messageMapper;
+    private HotMessage message;
+    private List<HotMessage> userMessages;
+    private List<HotMessage> wave;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        modelMapper = new ModelMapper();
+        messageMapper = new MessageMapper();
+        message = message(1);
+        userMessages = messages(messagesPerUser);
+        wave = messages(waveSize);
+    }
+
+    @Benchmark
+    public IdView postResponse() {
+        if (mapper == Mapper.MODEL_MAPPER) {
+            return modelMapper.map(message, IdView.class);
+        }
+        return messageMapper.toIdView(message);
+    }
+
+    @Benchmark
+    public LongView getResponse() {
+        if (mapper == Mapper.MODEL_MAPPER) {
+            return modelMapper.map(message, LongView.class);
+        }
+        return messageMapper.toLongView(message);
+    }
+
+    @Benchmark
+    public List<TextView> usernameResponse() {
+        if (mapper == Mapper.MODEL_MAPPER) {
+            java.lang.reflect.Type targetListType = new TypeToken<List<TextView>>() {}.getType();
+            return modelMapper.map(new ArrayList<>(userMessages), targetListType);
+        }
+        return messageMapper.toTextViews(userMessages);
+    }
+
+    @Benchmark
+    public List<ColdMessage> archivedWave() {
+        if (mapper == Mapper.MODEL_MAPPER) {
+            java.lang.reflect.Type targetListType = new TypeToken<List<ColdMessage>>() {}.getType();
+            return modelMapper.map(new ArrayList<>(wave), targetListType);
+        }
+        return messageMapper.toColdMessages(wave);
+    }
+
+    private static List<HotMessage> messages(int count) {
+        List<HotMessage> messages = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            messages.add(message(id));
+        }
+        return messages;
+    }
+
+    private static HotMessage message(int id) {
+        HotMessage message = new HotMessage("david", "A short-lived message", LocalDateTime.now().plusMinutes(1));
+        message.setId(id);
+        return message;
+    }
+
+    public enum Mapper {
+        MODEL_MAPPER,
+        MESSAGE_MAPPER
+    }
+}
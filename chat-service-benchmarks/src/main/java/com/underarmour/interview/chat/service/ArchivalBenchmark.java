@@ -0,0 +1,132 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.underarmour.interview.chat.benchmark.ChatServiceContext;
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.repository.ColdChatRepository;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to move one wave of expired messages from hot to cold storage. {@link ArchivalPath#ENTITY} is the
+ * Spring Data path archival used before, {@code deleteAll} then {@code saveAll}, a select and a statement per
+ * message. {@link ArchivalPath#BULK} is {@link ColdChatRepository#archive}, batched inserts and chunked deletes
+ * in one transaction.
+ * <p>The database defaults to an in-memory H2, which hides the round trips that make the entity path slow.
+ * Measure against a local MySQL with:
+ *
+ * <pre>
+ * java -Dspring.datasource.username=root -Dspring.datasource.password=password \
+ *     -jar chat-service-benchmarks/target/benchmarks.jar ArchivalBenchmark \
+ *     -p jdbcUrl=jdbc:mysql://localhost:3306/chatdb?rewriteBatchedStatements=true
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchivalBenchmark {
+
+    @Param({"ENTITY", "BULK"})
+    public ArchivalPath path;
+
+    @Param({"1000", "10000", "100000"})
+    public int messages;
+
+    @Param(ChatServiceContext.H2_URL)
+    public String jdbcUrl;
+
+    private ConfigurableApplicationContext context;
+    private HotChatRepository hotChatRepository;
+    private ColdChatRepository coldChatRepository;
+    private JdbcTemplate jdbcTemplate;
+    private final List<HotMessage> hotMessages = new ArrayList<>();
+    private final List<ColdMessage> coldMessages = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = ChatServiceContext.start(jdbcUrl);
+        hotChatRepository = context.getBean(HotChatRepository.class);
+        coldChatRepository = context.getBean(ColdChatRepository.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+        LocalDateTime expired = LocalDateTime.now().minusSeconds(1);
+        for (int id = 1; id <= messages; id++) {
+            HotMessage hotMessage = new HotMessage("user" + (id % 100), "An expired message", expired);
+            hotMessage.setId(id);
+            hotMessages.add(hotMessage);
+
+            ColdMessage coldMessage = new ColdMessage();
+            coldMessage.setId(id);
+            coldMessage.setUsername(hotMessage.getUsername());
+            coldMessage.setText(hotMessage.getText());
+            coldMessage.setExpirationDate(expired);
+            coldMessages.add(coldMessage);
+        }
+    }
+
+    /**
+     * Puts the wave back into hot storage and empties cold storage, outside the measured time.
+     */
+    @Setup(Level.Invocation)
+    public void expiryWave() {
+        jdbcTemplate.update("delete from cold_message");
+        jdbcTemplate.update("delete from hot_message");
+        hotChatRepository.insertAll(hotMessages);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void archive() {
+        if (path == ArchivalPath.ENTITY) {
+            hotChatRepository.deleteAll(hotMessages);
+            coldChatRepository.saveAll(coldMessages);
+        } else {
+            coldChatRepository.archive(coldMessages, true);
+        }
+    }
+
+    public enum ArchivalPath {
+        ENTITY,
+        BULK
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.underarmour.interview.chat.benchmark.EmbeddedHazelcast;
+import com.underarmour.interview.chat.benchmark.InMemoryColdStore;
+import com.underarmour.interview.chat.benchmark.InMemoryHotChatRepository;
+import com.underarmour.interview.chat.cache.HotChatNearCache;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
+import com.underarmour.interview.chat.cache.HotChatUserIndex.UsernameLookup;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.service.MessageFacilitator.EvictionMode;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import com.underarmour.interview.chat.storage.HotStore;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one eviction tick with a large number of resident, unexpired messages and a small wave of
+ * expiring ones, for both {@link EvictionMode}s.
+ * <p>POLLING measures {@link MessageFacilitator#evictionTick()}, the predicate query over the whole
+ * cache plus archival. LISTENER measures {@link MessageFacilitator#expirationDrainTick()} plus archival, the
+ * wave has already been expired by hazelcast before the invocation starts. The archival pipeline is not
+ * started, each invocation archives the wave it submitted with {@link ArchivalPipeline#archivePending()}.
+ * Hazelcast's own expiration sweep runs on the partition threads outside the measured method, run with
+ * {@code -prof gc} or {@code -prof stack} to compare the whole process cost.
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar EvictionModeBenchmark
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class EvictionModeBenchmark {
+    private static final int PUT_ALL_CHUNK = 10_000;
+
+    @Param({"POLLING", "LISTENER"})
+    public EvictionMode mode;
+
+    @Param({"10000", "100000", "1000000"})
+    public int residentMessages;
+
+    @Param({"100"})
+    public int expiringMessages;
+
+    private HazelcastInstance instance;
+    private IMap<Integer, HotMessage> hotChatCache;
+    private InMemoryColdStore coldStore;
+    private MessageFacilitator messageFacilitator;
+    private ArchivalPipeline archivalPipeline;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        instance = EmbeddedHazelcast.newInstance();
+        hotChatCache = instance.getMap("hotChatCache");
+        HotStore hotStore = new HazelcastHotStore(instance);
+        coldStore = new InMemoryColdStore();
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry(), instance);
+        // Not started, the measured tick archives the wave on the benchmark thread
+        InMemoryHotChatRepository hotChatRepository = new InMemoryHotChatRepository();
+        HotMessageMapStore hotMessageMapStore = new HotMessageMapStore(hotChatRepository, HotStorageWrite.THROUGH);
+        archivalPipeline = new ArchivalPipeline(coldStore, new MessageMapper(),
+                hotMessageMapStore, chatMetrics, new MessageFilter(instance, hotChatRepository, coldStore,
+                hotStore, hotMessageMapStore, chatMetrics, false, 1, 1, 0.01), new HotChatNearCache(instance, false),
+                100_000, 5000, 100, 100, 100, 1);
+        messageFacilitator = new MessageFacilitator(coldStore, hotStore,
+                new HotChatUserIndex(instance, UsernameLookup.QUERY, HotStorage.HAZELCAST), archivalPipeline,
+                chatMetrics, mode);
+
+        // Resident messages that stay unexpired for the whole run
+        LocalDateTime farFuture = LocalDateTime.now().plusDays(1);
+        Map<Integer, HotMessage> chunk = new HashMap<>();
+        for (int i = 0; i < residentMessages; i++) {
+            HotMessage message = message(farFuture);
+            chunk.put(message.getId(), message);
+            if (chunk.size() == PUT_ALL_CHUNK || i == residentMessages - 1) {
+                hotChatCache.putAll(chunk);
+                chunk.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds the wave of expiring messages. In listener mode the wave is put with a short TTL and the
+     * invocation only starts once hazelcast expired all of it.
+     */
+    @Setup(Level.Invocation)
+    public void addExpiringWave() throws InterruptedException {
+        long archived = coldStore.count();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < expiringMessages; i++) {
+            HotMessage message = message(now);
+            if (mode == EvictionMode.LISTENER) {
+                hotChatCache.put(message.getId(), message, 1, TimeUnit.MILLISECONDS);
+            } else {
+                hotChatCache.put(message.getId(), message);
+            }
+        }
+
+        if (mode == EvictionMode.LISTENER) {
+            // Expired entries are handed to the facilitator queue, wait until the whole wave is there
+            while (messageFacilitator.pendingExpiredMessages() < expiringMessages) {
+                Thread.sleep(10);
+            }
+        }
+        if (coldStore.count() != archived) {
+            throw new IllegalStateException("Wave archived outside of the measured tick");
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        if (mode == EvictionMode.LISTENER) {
+            messageFacilitator.expirationDrainTick();
+        } else {
+            messageFacilitator.evictionTick();
+        }
+        return archivalPipeline.archivePending();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        instance.shutdown();
+    }
+
+    private HotMessage message(LocalDateTime expirationDate) {
+        HotMessage message = new HotMessage("user" + (nextId % 1000), "benchmark message", expirationDate);
+        message.setId(++nextId);
+        return message;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.underarmour.interview.chat.benchmark.ChatServiceContext;
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.model.TimedMessage;
+import com.underarmour.interview.chat.storage.ColdStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link ChatService#getMessage(int)}, the GET /chat/{id} path, for each tier the message can be
+ * found in: the cache, the hot storage after the message left the cache, and the cold storage, and for an id no
+ * message has. With {@code filter} the id of the missing message is ruled out by the {@link MessageFilter}
+ * after the cache miss, without it both storages are queried.
+ * <p>A hot storage hit puts the message back into the cache, so for {@link Tier#HOT_STORAGE} the message is
+ * evicted from the cache again before every invocation, outside the measured time.
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar GetMessageBenchmark
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GetMessageBenchmark {
+
+    @Param({"CACHE", "HOT_STORAGE", "COLD_STORAGE", "MISSING"})
+    public Tier tier;
+
+    @Param({"true", "false"})
+    public boolean filter;
+
+    @Param(ChatServiceContext.H2_URL)
+    public String jdbcUrl;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private IMap<Integer, HotMessage> hotChatCache;
+    private int id;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        context = ChatServiceContext.start(jdbcUrl, "chat.filter.enabled=" + filter);
+        chatService = context.getBean(ChatService.class);
+        hotChatCache = context.getBean(HazelcastInstance.class).getMap("hotChatCache");
+        MessageFilter messageFilter = context.getBean(MessageFilter.class);
+        if (!messageFilter.awaitReady(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Message filter not loaded");
+        }
+
+        if (tier == Tier.MISSING) {
+            // Never handed out by the generator
+            id = Integer.MAX_VALUE - 1;
+        } else if (tier == Tier.COLD_STORAGE) {
+            // Only in cold storage, the way an archived message is
+            id = Integer.MAX_VALUE;
+            ColdMessage coldMessage = new ColdMessage();
+            coldMessage.setId(id);
+            coldMessage.setUsername("david");
+            coldMessage.setText("An archived message");
+            coldMessage.setExpirationDate(LocalDateTime.now().minusMinutes(1));
+            context.getBean(ColdStore.class).archive(Collections.singletonList(coldMessage), false);
+            // Archived behind the back of the service, the filters were loaded before
+            messageFilter.added(Collections.singletonList(context.getBean(MessageMapper.class)
+                    .toHotMessage(coldMessage)));
+        } else {
+            TimedMessage timedMessage = new TimedMessage();
+            timedMessage.setUsername("david");
+            timedMessage.setText("A long-lived message");
+            timedMessage.setTimeout(3600);
+            id = chatService.saveMessage(timedMessage).getId();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void evict() {
+        if (tier == Tier.HOT_STORAGE) {
+            hotChatCache.evict(id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public HotMessage getMessage() {
+        return chatService.getMessage(id);
+    }
+
+    public enum Tier {
+        CACHE,
+        HOT_STORAGE,
+        COLD_STORAGE,
+        MISSING
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.underarmour.interview.chat.benchmark.ChatServiceContext;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.model.TimedMessage;
+import com.underarmour.interview.chat.service.MessageFacilitator.EvictionMode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link ChatService#saveMessages(List)}, the POST /chat/batch path, in messages per second
+ * (the {@code messages} counter) for comparison with {@link SaveMessageBenchmark}. Listener eviction mode
+ * caches the messages with per entry TTLs, which {@code putAll} can not do.
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class SaveMessageBatchBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int batchSize;
+
+    @Param({"THROUGH", "BEHIND"})
+    public HotStorageWrite write;
+
+    @Param({"POLLING", "LISTENER"})
+    public EvictionMode evictionMode;
+
+    @Param(ChatServiceContext.H2_URL)
+    public String jdbcUrl;
+
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private final List<TimedMessage> timedMessages = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = ChatServiceContext.start(jdbcUrl, "chat.hot-storage.write=" + write,
+                "chat.eviction.mode=" + evictionMode);
+        chatService = context.getBean(ChatService.class);
+        for (int i = 0; i < batchSize; i++) {
+            TimedMessage timedMessage = new TimedMessage();
+            timedMessage.setUsername("david" + i % 10);
+            timedMessage.setText("A short-lived message");
+            timedMessage.setTimeout(3600);
+            timedMessages.add(timedMessage);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int saveMessages(MessageCounter counter) {
+        counter.messages += batchSize;
+        return chatService.saveMessages(timedMessages).size();
+    }
+
+    /**
+     * Messages saved, reported per second next to the batches per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class MessageCounter {
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+        }
+    }
+}
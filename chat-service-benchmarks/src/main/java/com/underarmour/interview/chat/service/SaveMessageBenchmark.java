@@ -0,0 +1,102 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.underarmour.interview.chat.benchmark.ChatServiceContext;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.model.TimedMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of {@link ChatService#saveMessage(TimedMessage)}, the POST /chat path, with the message inserted
+ * into the hot storage by the request ({@link HotStorageWrite#THROUGH}), written behind by the cache
+ * ({@link HotStorageWrite#BEHIND}) or appended to the write-ahead log ({@link HotStorageWrite#LOG}). The
+ * write-behind flushes run on hazelcast threads outside the measured method. Log appends are group committed,
+ * their throughput grows with the number of concurrent requests, try {@code -t 64}. The messages time out long
+ * after the run, so eviction stays out of the measurement.
+ * <p>The database defaults to an in-memory H2, which flatters write-through. Point {@code jdbcUrl} at MySQL
+ * for numbers that include the network round trip:
+ *
+ * <pre>
+ * java -Dspring.datasource.username=root -Dspring.datasource.password=password \
+ *     -jar chat-service-benchmarks/target/benchmarks.jar SaveMessageBenchmark \
+ *     -p jdbcUrl=jdbc:mysql://localhost:3306/chatdb
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class SaveMessageBenchmark {
+
+    @Param({"THROUGH", "BEHIND", "LOG"})
+    public HotStorageWrite write;
+
+    @Param(ChatServiceContext.H2_URL)
+    public String jdbcUrl;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private ChatService chatService;
+    private final TimedMessage timedMessage = new TimedMessage();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hot-log");
+        context = ChatServiceContext.start(jdbcUrl, "chat.hot-storage.write=" + write,
+                "chat.hot-log.directory=" + directory);
+        chatService = context.getBean(ChatService.class);
+        timedMessage.setUsername("david");
+        timedMessage.setText("A short-lived message");
+        timedMessage.setTimeout(3600);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int saveMessage() {
+        return chatService.saveMessage(timedMessage).getId();
+    }
+}
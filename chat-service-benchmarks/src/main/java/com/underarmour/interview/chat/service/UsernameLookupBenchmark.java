@@ -0,0 +1,172 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.MultiMap;
+import com.underarmour.interview.chat.benchmark.EmbeddedHazelcast;
+import com.underarmour.interview.chat.benchmark.InMemoryColdStore;
+import com.underarmour.interview.chat.benchmark.InMemoryHotChatRepository;
+import com.underarmour.interview.chat.benchmark.InMemoryMessageIdCounterRepository;
+import com.underarmour.interview.chat.cache.HotChatNearCache;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
+import com.underarmour.interview.chat.cache.HotChatUserIndex.UsernameLookup;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.id.BlockMessageIdGenerator;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.model.TimedMessage;
+import com.underarmour.interview.chat.service.MessageFacilitator.EvictionMode;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import com.underarmour.interview.chat.storage.HotMessageLog;
+import com.underarmour.interview.chat.storage.HotStore;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * {@link ChatService#getMessageByUsername(String)} on a 3 member embedded cluster, with the predicate query
+ * fanning out to every partition versus the username index colocating the lookup on one partition owner.
+ * Every invocation reads and expires the {@link #userMessages} freshly written messages of one user, the
+ * other {@link #totalMessages} stay resident. Archival is left out, it is the same for both lookups.
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar UsernameLookupBenchmark
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class UsernameLookupBenchmark {
+    private static final String READER = "reader";
+    private static final int MEMBERS = 3;
+    private static final int USERS = 100_000;
+    private static final int PUT_ALL_CHUNK = 10_000;
+
+    @Param({"QUERY", "INDEX"})
+    public UsernameLookup lookup;
+
+    @Param({"100000", "1000000"})
+    public int totalMessages;
+
+    @Param({"10"})
+    public int userMessages;
+
+    private List<HazelcastInstance> members;
+    private ChatService chatService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        members = EmbeddedHazelcast.newCluster(MEMBERS);
+        HazelcastInstance instance = members.get(0);
+        InMemoryHotChatRepository hotChatRepository = new InMemoryHotChatRepository();
+        InMemoryColdStore coldStore = new InMemoryColdStore();
+        HotStore hotStore = new HazelcastHotStore(instance);
+        HotChatUserIndex hotChatUserIndex = new HotChatUserIndex(instance, lookup, HotStorage.HAZELCAST);
+        HotMessageMapStore hotMessageMapStore = new HotMessageMapStore(hotChatRepository, HotStorageWrite.THROUGH);
+        MessageMapper messageMapper = new MessageMapper();
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry(), instance);
+        // Disabled, the users read always have cached messages
+        MessageFilter messageFilter = new MessageFilter(instance, hotChatRepository, coldStore, hotStore,
+                hotMessageMapStore, chatMetrics, false, 1, 1, 0.01);
+        ArchivalPipeline archivalPipeline = new ArchivalPipeline(coldStore, messageMapper,
+                hotMessageMapStore, chatMetrics, messageFilter, new HotChatNearCache(instance, false), 100_000, 5000,
+                100, 100, 100, 1);
+        MessageFacilitator messageFacilitator = new MessageFacilitator(coldStore, hotStore,
+                hotChatUserIndex, archivalPipeline, chatMetrics, EvictionMode.POLLING) {
+            @Override
+            public void moveHotCacheToColdStorage(Collection<HotMessage> hotMessages) {
+                // Not measured
+            }
+        };
+        chatService = new ChatService(hotChatRepository, coldStore, messageMapper, hotStore,
+                messageFacilitator, hotChatUserIndex,
+                new BlockMessageIdGenerator(instance, hotChatRepository, coldStore,
+                        new InMemoryMessageIdCounterRepository(), 1000),
+                hotMessageMapStore, chatMetrics, messageFilter,
+                new HotMessageLog(hotStore, coldStore, chatMetrics, HotStorageWrite.THROUGH, "hot-log", 0, 0));
+
+        // Resident messages of other users, ids far above the ones handed out by the generator
+        IMap<Integer, HotMessage> hotChatCache = instance.getMap("hotChatCache");
+        LocalDateTime farFuture = LocalDateTime.now().plusDays(1);
+        Map<Integer, HotMessage> chunk = new HashMap<>();
+        for (int i = 0; i < totalMessages; i++) {
+            HotMessage message = new HotMessage("user" + (i % USERS), "resident message", farFuture);
+            message.setId(Integer.MAX_VALUE - i);
+            chunk.put(message.getId(), message);
+            if (chunk.size() == PUT_ALL_CHUNK || i == totalMessages - 1) {
+                hotChatCache.putAll(chunk);
+                chunk.clear();
+            }
+        }
+        if (lookup == UsernameLookup.INDEX) {
+            MultiMap<String, Integer> index = instance.getMultiMap("hotChatUserIndex");
+            IntStream.range(0, totalMessages).parallel()
+                    .forEach(i -> index.put("user" + (i % USERS), Integer.MAX_VALUE - i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void writeUserMessages() {
+        for (int i = 0; i < userMessages; i++) {
+            TimedMessage timedMessage = new TimedMessage();
+            timedMessage.setUsername(READER);
+            timedMessage.setText("message to read");
+            timedMessage.setTimeout(3600);
+            chatService.saveMessage(timedMessage);
+        }
+    }
+
+    @Benchmark
+    public Collection<HotMessage> readAndExpire() {
+        Collection<HotMessage> messages = chatService.getMessageByUsername(READER);
+        if (messages.size() != userMessages) {
+            throw new IllegalStateException("Expected " + userMessages + " messages, got " + messages.size());
+        }
+        return messages;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        members.forEach(m -> m.getLifecycleService().terminate());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.benchmark.ChatServiceContext;
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.storage.ColdStore.ColdStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cold storage backends: latency of a read by id of a random archived message, and of archiving a batch of
+ * {@link #BATCH} messages, for the cold_message table and the segment files, by number of archived messages.
+ * <p>The database defaults to an in-memory H2, which flatters the table: with MySQL every read is a round trip
+ * and a B-tree lookup, and every archival a transaction. Measure against a local MySQL with:
+ *
+ * <pre>
+ * java -Dspring.datasource.username=root -Dspring.datasource.password=password \
+ *     -jar chat-service-benchmarks/target/benchmarks.jar ColdStoreBenchmark \
+ *     -p jdbcUrl=jdbc:mysql://localhost:3306/chatdb?rewriteBatchedStatements=true
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ColdStoreBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"JPA", "SEGMENT"})
+    public ColdStorage coldStorage;
+
+    @Param({"100000", "1000000"})
+    public int messages;
+
+    @Param(ChatServiceContext.H2_URL)
+    public String jdbcUrl;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private ColdStore coldStore;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cold-segments");
+        context = ChatServiceContext.start(jdbcUrl, "chat.cold-storage.type=" + coldStorage,
+                "chat.cold-storage.segment.directory=" + directory);
+        coldStore = context.getBean(ColdStore.class);
+        // In archival pipeline sized batches
+        for (nextId = 1; nextId <= messages; ) {
+            coldStore.archive(batch(5000), false);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Optional<ColdMessage> findById() {
+        return coldStore.findById(ThreadLocalRandom.current().nextInt(messages) + 1);
+    }
+
+    @Benchmark
+    public void archive() {
+        coldStore.archive(batch(BATCH), false);
+    }
+
+    private List<ColdMessage> batch(int size) {
+        LocalDateTime expired = LocalDateTime.now().minusSeconds(1);
+        List<ColdMessage> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++, nextId++) {
+            ColdMessage message = new ColdMessage();
+            message.setId(nextId);
+            message.setUsername("user" + nextId % 1000);
+            message.setText("An archived message " + nextId);
+            message.setExpirationDate(expired);
+            batch.add(message);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Chat Service Benchmarks
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.underarmour.interview.chat.benchmark.EmbeddedHazelcast;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot stores holding a large number of unexpired messages: latency of a read by id of a random message, of
+ * replacing the oldest message by a new one, and of a full garbage collection with the messages resident, for the
+ * hotChatCache IMap and the off-heap store.
+ * <p>The messages of the IMap are heap objects the collector traces and copies, those of the off-heap store are
+ * not, the full GC only sees its slabs and id index. Run with {@code -prof gc} for the allocation rate and the
+ * young collections of the measured reads, the 10,000,000 messages run of the IMap needs a larger heap:
+ *
+ * <pre>
+ * java -jar chat-service-benchmarks/target/benchmarks.jar HotStoreBenchmark -prof gc
+ * </pre>
+ *
+ * @author david.moore
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class HotStoreBenchmark {
+    private static final int PUT_ALL_CHUNK = 10_000;
+
+    @Param({"HAZELCAST", "OFF_HEAP"})
+    public HotStorage store;
+
+    @Param({"1000000", "10000000"})
+    public int messages;
+
+    private HazelcastInstance instance;
+    private HotStore hotStore;
+    private LocalDateTime expirationDate;
+    private int oldestId;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (store == HotStorage.OFF_HEAP) {
+            hotStore = new OffHeapHotStore(64 * 1024 * 1024, messages);
+        } else {
+            instance = EmbeddedHazelcast.newInstance();
+            hotStore = new HazelcastHotStore(instance);
+        }
+        expirationDate = LocalDateTime.now().plusDays(1);
+        oldestId = 1;
+        for (nextId = 1; nextId <= messages; ) {
+            List<HotMessage> chunk = new ArrayList<>(PUT_ALL_CHUNK);
+            for (int i = 0; i < PUT_ALL_CHUNK && nextId <= messages; i++) {
+                chunk.add(message(nextId++));
+            }
+            hotStore.putAll(chunk, message -> -1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (instance != null) {
+            instance.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public HotMessage get() {
+        return hotStore.get(oldestId + ThreadLocalRandom.current().nextInt(messages));
+    }
+
+    /**
+     * The number of resident messages stays the same: the oldest one leaves, as on a username read or its
+     * expiration, and a new one is saved.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<HotMessage> churn() {
+        List<HotMessage> removed = hotStore.removeAll(Collections.singleton(oldestId++));
+        hotStore.put(message(nextId++), -1, false);
+        return removed;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void fullGc() {
+        System.gc();
+    }
+
+    private HotMessage message(int id) {
+        HotMessage message = new HotMessage("user" + id % 10_000, "A resident message " + id, expirationDate);
+        message.setId(id);
+        return message;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Chat Service Client Library
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.view;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.io.Serializable;
+
+/**
+ * View for the REST call response of a batch, one per message in request order. Holds either the ID of the
+ * persisted message or the reason it was rejected.
+ *
+ * @author david.moore
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemView implements Serializable {
+    private Integer id;
+    private String error;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemView{" +
+                "id=" + id +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Minimal client of the chat-service API through the edge service. Connections are kept alive by the JDK,
+ * every response body is read to the end so its connection can be reused.
+ *
+ * @author david.moore
+ */
+public class ChatClient {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String chatServiceUrl;
+    private final int timeoutMillis;
+
+    /**
+     * @param edgeUrl Base URL of the edge service, e.g. {@code http://localhost:8080}
+     * @param timeout Connect and read timeout of each request
+     */
+    public ChatClient(String edgeUrl, Duration timeout) {
+        this.chatServiceUrl = edgeUrl + "/chat-service";
+        this.timeoutMillis = (int) timeout.toMillis();
+    }
+
+    /**
+     * POST /chat
+     *
+     * @return Response, the body holds the id of the message when created
+     */
+    public Response post(String username, String text, int timeout) throws IOException {
+        ObjectNode message = objectMapper.createObjectNode()
+                .put("username", username)
+                .put("text", text)
+                .put("timeout", timeout);
+        return send("POST", "/chat", objectMapper.writeValueAsBytes(message));
+    }
+
+    /**
+     * GET /chat/{id}
+     */
+    public Response get(int id) throws IOException {
+        return send("GET", "/chat/" + id, null);
+    }
+
+    /**
+     * GET /chats/{username}
+     */
+    public Response username(String username) throws IOException {
+        return send("GET", "/chats/" + URLEncoder.encode(username, "UTF-8"), null);
+    }
+
+    private Response send(String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(chatServiceUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestProperty("Accept", "application/json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+            }
+        }
+        return new Response(status, content.toByteArray());
+    }
+
+    /**
+     * Status and body of a response.
+     */
+    public class Response {
+        private final int status;
+        private final byte[] body;
+
+        private Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Id of the created message of a POST /chat response
+         */
+        public int getId() throws IOException {
+            JsonNode id = objectMapper.readTree(body).get("id");
+            if (id == null) {
+                throw new IOException("No id in response " + new String(body, StandardCharsets.UTF_8));
+            }
+            return id.asInt();
+        }
+    }
+}
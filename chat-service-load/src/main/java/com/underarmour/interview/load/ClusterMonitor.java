@@ -0,0 +1,311 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples what the latencies do not show, once per report interval:
+ * <ul>
+ * <li>Overdue rows: hot_message rows past their expiration date, and how long ago the oldest one expired.
+ * Only THROUGH hot storage writes keep the table in step with the cache: BEHIND rows lag behind it, and LOG
+ * never writes one.</li>
+ * <li>Heap, garbage collection and live threads of the edge and of every chat-service, over JMX. The threads
+ * of the edge grow with the requests in flight when it holds one per request.</li>
+ * <li>Archival backlog of every chat-service, over the same JMX connection: the {@code chat.archive.queue}
+ * gauge and the recent maximum of the {@code chat.eviction.lag} timer, read from the metrics endpoint. They
+ * hold whatever the hot storage write mode. A growing lag means archival falls behind the load.</li>
+ * </ul>
+ * Either source may be unavailable, e.g. while a chat-service restarts, its sample is then left out.
+ *
+ * @author david.moore
+ */
+public class ClusterMonitor implements AutoCloseable {
+    private static Logger log = LoggerFactory.getLogger(ClusterMonitor.class);
+    private static final String OVERDUE_QUERY =
+            "select count(*), min(expiration_date) from hot_message where expiration_date < ?";
+    private static final String METRICS_ENDPOINT = "org.springframework.boot:type=Endpoint,name=Metrics,*";
+
+    private final LoadConfig config;
+    private final Map<String, Integer> jmxPorts;
+    private final Map<Integer, JMXConnector> connectors = new HashMap<>();
+    private final Map<Integer, long[]> lastGc = new HashMap<>();
+    private Connection connection;
+
+    /**
+     * @param config   Database of the run, if any
+     * @param jmxPorts JMX ports of the JVMs to sample, by name, may be empty
+     */
+    public ClusterMonitor(LoadConfig config, Map<String, Integer> jmxPorts) {
+        this.config = config;
+        this.jmxPorts = jmxPorts;
+    }
+
+    /**
+     * @return Overdue hot storage rows and the lag of the oldest one, null when there is no database. Only
+     * meaningful with THROUGH hot storage writes, see {@link JvmSample#getEvictionLag()} otherwise
+     */
+    public ArchivalLag archivalLag() {
+        if (config.getJdbcUrl() == null) {
+            return null;
+        }
+        try {
+            if (connection == null) {
+                connection = DriverManager.getConnection(config.getJdbcUrl(), config.getJdbcUsername(),
+                        config.getJdbcPassword());
+            }
+            LocalDateTime now = LocalDateTime.now();
+            try (PreparedStatement statement = connection.prepareStatement(OVERDUE_QUERY)) {
+                statement.setTimestamp(1, Timestamp.valueOf(now));
+                try (ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    Timestamp oldest = result.getTimestamp(2);
+                    return new ArchivalLag(result.getLong(1),
+                            oldest == null ? Duration.ZERO : Duration.between(oldest.toLocalDateTime(), now));
+                }
+            }
+        } catch (SQLException e) {
+            log.debug("Archival lag not available", e);
+            closeConnection();
+            return null;
+        }
+    }
+
+    /**
+     * @return Heap, garbage collection since the last sample and threads of each JVM that answered
+     */
+    public List<JvmSample> jvms() {
+        List<JvmSample> samples = new ArrayList<>();
+        for (Map.Entry<String, Integer> jvm : jmxPorts.entrySet()) {
+            int port = jvm.getValue();
+            try {
+                samples.add(sample(jvm.getKey(), port));
+            } catch (IOException | JMException | RuntimeException e) {
+                log.debug("JMX of port {} not available", port, e);
+                closeConnector(port);
+            }
+        }
+        return samples;
+    }
+
+    private JvmSample sample(String name, int port) throws IOException, JMException {
+        JMXConnector connector = connectors.get(port);
+        if (connector == null) {
+            connector = JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + port + "/jmxrmi"));
+            connectors.put(port, connector);
+        }
+        MBeanServerConnection server = connector.getMBeanServerConnection();
+
+        MemoryUsage heap = ManagementFactory.newPlatformMXBeanProxy(server,
+                ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class).getHeapMemoryUsage();
+
+        long collections = 0;
+        long collectionMillis = 0;
+        for (ObjectName gcName : server.queryNames(
+                ObjectName.getInstance(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*"), null)) {
+            GarbageCollectorMXBean gc = ManagementFactory.newPlatformMXBeanProxy(server, gcName.toString(),
+                    GarbageCollectorMXBean.class);
+            collections += gc.getCollectionCount();
+            collectionMillis += gc.getCollectionTime();
+        }
+        long[] last = lastGc.getOrDefault(port, new long[]{collections, collectionMillis});
+        lastGc.put(port, new long[]{collections, collectionMillis});
+
+        int threads = ManagementFactory.newPlatformMXBeanProxy(server, ManagementFactory.THREAD_MXBEAN_NAME,
+                ThreadMXBean.class).getThreadCount();
+
+        Double archiveQueue = metric(server, "chat.archive.queue", "VALUE");
+        Double evictionLagSeconds = metric(server, "chat.eviction.lag", "MAX");
+        return new JvmSample(name, heap.getUsed(), heap.getMax(), collections - last[0], collectionMillis - last[1],
+                threads, archiveQueue == null ? null : archiveQueue.longValue(),
+                evictionLagSeconds == null ? null : Duration.ofNanos((long) (evictionLagSeconds * 1e9)));
+    }
+
+    /**
+     * Reads one statistic of a meter from the metrics endpoint of a Spring Boot JVM.
+     *
+     * @return The statistic, null when the JVM has no metrics endpoint or no such meter, e.g. the edge
+     */
+    @SuppressWarnings("unchecked")
+    private static Double metric(MBeanServerConnection server, String meter, String statistic)
+            throws IOException, MalformedObjectNameException {
+        for (ObjectName endpoint : server.queryNames(ObjectName.getInstance(METRICS_ENDPOINT), null)) {
+            Object response;
+            try {
+                response = server.invoke(endpoint, "metric", new Object[]{meter, null},
+                        new String[]{String.class.getName(), List.class.getName()});
+            } catch (JMException e) {
+                log.debug("Meter {} not available", meter, e);
+                return null;
+            }
+            if (!(response instanceof Map)) {
+                return null;
+            }
+            for (Map<String, Object> measurement
+                    : (List<Map<String, Object>>) ((Map<String, Object>) response).get("measurements")) {
+                if (statistic.equals(measurement.get("statistic"))) {
+                    return ((Number) measurement.get("value")).doubleValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        closeConnection();
+        for (Integer port : new ArrayList<>(connectors.keySet())) {
+            closeConnector(port);
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Closing the database connection failed", e);
+            }
+            connection = null;
+        }
+    }
+
+    private void closeConnector(int port) {
+        JMXConnector connector = connectors.remove(port);
+        if (connector != null) {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                log.debug("Closing the JMX connection of port {} failed", port, e);
+            }
+        }
+    }
+
+    /**
+     * Hot storage rows past their expiration date.
+     */
+    public static class ArchivalLag {
+        private final long overdueMessages;
+        private final Duration lag;
+
+        ArchivalLag(long overdueMessages, Duration lag) {
+            this.overdueMessages = overdueMessages;
+            this.lag = lag;
+        }
+
+        public long getOverdueMessages() {
+            return overdueMessages;
+        }
+
+        /**
+         * @return Time since the oldest overdue message expired
+         */
+        public Duration getLag() {
+            return lag;
+        }
+    }
+
+    /**
+     * Heap in use, garbage collections since the previous sample and live threads of one JVM, and the archival
+     * backlog of a chat-service.
+     */
+    public static class JvmSample {
+        private final String name;
+        private final long heapUsed;
+        private final long heapMax;
+        private final long collections;
+        private final long collectionMillis;
+        private final int threads;
+        private final Long archiveQueue;
+        private final Duration evictionLag;
+
+        JvmSample(String name, long heapUsed, long heapMax, long collections, long collectionMillis, int threads,
+                  Long archiveQueue, Duration evictionLag) {
+            this.name = name;
+            this.heapUsed = heapUsed;
+            this.heapMax = heapMax;
+            this.collections = collections;
+            this.collectionMillis = collectionMillis;
+            this.threads = threads;
+            this.archiveQueue = archiveQueue;
+            this.evictionLag = evictionLag;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHeapUsed() {
+            return heapUsed;
+        }
+
+        public long getHeapMax() {
+            return heapMax;
+        }
+
+        public long getCollections() {
+            return collections;
+        }
+
+        public long getCollectionMillis() {
+            return collectionMillis;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return Messages waiting in the archival pipeline, null when not a chat-service
+         */
+        public Long getArchiveQueue() {
+            return archiveQueue;
+        }
+
+        /**
+         * @return Largest recent time from the expiration date of a message to its archival, null when not a
+         * chat-service
+         */
+        public Duration getEvictionLag() {
+            return evictionLag;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options of a load run, parsed from {@code --name=value} arguments. Every option has a default, so a plain
+ * {@code java -jar load.jar} starts a local cluster of two chat-services and runs ten minutes of load.
+ *
+ * @author david.moore
+ */
+public class LoadConfig {
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * @param args Command line arguments, {@code --name=value}
+     */
+    public LoadConfig(String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got '" + arg + "'");
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+    }
+
+    /**
+     * @return Gateway the load is sent to. When set no local cluster is started.
+     */
+    public String getEdgeUrl() {
+        return options.get("edge-url");
+    }
+
+    /**
+     * @return Root of the reactor, the service jars are found in its module target directories
+     */
+    public Path getProjectDir() {
+        return Paths.get(string("project-dir", "."));
+    }
+
+    /**
+     * @return Directory of the output of the started services
+     */
+    public Path getLogDir() {
+        return Paths.get(string("log-dir", "target/load-logs"));
+    }
+
+    public int getChatServices() {
+        return integer("chat-services", 2);
+    }
+
+    /**
+     * @return Port of the first chat-service, the others use the following ports
+     */
+    public int getChatServicePort() {
+        return integer("chat-service-port", 9000);
+    }
+
+    /**
+     * @return Module of the edge a local cluster starts: {@code edge-service}, Zuul with a thread per request in
+     * flight, or {@code edge-gateway}, non-blocking
+     */
+    public String getEdge() {
+        return string("edge", "edge-service");
+    }
+
+    public int getEdgePort() {
+        return integer("edge-port", 8080);
+    }
+
+    public int getRegistryPort() {
+        return integer("registry-port", 8761);
+    }
+
+    public int getDatabasePort() {
+        return integer("database-port", 9092);
+    }
+
+    /**
+     * @return JMX port of the first chat-service, the others use the following ports
+     */
+    public int getJmxPort() {
+        return integer("jmx-port", 9990);
+    }
+
+    /**
+     * @return JMX port of the edge of a local cluster
+     */
+    public int getEdgeJmxPort() {
+        return integer("edge-jmx-port", 9989);
+    }
+
+    /**
+     * @return When above 0, a local cluster starts {@link SlowChatService} stand-ins answering after this many
+     * milliseconds instead of the chat-services, and no database
+     */
+    public int getSlowChatServiceMillis() {
+        return integer("slow-chat-service-ms", 0);
+    }
+
+    /**
+     * @return When above 0, the first {@link SlowChatService} stand-in answers after this many milliseconds
+     * instead, e.g. one degraded instance among healthy ones
+     */
+    public int getDegradedChatServiceMillis() {
+        return integer("degraded-chat-service-ms", 0);
+    }
+
+    /**
+     * @return Maximum heap of each chat-service, {@code -Xmx}
+     */
+    public String getChatServiceHeap() {
+        return string("chat-service-heap", "512m");
+    }
+
+    /**
+     * @return Additional chat-service arguments, space separated, e.g. {@code --chat.eviction.mode=LISTENER}
+     */
+    public String getChatServiceArgs() {
+        return string("chat-service-args", "");
+    }
+
+    /**
+     * @return Additional edge arguments, space separated, e.g.
+     * {@code --chat-service.ribbon.NFLoadBalancerRuleClassName=com.netflix.loadbalancer.RoundRobinRule}
+     */
+    public String getEdgeArgs() {
+        return string("edge-args", "");
+    }
+
+    /**
+     * @return Database of the hot and cold storage, read for the archival lag. Derived from the database port
+     * for a local cluster of chat-services, optional otherwise.
+     */
+    public String getJdbcUrl() {
+        return string("jdbc-url", getEdgeUrl() != null || getSlowChatServiceMillis() > 0 ? null
+                : "jdbc:h2:tcp://localhost:" + getDatabasePort() + "/mem:chatdb;DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * @return Database user, the chat-service default
+     */
+    public String getJdbcUsername() {
+        return string("jdbc-username", "root");
+    }
+
+    public String getJdbcPassword() {
+        return string("jdbc-password", "password");
+    }
+
+    public Duration getDuration() {
+        return duration("duration", Duration.ofMinutes(10));
+    }
+
+    public Duration getReportInterval() {
+        return duration("report-interval", Duration.ofSeconds(10));
+    }
+
+    /**
+     * @return Connect and read timeout of each request
+     */
+    public Duration getRequestTimeout() {
+        return duration("request-timeout", Duration.ofSeconds(5));
+    }
+
+    public int getThreads() {
+        return integer("threads", 16);
+    }
+
+    /**
+     * @return Requests per second over all threads, 0 sends the next request as soon as the previous one
+     * returns. With a rate, latency is measured from the time a request was due, see {@link LoadWorker}.
+     */
+    public int getRate() {
+        return integer("rate", 0);
+    }
+
+    /**
+     * @return Weights of the operations, e.g. {@code post=60,get=30,username=10}
+     */
+    public String getMix() {
+        return string("mix", "post=60,get=30,username=10");
+    }
+
+    public int getUsernames() {
+        return integer("usernames", 1000);
+    }
+
+    /**
+     * @return {@code uniform}, or {@code zipf} to have a few users send most messages
+     */
+    public String getUsernameDistribution() {
+        return string("username-distribution", "uniform");
+    }
+
+    public double getZipfExponent() {
+        return Double.parseDouble(string("zipf-exponent", "1.0"));
+    }
+
+    /**
+     * @return Message timeouts in seconds: {@code fixed:30}, {@code uniform:5:60} or {@code exponential:30}
+     */
+    public String getTimeout() {
+        return string("timeout", "uniform:5:60");
+    }
+
+    public int getTextLength() {
+        return integer("text-length", 64);
+    }
+
+    /**
+     * @return File the latency histogram of every interval is logged to, for later analysis, or null
+     */
+    public String getHistogramLog() {
+        return options.get("histogram-log");
+    }
+
+    private String string(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int integer(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Durations are a number followed by {@code s}, {@code m} or {@code h}.
+     */
+    private Duration duration(String name, Duration defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (value.charAt(value.length() - 1)) {
+            case 's':
+                return Duration.ofSeconds(amount);
+            case 'm':
+                return Duration.ofMinutes(amount);
+            case 'h':
+                return Duration.ofHours(amount);
+            default:
+                throw new IllegalArgumentException("Expected a duration like 30s, 10m or 4h for --" + name);
+        }
+    }
+}
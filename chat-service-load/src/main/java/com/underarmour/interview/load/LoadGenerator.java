@@ -0,0 +1,228 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import com.underarmour.interview.load.ClusterMonitor.ArchivalLag;
+import com.underarmour.interview.load.ClusterMonitor.JvmSample;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives POST /chat, GET /chat/{id} and GET /chats/{username} through the edge-service for the duration of
+ * the run, then prints a summary. Every report interval it prints the throughput, latency percentiles and
+ * failures per operation, the overdue hot storage rows, the heap, garbage collection and threads of the edge
+ * and of each chat-service, and the archival queue and eviction lag of each chat-service.
+ * <p>Without {@code --edge-url} it first starts a {@link LocalCluster}, and stops it at the end.
+ * See {@link LoadConfig} for the options.
+ *
+ * <pre>
+ * java -jar chat-service-load/target/load.jar --chat-services=3 --duration=4h --username-distribution=zipf
+ * </pre>
+ * Requests in flight against the threads of each edge, with chat-services that take half a second per request:
+ *
+ * <pre>
+ * java -jar chat-service-load/target/load.jar --slow-chat-service-ms=500 --threads=800 --edge=edge-service
+ * java -jar chat-service-load/target/load.jar --slow-chat-service-ms=500 --threads=800 --edge=edge-gateway
+ * </pre>
+ *
+ * @author david.moore
+ */
+public class LoadGenerator {
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final PrintStream out = System.out;
+    private boolean archivalSampled;
+    private Duration worstLag = Duration.ZERO;
+    private long maxHeapUsed;
+    private final Map<String, Integer> maxThreads = new LinkedHashMap<>();
+    private long elapsedNanos;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = new LoadConfig(args);
+        LoadGenerator generator = new LoadGenerator(config);
+
+        // Ctrl-C ends a soak early, still with its summary and a stopped cluster
+        CountDownLatch finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            generator.stop();
+            try {
+                finished.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        LocalCluster cluster = config.getEdgeUrl() == null ? new LocalCluster(config) : null;
+        try {
+            String edgeUrl = config.getEdgeUrl();
+            Map<String, Integer> jmxPorts = Collections.emptyMap();
+            if (cluster != null) {
+                cluster.start();
+                edgeUrl = cluster.getEdgeUrl();
+                jmxPorts = cluster.getJmxPorts();
+            }
+            try (ClusterMonitor monitor = new ClusterMonitor(config, jmxPorts)) {
+                generator.run(edgeUrl, monitor);
+            }
+        } finally {
+            if (cluster != null) {
+                cluster.close();
+            }
+            finished.countDown();
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+    }
+
+    /**
+     * Runs the workers until the duration elapses or {@link #stop()}, reporting every interval.
+     *
+     * @param edgeUrl Base URL of the edge-service
+     * @param monitor Archival lag and chat-service JVM source
+     */
+    public void run(String edgeUrl, ClusterMonitor monitor) throws InterruptedException, FileNotFoundException {
+        ChatClient chatClient = new ChatClient(edgeUrl, config.getRequestTimeout());
+        Workload workload = new Workload(config);
+        int threads = config.getThreads();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.execute(new LoadWorker(chatClient, workload, stats, running, (double) config.getRate() / threads));
+        }
+        out.printf("Sending load to %s with %d threads for %s%n", edgeUrl, threads, config.getDuration());
+
+        PrintStream histogramFile = null;
+        HistogramLogWriter histogramLog = null;
+        if (config.getHistogramLog() != null) {
+            histogramFile = new PrintStream(config.getHistogramLog());
+            histogramLog = new HistogramLogWriter(histogramFile);
+            histogramLog.outputLogFormatVersion();
+            histogramLog.outputLegend();
+        }
+
+        long start = System.nanoTime();
+        long end = start + config.getDuration().toNanos();
+        long intervalStart = start;
+        while (running.get()) {
+            long now = System.nanoTime();
+            long next = Math.min(end, intervalStart + config.getReportInterval().toNanos());
+            if (now < next) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(next - now, TimeUnit.MILLISECONDS.toNanos(200)));
+                continue;
+            }
+            if (now >= end) {
+                running.set(false);
+            }
+            elapsedNanos = now - start;
+            report(now - intervalStart, monitor, histogramLog);
+            intervalStart = now;
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(config.getRequestTimeout().getSeconds() * 2 + 1, TimeUnit.SECONDS);
+        // Requests in flight when the run stopped
+        for (Operation operation : Operation.values()) {
+            stats.interval(operation);
+        }
+        if (histogramFile != null) {
+            histogramFile.close();
+        }
+        summary(Math.max(1, elapsedNanos));
+    }
+
+    private void report(long intervalNanos, ClusterMonitor monitor, HistogramLogWriter histogramLog) {
+        out.printf("[%6ds]%n", TimeUnit.NANOSECONDS.toSeconds(elapsedNanos));
+        for (Operation operation : Operation.values()) {
+            Histogram interval = stats.interval(operation);
+            out.println("  " + line(operation, interval, intervalNanos));
+            if (histogramLog != null && interval.getTotalCount() > 0) {
+                interval.setTag(operation.name());
+                histogramLog.outputIntervalHistogram(interval);
+            }
+        }
+        if (stats.lostMessages() > 0) {
+            out.printf("  LOST MESSAGES %d, GET /chat/{id} of posted messages returned 404%n", stats.lostMessages());
+        }
+
+        ArchivalLag archivalLag = monitor.archivalLag();
+        if (archivalLag != null) {
+            out.printf("  hot_message %d overdue rows, lag %.1f s (THROUGH writes only)%n",
+                    archivalLag.getOverdueMessages(), archivalLag.getLag().toMillis() / 1000.0);
+            archivalSampled = true;
+            if (archivalLag.getLag().compareTo(worstLag) > 0) {
+                worstLag = archivalLag.getLag();
+            }
+        }
+        for (JvmSample jvm : monitor.jvms()) {
+            out.printf("  %-15s heap %d/%d MB, %d GCs %d ms, %d threads%n", jvm.getName(), jvm.getHeapUsed() >> 20,
+                    jvm.getHeapMax() >> 20, jvm.getCollections(), jvm.getCollectionMillis(), jvm.getThreads());
+            if (jvm.getName().startsWith("chat-service")) {
+                maxHeapUsed = Math.max(maxHeapUsed, jvm.getHeapUsed());
+            }
+            maxThreads.merge(jvm.getName(), jvm.getThreads(), Math::max);
+            if (jvm.getArchiveQueue() != null && jvm.getEvictionLag() != null) {
+                out.printf("  %-15s archival queue %d, eviction lag %.1f s%n", jvm.getName(), jvm.getArchiveQueue(),
+                        jvm.getEvictionLag().toMillis() / 1000.0);
+                archivalSampled = true;
+                if (jvm.getEvictionLag().compareTo(worstLag) > 0) {
+                    worstLag = jvm.getEvictionLag();
+                }
+            }
+        }
+    }
+
+    private void summary(long elapsedNanos) {
+        out.printf("Summary of %d s%n", TimeUnit.NANOSECONDS.toSeconds(elapsedNanos));
+        for (Operation operation : Operation.values()) {
+            out.println("  " + line(operation, stats.total(operation), elapsedNanos));
+        }
+        out.printf("  lost messages %d%n", stats.lostMessages());
+        if (archivalSampled) {
+            out.printf("  worst archival lag %.1f s%n", worstLag.toMillis() / 1000.0);
+        }
+        if (maxHeapUsed > 0) {
+            out.printf("  largest chat-service heap %d MB%n", maxHeapUsed >> 20);
+        }
+        maxThreads.forEach((name, threads) -> out.printf("  most %s threads %d%n", name, threads));
+    }
+
+    private String line(Operation operation, Histogram histogram, long nanos) {
+        return String.format("%-10s %9.1f req/s  p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  max %8.2f ms  errors %d",
+                operation, histogram.getTotalCount() * 1e9 / nanos,
+                histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI,
+                stats.errors(operation));
+    }
+}
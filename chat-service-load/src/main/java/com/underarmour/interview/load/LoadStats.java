@@ -0,0 +1,96 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and failures of the requests of a run, per {@link Operation}. Latencies are recorded in
+ * microseconds, up to an hour, with three significant digits. Recording is thread safe and wait free,
+ * the reporter takes the histogram of each interval while the workers keep recording.
+ *
+ * @author david.moore
+ */
+public class LoadStats {
+    private static final long HIGHEST_LATENCY = TimeUnit.HOURS.toMicros(1);
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> intervals = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> totals = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final LongAdder lost = new LongAdder();
+
+    public LoadStats() {
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(HIGHEST_LATENCY, 3));
+            totals.put(operation, new Histogram(HIGHEST_LATENCY, 3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * @param latencyNanos Time from when the request was due to its response
+     */
+    public void record(Operation operation, long latencyNanos) {
+        recorders.get(operation).recordValue(Math.min(HIGHEST_LATENCY, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
+
+    /**
+     * Failed request: an exception, a timeout or an unexpected status.
+     */
+    public void error(Operation operation) {
+        errors.get(operation).increment();
+    }
+
+    /**
+     * GET /chat/{id} of a posted message returned 404. Posted messages are never deleted, only archived, so
+     * this is a lost message.
+     */
+    public void lost() {
+        lost.increment();
+    }
+
+    /**
+     * Takes the latencies recorded since the last call and adds them to the totals. Not thread safe, the
+     * reporter alone calls it.
+     *
+     * @return Histogram of the interval, reused by the next call
+     */
+    public Histogram interval(Operation operation) {
+        Histogram interval = recorders.get(operation).getIntervalHistogram(intervals.get(operation));
+        intervals.put(operation, interval);
+        totals.get(operation).add(interval);
+        return interval;
+    }
+
+    /**
+     * @return Histogram of the whole run up to the last {@link #interval(Operation)}
+     */
+    public Histogram total(Operation operation) {
+        return totals.get(operation);
+    }
+
+    public long errors(Operation operation) {
+        return errors.get(operation).sum();
+    }
+
+    public long lostMessages() {
+        return lost.sum();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import com.underarmour.interview.load.ChatClient.Response;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests until the run stops, one at a time. Without a rate the next request is sent as soon as the
+ * previous one returns. With a rate every request has a due time, and its latency is measured from that
+ * time rather than from when it was sent: a stalled cluster delays the requests queued behind the slow
+ * one too, and leaving that wait out would hide the stall in the percentiles (coordinated omission).
+ *
+ * @author david.moore
+ */
+public class LoadWorker implements Runnable {
+    private final ChatClient chatClient;
+    private final Workload workload;
+    private final LoadStats stats;
+    private final AtomicBoolean running;
+    private final long intervalNanos;
+
+    /**
+     * @param chatClient   Client of the edge service
+     * @param workload     What to send
+     * @param stats        Where to record latencies and failures
+     * @param running      Cleared to stop the worker
+     * @param rate         Requests per second of this worker, 0 for as fast as possible
+     */
+    public LoadWorker(ChatClient chatClient, Workload workload, LoadStats stats, AtomicBoolean running,
+                      double rate) {
+        this.chatClient = chatClient;
+        this.workload = workload;
+        this.stats = stats;
+        this.running = running;
+        this.intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+    }
+
+    @Override
+    public void run() {
+        long due = System.nanoTime();
+        while (running.get()) {
+            if (intervalNanos > 0) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                due = System.nanoTime();
+            }
+
+            Operation operation = workload.operation();
+            try {
+                send(operation);
+                stats.record(operation, System.nanoTime() - due);
+            } catch (IOException e) {
+                stats.error(operation);
+            }
+            due += intervalNanos;
+        }
+    }
+
+    private void send(Operation operation) throws IOException {
+        Response response;
+        switch (operation) {
+            case POST:
+                response = chatClient.post(workload.username(), workload.text(), workload.timeout());
+                expect(response, 201);
+                workload.posted(response.getId());
+                break;
+            case GET:
+                response = chatClient.get(workload.postedId());
+                if (response.getStatus() == 404) {
+                    stats.lost();
+                }
+                expect(response, 200);
+                break;
+            case USERNAME:
+                expect(chatClient.username(workload.username()), 200);
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    private static void expect(Response response, int status) throws IOException {
+        if (response.getStatus() != status) {
+            throw new IOException("Expected status " + status + " but got " + response.getStatus());
+        }
+    }
+}
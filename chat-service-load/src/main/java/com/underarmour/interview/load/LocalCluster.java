@@ -0,0 +1,284 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.tools.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole cluster on this machine: an H2 database served over TCP, the service-registry, the edge and a
+ * number of chat-service instances, each in its own JVM started from the jar built by the reactor.
+ * The output of each service goes to a file of the log directory. The edge, the Zuul edge-service or the
+ * non-blocking edge-gateway, and the chat-services expose JMX for the {@link ClusterMonitor}.
+ * <p>With {@link LoadConfig#getSlowChatServiceMillis()} the chat-services are {@link SlowChatService} stand-ins
+ * in this JVM instead, and there is no database. With {@link LoadConfig#getDegradedChatServiceMillis()} the
+ * first of them is slower than the others.
+ *
+ * @author david.moore
+ */
+public class LocalCluster implements AutoCloseable {
+    private static Logger log = LoggerFactory.getLogger(LocalCluster.class);
+    private static final String VERSION = "1.0.0-SNAPSHOT";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+
+    private final LoadConfig config;
+    private final List<Process> processes = new ArrayList<>();
+    private final List<SlowChatService> standIns = new ArrayList<>();
+    private Server database;
+
+    public LocalCluster(LoadConfig config) {
+        this.config = config;
+    }
+
+    public String getEdgeUrl() {
+        return "http://localhost:" + config.getEdgePort();
+    }
+
+    /**
+     * @return JMX ports of the edge and of the chat-services, by name
+     */
+    public Map<String, Integer> getJmxPorts() {
+        Map<String, Integer> ports = new LinkedHashMap<>();
+        ports.put(config.getEdge(), config.getEdgeJmxPort());
+        if (config.getSlowChatServiceMillis() == 0) {
+            for (int i = 0; i < config.getChatServices(); i++) {
+                ports.put("chat-service-" + (i + 1), config.getJmxPort() + i);
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Starts the services and waits until the edge routes requests to every chat-service.
+     */
+    public void start() throws IOException, SQLException, InterruptedException {
+        Files.createDirectories(config.getLogDir());
+
+        boolean standIn = config.getSlowChatServiceMillis() > 0;
+        if (!standIn) {
+            database = Server.createTcpServer("-tcpPort", String.valueOf(config.getDatabasePort())).start();
+            log.info("Database listening on {}", database.getURL());
+        }
+
+        String registryUrl = "http://localhost:" + config.getRegistryPort() + "/eureka";
+        Process registry = launch("service-registry", jar("service-registry", ".jar"), Collections.emptyList(),
+                "--server.port=" + config.getRegistryPort());
+        awaitPort(registry, config.getRegistryPort());
+
+        if (standIn) {
+            for (int i = 0; i < config.getChatServices(); i++) {
+                int delayMillis = i == 0 && config.getDegradedChatServiceMillis() > 0
+                        ? config.getDegradedChatServiceMillis() : config.getSlowChatServiceMillis();
+                SlowChatService slowChatService = new SlowChatService(config.getChatServicePort() + i,
+                        Duration.ofMillis(delayMillis), registryUrl);
+                standIns.add(slowChatService);
+                slowChatService.start();
+            }
+        } else {
+            startChatServices(registryUrl);
+        }
+
+        // Every request is logged at info by the ForwardFilter, which would measure the console. The load comes
+        // from a single client and a few usernames, the rate limit of the edge-service would measure itself
+        List<String> edgeArgs = new ArrayList<>(Arrays.asList(
+                "--server.port=" + config.getEdgePort(),
+                "--eureka.client.serviceUrl.defaultZone=" + registryUrl,
+                "--logging.level.com.underarmour.interview=WARN",
+                "--edge.rate-limit.enabled=false"));
+        if (!config.getEdgeArgs().isEmpty()) {
+            edgeArgs.addAll(Arrays.asList(config.getEdgeArgs().split(" ")));
+        }
+        Process edge = launch(config.getEdge(), jar(config.getEdge(), ".jar"), jmx(config.getEdgeJmxPort()),
+                edgeArgs.toArray(new String[0]));
+        awaitPort(edge, config.getEdgePort());
+
+        awaitRegistered(registryUrl);
+        awaitRouted();
+        log.info("Cluster of {} chat-services started, {} at {}", config.getChatServices(), config.getEdge(),
+                getEdgeUrl());
+    }
+
+    /**
+     * Stops the services in the reverse order, then the database.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        standIns.forEach(SlowChatService::close);
+        for (int i = processes.size() - 1; i >= 0; i--) {
+            Process process = processes.get(i);
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+        if (database != null) {
+            database.stop();
+        }
+    }
+
+    private void startChatServices(String registryUrl) throws IOException, InterruptedException {
+        // The first chat-service creates the schema, the others would race it
+        for (int i = 0; i < config.getChatServices(); i++) {
+            int port = config.getChatServicePort() + i;
+            int jmxPort = config.getJmxPort() + i;
+            List<String> args = new ArrayList<>(Arrays.asList(
+                    "--server.port=" + port,
+                    "--spring.datasource.url=" + config.getJdbcUrl(),
+                    "--spring.datasource.username=" + config.getJdbcUsername(),
+                    "--spring.datasource.password=" + config.getJdbcPassword(),
+                    "--eureka.client.serviceUrl.defaultZone=" + registryUrl,
+                    // A write-ahead log is replayed and truncated by its own instance only, never shared
+                    "--chat.hot-log.directory=" + config.getLogDir().resolve("hot-log-" + port).toAbsolutePath(),
+                    // Every request is logged at info, which would measure the console instead of the service
+                    "--logging.level.com.underarmour.interview.chat=WARN"));
+            if (!config.getChatServiceArgs().isEmpty()) {
+                args.addAll(Arrays.asList(config.getChatServiceArgs().split(" ")));
+            }
+            List<String> jvmArgs = new ArrayList<>(jmx(jmxPort));
+            jvmArgs.add(0, "-Xmx" + config.getChatServiceHeap());
+            Process chatService = launch("chat-service-" + (i + 1), jar("chat-service", "-exec.jar"), jvmArgs,
+                    args.toArray(new String[0]));
+            if (i == 0) {
+                awaitPort(chatService, port);
+            }
+        }
+        for (int i = 1; i < config.getChatServices(); i++) {
+            awaitPort(processes.get(i + 1), config.getChatServicePort() + i);
+        }
+    }
+
+    private static List<String> jmx(int port) {
+        return Arrays.asList(
+                "-Dcom.sun.management.jmxremote.port=" + port,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + port,
+                "-Dcom.sun.management.jmxremote.authenticate=false",
+                "-Dcom.sun.management.jmxremote.ssl=false",
+                "-Djava.rmi.server.hostname=localhost");
+    }
+
+    private Path jar(String module, String suffix) {
+        Path jar = config.getProjectDir().resolve(Paths.get(module, "target", module + "-" + VERSION + suffix));
+        if (!Files.exists(jar)) {
+            throw new IllegalStateException(jar + " not found, build the reactor with mvn clean install first");
+        }
+        return jar;
+    }
+
+    private Process launch(String name, Path jar, List<String> jvmArgs, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(jar.toString());
+        command.addAll(Arrays.asList(args));
+
+        Path output = config.getLogDir().resolve(name + ".log");
+        log.info("Starting {}, output in {}", name, output);
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(output.toFile())
+                .start();
+        processes.add(process);
+        return process;
+    }
+
+    private void awaitPort(Process process, int port) throws InterruptedException {
+        await("port " + port, process, () -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Waits for every chat-service to be UP in the registry.
+     */
+    private void awaitRegistered(String registryUrl) throws InterruptedException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        await(config.getChatServices() + " chat-services registered", null, () -> {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(registryUrl + "/apps/CHAT-SERVICE")
+                        .openConnection();
+                connection.setRequestProperty("Accept", "application/json");
+                if (connection.getResponseCode() != 200) {
+                    return false;
+                }
+                int up = 0;
+                for (JsonNode instance : objectMapper.readTree(connection.getInputStream())
+                        .path("application").path("instance")) {
+                    up += "UP".equals(instance.path("status").asText()) ? 1 : 0;
+                }
+                return up >= config.getChatServices();
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Waits for the edge-service to route requests, it refreshes its list of chat-services from the registry
+     * every 30 seconds. A username lookup of an unknown user changes nothing.
+     */
+    private void awaitRouted() throws InterruptedException {
+        ChatClient chatClient = new ChatClient(getEdgeUrl(), Duration.ofSeconds(5));
+        await("edge-service routes", null, () -> {
+            try {
+                return chatClient.username("load-probe").getStatus() == 200;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    private void await(String what, Process process, Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (!condition.met()) {
+            if (process != null && !process.isAlive()) {
+                throw new IllegalStateException("Process exited while waiting for " + what + ", see "
+                        + config.getLogDir());
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Timed out waiting for " + what + ", see " + config.getLogDir());
+            }
+            TimeUnit.SECONDS.sleep(1);
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+/**
+ * Requests sent by the load generator, all through the edge service.
+ *
+ * @author david.moore
+ */
+public enum Operation {
+    /**
+     * POST /chat
+     */
+    POST,
+    /**
+     * GET /chat/{id}, of a message posted earlier in the run
+     */
+    GET,
+    /**
+     * GET /chats/{username}
+     */
+    USERNAME
+}
@@ -0,0 +1,203 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for a chat-service instance that answers every request after a fixed delay, to load the edge with
+ * many slow requests in flight. It registers in the service registry as a chat-service, so the edge routes to
+ * it as to the real one.
+ * <p>Responses are delayed on a single scheduler thread and requests are accepted on a single thread, the
+ * stand-in holds no thread per request: whatever limits the number of requests in flight is the edge.
+ * POST /chat answers 201 with a new id, GET /chat/{id} a message, GET /chats/{username} an empty list.
+ *
+ * @author david.moore
+ */
+public class SlowChatService implements AutoCloseable {
+    private static Logger log = LoggerFactory.getLogger(SlowChatService.class);
+    private static final String APP = "CHAT-SERVICE";
+    private static final Duration HEARTBEAT = Duration.ofSeconds(30);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final ExecutorService acceptor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final int port;
+    private final Duration delay;
+    private final String registryUrl;
+    private final String instanceId;
+    private HttpServer server;
+
+    /**
+     * @param port        Port to listen on
+     * @param delay       Time every response is held back
+     * @param registryUrl Eureka URL of the service registry, e.g. {@code http://localhost:8761/eureka}
+     */
+    public SlowChatService(int port, Duration delay, String registryUrl) {
+        this.port = port;
+        this.delay = delay;
+        this.registryUrl = registryUrl;
+        this.instanceId = "localhost:chat-service:" + port;
+    }
+
+    /**
+     * Listens, then registers in the service registry and renews the lease every 30 seconds.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1000);
+        server.setExecutor(acceptor);
+        server.createContext("/", this::handle);
+        server.start();
+
+        register();
+        scheduler.scheduleWithFixedDelay(this::renew, HEARTBEAT.getSeconds(), HEARTBEAT.getSeconds(),
+                TimeUnit.SECONDS);
+        log.info("Slow chat-service stand-in on port {}, answering after {} ms", port, delay.toMillis());
+    }
+
+    /**
+     * Leaves the registry, then stops answering.
+     */
+    @Override
+    public void close() {
+        try {
+            registry("DELETE", "/apps/" + APP + "/" + instanceId, null);
+        } catch (IOException e) {
+            log.debug("Cancelling the registration of {} failed", instanceId, e);
+        }
+        scheduler.shutdownNow();
+        if (server != null) {
+            server.stop(0);
+        }
+        acceptor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        // The request is read now, the connection is answered by the scheduler thread later
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // Discarded
+            }
+        }
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        int status;
+        Object body;
+        if ("POST".equals(method) && path.equals("/chat")) {
+            status = 201;
+            body = objectMapper.createObjectNode().put("id", ids.incrementAndGet());
+        } else if ("GET".equals(method) && path.startsWith("/chat/")) {
+            status = 200;
+            body = objectMapper.createObjectNode()
+                    .put("username", "stand-in")
+                    .put("text", "A slow message")
+                    .put("expiration_date", LocalDateTime.now().plusMinutes(1).toString());
+        } else if ("GET".equals(method) && path.startsWith("/chats/")) {
+            status = 200;
+            body = objectMapper.createArrayNode();
+        } else {
+            status = 404;
+            body = objectMapper.createObjectNode().put("error", "Not Found");
+        }
+        byte[] content = objectMapper.writeValueAsBytes(body);
+        scheduler.schedule(() -> respond(exchange, status, content), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] content) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        } catch (IOException e) {
+            log.debug("Responding to {} failed", exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void register() throws IOException {
+        ObjectNode instance = objectMapper.createObjectNode();
+        instance.put("instanceId", instanceId)
+                .put("hostName", "localhost")
+                .put("app", APP)
+                .put("ipAddr", "127.0.0.1")
+                .put("status", "UP")
+                .put("vipAddress", "chat-service")
+                .put("secureVipAddress", "chat-service");
+        instance.putObject("port").put("$", port).put("@enabled", "true");
+        instance.putObject("securePort").put("$", 443).put("@enabled", "false");
+        instance.putObject("dataCenterInfo")
+                .put("@class", "com.netflix.appinfo.InstanceInfo$DefaultDataCenterInfo")
+                .put("name", "MyOwn");
+        ObjectNode registration = objectMapper.createObjectNode();
+        registration.set("instance", instance);
+        int status = registry("POST", "/apps/" + APP, objectMapper.writeValueAsBytes(registration));
+        if (status >= 300) {
+            throw new IOException("Registering " + instanceId + " failed with status " + status);
+        }
+    }
+
+    /**
+     * Renews the lease, registers again when the registry forgot the instance, e.g. after a restart.
+     */
+    private void renew() {
+        try {
+            if (registry("PUT", "/apps/" + APP + "/" + instanceId, null) == 404) {
+                register();
+            }
+        } catch (IOException e) {
+            log.warn("Renewing the registration of {} failed", instanceId, e);
+        }
+    }
+
+    private int registry(String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(registryUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+}
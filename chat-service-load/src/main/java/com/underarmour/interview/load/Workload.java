@@ -0,0 +1,135 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the load generator sends: the operation mix, the usernames and the message timeouts. It also
+ * remembers the ids of recently posted messages, GET /chat/{id} reads one of them. Older ids have been
+ * archived, so reads hit the cache, hot storage and cold storage.
+ * <p>Shared by all the workers, thread safe.
+ *
+ * @author david.moore
+ */
+public class Workload {
+    private static final int RECENT_IDS = 1 << 16;
+
+    private final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    private final int totalWeight;
+    private final int usernames;
+    private final ZipfSampler zipfSampler;
+    private final String[] timeout;
+    private final String text;
+
+    private final AtomicIntegerArray recentIds = new AtomicIntegerArray(RECENT_IDS);
+    private final AtomicLong postedIds = new AtomicLong();
+
+    /**
+     * @param config Mix, username distribution, timeout distribution and text length of the run
+     */
+    public Workload(LoadConfig config) {
+        int total = 0;
+        for (String entry : config.getMix().split(",")) {
+            String[] weight = entry.split("=");
+            Operation operation = Operation.valueOf(weight[0].trim().toUpperCase());
+            weights.put(operation, Integer.parseInt(weight[1].trim()));
+            total += weights.get(operation);
+        }
+        totalWeight = total;
+
+        usernames = config.getUsernames();
+        switch (config.getUsernameDistribution()) {
+            case "uniform":
+                zipfSampler = null;
+                break;
+            case "zipf":
+                zipfSampler = new ZipfSampler(usernames, config.getZipfExponent());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown username distribution " + config.getUsernameDistribution());
+        }
+
+        timeout = config.getTimeout().split(":");
+        // Validate the timeout distribution now rather than on the first post
+        timeout();
+
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < config.getTextLength()) {
+            builder.append("ephemeral ");
+        }
+        text = builder.substring(0, config.getTextLength());
+    }
+
+    /**
+     * @return Next operation by weight. GET only once a message has been posted.
+     */
+    public Operation operation() {
+        int sample = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            sample -= weight.getValue();
+            if (sample < 0) {
+                return weight.getKey() == Operation.GET && postedIds.get() == 0 ? Operation.POST : weight.getKey();
+            }
+        }
+        throw new IllegalStateException("Operation weights changed");
+    }
+
+    public String username() {
+        int user = zipfSampler != null ? zipfSampler.next() : ThreadLocalRandom.current().nextInt(usernames);
+        return "user" + user;
+    }
+
+    /**
+     * @return Timeout of a new message in seconds, at least 1
+     */
+    public int timeout() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (timeout[0]) {
+            case "fixed":
+                return Math.max(1, Integer.parseInt(timeout[1]));
+            case "uniform":
+                return Math.max(1, random.nextInt(Integer.parseInt(timeout[1]), Integer.parseInt(timeout[2]) + 1));
+            case "exponential":
+                double mean = Double.parseDouble(timeout[1]);
+                return Math.max(1, (int) Math.round(-mean * Math.log(1 - random.nextDouble())));
+            default:
+                throw new IllegalArgumentException("Unknown timeout distribution " + String.join(":", timeout));
+        }
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public void posted(int id) {
+        recentIds.set((int) (postedIds.getAndIncrement() & (RECENT_IDS - 1)), id);
+    }
+
+    /**
+     * @return Id of one of the last posted messages
+     */
+    public int postedId() {
+        int posted = (int) Math.min(postedIds.get(), RECENT_IDS);
+        int id;
+        do {
+            // A slot is counted before its id is set, ids start at 1
+            id = recentIds.get(ThreadLocalRandom.current().nextInt(posted));
+        } while (id == 0);
+        return id;
+    }
+}
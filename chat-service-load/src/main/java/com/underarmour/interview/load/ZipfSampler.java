@@ -0,0 +1,48 @@
+/*
+ * Chat Service Load
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.load;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples ranks 0 to n-1 with the probability of rank k proportional to {@code 1 / (k + 1)^exponent}.
+ * The cumulative distribution is computed once, each sample is a binary search.
+ *
+ * @author david.moore
+ */
+public class ZipfSampler {
+    private final double[] cumulative;
+
+    /**
+     * @param n        Number of ranks
+     * @param exponent Skew, 0 is uniform and about 1 is typical of user activity
+     */
+    public ZipfSampler(int n, double exponent) {
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    public int next() {
+        int rank = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        // Not found returns -(insertion point) - 1, the first rank whose cumulative probability is larger
+        return Math.min(rank >= 0 ? rank : -rank - 1, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.nio.serialization.Portable;
+import com.hazelcast.nio.serialization.PortableFactory;
+import com.underarmour.interview.chat.entity.HotMessage;
+
+/**
+ * Creates the portable classes of the chat caches when hazelcast deserializes them. Registered on every
+ * member by {@link com.underarmour.interview.chat.config.HazelcastConfiguration}.
+ *
+ * @author david.moore
+ */
+public class ChatPortableFactory implements PortableFactory {
+    public static final int FACTORY_ID = 1;
+    public static final int HOT_MESSAGE_CLASS_ID = 1;
+
+    @Override
+    public Portable create(int classId) {
+        if (classId == HOT_MESSAGE_CLASS_ID) {
+            return new HotMessage();
+        }
+        throw new IllegalArgumentException("Unknown portable class id " + classId);
+    }
+}
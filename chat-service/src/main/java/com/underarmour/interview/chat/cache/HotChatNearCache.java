@@ -0,0 +1,124 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.MemberLeftException;
+import com.hazelcast.internal.nearcache.NearCache;
+import com.hazelcast.map.impl.proxy.NearCachedMapProxyImpl;
+import com.underarmour.interview.chat.entity.HotMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Invalidates near cached messages on every instance, and waits for it. Hazelcast invalidates the near cache
+ * entries of removed messages on its own, but asynchronously and in batches, up to seconds later. Invalidating
+ * before a message is archived guarantees no instance serves it from its near cache once it is archived.
+ * <p>A task per instance invalidates the entries in the near cache of that instance, there is no public API for
+ * it: the map proxy of a member with a near cache is a {@link NearCachedMapProxyImpl}. A GET /chat/{id} in flight
+ * on that instance cannot put the message back, hazelcast drops the read result of an invalidated key.
+ *
+ * @author david.moore
+ */
+@Component
+public class HotChatNearCache {
+    private static final String CACHE_NAME = "hotChatCache";
+    private final IExecutorService executor;
+    private final boolean enabled;
+
+    /**
+     * Constructor.
+     *
+     * @param instance Hazelcast instance of the cache
+     * @param enabled  Whether the instances keep a near cache of the hot storage cache
+     */
+    @Autowired
+    public HotChatNearCache(HazelcastInstance instance, @Value("${chat.near-cache.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        executor = instance.getExecutorService("hotChatNearCache");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Invalidates the messages in the near cache of every instance, in one call per instance.
+     *
+     * @param messages Messages removed from the cache
+     */
+    public void invalidate(Collection<HotMessage> messages) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        ArrayList<Integer> ids = new ArrayList<>(messages.size());
+        messages.forEach(m -> ids.add(m.getId()));
+        Map<Member, Future<Integer>> invalidations = executor.submitToAllMembers(new InvalidateTask(ids));
+        for (Future<Integer> invalidation : invalidations.values()) {
+            try {
+                invalidation.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while invalidating near caches", e);
+            } catch (ExecutionException e) {
+                // The near cache of a member that left is gone with it
+                if (!(e.getCause() instanceof MemberLeftException)) {
+                    throw new IllegalStateException("Failed to invalidate near caches", e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates ids in the near cache of the member it runs on, if it has one.
+     */
+    static class InvalidateTask implements Callable<Integer>, Serializable, HazelcastInstanceAware {
+        private static final long serialVersionUID = 1L;
+        private final ArrayList<Integer> ids;
+        private transient HazelcastInstance instance;
+
+        InvalidateTask(ArrayList<Integer> ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public Integer call() {
+            IMap<Integer, HotMessage> hotChatCache = instance.getMap(CACHE_NAME);
+            if (!(hotChatCache instanceof NearCachedMapProxyImpl)) {
+                return 0;
+            }
+            // Keys are not serialized, see HazelcastConfiguration#nearCacheConfig
+            NearCache<Object, Object> nearCache = ((NearCachedMapProxyImpl<?, ?>) hotChatCache).getNearCache();
+            ids.forEach(nearCache::invalidate);
+            return ids.size();
+        }
+    }
+}
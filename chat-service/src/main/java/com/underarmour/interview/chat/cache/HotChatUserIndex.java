@@ -0,0 +1,210 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.core.MultiMap;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Secondary index of the hot cache, the ids of the cached messages of every username. The hot cache is keyed
+ * by message id, so the messages of one user are spread over every partition and a username query has to
+ * visit all of them. The index is keyed by username, reading it is a single call to one partition owner and
+ * the messages are then fetched by key.
+ * <p>The index may hold ids of messages that already left the cache, callers must tolerate missing keys.
+ *
+ * @author david.moore
+ */
+@Component
+public class HotChatUserIndex {
+    private static final String INDEX_NAME = "hotChatUserIndex";
+    private final MultiMap<String, Integer> index;
+    private final IExecutorService executor;
+    private final UsernameLookup usernameLookup;
+    private final HotStorage hotStorage;
+
+    /**
+     * Constructor.
+     *
+     * @param instance       Hazelcast instance holding the index
+     * @param usernameLookup How messages are looked up by username, the index is only maintained for
+     *                       {@link UsernameLookup#INDEX}
+     * @param hotStorage     Where the messages are cached, the index only covers the hotChatCache IMap
+     */
+    @Autowired
+    public HotChatUserIndex(HazelcastInstance instance,
+                            @Value("${chat.username-lookup:INDEX}") UsernameLookup usernameLookup,
+                            @Value("${chat.hot-store.type:HAZELCAST}") HotStorage hotStorage) {
+        this.usernameLookup = usernameLookup;
+        this.hotStorage = hotStorage;
+        index = instance.getMultiMap(INDEX_NAME);
+        executor = instance.getExecutorService(INDEX_NAME);
+    }
+
+    public boolean isEnabled() {
+        return usernameLookup == UsernameLookup.INDEX && hotStorage == HotStorage.HAZELCAST;
+    }
+
+    /**
+     * Indexes a message. Must be called after the message was put in the cache, otherwise a concurrent
+     * reader could find the id before the message exists, drop it from the index as gone and the message would
+     * never be found by username.
+     *
+     * @param message Cached message
+     */
+    public void add(HotMessage message) {
+        if (isEnabled()) {
+            index.put(message.getUsername(), message.getId());
+        }
+    }
+
+    /**
+     * Returns all the ids indexed for the username, in one call to the partition owner. The ids stay indexed
+     * until the reader removes the ones it delivered, see {@link #remove(String, Collection)}.
+     *
+     * @param username Username
+     * @return Ids of the messages of the user, some may no longer be cached
+     */
+    public Collection<Integer> ids(String username) {
+        if (!isEnabled()) {
+            return Collections.emptySet();
+        }
+        return index.get(username);
+    }
+
+    /**
+     * Removes ids read by {@link #ids(String)} once their messages were taken from the cache, or were found
+     * to be gone already. The ids are removed by a task on the partition owner of the username, one remote
+     * call rather than one per id. Removing a single id scans all the ids of the username, callers should
+     * remove the ids of a read together rather than a few at a time.
+     *
+     * @param username Username
+     * @param ids      Ids of the messages of the user no longer cached
+     */
+    public void remove(String username, Collection<Integer> ids) {
+        if (!isEnabled() || ids.isEmpty()) {
+            return;
+        }
+        await(username, executor.submitToKeyOwner(new RemoveIdsTask(username, ids), username));
+    }
+
+    /**
+     * Removes messages that left the cache by another path than a username read, like expiration. The ids are
+     * grouped by username and removed by one task per username, see {@link #remove(String, Collection)}, all
+     * submitted before any is awaited.
+     *
+     * @param messages Messages no longer cached
+     */
+    public void remove(Collection<HotMessage> messages) {
+        if (!isEnabled() || messages.isEmpty()) {
+            return;
+        }
+        Map<String, List<Integer>> idsByUsername = new HashMap<>();
+        messages.forEach(m -> idsByUsername.computeIfAbsent(m.getUsername(), u -> new ArrayList<>()).add(m.getId()));
+        Map<String, Future<Integer>> removals = new HashMap<>();
+        idsByUsername.forEach((username, ids) ->
+                removals.put(username, executor.submitToKeyOwner(new RemoveIdsTask(username, ids), username)));
+        removals.forEach(HotChatUserIndex::await);
+    }
+
+    private static void await(String username, Future<Integer> removal) {
+        try {
+            removal.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while removing ids of " + username, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to remove ids of " + username, e.getCause());
+        }
+    }
+
+    /**
+     * Removes ids of a username from the index, run on the partition owner of the username so every removal
+     * is a local one. Removing one id scans every id of the username, so unless only a few ids are removed
+     * the ids of the username are rebuilt instead: all removed at once and the remaining ones put back,
+     * under the lock of the username so no concurrent {@link #add(HotMessage)} is lost.
+     */
+    static class RemoveIdsTask implements Callable<Integer>, Serializable, HazelcastInstanceAware {
+        private static final long serialVersionUID = 1L;
+        // Cost of putting an id back, in ids scanned by a removal
+        private static final int PUT_COST = 100;
+        private final String username;
+        private final ArrayList<Integer> ids;
+        private transient HazelcastInstance instance;
+
+        RemoveIdsTask(String username, Collection<Integer> ids) {
+            this.username = username;
+            this.ids = new ArrayList<>(ids);
+        }
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public Integer call() {
+            MultiMap<String, Integer> index = instance.getMultiMap(INDEX_NAME);
+            index.lock(username);
+            try {
+                Set<Integer> remaining = new HashSet<>(index.get(username));
+                int indexed = remaining.size();
+                // Not removeAll, which scans the list for every id when the set is not larger
+                ids.forEach(remaining::remove);
+                if ((long) remaining.size() * PUT_COST < (long) ids.size() * indexed) {
+                    index.remove(username);
+                    remaining.forEach(id -> index.put(username, id));
+                } else {
+                    ids.forEach(id -> index.remove(username, id));
+                }
+                return indexed - remaining.size();
+            } finally {
+                index.unlock(username);
+            }
+        }
+    }
+
+    /**
+     * How the hot cache is searched for the messages of a username.
+     */
+    public enum UsernameLookup {
+        /**
+         * Predicate query on the username, visits every partition. Each partition answers from its hash index
+         * of the username, or scans its messages when the cache has none.
+         */
+        QUERY,
+        /**
+         * The username index gives the ids, only the partitions owning the messages are visited.
+         */
+        INDEX
+    }
+}
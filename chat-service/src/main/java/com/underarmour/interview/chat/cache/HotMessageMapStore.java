@@ -0,0 +1,157 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.core.MapStore;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind map store of the hot cache. With {@link HotStorageWrite#BEHIND} the cache is the system of
+ * record: new messages are only put in the cache, and hazelcast hands the writes of each member to this
+ * store in batches, a few seconds later. Writes are coalesced per message, so a message removed from the
+ * cache before its flush is never inserted into the hot storage, only part of a batched delete.
+ * <p>Nothing is loaded through this store, reads fall back to the hot storage in the
+ * {@link com.underarmour.interview.chat.service.ChatService} like they do without it.
+ *
+ * @author david.moore
+ */
+@Component
+public class HotMessageMapStore implements MapStore<Integer, HotMessage> {
+    private static Logger log = LoggerFactory.getLogger(HotMessageMapStore.class);
+    private final HotChatRepository hotChatRepository;
+    private final HotStorageWrite hotStorageWrite;
+
+    /**
+     * Constructor.
+     *
+     * @param hotChatRepository Hot Chat Repository, lazy as JPA itself waits for the hazelcast instance
+     *                          this store is configured on
+     * @param hotStorageWrite   How new messages reach the hot storage
+     */
+    @Autowired
+    public HotMessageMapStore(@Lazy HotChatRepository hotChatRepository,
+                              @Value("${chat.hot-storage.write:THROUGH}") HotStorageWrite hotStorageWrite) {
+        this.hotChatRepository = hotChatRepository;
+        this.hotStorageWrite = hotStorageWrite;
+    }
+
+    public boolean isEnabled() {
+        return hotStorageWrite == HotStorageWrite.BEHIND;
+    }
+
+    public HotStorageWrite getHotStorageWrite() {
+        return hotStorageWrite;
+    }
+
+    @Override
+    public void store(Integer key, HotMessage value) {
+        storeAll(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Inserts the messages in one transaction. Messages already past their expiration date are skipped,
+     * they are being archived, or are about to be, and the hot storage row would only be deleted again.
+     * <p>A message put back into the cache after a failed username read replaces its pending delete with a
+     * store, while its row may already exist. When the batch fails on such a row, only the messages without
+     * one are inserted.
+     *
+     * @param map Messages by id
+     */
+    @Override
+    public void storeAll(Map<Integer, HotMessage> map) {
+        LocalDateTime now = LocalDateTime.now();
+        List<HotMessage> unexpired = map.values().stream()
+                .filter(m -> m.getExpirationDate().isAfter(now))
+                .collect(Collectors.toList());
+        log.debug("Flushing {} of {} messages to hot storage", unexpired.size(), map.size());
+        if (unexpired.isEmpty()) {
+            return;
+        }
+        try {
+            hotChatRepository.insertAll(unexpired);
+        } catch (DataIntegrityViolationException e) {
+            Set<Integer> stored = new HashSet<>();
+            hotChatRepository.findAllById(map.keySet()).forEach(m -> stored.add(m.getId()));
+            List<HotMessage> missing = unexpired.stream()
+                    .filter(m -> !stored.contains(m.getId()))
+                    .collect(Collectors.toList());
+            log.debug("{} messages already in hot storage, flushing the other {}", stored.size(), missing.size());
+            if (!missing.isEmpty()) {
+                hotChatRepository.insertAll(missing);
+            }
+        }
+    }
+
+    @Override
+    public void delete(Integer key) {
+        deleteAll(Collections.singleton(key));
+    }
+
+    @Override
+    public void deleteAll(Collection<Integer> keys) {
+        log.debug("Deleting {} messages from hot storage", keys.size());
+        hotChatRepository.deleteByIds(keys);
+    }
+
+    @Override
+    public HotMessage load(Integer key) {
+        return null;
+    }
+
+    @Override
+    public Map<Integer, HotMessage> loadAll(Collection<Integer> keys) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Iterable<Integer> loadAllKeys() {
+        return null;
+    }
+
+    /**
+     * How new messages reach the hot storage.
+     */
+    public enum HotStorageWrite {
+        /**
+         * Every message is inserted into the hot storage before it is cached, as part of the request.
+         */
+        THROUGH,
+        /**
+         * Messages are only cached by the request, then written to the hot storage in batches by this store.
+         */
+        BEHIND,
+        /**
+         * Messages are only cached by the request, after they were appended to the write-ahead log of the
+         * instance, see {@link com.underarmour.interview.chat.storage.HotMessageLog}. The hot storage is not
+         * written to.
+         */
+        LOG
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.map.AbstractEntryProcessor;
+import com.underarmour.interview.chat.entity.HotMessage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Entry processor that removes a message from the hot cache and returns it. Runs on the partition owner
+ * under the partition lock, so when several callers race to remove the same message exactly one of them
+ * gets it back, the others get {@code null}.
+ *
+ * @author david.moore
+ */
+public class RemoveMessageProcessor extends AbstractEntryProcessor<Integer, HotMessage> {
+
+    @Override
+    public Object process(Map.Entry<Integer, HotMessage> entry) {
+        HotMessage message = entry.getValue();
+        if (message != null) {
+            entry.setValue(null);
+        }
+        return message;
+    }
+
+    /**
+     * @param results Results of the processor, {@code null} for entries that were already removed
+     * @return The messages removed by this call
+     */
+    public static List<HotMessage> removedMessages(Collection<Object> results) {
+        return results.stream()
+                .filter(Objects::nonNull)
+                .map(HotMessage.class::cast)
+                .collect(Collectors.toList());
+    }
+}
@@ -13,15 +13,12 @@
 package com.underarmour.interview.chat.config;
 
 //import com.monitorjbl.json.JsonViewSupportFactoryBean;
-import org.modelmapper.ModelMapper;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
-import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.List;
@@ -32,19 +29,8 @@ import java.util.List;
  * @author david.moore
  */
 @EnableScheduling
-@EnableAsync
 @EnableZuulProxy
 @EnableCaching
 @Configuration
 public class ChatConfig {
-
-    /**
-     * ModelMapper bean used to convert HotMessage < - > ColdMessage
-     *
-     * @return ModelMapper object
-     */
-    @Bean
-    public ModelMapper modelMapper() {
-        return new ModelMapper();
-    }
 }
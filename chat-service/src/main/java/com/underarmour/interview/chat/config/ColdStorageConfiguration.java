@@ -0,0 +1,65 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.config;
+
+import com.underarmour.interview.chat.repository.ColdChatRepository;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.ColdStore.ColdStorage;
+import com.underarmour.interview.chat.storage.JpaColdStore;
+import com.underarmour.interview.chat.storage.SegmentColdStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+/**
+ * Cold storage backend configuration
+ *
+ * @author david.moore
+ */
+@Configuration
+public class ColdStorageConfiguration {
+
+    /**
+     * Cold storage of the archived messages, the cold_message table or segment files. The table stays in the
+     * schema either way, switching back to it does not bring back the messages archived to segments.
+     *
+     * @param coldChatRepository Cold Chat Repository, the JPA backend
+     * @param hotChatRepository  Hot Chat Repository, the segment backend deletes the archived hot rows through it
+     * @param coldStorage        Backend
+     * @param directory          Directory of the segments, shared by the instances
+     * @param writer             Name of this instance in the names of its segments, unique among the instances
+     * @param segmentBytes       Size of a segment file
+     * @param blockMessages      Maximum number of messages per compressed block of a segment
+     * @param retentionDays      Days segments are kept after their newest message expired, 0 keeps them forever
+     * @param batchSize          Maximum number of ids per hot storage delete statement
+     * @return Cold storage
+     */
+    @Bean
+    public ColdStore coldStore(ColdChatRepository coldChatRepository, HotChatRepository hotChatRepository,
+                               @Value("${chat.cold-storage.type:JPA}") ColdStorage coldStorage,
+                               @Value("${chat.cold-storage.segment.directory:cold-segments}") String directory,
+                               @Value("${chat.cold-storage.segment.writer:${server.port:8080}}") String writer,
+                               @Value("${chat.cold-storage.segment.max-bytes:67108864}") int segmentBytes,
+                               @Value("${chat.cold-storage.segment.block-messages:256}") int blockMessages,
+                               @Value("${chat.cold-storage.segment.retention-days:0}") int retentionDays,
+                               @Value("${chat.archive.batch-size:1000}") int batchSize) {
+        if (coldStorage == ColdStorage.SEGMENT) {
+            return new SegmentColdStore(hotChatRepository, Paths.get(directory), writer, segmentBytes, blockMessages,
+                    retentionDays, batchSize);
+        }
+        return new JpaColdStore(coldChatRepository);
+    }
+}
@@ -13,9 +13,19 @@
 package com.underarmour.interview.chat.config;
 
 import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionConfig;
 import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.InMemoryFormat;
 import com.hazelcast.config.MapConfig;
-import com.hazelcast.config.MaxSizeConfig;
+import com.hazelcast.config.MapIndexConfig;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.config.MultiMapConfig;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.config.SerializationConfig;
+import com.underarmour.interview.chat.cache.ChatPortableFactory;
+import com.underarmour.interview.chat.cache.HotChatNearCache;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -28,16 +38,135 @@ import org.springframework.context.annotation.Configuration;
 public class HazelcastConfiguration {
 
     /**
-     * Central hazelcast configuration, creating the hot storage cache
+     * Central hazelcast configuration. Adds the write-behind map store to the hot storage cache when enabled,
+     * see {@link HotMessageMapStore}. Writes are flushed every {@code writeDelaySeconds} in batches of up to
+     * {@code writeBatchSize}, coalesced per message.
+     * <p>Adds the near cache of the hot storage cache when enabled, see {@link #nearCacheConfig(int, int)}.
      *
+     * @param hotMessageMapStore  Write-behind map store of the hot storage cache
+     * @param writeDelaySeconds   Seconds a write waits in the write-behind queue before it is flushed
+     * @param writeBatchSize      Maximum number of writes per flush batch
+     * @param nearCacheEnabled    Whether each instance keeps a near cache of the hot storage cache
+     * @param nearCacheMaxSize    Maximum number of messages in the near cache of each instance
+     * @param nearCacheTtlSeconds Seconds a message is served from the near cache before it is read again
+     * @param usernameIndex       Index of the username of the cached messages
+     * @param expirationIndex     Index of the expiration date of the cached messages
      * @return Configuration
      */
     @Bean
-    public Config hazelcastConfig() {
+    public Config hazelcastConfig(HotMessageMapStore hotMessageMapStore,
+                                  @Value("${chat.hot-storage.write-delay-seconds:1}") int writeDelaySeconds,
+                                  @Value("${chat.hot-storage.write-batch-size:500}") int writeBatchSize,
+                                  @Value("${chat.near-cache.enabled:true}") boolean nearCacheEnabled,
+                                  @Value("${chat.near-cache.max-size:100000}") int nearCacheMaxSize,
+                                  @Value("${chat.near-cache.time-to-live-seconds:60}") int nearCacheTtlSeconds,
+                                  @Value("${chat.cache.indexes.username:HASH}") IndexType usernameIndex,
+                                  @Value("${chat.cache.indexes.expiration-date:SORTED}") IndexType expirationIndex) {
+        Config config = chatConfig(usernameIndex, expirationIndex);
+        if (nearCacheEnabled) {
+            config.getMapConfig("hotChatCache").setNearCacheConfig(nearCacheConfig(nearCacheMaxSize,
+                    nearCacheTtlSeconds));
+        }
+        if (hotMessageMapStore.isEnabled()) {
+            config.getMapConfig("hotChatCache").setMapStoreConfig(new MapStoreConfig()
+                    .setImplementation(hotMessageMapStore)
+                    .setWriteDelaySeconds(writeDelaySeconds)
+                    .setWriteBatchSize(writeBatchSize)
+                    .setWriteCoalescing(true));
+        }
+        return config;
+    }
+
+    /**
+     * Hazelcast configuration of the chat caches, creating the hot storage cache of portable messages, see
+     * {@link ChatPortableFactory}, with a hash index on the username and a sorted one on the expiration date,
+     * and the username index of message ids. The hot storage cache has no TTL nor size eviction: a message only
+     * leaves it through a username read or the eviction of its expiration date, both of which archive it.
+     *
+     * @return Configuration
+     */
+    public Config chatConfig() {
+        return chatConfig(IndexType.HASH, IndexType.SORTED);
+    }
+
+    /**
+     * Hazelcast configuration of the chat caches, see {@link #chatConfig()}, with the given indexes of the hot
+     * storage cache. Without an index a query evaluates its predicate against every entry of the partitions it
+     * visits; with one it only reads the matching entries. The username query of
+     * {@link com.underarmour.interview.chat.cache.HotChatUserIndex.UsernameLookup#QUERY} needs an equality
+     * lookup, a hash index. The eviction tick queries a range of expiration dates, which only a sorted index
+     * answers. Every index costs an update on each put and remove of the cache.
+     *
+     * @param usernameIndex   Index of the username of the cached messages
+     * @param expirationIndex Index of the expiration date of the cached messages
+     * @return Configuration
+     */
+    public Config chatConfig(IndexType usernameIndex, IndexType expirationIndex) {
+        MapConfig hotChatCacheConfig = new MapConfig().setName("hotChatCache");
+        usernameIndex.addTo(hotChatCacheConfig, "username");
+        expirationIndex.addTo(hotChatCacheConfig, "expirationDate");
+
+        // Only entries put with a TTL (listener eviction mode) expire. Hazelcast sweeps 10% of each partition every
+        // 5 seconds by default, delaying their expiration events, and archival, by up to a minute. The sweep is
+        // partition local and only inspects record metadata, so sweep every partition fully once a second.
+        // Local queries, like the eviction tick's, scan the partitions of the member in parallel.
         return new Config().setInstanceName("hazelcast-instance")
-                .addMapConfig(new MapConfig().setName("hotChatCacheCache")
-                        .setMaxSizeConfig(new MaxSizeConfig(300, MaxSizeConfig.MaxSizePolicy.FREE_HEAP_SIZE))
-                        .setEvictionPolicy(EvictionPolicy.LRU)
-                        .setTimeToLiveSeconds(2000));
+                .setProperty("hazelcast.internal.map.expiration.task.period.seconds", "1")
+                .setProperty("hazelcast.internal.map.expiration.cleanup.percentage", "100")
+                .setProperty("hazelcast.query.predicate.parallel.evaluation", "true")
+                .setSerializationConfig(new SerializationConfig()
+                        .addPortableFactory(ChatPortableFactory.FACTORY_ID, new ChatPortableFactory()))
+                .addMapConfig(hotChatCacheConfig)
+                .addMultiMapConfig(new MultiMapConfig().setName("hotChatUserIndex")
+                        .setValueCollectionType(MultiMapConfig.ValueCollectionType.SET));
+    }
+
+    /**
+     * Near cache of the hot storage cache: each instance keeps the messages it read from other members, so
+     * repeated GET /chat/{id} of a popular message is answered without a remote call. Messages never change,
+     * an entry only goes stale when its message leaves the cache. Hazelcast invalidates the entries of removed
+     * messages asynchronously, in batches; the archival also invalidates them on every member before it
+     * archives them, see {@link HotChatNearCache}, so no near cache serves a message that is archived.
+     * <p>Entries are kept deserialized, readers share the instances and must not modify them. Entries owned by
+     * the instance itself are not near cached, they are read locally already. The TTL bounds how long an
+     * entry an invalidation missed, e.g. of a member that left mid-broadcast, can be served.
+     *
+     * @param maxSize    Maximum number of near cached messages, least recently used ones are evicted beyond
+     * @param ttlSeconds Seconds an entry is served before the message is read again
+     * @return Near cache configuration of the hot storage cache
+     */
+    public static NearCacheConfig nearCacheConfig(int maxSize, int ttlSeconds) {
+        return new NearCacheConfig("hotChatCache")
+                .setInMemoryFormat(InMemoryFormat.OBJECT)
+                .setInvalidateOnChange(true)
+                .setCacheLocalEntries(false)
+                .setSerializeKeys(false)
+                .setTimeToLiveSeconds(ttlSeconds)
+                .setEvictionConfig(new EvictionConfig(maxSize, EvictionConfig.MaxSizePolicy.ENTRY_COUNT,
+                        EvictionPolicy.LRU));
+    }
+
+    /**
+     * Index of an attribute of the cached messages.
+     */
+    public enum IndexType {
+        /**
+         * Not indexed, queries scan every entry
+         */
+        NONE,
+        /**
+         * Unordered index, answers equality predicates
+         */
+        HASH,
+        /**
+         * Ordered index, answers equality and range predicates
+         */
+        SORTED;
+
+        void addTo(MapConfig mapConfig, String attribute) {
+            if (this != NONE) {
+                mapConfig.addMapIndexConfig(new MapIndexConfig(attribute, this == SORTED));
+            }
+        }
     }
 }
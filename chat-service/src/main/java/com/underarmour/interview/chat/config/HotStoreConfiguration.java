@@ -0,0 +1,61 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.config;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import com.underarmour.interview.chat.storage.HotStore;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import com.underarmour.interview.chat.storage.OffHeapHotStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hot store configuration
+ *
+ * @author david.moore
+ */
+@Configuration
+public class HotStoreConfiguration {
+
+    /**
+     * Cache of the unexpired messages, the hotChatCache IMap or direct buffers of this instance. The off-heap
+     * store is not shared by the instances: it needs the POLLING eviction, and a hot storage the messages are
+     * read back from since it is not the system of record.
+     *
+     * @param instance         Hazelcast instance of the hotChatCache IMap
+     * @param hotStorage       Store
+     * @param slabBytes        Size of a direct buffer of the off-heap store
+     * @param expectedMessages Number of messages the off-heap id table holds without growing
+     * @param hotStorageWrite  How new messages reach the hot storage, the write-behind map store only backs the
+     *                         IMap
+     * @return Hot store
+     */
+    @Bean
+    public HotStore hotStore(HazelcastInstance instance,
+                             @Value("${chat.hot-store.type:HAZELCAST}") HotStorage hotStorage,
+                             @Value("${chat.hot-store.off-heap.slab-bytes:67108864}") int slabBytes,
+                             @Value("${chat.hot-store.off-heap.expected-messages:1000000}") int expectedMessages,
+                             @Value("${chat.hot-storage.write:THROUGH}") HotStorageWrite hotStorageWrite) {
+        if (hotStorage == HotStorage.OFF_HEAP) {
+            if (hotStorageWrite == HotStorageWrite.BEHIND) {
+                throw new IllegalStateException("The off-heap hot store has no write-behind map store, use the "
+                        + "THROUGH or LOG hot storage write");
+            }
+            return new OffHeapHotStore(slabBytes, expectedMessages);
+        }
+        return new HazelcastHotStore(instance);
+    }
+}
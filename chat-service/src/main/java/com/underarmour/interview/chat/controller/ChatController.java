@@ -12,30 +12,51 @@
  */
 package com.underarmour.interview.chat.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics.Tier;
 import com.underarmour.interview.chat.model.TimedMessage;
 import com.underarmour.interview.chat.service.ChatService;
-import com.underarmour.interview.chat.view.IdView;
-import com.underarmour.interview.chat.view.LongView;
-import com.underarmour.interview.chat.view.TextView;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.TypeToken;
+import com.underarmour.interview.chat.service.ChatService.TieredMessage;
+import com.underarmour.interview.chat.view.BatchItemView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Chat service main API entry point
@@ -45,19 +66,40 @@ import java.util.List;
 @RestController
 public class ChatController {
     private static Logger log = LoggerFactory.getLogger(ChatController.class);
-    private ModelMapper modelMapper;
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    // A year, the longest max-age caches are asked to honor
+    private static final long MAX_AGE_SECONDS = TimeUnit.DAYS.toSeconds(365);
+    static final String IMMUTABLE = CacheControl.maxAge(MAX_AGE_SECONDS, TimeUnit.SECONDS).cachePublic()
+            .getHeaderValue() + ", immutable";
+    private MessageMapper messageMapper;
     private final ChatService chatService;
+    private final ObjectMapper objectMapper;
+    private final int maxBatchSize;
+    private final int chunkSize;
+    private final int retentionDays;
 
     /**
      * Constructor.
      *
-     * @param modelMapper ModelMapper for converting objects to and from
+     * @param messageMapper Mapper converting messages to the response views
      * @param chatService Chat Service for backend logic
+     * @param objectMapper Json mapper reading the messages of a batch one at a time, and writing the messages
+     *                     of a username one chunk at a time
+     * @param maxBatchSize Maximum number of messages in a batch
+     * @param chunkSize Maximum number of messages of a username read from the cache and written at a time
+     * @param retentionDays Days the cold storage keeps messages after their expiration date, 0 keeps them forever
      */
     @Autowired
-    public ChatController(ModelMapper modelMapper, ChatService chatService) {
-        this.modelMapper = modelMapper;
+    public ChatController(MessageMapper messageMapper, ChatService chatService, ObjectMapper objectMapper,
+                          @Value("${chat.batch.max-size:10000}") int maxBatchSize,
+                          @Value("${chat.username-read-chunk-size:1000}") int chunkSize,
+                          @Value("${chat.cold-storage.segment.retention-days:0}") int retentionDays) {
+        this.messageMapper = messageMapper;
         this.chatService = chatService;
+        this.objectMapper = objectMapper;
+        this.maxBatchSize = maxBatchSize;
+        this.chunkSize = chunkSize;
+        this.retentionDays = retentionDays;
     }
 
     /**
@@ -75,26 +117,85 @@ public class ChatController {
         log.info("POST /chat/ Received. RequestBody: {}", timedMessage);
 
         // Malformed incoming event check
-        if (!StringUtils.hasLength(timedMessage.getUsername())) {
-            return new ResponseEntity<>("'Username' field can not be null/empty!", HttpStatus.BAD_REQUEST);
-        }
-        if (!StringUtils.hasLength(timedMessage.getText())) {
-            return new ResponseEntity<>("'Text' field can not be null/empty!", HttpStatus.BAD_REQUEST);
-        }
-        if (timedMessage.getTimeout() <= 0) {
-            return new ResponseEntity<>("'Timeout' must be greater than 0!", HttpStatus.BAD_REQUEST);
+        String error = validate(timedMessage);
+        if (error != null) {
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
         }
 
         // Save the message to the repository and cache
         HotMessage hotMessage = chatService.saveMessage(timedMessage);
 
         // Simple 'id' json response
-        return new ResponseEntity<>(modelMapper.map(hotMessage, IdView.class), HttpStatus.CREATED);
+        return new ResponseEntity<>(messageMapper.toIdView(hotMessage), HttpStatus.CREATED);
+    }
+
+    /**
+     * POST REST endpoint to add a batch of messages into the chat, either a json array of {@link TimedMessage}
+     * or an NDJSON stream of them, one per line. The messages are read one at a time, each one that is
+     * malformed or invalid is rejected on its own, the valid ones are saved together, see
+     * {@link ChatService#saveMessages(List)}.
+     *
+     * @param body        Request body
+     * @param contentType Content type of the body, json or NDJSON
+     * @return Json array with, for each message in request order, the 'id' of the persisted message or the
+     * 'error' it was rejected for. BAD_REQUEST when the body is not a json array or no message was valid,
+     * PAYLOAD_TOO_LARGE above the maximum batch size.
+     * @throws IOException When the body can not be read
+     */
+    @PostMapping(value = "/chat/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE},
+            produces = "application/json")
+    @ResponseBody
+    public ResponseEntity addMessages(InputStream body,
+                                      @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType)
+            throws IOException {
+        List<BatchItem> items;
+        try {
+            items = MediaType.valueOf(APPLICATION_NDJSON_VALUE).includes(contentType)
+                    ? readNdjsonBatch(body) : readJsonBatch(body);
+        } catch (JsonProcessingException e) {
+            return new ResponseEntity<>("Malformed json array: " + e.getOriginalMessage(), HttpStatus.BAD_REQUEST);
+        }
+        if (items.size() > maxBatchSize) {
+            return new ResponseEntity<>("Batch can not hold more than " + maxBatchSize + " messages!",
+                    HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        log.info("POST /chat/batch/ Received. {} messages", items.size());
+
+        // Malformed incoming event check, per message
+        List<TimedMessage> valid = new ArrayList<>(items.size());
+        for (BatchItem item : items) {
+            if (item.error == null) {
+                item.error = validate(item.message);
+            }
+            if (item.error == null) {
+                valid.add(item.message);
+            }
+        }
+
+        // Save the valid messages to the repository and cache, then answer every message in request order
+        Iterator<HotMessage> saved = chatService.saveMessages(valid).iterator();
+        List<BatchItemView> views = new ArrayList<>(items.size());
+        for (BatchItem item : items) {
+            BatchItemView view = new BatchItemView();
+            if (item.error == null) {
+                view.setId(saved.next().getId());
+            } else {
+                view.setError(item.error);
+            }
+            views.add(view);
+        }
+
+        log.info("{} of {} batch messages saved", valid.size(), items.size());
+        return new ResponseEntity<>(views, valid.isEmpty() ? HttpStatus.BAD_REQUEST : HttpStatus.CREATED);
     }
 
     /**
      * GET REST endpoint to retrieve a message from the chat by {@code id}. Message retrieval is attempted
      * from the distributed cache, hot storage, then cold storage. Id is consistent across hot and cold storage.
+     * <p>A message never changes, its id is its ETag and a request whose If-None-Match holds it is answered
+     * NOT_MODIFIED. Once in cold storage the response is the same forever and is marked immutable, unless the
+     * cold storage deletes messages: it may then only be cached until the retention of the message is over. From
+     * a hot tier it may only be cached until the expiration date of the message.
      *
      * @param id ID of message to retrieve
      * @return Chat message from either hot or cold storage.
@@ -105,35 +206,161 @@ public class ChatController {
         log.info("GET /chat/{}/ received", id);
 
         // Retrieve the message from the hot/cold storage
-        HotMessage message = chatService.getMessage(id);
+        TieredMessage read = chatService.readMessage(id);
+        HotMessage message = read.getMessage();
 
         if (message == null) {
             return new ResponseEntity<>("Message id='" + id + "' not found.", HttpStatus.NOT_FOUND);
         }
-        return new ResponseEntity<>(modelMapper.map(message, LongView.class), HttpStatus.OK);
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(id))
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl(read))
+                .body(messageMapper.toLongView(message));
     }
 
     /**
-     * GET REST endpoint to retrieve all unexpired (Hot Storage) messages for the given username.
+     * @return Cache-Control of a message read by id: immutable from a cold storage without retention, cacheable
+     * until its retention is over from one with retention, and until its expiration date from a hot tier. A
+     * year at most.
+     */
+    private String cacheControl(TieredMessage read) {
+        LocalDateTime cacheableUntil = read.getMessage().getExpirationDate();
+        if (read.getTier() == Tier.COLD_STORAGE) {
+            if (retentionDays <= 0) {
+                return IMMUTABLE;
+            }
+            cacheableUntil = cacheableUntil.plusDays(retentionDays);
+        }
+        long seconds = Math.min(Duration.between(LocalDateTime.now(), cacheableUntil).getSeconds(), MAX_AGE_SECONDS);
+        return seconds > 0 ? CacheControl.maxAge(seconds, TimeUnit.SECONDS).cachePublic().getHeaderValue()
+                : CacheControl.noCache().getHeaderValue();
+    }
+
+    /**
+     * GET REST endpoint to retrieve the unexpired (Hot Storage) messages for the given username.
      * Backend logic will move these messages from the hot storage to the cold storage as they are
      * now considered expired messages.
+     * <p>The messages are streamed as a json array, a chunk at a time, so the memory a request holds does
+     * not grow with the backlog of the user. Only the messages of the chunks written to the response are
+     * expired, a client that goes away leaves the rest unexpired. With a {@code limit} the response stops
+     * after that many messages, the next request returns the following ones.
      *
      * @param username Username to retrieve unexpired messages for
-     * @return Collection of unexpired messages for user
+     * @param limit Maximum number of messages to return, all of them when not set
+     * @return Collection of unexpired messages for user. BAD_REQUEST when the limit is not positive.
      */
-    @GetMapping("/chats/{username}")
+    @GetMapping(value = "/chats/{username}", produces = "application/json")
     @ResponseBody
-    public ResponseEntity getChatsByUsername(@PathVariable String username) {
+    public ResponseEntity<StreamingResponseBody> getChatsByUsername(@PathVariable String username,
+                                                                    @RequestParam(required = false) Integer limit) {
         log.info("GET /chats/{}/ received", username);
 
-        // Retrieve the list of unexpired messages for the username
-        Collection<HotMessage> messages = chatService.getMessageByUsername(username);
+        // Streamed responses only carry a StreamingResponseBody, even the error message. It is plain text like
+        // the other errors, not the json the endpoint produces
+        if (limit != null && limit <= 0) {
+            return ResponseEntity.badRequest()
+                    .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+                    .body(out -> out.write("'Limit' must be greater than 0!".getBytes(StandardCharsets.UTF_8)));
+        }
+        int maxMessages = limit != null ? limit : Integer.MAX_VALUE;
 
-        // Convert the messages to proper format
-        java.lang.reflect.Type targetListType = new TypeToken<List<TextView>>() {}.getType();
-        List<TextView> textViews = modelMapper.map(new ArrayList<>(messages), targetListType);
+        // Retrieve the unexpired messages for the username, converted to the proper format chunk by chunk
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                int delivered = chatService.streamMessagesByUsername(username, maxMessages, chunkSize,
+                        messages -> {
+                            for (HotMessage message : messages) {
+                                generator.writeObject(messageMapper.toTextView(message));
+                            }
+                            generator.flush();
+                        });
+                generator.writeEndArray();
+                log.info("{} chats found for username='{}'", delivered, username);
+            }
+        };
+        return new ResponseEntity<>(body, HttpStatus.OK);
+    }
 
-        log.info("{} chats found for username='{}' : {}", textViews.size(), username, textViews);
-        return new ResponseEntity<>(textViews, HttpStatus.OK);
+    /**
+     * @param timedMessage Incoming message
+     * @return Why the message is malformed, null when it is valid
+     */
+    private String validate(TimedMessage timedMessage) {
+        if (timedMessage == null) {
+            return "Message can not be null!";
+        }
+        if (!StringUtils.hasLength(timedMessage.getUsername())) {
+            return "'Username' field can not be null/empty!";
+        }
+        if (!StringUtils.hasLength(timedMessage.getText())) {
+            return "'Text' field can not be null/empty!";
+        }
+        if (timedMessage.getTimeout() <= 0) {
+            return "'Timeout' must be greater than 0!";
+        }
+        return null;
+    }
+
+    /**
+     * Reads the elements of a json array one at a time. An element that is not a {@link TimedMessage} is
+     * rejected on its own, malformed json ends the whole array. Stops after one message more than the
+     * maximum batch size.
+     */
+    private List<BatchItem> readJsonBatch(InputStream body) throws IOException {
+        List<BatchItem> items = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a json array");
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY && items.size() <= maxBatchSize) {
+                items.add(readItem(parser.readValueAsTree()));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Reads one {@link TimedMessage} per non blank line, a malformed line is rejected on its own. Stops after
+     * one message more than the maximum batch size.
+     */
+    private List<BatchItem> readNdjsonBatch(InputStream body) throws IOException {
+        List<BatchItem> items = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && items.size() <= maxBatchSize) {
+                if (!line.trim().isEmpty()) {
+                    BatchItem item;
+                    try {
+                        item = readItem(objectMapper.readTree(line));
+                    } catch (JsonProcessingException e) {
+                        item = new BatchItem(null, "Malformed json: " + e.getOriginalMessage());
+                    }
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    private BatchItem readItem(TreeNode node) {
+        try {
+            return new BatchItem(objectMapper.treeToValue(node, TimedMessage.class), null);
+        } catch (JsonProcessingException e) {
+            return new BatchItem(null, "Malformed message: " + e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * Message of a batch, or the reason it was rejected.
+     */
+    private static class BatchItem {
+        private final TimedMessage message;
+        private String error;
+
+        BatchItem(TimedMessage message, String error) {
+            this.message = message;
+            this.error = error;
+        }
     }
 }
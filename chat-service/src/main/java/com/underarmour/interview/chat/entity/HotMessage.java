@@ -14,23 +14,32 @@ package com.underarmour.interview.chat.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.hazelcast.nio.serialization.Portable;
+import com.hazelcast.nio.serialization.PortableReader;
+import com.hazelcast.nio.serialization.PortableWriter;
+import com.underarmour.interview.chat.cache.ChatPortableFactory;
 
 import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import java.io.IOException;
 import java.io.Serializable;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 /**
- * Hot Storage Message entity
+ * Hot Storage Message entity. The id is assigned by the {@link com.underarmour.interview.chat.id.MessageIdGenerator}
+ * before the message is stored, it is not generated by the database.
+ * <p>In the hot cache the message is {@link Portable}: a few bytes per field instead of a Java serialized object
+ * graph, and queries read {@code username} and {@code expirationDate} straight from the serialized entry. The
+ * expiration date is written as epoch millis, see {@link #epochMillis(LocalDateTime)}, predicates on it must
+ * compare against that value.
  *
  * @author david.moore
  */
 @Entity
-public class HotMessage implements Serializable {
+public class HotMessage implements Serializable, Portable {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
     private int id;
     private String username;
     private String text;
@@ -79,6 +88,45 @@ public class HotMessage implements Serializable {
         this.expirationDate = expirationDate;
     }
 
+    @Override
+    @JsonIgnore
+    public int getFactoryId() {
+        return ChatPortableFactory.FACTORY_ID;
+    }
+
+    @Override
+    @JsonIgnore
+    public int getClassId() {
+        return ChatPortableFactory.HOT_MESSAGE_CLASS_ID;
+    }
+
+    @Override
+    public void writePortable(PortableWriter writer) throws IOException {
+        writer.writeInt("id", id);
+        writer.writeUTF("username", username);
+        writer.writeUTF("text", text);
+        writer.writeLong("expirationDate", epochMillis(expirationDate));
+    }
+
+    @Override
+    public void readPortable(PortableReader reader) throws IOException {
+        id = reader.readInt("id");
+        username = reader.readUTF("username");
+        text = reader.readUTF("text");
+        expirationDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(reader.readLong("expirationDate")), ZoneOffset.UTC);
+    }
+
+    /**
+     * Cached form of an expiration date. The local date time is encoded as if it was UTC, a fixed offset
+     * that round trips every value and orders them like the local date times.
+     *
+     * @param dateTime Expiration date
+     * @return Epoch millis the cache stores and compares for the date
+     */
+    public static long epochMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
     @Override
     public String toString() {
         return "HotMessage{" +
@@ -0,0 +1,52 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.entity;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Durable high-water mark of a message id counter: no id above it was ever handed out.
+ *
+ * @author david.moore
+ */
+@Entity
+public class MessageIdCounter {
+    @Id
+    private int id;
+    private long highWater;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public long getHighWater() {
+        return highWater;
+    }
+
+    public void setHighWater(long highWater) {
+        this.highWater = highWater;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageIdCounter{" +
+                "id=" + id +
+                ", highWater=" + highWater +
+                '}';
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of 64 bit hashes, see {@link #hash(int)} and {@link #hash(String)}. Answers whether a value may
+ * have been put, with no false negatives and a false positive rate of about the one it was sized for, as long as
+ * no more than the expected number of values were put. Values cannot be removed.
+ * <p>Safe for concurrent use without locking, bits are set by compare and swap.
+ *
+ * @author david.moore
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long size;
+    private final int hashes;
+    private final AtomicLong setBits = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param expectedInsertions Number of values the filter is sized for
+     * @param falsePositiveRate  False positive rate at the expected number of values
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        size = optimalSize(expectedInsertions, falsePositiveRate);
+        hashes = optimalHashes(expectedInsertions, size);
+        bits = new AtomicLongArray(Math.toIntExact((size + 63) / 64));
+    }
+
+    /**
+     * @param hash Hash of the value
+     */
+    public void put(long hash) {
+        for (int i = 0; i < hashes; i++) {
+            long position = position(hash, i, size);
+            int word = (int) (position >>> 6);
+            long mask = 1L << position;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+            if ((current & mask) == 0) {
+                setBits.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param hash Hash of the value
+     * @return False when the value was never put, true when it may have been
+     */
+    public boolean mightContain(long hash) {
+        for (int i = 0; i < hashes; i++) {
+            long position = position(hash, i, size);
+            if ((bits.get((int) (position >>> 6)) & (1L << position)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Probability that a value never put is reported as maybe put, estimated from the bits set so far
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) setBits.get() / size, hashes);
+    }
+
+    /**
+     * @return Number of bits
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return Number of positions set by each value
+     */
+    public int hashes() {
+        return hashes;
+    }
+
+    /**
+     * @param value Integer value
+     * @return 64 bit hash of the value
+     */
+    public static long hash(int value) {
+        return mix(value);
+    }
+
+    /**
+     * @param value String value
+     * @return 64 bit hash of the UTF-8 bytes of the value, FNV-1a then mixed
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The i-th position of a hash, by double hashing of its two 32 bit halves.
+     */
+    static long position(long hash, int i, long size) {
+        long combined = (hash & 0xffffffffL) + i * (hash >>> 32);
+        return Long.remainderUnsigned(combined, size);
+    }
+
+    static long optimalSize(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid filter size " + expectedInsertions + " at false positive "
+                    + "rate " + falsePositiveRate);
+        }
+        return Math.max(64, (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2))));
+    }
+
+    static int optimalHashes(long expectedInsertions, long size) {
+        return Math.max(1, (int) Math.round((double) size / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every input bit over the whole hash.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.filter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter with a counter rather than a bit per position, so values can be removed: a value is added once
+ * per occurrence and removed once per occurrence, and is reported absent once all its occurrences were removed.
+ * Sized and hashed like a {@link BloomFilter}, with 32 bit counters that cannot overflow in practice.
+ * <p>Removing a value more times than it was added can make another value sharing its positions look absent,
+ * a false negative. Counters never go below zero, which limits the damage to the values sharing positions.
+ * <p>Safe for concurrent use without locking, counters are updated by compare and swap.
+ *
+ * @author david.moore
+ */
+public class CountingBloomFilter {
+    private final AtomicIntegerArray counters;
+    private final int hashes;
+    private final AtomicLong nonZero = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param expectedValues    Number of distinct values present at a time the filter is sized for
+     * @param falsePositiveRate False positive rate at the expected number of values
+     */
+    public CountingBloomFilter(long expectedValues, double falsePositiveRate) {
+        long size = BloomFilter.optimalSize(expectedValues, falsePositiveRate);
+        hashes = BloomFilter.optimalHashes(expectedValues, size);
+        counters = new AtomicIntegerArray(Math.toIntExact(size));
+    }
+
+    /**
+     * @param hash        Hash of the value
+     * @param occurrences Number of occurrences added
+     */
+    public void add(long hash, int occurrences) {
+        update(hash, occurrences);
+    }
+
+    /**
+     * @param hash        Hash of the value
+     * @param occurrences Number of occurrences removed
+     */
+    public void remove(long hash, int occurrences) {
+        update(hash, -occurrences);
+    }
+
+    /**
+     * @param hash Hash of the value
+     * @return False when every occurrence of the value was removed, true when some may be left
+     */
+    public boolean mightContain(long hash) {
+        for (int i = 0; i < hashes; i++) {
+            if (counters.get((int) BloomFilter.position(hash, i, counters.length())) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Probability that an absent value is reported as maybe present, estimated from the counters above
+     * zero
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) nonZero.get() / counters.length(), hashes);
+    }
+
+    private void update(long hash, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        for (int i = 0; i < hashes; i++) {
+            int position = (int) BloomFilter.position(hash, i, counters.length());
+            int current;
+            int next;
+            do {
+                current = counters.get(position);
+                long sum = (long) current + delta;
+                next = (int) Math.max(0, Math.min(Integer.MAX_VALUE, sum));
+            } while (next != current && !counters.compareAndSet(position, current, next));
+            if (current == 0 && next > 0) {
+                nonZero.incrementAndGet();
+            } else if (current > 0 && next == 0) {
+                nonZero.decrementAndGet();
+            }
+        }
+    }
+}
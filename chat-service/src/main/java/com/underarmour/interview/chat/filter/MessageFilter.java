@@ -0,0 +1,464 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.filter;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.topic.ReliableMessageListener;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.LookupFilter;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HotStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Negative lookup filters, answering without a MySQL round trip that a read will find nothing:
+ * <ul>
+ * <li>a {@link BloomFilter} of the id of every message, hot or cold. GET /chat/{id} of an id it never saw
+ * skips both storages after the cache miss</li>
+ * <li>a {@link CountingBloomFilter} of the usernames with messages in the hot storage, counting one occurrence
+ * per message. GET /chats/{username} of a user without any skips the hot storage once the cache had nothing</li>
+ * </ul>
+ * The filters are only consulted after the cache, the messages a filter has not heard of yet are still found
+ * there. Each instance holds its own filters, loaded at startup from MySQL, and updated when messages are saved
+ * and archived. The updates of each instance are applied locally right away and published to the others in
+ * batches every {@code publish-delay-ms}, through a reliable topic.
+ * <p>Until the filters are loaded, or while they are reloaded because this instance missed updates of the
+ * others, every lookup answers that the value may exist. Reads then fall back to MySQL like without filters.
+ *
+ * @author david.moore
+ */
+@Component
+public class MessageFilter {
+    private static Logger log = LoggerFactory.getLogger(MessageFilter.class);
+    private static final String TOPIC_NAME = "chatMessageFilter";
+    // Keeps every update message well below the size of a topic item
+    private static final int MAX_UPDATE_SIZE = 10000;
+
+    private final HazelcastInstance instance;
+    private final HotChatRepository hotChatRepository;
+    private final ColdStore coldStore;
+    private final HotStore hotStore;
+    private final HotMessageMapStore hotMessageMapStore;
+    private final ChatMetrics chatMetrics;
+    private final boolean enabled;
+    private final long expectedIds;
+    private final long expectedUsernames;
+    private final double falsePositiveRate;
+    private final Queue<Integer> pendingIds = new ConcurrentLinkedQueue<>();
+    private final Map<String, Integer> pendingUsernames = new ConcurrentHashMap<>();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private ITopic<FilterUpdate> topic;
+    private String listenerId;
+    private ExecutorService loader;
+    private volatile Filters filters;
+
+    /**
+     * Constructor.
+     *
+     * @param instance           Hazelcast instance of the cache and of the update topic
+     * @param hotChatRepository  Hot Chat Repository, read once at startup
+     * @param coldStore          Cold Storage, read once at startup
+     * @param hotStore           Cache of the unexpired messages, read once at startup unless new messages are
+     *                           written through to the hot storage
+     * @param hotMessageMapStore Write-behind map store of the cache, tells how new messages reach the hot storage
+     * @param chatMetrics        Lookup meters
+     * @param enabled            Whether reads are filtered
+     * @param expectedIds        Number of message ids, hot and cold, the id filter is sized for
+     * @param expectedUsernames  Number of usernames with hot messages at a time the username filter is sized for
+     * @param falsePositiveRate  False positive rate of the filters at their expected size
+     */
+    @Autowired
+    public MessageFilter(HazelcastInstance instance, HotChatRepository hotChatRepository,
+                         ColdStore coldStore, HotStore hotStore, HotMessageMapStore hotMessageMapStore,
+                         ChatMetrics chatMetrics,
+                         @Value("${chat.filter.enabled:true}") boolean enabled,
+                         @Value("${chat.filter.expected-ids:10000000}") long expectedIds,
+                         @Value("${chat.filter.expected-usernames:100000}") long expectedUsernames,
+                         @Value("${chat.filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.instance = instance;
+        this.hotChatRepository = hotChatRepository;
+        this.coldStore = coldStore;
+        this.hotStore = hotStore;
+        this.hotMessageMapStore = hotMessageMapStore;
+        this.chatMetrics = chatMetrics;
+        this.enabled = enabled;
+        this.expectedIds = expectedIds;
+        this.expectedUsernames = expectedUsernames;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Subscribes to the updates of the other instances, then loads the filters in the background. Updates
+     * received meanwhile go to the filters being loaded.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        chatMetrics.filterFalsePositiveRate(LookupFilter.IDS, this, f -> f.expectedFalsePositiveRate(LookupFilter.IDS));
+        chatMetrics.filterFalsePositiveRate(LookupFilter.USERNAMES, this,
+                f -> f.expectedFalsePositiveRate(LookupFilter.USERNAMES));
+        loader = Executors.newSingleThreadExecutor(r -> new Thread(r, "message-filter-loader"));
+        topic = instance.getReliableTopic(TOPIC_NAME);
+        listenerId = topic.addMessageListener(new UpdateListener());
+        reload();
+    }
+
+    /**
+     * Stops listening to the other instances and publishes the last updates of this one.
+     */
+    @PreDestroy
+    public void stop() {
+        if (!enabled) {
+            return;
+        }
+        topic.removeMessageListener(listenerId);
+        loader.shutdownNow();
+        publish();
+    }
+
+    /**
+     * @return Whether the filters are loaded and answer lookups
+     */
+    public boolean isReady() {
+        Filters current = filters;
+        return current != null && current.ready;
+    }
+
+    /**
+     * Waits for the filters to be loaded.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit    Unit of the timeout
+     * @return Whether the filters are loaded
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (enabled && !isReady()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @param id Message id
+     * @return False when no message ever had the id, true when one may have
+     */
+    public boolean mightExist(int id) {
+        Filters current = filters;
+        if (!enabled || current == null || !current.ready) {
+            return true;
+        }
+        boolean positive = current.ids.mightContain(BloomFilter.hash(id));
+        chatMetrics.filterLookup(LookupFilter.IDS, positive);
+        return positive;
+    }
+
+    /**
+     * @param username Username
+     * @return False when the user has no messages in the hot storage, true when they may have some
+     */
+    public boolean mightHaveHotMessages(String username) {
+        Filters current = filters;
+        if (!enabled || current == null || !current.ready) {
+            return true;
+        }
+        boolean positive = current.usernames.mightContain(BloomFilter.hash(username));
+        chatMetrics.filterLookup(LookupFilter.USERNAMES, positive);
+        return positive;
+    }
+
+    /**
+     * Records that a positive lookup of the filter found nothing in MySQL.
+     *
+     * @param filter Filter of the lookup
+     */
+    public void falsePositive(LookupFilter filter) {
+        if (enabled) {
+            chatMetrics.filterFalsePositive(filter);
+        }
+    }
+
+    /**
+     * @param filter Filter
+     * @return False positive rate the filter estimates from its fill, not a number until it is loaded
+     */
+    public double expectedFalsePositiveRate(LookupFilter filter) {
+        Filters current = filters;
+        if (current == null || !current.ready) {
+            return Double.NaN;
+        }
+        return filter == LookupFilter.IDS ? current.ids.expectedFalsePositiveRate()
+                : current.usernames.expectedFalsePositiveRate();
+    }
+
+    /**
+     * Adds new messages, once they are in the hot storage or in the cache.
+     *
+     * @param messages New messages
+     */
+    public void added(Collection<HotMessage> messages) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        int[] ids = new int[messages.size()];
+        Map<String, Integer> usernames = new HashMap<>();
+        int i = 0;
+        for (HotMessage message : messages) {
+            ids[i++] = message.getId();
+            usernames.merge(message.getUsername(), 1, Integer::sum);
+        }
+        apply(ids, usernames);
+        for (int id : ids) {
+            pendingIds.add(id);
+        }
+        usernames.forEach((username, delta) -> pendingUsernames.merge(username, delta, Integer::sum));
+    }
+
+    /**
+     * Removes archived messages from the usernames with hot messages. Their ids stay, the messages are still
+     * found in cold storage.
+     *
+     * @param messages Messages added to cold storage, without those an earlier archival added already
+     */
+    public void archived(Collection<HotMessage> messages) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> usernames = new HashMap<>();
+        messages.forEach(message -> usernames.merge(message.getUsername(), -1, Integer::sum));
+        apply(new int[0], usernames);
+        usernames.forEach((username, delta) -> pendingUsernames.merge(username, delta, Integer::sum));
+    }
+
+    /**
+     * Publishes the updates of this instance since the last tick to the other instances.
+     */
+    @Scheduled(fixedDelayString = "${chat.filter.publish-delay-ms:100}")
+    public void publish() {
+        if (!enabled || (pendingIds.isEmpty() && pendingUsernames.isEmpty())) {
+            return;
+        }
+        List<String> usernames = new ArrayList<>();
+        List<Integer> deltas = new ArrayList<>();
+        Iterator<String> iterator = pendingUsernames.keySet().iterator();
+        while (iterator.hasNext() || !pendingIds.isEmpty()) {
+            while (iterator.hasNext() && usernames.size() < MAX_UPDATE_SIZE) {
+                String username = iterator.next();
+                Integer delta = pendingUsernames.remove(username);
+                if (delta != null && delta != 0) {
+                    usernames.add(username);
+                    deltas.add(delta);
+                }
+            }
+            int[] ids = new int[Math.min(pendingIds.size(), MAX_UPDATE_SIZE)];
+            int count = 0;
+            Integer id;
+            while (count < ids.length && (id = pendingIds.poll()) != null) {
+                ids[count++] = id;
+            }
+            if (count < ids.length) {
+                int[] polled = new int[count];
+                System.arraycopy(ids, 0, polled, 0, count);
+                ids = polled;
+            }
+            if (ids.length > 0 || !usernames.isEmpty()) {
+                topic.publish(new FilterUpdate(ids, usernames.toArray(new String[0]),
+                        deltas.stream().mapToInt(Integer::intValue).toArray()));
+            }
+            usernames.clear();
+            deltas.clear();
+        }
+    }
+
+    /**
+     * Applies an update to the filters. When a reload replaced them meanwhile, the update is applied to the new
+     * ones too, so that the load cannot miss it.
+     */
+    private void apply(int[] ids, Map<String, Integer> usernames) {
+        Filters current = filters;
+        if (current == null) {
+            return;
+        }
+        current.apply(ids, usernames);
+        Filters replaced = filters;
+        if (replaced != current) {
+            replaced.apply(ids, usernames);
+        }
+    }
+
+    /**
+     * Replaces the filters with empty ones, then fills them from MySQL in the background. Lookups answer that
+     * the value may exist until then.
+     */
+    private void reload() {
+        if (!loading.compareAndSet(false, true)) {
+            return;
+        }
+        Filters next = new Filters(new BloomFilter(expectedIds, falsePositiveRate),
+                new CountingBloomFilter(expectedUsernames, falsePositiveRate));
+        filters = next;
+        loader.execute(() -> {
+            try {
+                load(next);
+                next.ready = true;
+            } catch (RuntimeException e) {
+                log.error("Loading the message filters failed, reads are not filtered", e);
+            } finally {
+                loading.set(false);
+            }
+        });
+    }
+
+    private void load(Filters next) {
+        long start = System.nanoTime();
+        coldStore.forEachId(id -> next.ids.put(BloomFilter.hash(id)));
+        hotChatRepository.forEachUsernameAndId((username, id) -> {
+            next.ids.put(BloomFilter.hash(id));
+            next.usernames.add(BloomFilter.hash(username), 1);
+        });
+        if (hotMessageMapStore.getHotStorageWrite() != HotStorageWrite.THROUGH) {
+            // Messages not written behind yet, or only in the write-ahead log. Counting a message twice only makes
+            // its username look present for longer.
+            hotStore.forEachUsernameAndId((username, id) -> {
+                next.ids.put(BloomFilter.hash(id));
+                next.usernames.add(BloomFilter.hash(username), 1);
+            });
+        }
+        log.info("Message filters loaded in {} ms, estimated false positive rates {} (ids), {} (usernames)",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), next.ids.expectedFalsePositiveRate(),
+                next.usernames.expectedFalsePositiveRate());
+    }
+
+    /**
+     * Filters of one load.
+     */
+    private static class Filters {
+        private final BloomFilter ids;
+        private final CountingBloomFilter usernames;
+        private volatile boolean ready;
+
+        Filters(BloomFilter ids, CountingBloomFilter usernames) {
+            this.ids = ids;
+            this.usernames = usernames;
+        }
+
+        void apply(int[] ids, Map<String, Integer> usernames) {
+            for (int id : ids) {
+                this.ids.put(BloomFilter.hash(id));
+            }
+            usernames.forEach((username, delta) -> {
+                if (delta > 0) {
+                    this.usernames.add(BloomFilter.hash(username), delta);
+                } else {
+                    this.usernames.remove(BloomFilter.hash(username), -delta);
+                }
+            });
+        }
+    }
+
+    /**
+     * Updates of one instance, published every tick.
+     */
+    static class FilterUpdate implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int[] ids;
+        private final String[] usernames;
+        private final int[] deltas;
+
+        FilterUpdate(int[] ids, String[] usernames, int[] deltas) {
+            this.ids = ids;
+            this.usernames = usernames;
+            this.deltas = deltas;
+        }
+    }
+
+    /**
+     * Applies the updates of the other instances. Loss tolerant: when the topic overwrote updates before they
+     * were read, the filters are reloaded rather than answering false negatives for the lost ones.
+     */
+    private class UpdateListener implements ReliableMessageListener<FilterUpdate> {
+        private long lastSequence = -1;
+
+        @Override
+        public void onMessage(Message<FilterUpdate> message) {
+            if (message.getPublishingMember() != null && message.getPublishingMember().localMember()) {
+                return;
+            }
+            FilterUpdate update = message.getMessageObject();
+            Map<String, Integer> usernames = new HashMap<>();
+            for (int i = 0; i < update.usernames.length; i++) {
+                usernames.merge(update.usernames[i], update.deltas[i], Integer::sum);
+            }
+            apply(update.ids, usernames);
+        }
+
+        @Override
+        public long retrieveInitialSequence() {
+            // The load reads what was published before the subscription
+            return -1;
+        }
+
+        @Override
+        public void storeSequence(long sequence) {
+            if (lastSequence >= 0 && sequence > lastSequence + 1) {
+                log.warn("Missed {} message filter updates, reloading the filters", sequence - lastSequence - 1);
+                reload();
+            }
+            lastSequence = sequence;
+        }
+
+        @Override
+        public boolean isLossTolerant() {
+            return true;
+        }
+
+        @Override
+        public boolean isTerminal(Throwable failure) {
+            log.error("Failed to apply a message filter update", failure);
+            return false;
+        }
+    }
+}
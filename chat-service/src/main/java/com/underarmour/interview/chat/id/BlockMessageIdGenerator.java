@@ -0,0 +1,140 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.id;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicLong;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.repository.MessageIdCounterRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out message ids from blocks reserved on a cluster wide counter. Every chat-service instance reserves
+ * a block of {@code blockSize} ids in one call, then hands them out locally without any remote call, so ids
+ * are unique across the cluster and roughly ordered by creation time. Ids of a block not used up before an
+ * instance stops are lost, leaving gaps.
+ * <p>The counter is raised above the highest id in the hot and cold tables on startup, so ids from before
+ * the counter existed, or from a previous cluster, are never handed out again. Ids only found in the write-ahead
+ * log of an instance are skipped when it replays the log, before it serves requests, see {@link #skipTo(int)}.
+ * <p>The counter only lives in Hazelcast, so the end of every reserved block is recorded in MySQL before any id
+ * of the block is handed out, one statement per block, and the counter is raised above that high-water mark on
+ * startup too. After a whole cluster restart no instance hands out an id still waiting in the write-ahead log of
+ * an instance that has not replayed it yet.
+ *
+ * @author david.moore
+ */
+@Component
+public class BlockMessageIdGenerator implements MessageIdGenerator {
+    private static Logger log = LoggerFactory.getLogger(BlockMessageIdGenerator.class);
+    private static final int COUNTER_ID = 1;
+    private final IAtomicLong counter;
+    private final MessageIdCounterRepository messageIdCounterRepository;
+    private final int blockSize;
+
+    // Next id to hand out and the last id of the reserved block
+    private long next = 1;
+    private long last = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param instance                   Hazelcast instance holding the cluster wide counter
+     * @param hotChatRepository          Hot Chat Repository, for the highest id already used
+     * @param coldStore                  Cold Storage, for the highest id already used
+     * @param messageIdCounterRepository Message Id Counter Repository, for the highest id ever reserved
+     * @param blockSize                  Number of ids reserved at a time
+     */
+    @Autowired
+    public BlockMessageIdGenerator(HazelcastInstance instance, HotChatRepository hotChatRepository,
+                                   ColdStore coldStore, MessageIdCounterRepository messageIdCounterRepository,
+                                   @Value("${chat.id.block-size:1000}") int blockSize) {
+        this.blockSize = blockSize;
+        this.messageIdCounterRepository = messageIdCounterRepository;
+        counter = instance.getAtomicLong("hotChatMessageId");
+
+        try {
+            messageIdCounterRepository.createIfAbsent(COUNTER_ID);
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Message id counter created by another instance", e);
+        }
+        raise(Math.max(Math.max(hotChatRepository.findMaxId(), coldStore.findMaxId()),
+                messageIdCounterRepository.findHighWater(COUNTER_ID)));
+    }
+
+    /**
+     * Raises the cluster wide counter to the id, and drops what is left of the reserved block when it is not
+     * above it.
+     */
+    @Override
+    public synchronized void skipTo(int highestId) {
+        raise(highestId);
+        if (next <= highestId) {
+            next = 1;
+            last = 0;
+        }
+    }
+
+    private void raise(long highestId) {
+        long current;
+        while ((current = counter.get()) < highestId) {
+            if (counter.compareAndSet(current, highestId)) {
+                log.info("Message id counter raised from {} to the highest stored id {}", current, highestId);
+            }
+        }
+    }
+
+    @Override
+    public synchronized int nextId() {
+        if (next > last) {
+            reserve(blockSize);
+        }
+        return (int) next++;
+    }
+
+    /**
+     * Hands out the ids left in the current block, then reserves the rest in a single call, rounded up to
+     * whole blocks.
+     */
+    @Override
+    public synchronized int[] nextIds(int count) {
+        int[] ids = new int[count];
+        int i = 0;
+        while (i < count && next <= last) {
+            ids[i++] = (int) next++;
+        }
+        if (i < count) {
+            int missing = count - i;
+            reserve((missing + blockSize - 1) / blockSize * blockSize);
+            while (i < count) {
+                ids[i++] = (int) next++;
+            }
+        }
+        return ids;
+    }
+
+    private void reserve(int size) {
+        long reserved = counter.getAndAdd(size);
+        if (reserved + size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Message ids exhausted, counter at " + reserved);
+        }
+        messageIdCounterRepository.raise(COUNTER_ID, reserved + size);
+        next = reserved + 1;
+        last = reserved + size;
+    }
+}
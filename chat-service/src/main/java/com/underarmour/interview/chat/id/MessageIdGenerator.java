@@ -0,0 +1,49 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.id;
+
+/**
+ * Source of message ids. Ids are unique across the cluster and stay the id of the message in every tier,
+ * from the hot cache to cold storage.
+ *
+ * @author david.moore
+ */
+@FunctionalInterface
+public interface MessageIdGenerator {
+
+    /**
+     * @return A new, never handed out, message id
+     */
+    int nextId();
+
+    /**
+     * @param count Number of ids
+     * @return {@code count} new, never handed out, message ids
+     */
+    default int[] nextIds(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    /**
+     * Makes sure the ids up to {@code highestId} are never handed out, ids used by messages the generator could
+     * not know of, e.g. replayed from a write-ahead log. Generators that never hand out a used id ignore it.
+     *
+     * @param highestId Highest id in use
+     */
+    default void skipTo(int highestId) {
+    }
+}
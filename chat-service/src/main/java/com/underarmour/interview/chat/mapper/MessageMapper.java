@@ -0,0 +1,86 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.mapper;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.view.IdView;
+import com.underarmour.interview.chat.view.LongView;
+import com.underarmour.interview.chat.view.TextView;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Converts messages between the entities and the views, field by field. These conversions run on every
+ * request and for every archived message, ModelMapper would match the properties by reflection each time.
+ *
+ * @author david.moore
+ */
+@Component
+public class MessageMapper {
+    public IdView toIdView(HotMessage message) {
+        IdView view = new IdView();
+        view.setId(message.getId());
+        return view;
+    }
+
+    public LongView toLongView(HotMessage message) {
+        LongView view = new LongView();
+        view.setUsername(message.getUsername());
+        view.setText(message.getText());
+        view.setExpirationDate(message.getExpirationDate());
+        return view;
+    }
+
+    public TextView toTextView(HotMessage message) {
+        TextView view = new TextView();
+        view.setId(message.getId());
+        view.setText(message.getText());
+        return view;
+    }
+
+    public List<TextView> toTextViews(Collection<HotMessage> messages) {
+        List<TextView> views = new ArrayList<>(messages.size());
+        for (HotMessage message : messages) {
+            views.add(toTextView(message));
+        }
+        return views;
+    }
+
+    public ColdMessage toColdMessage(HotMessage message) {
+        ColdMessage coldMessage = new ColdMessage();
+        coldMessage.setId(message.getId());
+        coldMessage.setUsername(message.getUsername());
+        coldMessage.setText(message.getText());
+        coldMessage.setExpirationDate(message.getExpirationDate());
+        return coldMessage;
+    }
+
+    public List<ColdMessage> toColdMessages(Collection<HotMessage> messages) {
+        List<ColdMessage> coldMessages = new ArrayList<>(messages.size());
+        for (HotMessage message : messages) {
+            coldMessages.add(toColdMessage(message));
+        }
+        return coldMessages;
+    }
+
+    public HotMessage toHotMessage(ColdMessage coldMessage) {
+        HotMessage message = new HotMessage(coldMessage.getUsername(), coldMessage.getText(),
+                coldMessage.getExpirationDate());
+        message.setId(coldMessage.getId());
+        return message;
+    }
+}
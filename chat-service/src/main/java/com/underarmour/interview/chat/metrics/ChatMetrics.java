@@ -0,0 +1,348 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.metrics;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.monitor.LocalMapStats;
+import com.hazelcast.monitor.NearCacheStats;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.storage.HotStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Meters of the tiered storage, exposed through the actuator metrics endpoint:
+ * <ul>
+ * <li>{@code chat.message.reads}: GET /chat/{id} reads by the tier that answered them</li>
+ * <li>{@code chat.cache.entries}, {@code chat.cache.memory}: entries and bytes of the cache owned by this
+ * instance, the cluster totals are the sum over the instances</li>
+ * <li>{@code chat.cache.near.hits}, {@code chat.cache.near.misses}: cache reads answered by the near cache of
+ * this instance, and the ones it did not answer. Messages owned by the instance are never near cached</li>
+ * <li>{@code chat.archive.submitted}: messages handed to the archival pipeline, by what triggered it</li>
+ * <li>{@code chat.archive.queue}, {@code chat.archive.wait}: messages waiting in the archival pipeline, and
+ * how long each waited for its batch</li>
+ * <li>{@code chat.archive.messages}, {@code chat.archive.duration}: messages per archival transaction and
+ * its duration</li>
+ * <li>{@code chat.archive.caller-runs}, {@code chat.archive.failures}: messages archived by their submitter
+ * because the pipeline was full, and messages whose archival failed</li>
+ * <li>{@code chat.eviction.lag}: how long after its expiration date an expired message was archived</li>
+ * <li>{@code chat.eviction.pending}: messages expired by hazelcast waiting for the drain tick</li>
+ * <li>{@code chat.filter.lookups}: lookups of the negative lookup filters, by filter and result. A negative
+ * result skipped MySQL</li>
+ * <li>{@code chat.filter.false-positives}, {@code chat.filter.false-positive-rate}: positive lookups MySQL then
+ * had nothing for, and the false positive rate each filter estimates from its own fill. The observed rate is
+ * false positives over positive lookups</li>
+ * <li>{@code chat.hot-log.messages}, {@code chat.hot-log.sync}: messages made durable per write-ahead log sync,
+ * the size of a commit group, and the duration of the sync</li>
+ * <li>{@code chat.hot-log.conflicts}: logged messages not replayed because the cache held a different message
+ * with their id</li>
+ * </ul>
+ * HTTP latencies are the {@code http.server.requests} meters of Spring Boot.
+ *
+ * @author david.moore
+ */
+@Component
+public class ChatMetrics {
+    private final MeterRegistry registry;
+    private final Map<Tier, Counter> reads = new EnumMap<>(Tier.class);
+    private final Map<ArchiveTrigger, Counter> submitted = new EnumMap<>(ArchiveTrigger.class);
+    private final Timer archiveWait;
+    private final DistributionSummary archivedMessages;
+    private final Timer archiveDuration;
+    private final Counter callerRuns;
+    private final Counter failures;
+    private final Timer evictionLag;
+    private final DistributionSummary loggedMessages;
+    private final Timer logSync;
+    private final Counter logConflicts;
+    private final Map<LookupFilter, Counter> negativeLookups = new EnumMap<>(LookupFilter.class);
+    private final Map<LookupFilter, Counter> positiveLookups = new EnumMap<>(LookupFilter.class);
+    private final Map<LookupFilter, Counter> falsePositives = new EnumMap<>(LookupFilter.class);
+
+    /**
+     * Constructor.
+     *
+     * @param registry Registry of the meters
+     * @param instance Hazelcast instance of the cache
+     */
+    @Autowired
+    public ChatMetrics(MeterRegistry registry, HazelcastInstance instance) {
+        this.registry = registry;
+
+        for (Tier tier : Tier.values()) {
+            reads.put(tier, Counter.builder("chat.message.reads")
+                    .description("GET /chat/{id} reads by the tier that answered them")
+                    .tag("tier", tier.name().toLowerCase())
+                    .register(registry));
+        }
+        for (ArchiveTrigger trigger : ArchiveTrigger.values()) {
+            submitted.put(trigger, Counter.builder("chat.archive.submitted")
+                    .description("Messages handed to the archival pipeline")
+                    .tag("trigger", trigger.name().toLowerCase())
+                    .register(registry));
+        }
+        archiveWait = Timer.builder("chat.archive.wait")
+                .description("Time a message waited in the archival pipeline")
+                .register(registry);
+        archivedMessages = DistributionSummary.builder("chat.archive.messages")
+                .description("Messages moved to cold storage per archival transaction")
+                .register(registry);
+        archiveDuration = Timer.builder("chat.archive.duration")
+                .description("Time to move a batch of messages to cold storage")
+                .register(registry);
+        callerRuns = Counter.builder("chat.archive.caller-runs")
+                .description("Messages archived by their submitter because the archival pipeline was full")
+                .register(registry);
+        failures = Counter.builder("chat.archive.failures")
+                .description("Messages whose archival failed")
+                .register(registry);
+        evictionLag = Timer.builder("chat.eviction.lag")
+                .description("Time from the expiration date of a message to its archival")
+                .register(registry);
+        loggedMessages = DistributionSummary.builder("chat.hot-log.messages")
+                .description("Messages made durable per write-ahead log sync")
+                .register(registry);
+        logSync = Timer.builder("chat.hot-log.sync")
+                .description("Time to force the write-ahead log to disk")
+                .register(registry);
+        logConflicts = Counter.builder("chat.hot-log.conflicts")
+                .description("Logged messages not replayed because the cache held a different message with their id")
+                .register(registry);
+        for (LookupFilter filter : LookupFilter.values()) {
+            negativeLookups.put(filter, filterLookups(filter, "negative"));
+            positiveLookups.put(filter, filterLookups(filter, "positive"));
+            falsePositives.put(filter, Counter.builder("chat.filter.false-positives")
+                    .description("Positive filter lookups MySQL had nothing for")
+                    .tag("filter", filter.name().toLowerCase())
+                    .register(registry));
+        }
+
+        IMap<Integer, HotMessage> hotChatCache = instance.getMap("hotChatCache");
+        FunctionCounter.builder("chat.cache.near.hits", hotChatCache,
+                c -> nearCacheStat(c, NearCacheStats::getHits))
+                .description("Cache reads answered by the near cache of this instance")
+                .register(registry);
+        FunctionCounter.builder("chat.cache.near.misses", hotChatCache,
+                c -> nearCacheStat(c, NearCacheStats::getMisses))
+                .description("Cache reads the near cache of this instance did not answer")
+                .register(registry);
+    }
+
+    /**
+     * @param tier Tier a GET /chat/{id} read was answered from
+     */
+    public void read(Tier tier) {
+        reads.get(tier).increment();
+    }
+
+    /**
+     * @param trigger  What moved the messages
+     * @param messages Number of messages handed to the archival pipeline
+     */
+    public void submitted(ArchiveTrigger trigger, int messages) {
+        submitted.get(trigger).increment(messages);
+    }
+
+    /**
+     * @param waitNanos Time from the submission of a message to the start of its archival
+     */
+    public void archiveWait(long waitNanos) {
+        archiveWait.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param messages      Messages moved to cold storage in one transaction
+     * @param durationNanos Duration of the transaction
+     */
+    public void archived(int messages, long durationNanos) {
+        archivedMessages.record(messages);
+        archiveDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the eviction lag of an expired message. Not for username reads, they archive messages before
+     * their expiration date.
+     *
+     * @param message    Archived message
+     * @param archivedAt Time the archival completed
+     */
+    public void evicted(HotMessage message, LocalDateTime archivedAt) {
+        evictionLag.record(Math.max(0, Duration.between(message.getExpirationDate(), archivedAt).toNanos()),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param messages      Messages made durable by one write-ahead log sync
+     * @param durationNanos Duration of the sync
+     */
+    public void logSynced(int messages, long durationNanos) {
+        loggedMessages.record(messages);
+        logSync.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param messages Logged messages not replayed because the cache held a different message with their id
+     */
+    public void logConflicts(int messages) {
+        logConflicts.increment(messages);
+    }
+
+    /**
+     * @param messages Messages archived by their submitter because the archival pipeline was full
+     */
+    public void callerRuns(int messages) {
+        callerRuns.increment(messages);
+    }
+
+    /**
+     * @param messages Messages whose archival failed
+     */
+    public void archiveFailed(int messages) {
+        failures.increment(messages);
+    }
+
+    /**
+     * @param hotStore Cache of the unexpired messages, local statistics only
+     */
+    public void hotStore(HotStore hotStore) {
+        Gauge.builder("chat.cache.entries", hotStore, HotStore::entries)
+                .description("Cache entries held by this instance")
+                .register(registry);
+        Gauge.builder("chat.cache.memory", hotStore, HotStore::memory)
+                .description("Memory of the cache entries held by this instance")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * @param archivalPipeline Archival pipeline, kept by the caller
+     * @param size             Messages waiting in the archival pipeline
+     */
+    public <T> void archiveQueue(T archivalPipeline, ToDoubleFunction<T> size) {
+        Gauge.builder("chat.archive.queue", archivalPipeline, size)
+                .description("Messages waiting in the archival pipeline")
+                .register(registry);
+    }
+
+    /**
+     * @param expiredMessages Messages expired by hazelcast, waiting to be archived
+     */
+    public void expiredMessages(Collection<?> expiredMessages) {
+        Gauge.builder("chat.eviction.pending", expiredMessages, Collection::size)
+                .description("Messages expired by hazelcast waiting for the drain tick")
+                .register(registry);
+    }
+
+    /**
+     * @param filter   Negative lookup filter
+     * @param positive Whether the filter answered that the value may exist
+     */
+    public void filterLookup(LookupFilter filter, boolean positive) {
+        (positive ? positiveLookups : negativeLookups).get(filter).increment();
+    }
+
+    /**
+     * @param filter Negative lookup filter that answered positive for a value MySQL had nothing for
+     */
+    public void filterFalsePositive(LookupFilter filter) {
+        falsePositives.get(filter).increment();
+    }
+
+    /**
+     * @param filter            Negative lookup filter
+     * @param source            Holder of the filter
+     * @param falsePositiveRate Estimated false positive rate of the filter
+     * @param <T>               Type of the holder
+     */
+    public <T> void filterFalsePositiveRate(LookupFilter filter, T source, ToDoubleFunction<T> falsePositiveRate) {
+        Gauge.builder("chat.filter.false-positive-rate", source, falsePositiveRate)
+                .description("False positive rate the filter estimates from its fill")
+                .tag("filter", filter.name().toLowerCase())
+                .register(registry);
+    }
+
+    private Counter filterLookups(LookupFilter filter, String result) {
+        return Counter.builder("chat.filter.lookups")
+                .description("Lookups of the negative lookup filters")
+                .tag("filter", filter.name().toLowerCase())
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static double nearCacheStat(IMap<?, ?> cache, ToLongFunction<NearCacheStats> stat) {
+        LocalMapStats stats = cache.getLocalMapStats();
+        // No near cache configured
+        if (stats == null || stats.getNearCacheStats() == null) {
+            return 0;
+        }
+        return stat.applyAsLong(stats.getNearCacheStats());
+    }
+
+    /**
+     * Where a GET /chat/{id} read was answered from.
+     */
+    public enum Tier {
+        CACHE,
+        HOT_STORAGE,
+        COLD_STORAGE,
+        NOT_FOUND
+    }
+
+    /**
+     * What moved messages from the hot storage to the cold storage.
+     */
+    public enum ArchiveTrigger {
+        /**
+         * GET /chats/{username}, before the expiration date
+         */
+        USERNAME,
+        /**
+         * The eviction tick of the polling eviction mode
+         */
+        POLLING,
+        /**
+         * The drain tick of the listener eviction mode
+         */
+        LISTENER
+    }
+
+    /**
+     * Negative lookup filters, see {@link com.underarmour.interview.chat.filter.MessageFilter}.
+     */
+    public enum LookupFilter {
+        /**
+         * Ids of every message, GET /chat/{id}
+         */
+        IDS,
+        /**
+         * Usernames with hot messages, GET /chats/{username}
+         */
+        USERNAMES
+    }
+}
@@ -13,6 +13,7 @@
 package com.underarmour.interview.chat.repository;
 
 import com.underarmour.interview.chat.entity.ColdMessage;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
@@ -22,5 +23,11 @@ import org.springframework.stereotype.Repository;
  * @author david.moore
  */
 @Repository
-public interface ColdChatRepository extends CrudRepository<ColdMessage, Integer> {
+public interface ColdChatRepository extends CrudRepository<ColdMessage, Integer>, ColdChatRepositoryCustom {
+
+    /**
+     * @return Highest message id in the table, 0 when empty
+     */
+    @Query("select coalesce(max(m.id), 0) from ColdMessage m")
+    int findMaxId();
 }
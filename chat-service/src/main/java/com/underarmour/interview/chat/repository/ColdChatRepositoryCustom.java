@@ -0,0 +1,57 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.repository;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Cold Chat Repository operations not derived by Spring Data
+ *
+ * @author david.moore
+ */
+public interface ColdChatRepositoryCustom {
+
+    /**
+     * Moves messages to cold storage in one transaction, with set based SQL: JDBC batched inserts into the
+     * cold storage, and deletes of the same ids from the hot storage in chunks of IN lists. Unlike
+     * {@code saveAll} and {@code deleteAll}, no message is selected first and no statement is sent per message.
+     * <p>Messages already in cold storage are skipped, archiving a message twice is harmless. Two concurrent
+     * transactions archiving the same message can still fail on the primary key, the loser can be retried.
+     *
+     * @param messages          Messages to insert into cold storage
+     * @param deleteHotMessages Whether to delete the hot storage rows of the messages
+     * @return Ids of the messages inserted, from the update count of each insert. An unknown count is taken as
+     * skipped
+     */
+    Set<Integer> archive(Collection<ColdMessage> messages, boolean deleteHotMessages);
+
+    /**
+     * Reads the id of every message in cold storage, one row at a time, without loading the entities.
+     *
+     * @param action Receives each id
+     */
+    void forEachId(IntConsumer action);
+
+    /**
+     * Reads the ids of the messages in cold storage in a range of ids, a range scan of the primary key.
+     *
+     * @param minId  Lowest id of the range
+     * @param maxId  Highest id of the range
+     * @param action Receives each id in the range
+     */
+    void forEachId(int minId, int maxId, IntConsumer action);
+}
@@ -0,0 +1,113 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.repository;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Implementation of {@link ColdChatRepositoryCustom}, picked up by Spring Data for {@link ColdChatRepository}
+ *
+ * @author david.moore
+ */
+public class ColdChatRepositoryImpl implements ColdChatRepositoryCustom {
+    // Skips messages already archived, by another trigger or instance
+    private static final String INSERT_COLD_MESSAGE = "insert into cold_message (id, username, text, expiration_date) "
+            + "select :id, :username, :text, :expirationDate from dual "
+            + "where not exists (select 1 from cold_message where id = :id)";
+    private static final String DELETE_HOT_MESSAGES = "delete from hot_message where id in (:ids)";
+    private static final String SELECT_IDS = "select id from cold_message";
+    private static final String SELECT_IDS_BETWEEN = "select id from cold_message where id between :minId and :maxId";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    /**
+     * Constructor.
+     *
+     * @param jdbcTemplate JDBC template, takes part in the JPA transactions
+     * @param batchSize    Maximum number of inserts per JDBC batch, and of ids per delete statement
+     */
+    @Autowired
+    public ColdChatRepositoryImpl(NamedParameterJdbcTemplate jdbcTemplate,
+                                  @Value("${chat.archive.batch-size:1000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Transactional
+    public Set<Integer> archive(Collection<ColdMessage> messages, boolean deleteHotMessages) {
+        List<ColdMessage> pending = new ArrayList<>(messages);
+        Set<Integer> inserted = new HashSet<>();
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            List<ColdMessage> chunk = pending.subList(from, Math.min(from + batchSize, pending.size()));
+            int[] counts = jdbcTemplate.batchUpdate(INSERT_COLD_MESSAGE, chunk.stream()
+                    .map(ColdChatRepositoryImpl::insertParameters)
+                    .toArray(SqlParameterSource[]::new));
+            // 0 when the message was already archived. A driver may answer SUCCESS_NO_INFO, the message is then
+            // taken as skipped: counted as hot a little longer rather than twice as archived
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    inserted.add(chunk.get(i).getId());
+                }
+            }
+
+            if (deleteHotMessages) {
+                List<Integer> ids = new ArrayList<>(chunk.size());
+                chunk.forEach(m -> ids.add(m.getId()));
+                jdbcTemplate.update(DELETE_HOT_MESSAGES, Collections.singletonMap("ids", ids));
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public void forEachId(IntConsumer action) {
+        jdbcTemplate.getJdbcTemplate().query(SELECT_IDS, (ResultSet rs) -> {
+            action.accept(rs.getInt(1));
+        });
+    }
+
+    @Override
+    public void forEachId(int minId, int maxId, IntConsumer action) {
+        jdbcTemplate.query(SELECT_IDS_BETWEEN, new MapSqlParameterSource()
+                .addValue("minId", minId)
+                .addValue("maxId", maxId), (ResultSet rs) -> {
+            action.accept(rs.getInt(1));
+        });
+    }
+
+    private static SqlParameterSource insertParameters(ColdMessage message) {
+        return new MapSqlParameterSource()
+                .addValue("id", message.getId())
+                .addValue("username", message.getUsername())
+                .addValue("text", message.getText())
+                .addValue("expirationDate", Timestamp.valueOf(message.getExpirationDate()));
+    }
+}
@@ -13,9 +13,15 @@
 package com.underarmour.interview.chat.repository;
 
 import com.underarmour.interview.chat.entity.HotMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -24,6 +30,41 @@ import java.util.List;
  * @author david.moore
  */
 @Repository
-public interface HotChatRepository extends CrudRepository<HotMessage, Integer> {
+public interface HotChatRepository extends CrudRepository<HotMessage, Integer>, HotChatRepositoryCustom {
     List<HotMessage> findByUsername(String username);
+
+    /**
+     * @param username Username
+     * @param pageable Page of the messages to return
+     * @return One page of the messages of the user
+     */
+    List<HotMessage> findByUsername(String username, Pageable pageable);
+
+    /**
+     * @return Highest message id in the table, 0 when empty
+     */
+    @Query("select coalesce(max(m.id), 0) from HotMessage m")
+    int findMaxId();
+
+    /**
+     * Deletes the message if it still exists. Used to claim a message when several callers may race for it.
+     *
+     * @param id Message ID
+     * @return 1 if this call deleted the message, 0 if it was already gone
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from HotMessage m where m.id = :id")
+    int deleteIfPresent(@Param("id") int id);
+
+    /**
+     * Deletes the messages that exist, in a single statement.
+     *
+     * @param ids Message IDs
+     * @return Number of messages deleted
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from HotMessage m where m.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Integer> ids);
 }
@@ -0,0 +1,49 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.repository;
+
+import com.underarmour.interview.chat.entity.HotMessage;
+
+import java.util.Collection;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Hot Chat Repository operations not derived by Spring Data
+ *
+ * @author david.moore
+ */
+public interface HotChatRepositoryCustom {
+
+    /**
+     * Inserts a new message with an already assigned id. Unlike {@code save}, which has to select the row
+     * first to know whether an entity with an assigned id is new, this is a single insert.
+     *
+     * @param message New message
+     */
+    void insert(HotMessage message);
+
+    /**
+     * Inserts new messages with already assigned ids, in one transaction and in JDBC batches.
+     *
+     * @param messages New messages
+     */
+    void insertAll(Collection<HotMessage> messages);
+
+    /**
+     * Reads the id and username of every message in hot storage, one row at a time, without loading the
+     * entities.
+     *
+     * @param action Receives the username and id of each message
+     */
+    void forEachUsernameAndId(ObjIntConsumer<String> action);
+}
@@ -0,0 +1,66 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.repository;
+
+import com.underarmour.interview.chat.entity.HotMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Implementation of {@link HotChatRepositoryCustom}, picked up by Spring Data for {@link HotChatRepository}
+ *
+ * @author david.moore
+ */
+public class HotChatRepositoryImpl implements HotChatRepositoryCustom {
+    private static final String SELECT_USERNAMES_AND_IDS = "select username, id from hot_message";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param jdbcTemplate JDBC template, for the reads that do not need the entities
+     */
+    @Autowired
+    public HotChatRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    @Transactional
+    public void insert(HotMessage message) {
+        entityManager.persist(message);
+    }
+
+    @Override
+    @Transactional
+    public void insertAll(Collection<HotMessage> messages) {
+        messages.forEach(entityManager::persist);
+    }
+
+    @Override
+    public void forEachUsernameAndId(ObjIntConsumer<String> action) {
+        jdbcTemplate.query(SELECT_USERNAMES_AND_IDS, (ResultSet rs) -> {
+            action.accept(rs.getString(1), rs.getInt(2));
+        });
+    }
+}
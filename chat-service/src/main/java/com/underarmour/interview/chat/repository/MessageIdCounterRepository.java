@@ -0,0 +1,62 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.repository;
+
+import com.underarmour.interview.chat.entity.MessageIdCounter;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Message Id Counter Repository, the durable high-water marks of the message id counters
+ *
+ * @author david.moore
+ */
+@Repository
+public interface MessageIdCounterRepository extends CrudRepository<MessageIdCounter, Integer> {
+
+    /**
+     * Creates the counter at 0 unless it exists. Two instances creating it at once can still fail on the primary
+     * key, the loser finds it created.
+     *
+     * @param id Counter ID
+     * @return 1 if this call created the counter, 0 if it existed
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into message_id_counter (id, high_water) select :id, 0 from dual "
+            + "where not exists (select 1 from message_id_counter where id = :id)", nativeQuery = true)
+    int createIfAbsent(@Param("id") int id);
+
+    /**
+     * @param id Counter ID
+     * @return High-water mark of the counter, 0 when it does not exist
+     */
+    @Query("select coalesce(max(c.highWater), 0) from MessageIdCounter c where c.id = :id")
+    long findHighWater(@Param("id") int id);
+
+    /**
+     * Raises the high-water mark of the counter, never lowers it.
+     *
+     * @param id        Counter ID
+     * @param highWater New high-water mark
+     * @return 1 if this call raised the mark, 0 if it was already as high
+     */
+    @Transactional
+    @Modifying
+    @Query("update MessageIdCounter c set c.highWater = :highWater where c.id = :id and c.highWater < :highWater")
+    int raise(@Param("id") int id, @Param("highWater") long highWater);
+}
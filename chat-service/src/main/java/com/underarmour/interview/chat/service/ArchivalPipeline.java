@@ -0,0 +1,435 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.underarmour.interview.chat.cache.HotChatNearCache;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.ArchiveTrigger;
+import com.underarmour.interview.chat.storage.ColdStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Moves messages already removed from the cache to cold storage, in the background. Every archival
+ * trigger, username reads, eviction ticks and expiration drains, submits its messages to one bounded queue.
+ * Worker threads take them in batches and archive each batch in one transaction: a batch closes at
+ * {@code maxBatch} messages, or {@code lingerMillis} after its first message, whichever comes first. A
+ * message submitted twice, e.g. by a username read racing an eviction tick, is archived once.
+ * <p>Backpressure: the pipeline holds up to {@code capacity} messages, queued, requeued or in a batch being
+ * archived. A submitter waits up to {@code offerTimeoutMillis} for room, then archives the messages that did
+ * not fit itself, on its own thread, in a single attempt. Removed messages are never dropped, and a storm of
+ * username reads slows down its own requests rather than growing the queue.
+ * <p>A failed batch is retried by its worker up to {@code MAX_ATTEMPTS} times, waiting {@code retryBackoffMillis}
+ * before the first retry and twice as long before each next one, up to {@code MAX_BACKOFF_MILLIS}. A batch
+ * still failing is requeued with its backoff, ahead of new submissions, so an unavailable cold storage delays
+ * archival but loses nothing. Requeued messages keep their room: while they wait, submitters archive on their
+ * own threads, and those whose attempt fails too wait for room to requeue their messages. Submitters never
+ * back off, and the pipeline never holds more than {@code capacity} messages. Stopping the pipeline archives
+ * what is queued: only a batch failing then is logged with its ids and given up, the instance is going away.
+ *
+ * @author david.moore
+ */
+@Service
+public class ArchivalPipeline {
+    private static Logger log = LoggerFactory.getLogger(ArchivalPipeline.class);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long POLL_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private ColdStore coldStore;
+    private MessageMapper messageMapper;
+    private HotMessageMapStore hotMessageMapStore;
+    private ChatMetrics chatMetrics;
+    private MessageFilter messageFilter;
+    private HotChatNearCache hotChatNearCache;
+    private final BlockingQueue<Pending> queue;
+    private final Queue<Pending> retries = new ConcurrentLinkedQueue<>();
+    private final Semaphore room;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final long offerTimeoutNanos;
+    private final long retryBackoffMillis;
+    private final int threads;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param coldStore          Expired 'Cold' chat storage
+     * @param messageMapper      Mapper converting hot messages to cold messages
+     * @param hotMessageMapStore Write-behind map store of the cache, when enabled it deletes the hot storage
+     *                           rows of the messages removed from the cache
+     * @param chatMetrics        Archival meters
+     * @param messageFilter      Negative lookup filters, told which usernames lost hot messages
+     * @param hotChatNearCache   Near caches of the cache, the archived messages are invalidated first
+     * @param capacity           Maximum number of messages in the pipeline, requeued ones included
+     * @param maxBatch           Maximum number of messages per archival transaction
+     * @param lingerMillis       Time a batch waits for more messages after its first one
+     * @param offerTimeoutMillis Time a submitter waits for room in a full queue before archiving itself
+     * @param retryBackoffMillis Time before the first retry of a failed batch, doubled for each next one
+     * @param threads            Worker threads
+     */
+    @Autowired
+    public ArchivalPipeline(ColdStore coldStore, MessageMapper messageMapper,
+                            HotMessageMapStore hotMessageMapStore, ChatMetrics chatMetrics,
+                            MessageFilter messageFilter, HotChatNearCache hotChatNearCache,
+                            @Value("${chat.archive.queue-capacity:100000}") int capacity,
+                            @Value("${chat.archive.max-batch:5000}") int maxBatch,
+                            @Value("${chat.archive.linger-ms:100}") long lingerMillis,
+                            @Value("${chat.archive.offer-timeout-ms:100}") long offerTimeoutMillis,
+                            @Value("${chat.archive.retry-backoff-ms:100}") long retryBackoffMillis,
+                            @Value("${chat.archive.threads:2}") int threads) {
+        this.coldStore = coldStore;
+        this.messageMapper = messageMapper;
+        this.hotMessageMapStore = hotMessageMapStore;
+        this.chatMetrics = chatMetrics;
+        this.messageFilter = messageFilter;
+        this.hotChatNearCache = hotChatNearCache;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.room = new Semaphore(capacity);
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.threads = threads;
+        chatMetrics.archiveQueue(this, ArchivalPipeline::size);
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "archive-" + (i + 1));
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Stops the worker threads once the queue is empty, then archives whatever was submitted meanwhile.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        workers.clear();
+        archivePending();
+    }
+
+    /**
+     * Hands messages removed from the cache over for archival. Waits for room in a full pipeline, see
+     * {@link ArchivalPipeline}.
+     *
+     * @param trigger     What moved the messages
+     * @param hotMessages Messages removed from the cache
+     */
+    public void submit(ArchiveTrigger trigger, Collection<HotMessage> hotMessages) {
+        chatMetrics.submitted(trigger, hotMessages.size());
+        long submitted = System.nanoTime();
+        long deadline = submitted + offerTimeoutNanos;
+        List<Pending> rejected = null;
+        for (HotMessage message : hotMessages) {
+            Pending pending = new Pending(message, trigger, submitted);
+            if (rejected == null && !offer(pending, deadline)) {
+                rejected = new ArrayList<>();
+            }
+            if (rejected != null) {
+                rejected.add(pending);
+            }
+        }
+
+        if (rejected != null) {
+            log.warn("Archival queue full, archiving {} messages on the submitting thread", rejected.size());
+            chatMetrics.callerRuns(rejected.size());
+            RuntimeException failure = archive(rejected, 1);
+            if (failure != null) {
+                requeueRejected(rejected, failure);
+            }
+        }
+    }
+
+    /**
+     * @return Number of messages waiting to be archived, requeued failed batches included
+     */
+    public int size() {
+        return queue.size() + retries.size();
+    }
+
+    /**
+     * Archives the messages waiting in the queue now, on the calling thread. Requeued failed batches are
+     * retried once more first.
+     *
+     * @return Number of messages taken from the queue
+     */
+    public int archivePending() {
+        List<Pending> batch = new ArrayList<>();
+        int taken = 0;
+        int retried = retries.size();
+        while (drainRetries(batch, Math.min(retried - taken, maxBatch)) > 0 || queue.drainTo(batch, maxBatch) > 0) {
+            taken += batch.size();
+            archive(batch);
+            batch.clear();
+        }
+        return taken;
+    }
+
+    private boolean offer(Pending pending, long deadline) {
+        try {
+            if (!room.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        // Never full, it holds no more messages than there is room for
+        queue.add(pending);
+        return true;
+    }
+
+    /**
+     * Requeues messages whose archival by their submitter failed, waiting for room as long as it takes: the
+     * submitter is held back until cold storage is available again, instead of the pipeline growing.
+     */
+    private void requeueRejected(List<Pending> rejected, RuntimeException failure) {
+        if (!running) {
+            log.error("Archival of {} messages on the submitting thread failed on stop, ids {}", rejected.size(),
+                    ids(rejected), failure);
+            return;
+        }
+        log.warn("Archival of {} messages on the submitting thread failed, requeued", rejected.size(), failure);
+        for (int i = 0; i < rejected.size(); i++) {
+            try {
+                room.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                List<Pending> dropped = rejected.subList(i, rejected.size());
+                log.error("Interrupted waiting for room to requeue {} messages, ids {}", dropped.size(), ids(dropped),
+                        failure);
+                return;
+            }
+            retries.add(rejected.get(i));
+        }
+    }
+
+    private int drainRetries(List<Pending> batch, int max) {
+        Pending pending;
+        while (batch.size() < max && (pending = retries.poll()) != null) {
+            batch.add(pending);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Worker loop, runs until the pipeline stops and the queue is empty.
+     */
+    private void work() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                nextBatch(batch);
+            } catch (InterruptedException e) {
+                log.warn("Archival worker interrupted, archiving its batch of {} messages", batch.size());
+            }
+            if (!batch.isEmpty()) {
+                archive(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Takes a requeued failed batch first. Otherwise waits for a first message, then fills the batch until it is
+     * full or its linger time is over. A stopping pipeline does not linger.
+     */
+    private void nextBatch(List<Pending> batch) throws InterruptedException {
+        if (running && drainRetries(batch, maxBatch) > 0) {
+            return;
+        }
+        Pending first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatch) {
+            queue.drainTo(batch, maxBatch - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatch || remaining <= 0 || !running) {
+                return;
+            }
+            Pending next = queue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)),
+                    TimeUnit.NANOSECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    /**
+     * Archives a batch taken from the pipeline, then frees its room. A batch still failing is requeued with its
+     * room, see {@link ArchivalPipeline}.
+     */
+    private void archive(List<Pending> batch) {
+        RuntimeException failure = archive(batch, MAX_ATTEMPTS);
+        if (failure != null && running) {
+            log.warn("Archival of {} messages failed {} times, requeued", batch.size(), batch.get(0).failures,
+                    failure);
+            retries.addAll(batch);
+            return;
+        }
+        if (failure != null) {
+            log.error("Archival of {} messages failed {} times on stop, ids {}", batch.size(), batch.get(0).failures,
+                    ids(batch), failure);
+        }
+        room.release(batch.size());
+    }
+
+    /**
+     * Removes the messages from the backend hot persistence storage and adds them into cold storage, in one
+     * transaction of batched statements. The messages must already be gone from the cache.
+     * <p>With the write-behind map store, removing a message from the cache already deletes its hot storage
+     * row. Expiration by hazelcast is not a removal though, so expired messages of listener mode are still
+     * deleted here. With the write-ahead log the messages never had a row.
+     * <p>The messages are invalidated in the near caches of every instance first, so that none serves them once
+     * they are archived.
+     * <p>Failures are retried with exponential backoff, see {@link ArchivalPipeline}. A batch requeued before
+     * backs off first.
+     *
+     * @param attempts Attempts before giving up, 1 archives without any backoff
+     * @return Failure of the last attempt, null when archived
+     */
+    private RuntimeException archive(List<Pending> batch, int attempts) {
+        long start = System.nanoTime();
+        Map<Integer, Pending> messages = new LinkedHashMap<>();
+        HotStorageWrite hotStorageWrite = hotMessageMapStore.getHotStorageWrite();
+        boolean deleteHotMessages = hotStorageWrite == HotStorageWrite.THROUGH;
+        for (Pending pending : batch) {
+            messages.putIfAbsent(pending.message.getId(), pending);
+            deleteHotMessages |= hotStorageWrite == HotStorageWrite.BEHIND
+                    && pending.trigger == ArchiveTrigger.LISTENER;
+            chatMetrics.archiveWait(start - pending.submitted);
+        }
+        List<HotMessage> hotMessages = messages.values().stream()
+                .map(pending -> pending.message)
+                .collect(Collectors.toList());
+
+        int failures = messages.values().stream().mapToInt(pending -> pending.failures).max().orElse(0);
+        if (failures > 0 && running) {
+            backOff(failures);
+        }
+        Set<Integer> inserted;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                hotChatNearCache.invalidate(hotMessages);
+                inserted = coldStore.archive(messageMapper.toColdMessages(hotMessages), deleteHotMessages);
+                break;
+            } catch (RuntimeException e) {
+                failures++;
+                if (attempt == attempts || !backOff(failures)) {
+                    chatMetrics.archiveFailed(messages.size());
+                    for (Pending pending : batch) {
+                        pending.failures = failures;
+                    }
+                    return e;
+                }
+                log.warn("Archival of {} messages failed, retrying", hotMessages.size(), e);
+            }
+        }
+
+        chatMetrics.archived(hotMessages.size(), System.nanoTime() - start);
+        // Only those added by this archival, a message found already archived was counted out by its first one
+        List<HotMessage> added = new ArrayList<>(inserted.size());
+        for (HotMessage message : hotMessages) {
+            if (inserted.contains(message.getId())) {
+                added.add(message);
+            }
+        }
+        messageFilter.archived(added);
+        LocalDateTime archivedAt = LocalDateTime.now();
+        for (Pending pending : messages.values()) {
+            if (pending.trigger != ArchiveTrigger.USERNAME) {
+                chatMetrics.evicted(pending.message, archivedAt);
+            }
+        }
+        log.debug("{} messages archived", hotMessages.size());
+        return null;
+    }
+
+    private static List<Integer> ids(List<Pending> batch) {
+        return batch.stream().map(pending -> pending.message.getId()).collect(Collectors.toList());
+    }
+
+    /**
+     * Waits before the next attempt of a batch that failed {@code failures} times.
+     *
+     * @return false when interrupted
+     */
+    private boolean backOff(int failures) {
+        long backoff = retryBackoffMillis << Math.min(failures - 1, 16);
+        try {
+            TimeUnit.MILLISECONDS.sleep(Math.min(backoff, MAX_BACKOFF_MILLIS));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Message waiting for archival.
+     */
+    private static class Pending {
+        private final HotMessage message;
+        private final ArchiveTrigger trigger;
+        private final long submitted;
+        private int failures;
+
+        Pending(HotMessage message, ArchiveTrigger trigger, long submitted) {
+            this.message = message;
+            this.trigger = trigger;
+            this.submitted = submitted;
+        }
+    }
+}
@@ -12,23 +12,43 @@
  */
 package com.underarmour.interview.chat.service;
 
-import com.hazelcast.core.HazelcastInstance;
-import com.hazelcast.core.IMap;
-import com.hazelcast.query.Predicate;
-import com.hazelcast.query.Predicates;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
 import com.underarmour.interview.chat.entity.ColdMessage;
 import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.id.MessageIdGenerator;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.LookupFilter;
+import com.underarmour.interview.chat.metrics.ChatMetrics.Tier;
 import com.underarmour.interview.chat.model.TimedMessage;
-import com.underarmour.interview.chat.repository.ColdChatRepository;
 import com.underarmour.interview.chat.repository.HotChatRepository;
-import org.modelmapper.ModelMapper;
+import com.underarmour.interview.chat.service.MessageFacilitator.EvictionMode;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HotMessageLog;
+import com.underarmour.interview.chat.storage.HotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Chat service layer that persists and moves messages from hot to cold storage.
@@ -38,30 +58,53 @@ import java.util.Collection;
 @Service
 public class ChatService {
     private static Logger log = LoggerFactory.getLogger(ChatService.class);
-    private IMap<Integer, HotMessage> hotChatCache;
+    private HotStore hotStore;
     private HotChatRepository hotChatRepository;
-    private ColdChatRepository coldChatRepository;
-    private ModelMapper modelMapper;
+    private ColdStore coldStore;
+    private MessageMapper messageMapper;
     private MessageFacilitator messageFacilitator;
+    private HotChatUserIndex hotChatUserIndex;
+    private MessageIdGenerator messageIdGenerator;
+    private HotMessageMapStore hotMessageMapStore;
+    private ChatMetrics chatMetrics;
+    private MessageFilter messageFilter;
+    private HotMessageLog hotMessageLog;
 
     /**
      * Constructor.
      *
      * @param hotChatRepository Hot Chat Repository
-     * @param coldChatRepository Cold Chat Repository
-     * @param modelMapper ModelMapper to convert objects to and from
-     * @param instance Hazelcast instance to initialize cache imap
+     * @param coldStore Cold Storage
+     * @param messageMapper Mapper converting cold messages back to hot messages
+     * @param hotStore Cache of the unexpired messages
      * @param messageFacilitator Message Facilitator for backend async operations
+     * @param hotChatUserIndex Username index of the cache
+     * @param messageIdGenerator Source of the ids of new messages
+     * @param hotMessageMapStore Write-behind map store of the cache, when enabled new messages are not
+     *                           inserted into the Hot Storage by this service
+     * @param chatMetrics Meters of the tiers reads are answered from
+     * @param messageFilter Negative lookup filters, reads they rule out skip the Hot and Cold Storage
+     * @param hotMessageLog Write-ahead log of the cache, when enabled new messages are appended to it rather
+     *                      than inserted into the Hot Storage, which is then never read
      */
     @Autowired
-    public ChatService(HotChatRepository hotChatRepository, ColdChatRepository coldChatRepository,
-                       ModelMapper modelMapper, HazelcastInstance instance, MessageFacilitator messageFacilitator) {
+    public ChatService(HotChatRepository hotChatRepository, ColdStore coldStore,
+                       MessageMapper messageMapper, HotStore hotStore, MessageFacilitator messageFacilitator,
+                       HotChatUserIndex hotChatUserIndex, MessageIdGenerator messageIdGenerator,
+                       HotMessageMapStore hotMessageMapStore, ChatMetrics chatMetrics, MessageFilter messageFilter,
+                       HotMessageLog hotMessageLog) {
         this.hotChatRepository = hotChatRepository;
-        this.coldChatRepository = coldChatRepository;
-        this.modelMapper = modelMapper;
+        this.coldStore = coldStore;
+        this.messageMapper = messageMapper;
         this.messageFacilitator = messageFacilitator;
-
-        hotChatCache = instance.getMap("hotChatCache");
+        this.hotChatUserIndex = hotChatUserIndex;
+        this.messageIdGenerator = messageIdGenerator;
+        this.hotMessageMapStore = hotMessageMapStore;
+        this.chatMetrics = chatMetrics;
+        this.messageFilter = messageFilter;
+        this.hotMessageLog = hotMessageLog;
+        this.hotStore = hotStore;
+        chatMetrics.hotStore(hotStore);
     }
 
     /**
@@ -75,66 +118,310 @@ public class ChatService {
         // Expiration datetime is the number of seconds from TimedMessage 'timeout' field, from now.
         LocalDateTime expireTime = LocalDateTime.now().plusSeconds(timedMessage.getTimeout());
 
-        // Create a new Hot Message and persist it to the Hot Storage. The message returned contains populated
-        // 'id' primary key identifier from JPA. Store this message in the cache.
+        // Create a new Hot Message with an id from the cluster wide generator, no database round trip, and
+        // persist it to the Hot Storage, unless the cache writes it behind, or to the write-ahead log. Store this
+        // message in the cache.
         HotMessage hotMessage = new HotMessage(timedMessage.getUsername(), timedMessage.getText(), expireTime);
-        hotMessage = hotChatRepository.save(hotMessage);
-        hotChatCache.put(hotMessage.getId(), hotMessage);
+        hotMessage.setId(messageIdGenerator.nextId());
+        if (hotMessageLog.isEnabled()) {
+            hotMessageLog.append(Collections.singletonList(hotMessage));
+        } else if (!hotMessageMapStore.isEnabled()) {
+            hotChatRepository.insert(hotMessage);
+        }
+        cacheMessage(hotMessage, false);
+        messageFilter.added(Collections.singletonList(hotMessage));
 
         return hotMessage;
     }
 
+    /**
+     * Batch version of {@link #saveMessage(TimedMessage)}. The ids are allocated in bulk, the messages are
+     * inserted into the Hot Storage in one transaction of JDBC batches, unless the cache writes them behind,
+     * or appended to the write-ahead log with a single sync, and put into the cache in one call per member
+     * rather than one per message.
+     *
+     * @param timedMessages Valid messages with data to be converted
+     * @return HotMessages, in the order of the TimedMessages
+     */
+    public List<HotMessage> saveMessages(List<TimedMessage> timedMessages) {
+        LocalDateTime now = LocalDateTime.now();
+        int[] ids = messageIdGenerator.nextIds(timedMessages.size());
+        List<HotMessage> hotMessages = new ArrayList<>(timedMessages.size());
+        for (int i = 0; i < ids.length; i++) {
+            TimedMessage timedMessage = timedMessages.get(i);
+            HotMessage hotMessage = new HotMessage(timedMessage.getUsername(), timedMessage.getText(),
+                    now.plusSeconds(timedMessage.getTimeout()));
+            hotMessage.setId(ids[i]);
+            hotMessages.add(hotMessage);
+        }
+        if (hotMessageLog.isEnabled()) {
+            hotMessageLog.append(hotMessages);
+        } else if (!hotMessages.isEmpty() && !hotMessageMapStore.isEnabled()) {
+            hotChatRepository.insertAll(hotMessages);
+        }
+        cacheMessages(hotMessages);
+        messageFilter.added(hotMessages);
+
+        return hotMessages;
+    }
+
     /**
      * Get chat message regardless if expired or unexpired. Therefore cache should be checked first,
-     * then backing cache in case cache was not populated, then cold storage.
+     * then backing cache in case cache was not populated, then cold storage. An id the {@link MessageFilter}
+     * never saw is not looked up in either storage.
+     * <p>A message found in the backing storage is not cached again: it may have left the cache already, read by
+     * username or expired, with its row only deleted by its archival. Cached again, it would be returned by the
+     * next username read a second time, and archived twice.
      *
      * @param id Message ID to retrieve
      * @return HotMessage
      */
     public HotMessage getMessage(int id) {
-        // Attempt message retrieval from cache first
-        HotMessage message = hotChatCache.get(id);
+        return readMessage(id).getMessage();
+    }
+
+    /**
+     * Same as {@link #getMessage(int)}, along with the tier that answered. A message answered by the cold
+     * storage never changes again, one of the hot tiers only until its expiration date.
+     *
+     * @param id Message ID to retrieve
+     * @return Message, null when not found, and the tier that answered
+     */
+    public TieredMessage readMessage(int id) {
+        // Attempt message retrieval from cache first, the near cache of this instance when it has the message
+        HotMessage message = hotStore.get(id);
         if (message != null) {
-            return message;
+            return read(message, Tier.CACHE);
         }
 
-        // Attempt message retrieval from backend persisted Hot Storage
-        message = hotChatRepository.findById(id).orElse(null);
+        // Ids that never existed, e.g. of scrapers, are answered without a MySQL round trip
+        if (!messageFilter.mightExist(id)) {
+            return read(null, Tier.NOT_FOUND);
+        }
+
+        // Attempt message retrieval from backend persisted Hot Storage, empty with the write-ahead log
+        message = hotMessageLog.isEnabled() ? null : hotChatRepository.findById(id).orElse(null);
         if (message != null) {
-            // Found a message in the repo but not cache, add it back into the cache
-            hotChatCache.put(message.getId(), message);
-            return message;
+            return read(message, Tier.HOT_STORAGE);
         }
 
         // Finally, attempt message retrieval from cold storage
-        ColdMessage coldMessage = coldChatRepository.findById(id).orElse(null);
+        ColdMessage coldMessage = coldStore.findById(id).orElse(null);
         if (coldMessage != null) {
             // Convert Cold to Hot for rest response
-            message = new HotMessage(coldMessage.getUsername(), coldMessage.getText(), coldMessage.getExpirationDate());
+            return read(messageMapper.toHotMessage(coldMessage), Tier.COLD_STORAGE);
         }
+        messageFilter.falsePositive(LookupFilter.IDS);
+        return read(null, Tier.NOT_FOUND);
+    }
 
-        return message;
+    private TieredMessage read(HotMessage message, Tier tier) {
+        chatMetrics.read(tier);
+        return new TieredMessage(message, tier);
     }
 
     /**
-     * Get unexpired chat messages by username
+     * Puts the message into the cache, with the TTL of {@link #ttlMillis(HotMessage)}, then into the username
+     * index.
+     * <p>A message read back from the Hot Storage is put transient, it must not be written behind again.
+     *
+     * @param message Message to cache
+     * @param stored  Whether the message already is in the Hot Storage
+     */
+    private void cacheMessage(HotMessage message, boolean stored) {
+        hotStore.put(message, ttlMillis(message), stored);
+        hotChatUserIndex.add(message);
+    }
+
+    /**
+     * Puts new messages into the cache, in one call, then into the username index.
+     *
+     * @param messages New messages to cache
+     */
+    private void cacheMessages(List<HotMessage> messages) {
+        hotStore.putAll(messages, this::ttlMillis);
+        messages.forEach(hotChatUserIndex::add);
+    }
+
+    /**
+     * @param message Message to cache
+     * @return TTL of the cache entry. In listener eviction mode the time left until the expiration date of the
+     * message, so hazelcast expires it. A message already past its expiration date gets the smallest possible
+     * TTL, it expires right away and is archived like any other. Otherwise negative, the TTL of the map
+     * configuration.
+     */
+    private long ttlMillis(HotMessage message) {
+        if (messageFacilitator.getEvictionMode() != EvictionMode.LISTENER) {
+            return -1;
+        }
+        return Math.max(1, Duration.between(LocalDateTime.now(), message.getExpirationDate()).toMillis());
+    }
+
+    /**
+     * Caches the messages of the write-ahead log again after a restart, see {@link HotMessageLog#replay}. Their
+     * ids may be missing from the hot and cold storage the id generator starts above, after a restart of the
+     * whole cluster, so it skips them first.
+     */
+    @PostConstruct
+    public void replayHotMessageLog() {
+        if (hotMessageLog.isEnabled()) {
+            messageIdGenerator.skipTo(hotMessageLog.findMaxId());
+            hotMessageLog.replay(messages -> {
+                cacheMessages(messages);
+                messageFilter.added(messages);
+            });
+        }
+    }
+
+    /**
+     * Writes the messages waiting in the write-behind queues of this instance to the Hot Storage before it
+     * stops. The backups of the other instances would write them too, but the last instance has none.
+     */
+    @PreDestroy
+    public void flushHotStorage() {
+        if (hotMessageMapStore.isEnabled()) {
+            hotStore.flush();
+        }
+    }
+
+    /**
+     * Get unexpired chat messages by username, all of them at once. See
+     * {@link #streamMessagesByUsername(String, int, int, MessageChunkWriter)}, which this reads in one chunk.
      *
      * @param username Username to search for
      * @return Collection of HotMessages found by username
      */
     public Collection<HotMessage> getMessageByUsername(String username) {
-        // Create a predicate to find messages in cache by username
-        Predicate predicate = Predicates.equal("username", username);
-        Collection<HotMessage> hotMessages = hotChatCache.values(predicate);
+        List<HotMessage> hotMessages = new ArrayList<>();
+        try {
+            streamMessagesByUsername(username, Integer.MAX_VALUE, Integer.MAX_VALUE, hotMessages::addAll);
+        } catch (IOException e) {
+            // Adding to a list does not throw
+            throw new UncheckedIOException(e);
+        }
+        return hotMessages;
+    }
+
+    /**
+     * Get unexpired chat messages by username, in chunks handed to the writer one at a time. The messages are
+     * expired by this read: each chunk is removed from the cache on its partition owners in the same call that
+     * returns it, so each message is returned to exactly one caller even when several read the same username
+     * concurrently. Only the chunks the writer accepted are moved to cold storage; a chunk the writer fails on
+     * is put back, so the messages of a client that went away are still found by the next read.
+     * <p>Only the ids of the messages of the user are read upfront, through the {@link HotChatUserIndex}, or
+     * with a query over the whole cache when the index is disabled. At most one chunk of messages is held at
+     * a time.
+     * <p>When the cache has no messages for the user, the backing persistence storage is read a page at a time
+     * instead, unless the {@link MessageFilter} knows the user has no messages there. Only the caller whose
+     * delete removed a row gets the message, the same exactly once guarantee as the cache.
+     *
+     * @param username  Username to search for
+     * @param limit     Maximum number of messages to return, the others stay unexpired
+     * @param chunkSize Maximum number of messages per chunk
+     * @param writer    Receives the chunks
+     * @return Number of messages returned
+     * @throws IOException When the writer failed, the messages of the failed chunk are unexpired again
+     */
+    public int streamMessagesByUsername(String username, int limit, int chunkSize, MessageChunkWriter writer)
+            throws IOException {
+        Collection<Integer> ids = hotChatUserIndex.isEnabled() ? hotChatUserIndex.ids(username)
+                : hotStore.idsByUsername(username);
+
+        int delivered = 0;
+        List<Integer> taken = new ArrayList<>();
+        Iterator<Integer> iterator = ids.iterator();
+        try {
+            while (iterator.hasNext() && delivered < limit) {
+                Set<Integer> chunk = new HashSet<>();
+                while (iterator.hasNext() && chunk.size() < Math.min(chunkSize, limit - delivered)) {
+                    chunk.add(iterator.next());
+                }
 
-        // If no messages were found, check the backing persistence storage.
-        if (hotMessages.isEmpty()) {
+                // Remove the messages where they live, ids no longer cached were expired or read by another caller
+                List<HotMessage> hotMessages = hotStore.removeAll(chunk);
+                if (!hotMessages.isEmpty()) {
+                    try {
+                        writer.write(hotMessages);
+                    } catch (IOException | RuntimeException e) {
+                        // Not delivered, unexpire them. Their ids are still indexed.
+                        hotMessages.forEach(m -> cacheMessage(m, !hotMessageMapStore.isEnabled()));
+                        throw e;
+                    }
+                    delivered += hotMessages.size();
+                    messageFacilitator.moveHotCacheToColdStorage(hotMessages);
+                }
+                taken.addAll(chunk);
+            }
+        } finally {
+            // The ids of a username are unindexed together, removing each one scans them all
+            hotChatUserIndex.remove(username, taken);
+        }
+
+        // If no messages were found, check the backing persistence storage
+        if (delivered == 0 && !hotMessageLog.isEnabled() && messageFilter.mightHaveHotMessages(username)) {
             log.debug("No messages found in cache, checking backing persistence storage now");
-            hotMessages = hotChatRepository.findByUsername(username);
+            while (delivered < limit) {
+                List<HotMessage> page = hotChatRepository.findByUsername(username,
+                        PageRequest.of(0, Math.min(chunkSize, limit - delivered), Sort.by("id")));
+                if (page.isEmpty()) {
+                    if (delivered == 0) {
+                        messageFilter.falsePositive(LookupFilter.USERNAMES);
+                    }
+                    break;
+                }
+                List<HotMessage> hotMessages = page.stream()
+                        .filter(m -> hotChatRepository.deleteIfPresent(m.getId()) > 0)
+                        .collect(Collectors.toList());
+                if (!hotMessages.isEmpty()) {
+                    try {
+                        writer.write(hotMessages);
+                    } catch (IOException | RuntimeException e) {
+                        hotChatRepository.insertAll(hotMessages);
+                        throw e;
+                    }
+                    delivered += hotMessages.size();
+                    messageFacilitator.moveHotCacheToColdStorage(hotMessages);
+                }
+            }
         }
+        return delivered;
+    }
 
-        // Unexpired messages that are found by username are immediately expired, move to cold storage
-        messageFacilitator.moveHotCacheToColdStorage(hotMessages);
-        return hotMessages;
+    /**
+     * A message read by id and the tier that answered it, see {@link #readMessage(int)}.
+     */
+    public static class TieredMessage {
+        private final HotMessage message;
+        private final Tier tier;
+
+        public TieredMessage(HotMessage message, Tier tier) {
+            this.message = message;
+            this.tier = tier;
+        }
+
+        /**
+         * @return The message, null when not found
+         */
+        public HotMessage getMessage() {
+            return message;
+        }
+
+        public Tier getTier() {
+            return tier;
+        }
+    }
+
+    /**
+     * Receives the chunks of a username read, see
+     * {@link #streamMessagesByUsername(String, int, int, MessageChunkWriter)}.
+     */
+    @FunctionalInterface
+    public interface MessageChunkWriter {
+
+        /**
+         * @param hotMessages Messages of the chunk, expired once this returns
+         * @throws IOException When the messages could not be delivered
+         */
+        void write(List<HotMessage> hotMessages) throws IOException;
     }
-}
\ No newline at end of file
+}
@@ -12,20 +12,16 @@
  */
 package com.underarmour.interview.chat.service;
 
-import com.hazelcast.core.HazelcastInstance;
-import com.hazelcast.core.IMap;
-import com.hazelcast.query.Predicate;
-import com.hazelcast.query.Predicates;
-import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
 import com.underarmour.interview.chat.entity.HotMessage;
-import com.underarmour.interview.chat.repository.ColdChatRepository;
-import com.underarmour.interview.chat.repository.HotChatRepository;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.TypeToken;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.ArchiveTrigger;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -33,73 +29,80 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 @Service
 public class MessageFacilitator {
     private static Logger log = LoggerFactory.getLogger(MessageFacilitator.class);
-    private IMap<Integer, HotMessage> hotChatCache;
-    private HotChatRepository hotChatRepository;
-    private ColdChatRepository coldChatRepository;
-    private ModelMapper modelMapper;
+    private HotStore hotStore;
+    private ColdStore coldStore;
+    private EvictionMode evictionMode;
+    private HotChatUserIndex hotChatUserIndex;
+    private ArchivalPipeline archivalPipeline;
 
-    @SuppressWarnings("FieldCanBeLocal") // Minimize GC on the tick method
-    private Predicate expirationPredicate;
-    @SuppressWarnings("FieldCanBeLocal") // Minimize GC on the tick method
-    private Collection<HotMessage> expiringMessages;
+    // Messages expired by hazelcast, waiting to be archived by the drain tick
+    private final Queue<HotMessage> expiredMessages = new ConcurrentLinkedQueue<>();
 
     /**
      * Constructor.
      *
-     * @param hotChatRepository  Repository for unexpired 'Hot' chat storage
-     * @param coldChatRepository Repository for expired 'Cold' chat storage
-     * @param modelMapper        ModelMapper bean for converting to and from types of messages
-     * @param instance           Hazelcast instance for caching hot storage
+     * @param coldStore          Expired 'Cold' chat storage, traced around eviction ticks
+     * @param hotStore           Cache of the unexpired messages
+     * @param hotChatUserIndex   Username index of the cache, expired messages are removed from it
+     * @param archivalPipeline   Moves the messages removed from the cache to cold storage
+     * @param chatMetrics        Meter of the expired messages waiting for the drain tick
+     * @param evictionMode       How expiring messages are found, see {@link EvictionMode}
      */
     @Autowired
-    public MessageFacilitator(HotChatRepository hotChatRepository, ColdChatRepository coldChatRepository,
-                              ModelMapper modelMapper, HazelcastInstance instance) {
-        this.hotChatRepository = hotChatRepository;
-        this.coldChatRepository = coldChatRepository;
-        this.modelMapper = modelMapper;
+    public MessageFacilitator(ColdStore coldStore, HotStore hotStore,
+                              HotChatUserIndex hotChatUserIndex, ArchivalPipeline archivalPipeline,
+                              ChatMetrics chatMetrics,
+                              @Value("${chat.eviction.mode:POLLING}") EvictionMode evictionMode) {
+        this.coldStore = coldStore;
+        this.hotChatUserIndex = hotChatUserIndex;
+        this.archivalPipeline = archivalPipeline;
+        this.evictionMode = evictionMode;
+        chatMetrics.expiredMessages(expiredMessages);
 
-        hotChatCache = instance.getMap("hotChatCache");
+        this.hotStore = hotStore;
+        if (evictionMode == EvictionMode.LISTENER) {
+            // Only the instance holding an expired message is notified, each message is archived once
+            hotStore.addExpirationListener(expiredMessages::offer);
+        }
+    }
+
+    public EvictionMode getEvictionMode() {
+        return evictionMode;
     }
 
     /**
-     * Async method that runs on a worker thread to do the eviction process from hot storage to
-     * cold storage. Async desired here to increase client observed speed, or 'snappy-ness' since
-     * response for client is already populated and this is back-end processing not required
-     * to be synchronous.
-     *
-     * @param hotMessages Hot storage messages
+     * @return Number of messages expired by hazelcast that are waiting for the next drain tick
      */
-    @Async
-    public void moveHotCacheToColdStorage(Collection<HotMessage> hotMessages) {
-        log.debug("Removing messages from hot storage and adding into cold storage: {}", hotMessages);
-
-        // Evict the messages from the cache, from the backend hot persistence storage, and move to cold repository
-        hotMessages.forEach(m -> hotChatCache.delete(m.getId()));
-
-        hotChatRepository.deleteAll(hotMessages);
-        coldChatRepository.saveAll(convertToColdMessages(hotMessages));
+    int pendingExpiredMessages() {
+        return expiredMessages.size();
     }
 
     /**
-     * Converts collection of Hot Message entities to Cold Message entities
+     * Hands the messages of a username read over to the {@link ArchivalPipeline}, which moves them to cold
+     * storage in the background, so the response is not held up by the archival. The messages must already
+     * have been removed from the cache by the caller, see {@link HotStore#removeAll}.
      *
-     * @param hotMessages Hot messages to convert
-     * @return List of Cold messages
+     * @param hotMessages Hot storage messages
      */
-    private List<ColdMessage> convertToColdMessages(Collection<HotMessage> hotMessages) {
-        java.lang.reflect.Type targetListType = new TypeToken<List<ColdMessage>>() {}.getType();
-        return modelMapper.map(new ArrayList<>(hotMessages), targetListType);
+    public void moveHotCacheToColdStorage(Collection<HotMessage> hotMessages) {
+        log.debug("Removing messages from hot storage and adding into cold storage: {}", hotMessages);
+        archivalPipeline.submit(ArchiveTrigger.USERNAME, hotMessages);
     }
 
     /**
      * Scheduler executor time delay based that orchestrates an eviction timer tick to periodically
      * check the Hot Chat Storage for any messages that have reached their expiration time. Expiring
-     * messages are evicted from the cache and persisted hot storage, the messages are then persisted
-     * into cold storage.
+     * messages are evicted from the cache, then handed to the {@link ArchivalPipeline} that moves them from
+     * the persisted hot storage into cold storage.
+     * <p>Every chat-service instance runs this tick, so each one only expires the messages it holds, see
+     * {@link HotStore#removeExpired(LocalDateTime)}. Messages taken by a concurrent read are not returned by the
+     * removal and therefore never archived twice.
      * <p>Scheduler is configured as {@link Scheduled#fixedDelay()} which starts the job the configured
      * number of ms after last job iteration completes. Alternatively, depending on requirements a
      * {@link Scheduled#fixedRate()} can be used to precisely schedule a job to start the configured
@@ -109,10 +112,18 @@ public class MessageFacilitator {
      */
     @Scheduled(fixedDelay = 995)
     protected void evictionTick() {
-        // These two singletons can only be used with fixedDelay. If fixedRate is used, this will
-        // need to be converted to local variable, resulting in more garbage collection.
-        expirationPredicate = Predicates.lessEqual("expirationDate", LocalDateTime.now());
-        expiringMessages = hotChatCache.values(expirationPredicate);
+        // Hazelcast expires the entries itself in listener mode, see expirationDrainTick()
+        if (evictionMode != EvictionMode.POLLING) {
+            return;
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Hot Cache before eviction: {} messages", hotStore.entries());
+            log.trace("Cold Storage before eviction: {} messages", coldStore.count());
+        }
+
+        // Remove the expired messages, then have them moved to the cold storage
+        List<HotMessage> expiringMessages = hotStore.removeExpired(LocalDateTime.now());
 
         // Nothing to do if no messages are expiring this tick
         if (expiringMessages.isEmpty()) {
@@ -120,17 +131,50 @@ public class MessageFacilitator {
         }
 
         log.debug("{} messages found for eviction. {}", expiringMessages.size(), expiringMessages);
+        hotChatUserIndex.remove(expiringMessages);
+        archivalPipeline.submit(ArchiveTrigger.POLLING, expiringMessages);
+
         if (log.isTraceEnabled()) {
-            log.trace("Hot Cache before eviction: {}", hotChatCache.values());
-            log.trace("Cold Storage before eviction: {}", coldChatRepository.findAll());
+            log.trace("Hot Cache after eviction: {} messages", hotStore.entries());
         }
+    }
 
-        // Move the messages that are beyond expired to the cold storage
-        moveHotCacheToColdStorage(expiringMessages);
+    /**
+     * Hands the messages that hazelcast expired since the last tick to the {@link ArchivalPipeline}, listener
+     * mode only. The expiration listener only queues them, so hazelcast event threads never wait for a full
+     * pipeline, and the username index is updated once per tick. The cost of
+     * the tick follows the number of expired messages rather than the size of the cache, which is why
+     * it can afford to run much more often than {@link #evictionTick()}.
+     */
+    @Scheduled(fixedDelayString = "${chat.eviction.drain-delay-ms:100}")
+    protected void expirationDrainTick() {
+        if (evictionMode != EvictionMode.LISTENER || expiredMessages.isEmpty()) {
+            return;
+        }
 
-        if (log.isTraceEnabled()) {
-            log.trace("Hot Cache after eviction: {}", hotChatCache.values());
-            log.trace("Cold Storage after eviction: {}", coldChatRepository.findAll());
+        List<HotMessage> expired = new ArrayList<>();
+        HotMessage message;
+        while ((message = expiredMessages.poll()) != null) {
+            expired.add(message);
         }
+
+        log.debug("{} messages expired by the cache. {}", expired.size(), expired);
+        hotChatUserIndex.remove(expired);
+        archivalPipeline.submit(ArchiveTrigger.LISTENER, expired);
+    }
+
+    /**
+     * How messages reaching their expiration date are found and moved to cold storage.
+     */
+    public enum EvictionMode {
+        /**
+         * {@link #evictionTick()} queries the whole cache for expired messages about once a second.
+         */
+        POLLING,
+        /**
+         * Messages are cached with a TTL matching their timeout, hazelcast expires them and an expiration
+         * listener hands them to {@link #expirationDrainTick()} for archival.
+         */
+        LISTENER
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Cold storage of the archived messages. Cold messages are written once, never updated, and read by id.
+ *
+ * @author david.moore
+ */
+public interface ColdStore {
+
+    /**
+     * Moves messages to cold storage. Once this returns the messages are durable.
+     * <p>Archiving a message twice is harmless, a retried archival may store it again and reads return either copy.
+     *
+     * @param messages          Messages to add to cold storage
+     * @param deleteHotMessages Whether to delete the hot storage rows of the messages
+     * @return Ids of the messages this call added to cold storage, without those found there already
+     */
+    Set<Integer> archive(Collection<ColdMessage> messages, boolean deleteHotMessages);
+
+    /**
+     * @param id Message ID
+     * @return The archived message, empty if it was never archived or was dropped by retention
+     */
+    Optional<ColdMessage> findById(int id);
+
+    /**
+     * @return Highest archived message id, 0 when empty
+     */
+    int findMaxId();
+
+    /**
+     * Reads the id of every archived message, without building the messages.
+     *
+     * @param action Receives each id
+     */
+    void forEachId(IntConsumer action);
+
+    /**
+     * Reads the ids of the archived messages in a range of ids, without building the messages nor reading the
+     * rest of the ids.
+     *
+     * @param minId  Lowest id of the range
+     * @param maxId  Highest id of the range
+     * @param action Receives each id in the range
+     */
+    void forEachId(int minId, int maxId, IntConsumer action);
+
+    /**
+     * @return Number of archived messages
+     */
+    long count();
+
+    /**
+     * Where the archived messages are kept.
+     */
+    enum ColdStorage {
+        /**
+         * Rows of the cold_message table, see {@link JpaColdStore}.
+         */
+        JPA,
+        /**
+         * Compressed, memory-mapped segment files, see {@link SegmentColdStore}.
+         */
+        SEGMENT
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.projection.Projections;
+import com.hazelcast.query.Predicates;
+import com.underarmour.interview.chat.cache.RemoveMessageProcessor;
+import com.underarmour.interview.chat.entity.HotMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hot tier in the hotChatCache IMap, partitioned across the instances with a backup of every entry, see
+ * {@link com.underarmour.interview.chat.config.HazelcastConfiguration}. Every instance reads and removes every
+ * message, wherever its partition lives.
+ *
+ * @author david.moore
+ */
+public class HazelcastHotStore implements HotStore {
+    private final IMap<Integer, HotMessage> hotChatCache;
+    private final RemoveMessageProcessor removeMessageProcessor = new RemoveMessageProcessor();
+
+    /**
+     * Constructor.
+     *
+     * @param instance Hazelcast instance of the cache
+     */
+    public HazelcastHotStore(HazelcastInstance instance) {
+        hotChatCache = instance.getMap("hotChatCache");
+    }
+
+    /**
+     * A message read back from the hot storage is put transient, it must not be written behind again.
+     */
+    @Override
+    public void put(HotMessage message, long ttlMillis, boolean stored) {
+        if (stored) {
+            hotChatCache.putTransient(message.getId(), message, ttlMillis, TimeUnit.MILLISECONDS);
+        } else {
+            hotChatCache.put(message.getId(), message, ttlMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Without per entry TTLs the messages go in a single {@code putAll}, grouped by partition owner.
+     * {@code putAll} has no TTL parameter, so with TTLs they are put asynchronously, each with its own TTL, and
+     * awaited together.
+     */
+    @Override
+    public void putAll(List<HotMessage> messages, ToLongFunction<HotMessage> ttlMillis) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (ttlMillis.applyAsLong(messages.get(0)) >= 0) {
+            List<Future<Void>> puts = new ArrayList<>(messages.size());
+            for (HotMessage message : messages) {
+                puts.add(hotChatCache.setAsync(message.getId(), message, ttlMillis.applyAsLong(message),
+                        TimeUnit.MILLISECONDS));
+            }
+            for (Future<Void> put : puts) {
+                try {
+                    put.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while caching messages", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Failed to cache messages", e.getCause());
+                }
+            }
+        } else {
+            Map<Integer, HotMessage> entries = new HashMap<>();
+            messages.forEach(m -> entries.put(m.getId(), m));
+            hotChatCache.putAll(entries);
+        }
+    }
+
+    /**
+     * Served by the near cache of this instance when it has the message.
+     */
+    @Override
+    public HotMessage get(int id) {
+        return hotChatCache.get(id);
+    }
+
+    @Override
+    public Map<Integer, HotMessage> getAll(Set<Integer> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return hotChatCache.getAll(ids);
+    }
+
+    /**
+     * Queries every partition, through the username index of the map when configured. The
+     * {@link com.underarmour.interview.chat.cache.HotChatUserIndex} answers from a single partition instead.
+     */
+    @Override
+    public Collection<Integer> idsByUsername(String username) {
+        return hotChatCache.keySet(Predicates.equal("username", username));
+    }
+
+    /**
+     * Removes the messages on their partition owners, see {@link RemoveMessageProcessor}.
+     */
+    @Override
+    public List<HotMessage> removeAll(Set<Integer> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return RemoveMessageProcessor.removedMessages(hotChatCache.executeOnKeys(ids, removeMessageProcessor)
+                .values());
+    }
+
+    /**
+     * Only the keys of the partitions this instance owns. The local query and the removal both run per
+     * partition, in parallel. Keys that moved to another member during a migration, or that were taken by a
+     * concurrent read, are not returned by the removal.
+     */
+    @Override
+    public List<HotMessage> removeExpired(LocalDateTime now) {
+        Set<Integer> expiringKeys = hotChatCache.localKeySet(Predicates.lessEqual("expirationDate",
+                HotMessage.epochMillis(now)));
+        return removeAll(expiringKeys);
+    }
+
+    /**
+     * Local listener, only the partition owner of an expired entry is notified. A cluster wide listener would
+     * have every chat-service instance archive every message.
+     */
+    @Override
+    public void addExpirationListener(Consumer<HotMessage> listener) {
+        hotChatCache.addLocalEntryListener((EntryExpiredListener<Integer, HotMessage>) event ->
+                listener.accept(event.getOldValue()), Predicates.alwaysTrue(), true);
+    }
+
+    /**
+     * Projected on the partition owners, the messages are not deserialized.
+     */
+    @Override
+    public void forEachUsernameAndId(BiConsumer<String, Integer> action) {
+        for (Object[] entry : hotChatCache.project(Projections.<Map.Entry<Integer, HotMessage>>multiAttribute(
+                "id", "username"))) {
+            action.accept((String) entry[1], (Integer) entry[0]);
+        }
+    }
+
+    @Override
+    public void flush() {
+        hotChatCache.flush();
+    }
+
+    /**
+     * Local statistics only, the cluster wide size would ask every member.
+     */
+    @Override
+    public long entries() {
+        return hotChatCache.getLocalMapStats().getOwnedEntryCount();
+    }
+
+    @Override
+    public long memory() {
+        return hotChatCache.getLocalMapStats().getOwnedEntryMemoryCost();
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the hot cache. With {@link HotStorageWrite#LOG} the cache is the system of record, like
+ * with the write-behind map store, but new messages are appended to memory-mapped log files on the local disk of
+ * the instance that accepted them, and forced to disk before the request returns, rather than inserted into the
+ * hot storage. Nothing is written to MySQL until a message is archived.
+ * <p>Appends are group committed: requests copy their records into the mapping under a lock, then wait while a
+ * single flusher thread forces everything written so far to disk, one sync for every request that arrived
+ * during the previous one. The sync latency is paid once per group, not once per message.
+ * <p>On restart the log is replayed into the cache, see {@link #replay(Consumer)}. Log files are deleted by
+ * {@link #truncate()} once their messages were archived, see there.
+ * <p>The log directory belongs to one instance, it must not be shared. The messages accepted by an instance are
+ * only replayed by that instance, when it restarts on the same disk.
+ *
+ * @author david.moore
+ */
+@Component
+public class HotMessageLog {
+    private static Logger log = LoggerFactory.getLogger(HotMessageLog.class);
+    private static final String EXTENSION = ".log";
+    // Length and CRC32 of the payload
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int REPLAY_BATCH = 10000;
+    // Copy the unarchived messages of the oldest file forward once at most one in COPY_FORWARD_RATIO is left
+    private static final int COPY_FORWARD_RATIO = 10;
+
+    private final HotStore hotStore;
+    private final ColdStore coldStore;
+    private final ChatMetrics chatMetrics;
+    private final boolean enabled;
+    private final Path directory;
+    private final int fileBytes;
+    private final long archiveGraceSeconds;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    // Guarded by lock, oldest first, the active file last
+    private final Deque<LogFile> files = new ArrayDeque<>();
+    private LogFile active;
+    private long nextSequence;
+    private long written;
+    private long durable;
+    private int unsynced;
+    private boolean running;
+    private RuntimeException failure;
+    private Thread flusher;
+
+    /**
+     * Constructor.
+     *
+     * @param hotStore            Cache of the unexpired messages, messages still cached are not replayed
+     * @param coldStore           Cold Storage, messages archived there are neither replayed nor copied forward
+     * @param chatMetrics         Group commit meters
+     * @param hotStorageWrite     How new messages reach the hot storage, the log is only enabled with
+     *                            {@link HotStorageWrite#LOG}
+     * @param directory           Directory of the log files, local to this instance
+     * @param fileBytes           Size of a log file
+     * @param archiveGraceSeconds Time after its expiration date a message is assumed archived
+     */
+    @Autowired
+    public HotMessageLog(HotStore hotStore, ColdStore coldStore, ChatMetrics chatMetrics,
+                         @Value("${chat.hot-storage.write:THROUGH}") HotStorageWrite hotStorageWrite,
+                         @Value("${chat.hot-log.directory:hot-log}") String directory,
+                         @Value("${chat.hot-log.file-bytes:67108864}") int fileBytes,
+                         @Value("${chat.hot-log.archive-grace-seconds:60}") long archiveGraceSeconds) {
+        this.hotStore = hotStore;
+        this.coldStore = coldStore;
+        this.chatMetrics = chatMetrics;
+        this.enabled = hotStorageWrite == HotStorageWrite.LOG;
+        this.directory = Paths.get(directory);
+        this.fileBytes = fileBytes;
+        this.archiveGraceSeconds = archiveGraceSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Maps the log files left by the previous run, for {@link #replay(Consumer)}, and starts the flusher. New
+     * messages always go to a new file, never after the last record of an old one.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Path> paths;
+            try (Stream<Path> list = Files.list(directory)) {
+                paths = list.filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                nextSequence = Math.max(nextSequence,
+                        Long.parseLong(name.substring(0, name.length() - EXTENSION.length())) + 1);
+                LogFile file = LogFile.open(path);
+                if (file.messages == 0) {
+                    Files.delete(path);
+                } else {
+                    files.addLast(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the hot message log " + directory, e);
+        }
+        log.info("{} hot message log files, {} messages", files.size(),
+                files.stream().mapToInt(file -> file.messages).sum());
+
+        running = true;
+        flusher = new Thread(this::flush, "hot-message-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stops the flusher once every appended record is on disk. Appends fail from then on.
+     */
+    @PreDestroy
+    public void stop() {
+        if (flusher == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            running = false;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+    }
+
+    /**
+     * @return Highest logged message id, 0 when empty
+     */
+    public int findMaxId() {
+        lock.lock();
+        try {
+            return files.stream().mapToInt(file -> file.maxId).max().orElse(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the messages and waits until they are on disk, together with those of the concurrent appends.
+     * Records are encoded before taking the lock, under it they are only copied into the mapping.
+     *
+     * @param messages New messages, with their ids
+     */
+    public void append(List<HotMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = messages.stream().map(HotMessageLog::encode).collect(Collectors.toList());
+
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("The hot message log is stopped", failure);
+            }
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                if (active == null || !active.fits(record)) {
+                    roll(record.length);
+                }
+                active.put(record, messages.get(i));
+                written += record.length;
+            }
+            unsynced += records.size();
+            long end = written;
+            pending.signal();
+            while (durable < end) {
+                if (failure != null) {
+                    throw new IllegalStateException("The hot message log failed to sync the messages", failure);
+                }
+                flushed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the hot message log sync", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the records written since the last sync to disk, one sync per group of appends, until stopped.
+     */
+    private void flush() {
+        while (true) {
+            LogFile file;
+            long target;
+            int messages;
+            lock.lock();
+            try {
+                while (running && durable == written) {
+                    pending.awaitUninterruptibly();
+                }
+                if (durable == written) {
+                    return;
+                }
+                file = active;
+                target = written;
+                messages = unsynced;
+                unsynced = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            // Files rolled from were forced by the roll, under the lock
+            long start = System.nanoTime();
+            RuntimeException error = null;
+            try {
+                if (file != null) {
+                    file.buffer.force();
+                }
+                chatMetrics.logSynced(messages, System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                log.error("Failed to sync the hot message log, appends fail from now on", e);
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                if (error == null) {
+                    durable = target;
+                } else {
+                    failure = error;
+                    running = false;
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forces the active file and starts a new one, large enough for the next record. Called with the lock held.
+     */
+    private void roll(int recordLength) {
+        if (active != null) {
+            active.buffer.force();
+        }
+        Path path = directory.resolve(String.format("%019d%s", nextSequence++, EXTENSION));
+        try {
+            active = LogFile.create(path, Math.max(fileBytes, recordLength));
+        } catch (IOException e) {
+            active = null;
+            throw new IllegalStateException("Failed to create the hot message log file " + path, e);
+        }
+        files.addLast(active);
+        log.debug("Appending to hot message log file {}", path);
+    }
+
+    /**
+     * Hands the logged messages to the sink in batches, to be cached again. Skipped are the messages archived
+     * since they were logged, found in cold storage, and those still cached, when only this instance restarted
+     * and the others kept its partitions. A message is logged once, by the instance that accepted it.
+     * <p>A cached message with the id of a logged one but another username, text or expiration date is a
+     * different message, its id handed out again. It is kept, the logged message is not replayed, and the
+     * conflict is logged and counted.
+     * <p>The archival pipeline archives a message after it left the cache. A message read by username, or
+     * expired, on another instance in the last moments before this one restarted may be neither in the cache nor
+     * in cold storage yet, and is replayed again.
+     *
+     * @param sink Receives batches of messages to cache, in the order they were logged
+     * @return Number of replayed messages
+     */
+    public int replay(Consumer<List<HotMessage>> sink) {
+        List<HotMessage> logged = new ArrayList<>();
+        lock.lock();
+        try {
+            files.forEach(file -> file.forEach(logged::add));
+        } finally {
+            lock.unlock();
+        }
+        if (logged.isEmpty()) {
+            return 0;
+        }
+
+        int minId = logged.stream().mapToInt(HotMessage::getId).min().getAsInt();
+        int maxId = logged.stream().mapToInt(HotMessage::getId).max().getAsInt();
+        BitSet archived = new BitSet();
+        coldStore.forEachId(minId, maxId, id -> archived.set(id - minId));
+
+        int replayed = 0;
+        for (int from = 0; from < logged.size(); from += REPLAY_BATCH) {
+            Map<Integer, HotMessage> batch = new LinkedHashMap<>();
+            for (HotMessage message : logged.subList(from, Math.min(from + REPLAY_BATCH, logged.size()))) {
+                if (!archived.get(message.getId() - minId)) {
+                    batch.put(message.getId(), message);
+                }
+            }
+            for (Map.Entry<Integer, HotMessage> cached : hotStore.getAll(batch.keySet()).entrySet()) {
+                HotMessage message = batch.remove(cached.getKey());
+                if (!sameMessage(message, cached.getValue())) {
+                    log.error("Logged message {} not replayed, the cache holds a different message {} with its id",
+                            message, cached.getValue());
+                    chatMetrics.logConflicts(1);
+                }
+            }
+            if (!batch.isEmpty()) {
+                sink.accept(new ArrayList<>(batch.values()));
+                replayed += batch.size();
+            }
+        }
+        log.info("Replayed {} of {} logged messages into the cache", replayed, logged.size());
+        return replayed;
+    }
+
+    /**
+     * The cache keeps expiration dates to the millisecond, the log to the nanosecond.
+     */
+    private static boolean sameMessage(HotMessage logged, HotMessage cached) {
+        return Objects.equals(logged.getUsername(), cached.getUsername())
+                && Objects.equals(logged.getText(), cached.getText())
+                && logged.getExpirationDate().truncatedTo(ChronoUnit.MILLIS)
+                .equals(cached.getExpirationDate().truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    /**
+     * Deletes the oldest log files once their messages were archived. Messages are archived when read by
+     * username or once expired. The active file is rolled from once its newest message expired more than
+     * {@code archiveGraceSeconds} ago.
+     * <p>The oldest file is only deleted after looking its messages up in cold storage: an archival pipeline
+     * behind, or waiting out an unavailable cold storage, has not archived them all yet. Once at most one in
+     * {@value #COPY_FORWARD_RATIO} messages is not archived, those are appended again and the file is deleted. A few
+     * long-lived messages do not keep a file of expired or read ones either.
+     */
+    @Scheduled(fixedDelayString = "${chat.hot-log.truncate-delay-ms:10000}")
+    public void truncate() {
+        if (!enabled) {
+            return;
+        }
+        long cutoff = epochSecond(LocalDateTime.now().minusSeconds(archiveGraceSeconds));
+        // Once per run, expired messages copied forward go to the next active file
+        lock.lock();
+        try {
+            if (active != null && active.maxExpiration < cutoff) {
+                active.buffer.force();
+                active = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        while (true) {
+            LogFile oldest;
+            lock.lock();
+            try {
+                oldest = files.peekFirst();
+                if (oldest == null || oldest == active) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (!copyForward(oldest, cutoff)) {
+                return;
+            }
+            lock.lock();
+            try {
+                files.removeFirst();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Files.deleteIfExists(oldest.path);
+                log.debug("Deleted hot message log file {}, {} messages", oldest.path, oldest.messages);
+            } catch (IOException e) {
+                log.warn("Failed to delete hot message log file {}", oldest.path, e);
+            }
+        }
+    }
+
+    /**
+     * Appends the messages of the file not found in cold storage again. Too many unexpired messages mean too many
+     * unarchived ones, cold storage is not even read then.
+     *
+     * @return Whether the file can be deleted, false when too many of its messages are not archived
+     */
+    private boolean copyForward(LogFile file, long cutoff) {
+        List<HotMessage> messages = new ArrayList<>(file.messages);
+        file.forEach(messages::add);
+        long unexpired = messages.stream()
+                .filter(message -> epochSecond(message.getExpirationDate()) >= cutoff)
+                .count();
+        if (unexpired * COPY_FORWARD_RATIO > messages.size()) {
+            return false;
+        }
+        int minId = messages.stream().mapToInt(HotMessage::getId).min().orElse(0);
+        int maxId = messages.stream().mapToInt(HotMessage::getId).max().orElse(0);
+        BitSet archived = new BitSet();
+        coldStore.forEachId(minId, maxId, id -> archived.set(id - minId));
+        List<HotMessage> unarchived = messages.stream()
+                .filter(message -> !archived.get(message.getId() - minId))
+                .collect(Collectors.toList());
+        if (unarchived.size() * COPY_FORWARD_RATIO > messages.size()) {
+            log.debug("{} messages of hot message log file {} not archived yet", unarchived.size(), file.path);
+            return false;
+        }
+        append(unarchived);
+        log.debug("Copied {} unarchived messages of hot message log file {} forward", unarchived.size(), file.path);
+        return true;
+    }
+
+    private static byte[] encode(HotMessage message) {
+        byte[] username = bytes(message.getUsername());
+        byte[] text = bytes(message.getText());
+        int length = 4 + 8 + 4 + 4 + length(username) + 4 + length(text);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        record.position(RECORD_HEADER_BYTES);
+        record.putInt(message.getId());
+        record.putLong(epochSecond(message.getExpirationDate()));
+        record.putInt(message.getExpirationDate().getNano());
+        putBytes(record, username);
+        putBytes(record, text);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_BYTES, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long epochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * A preallocated, memory-mapped log file. Records follow each other from the start of the file, the first
+     * zero length, or record failing its CRC, ends it: the space never written to, or a record torn by a crash.
+     */
+    private static final class LogFile {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int end;
+        private int messages;
+        private int maxId;
+        private long maxExpiration = Long.MIN_VALUE;
+
+        private LogFile(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        static LogFile create(Path path, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new LogFile(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            }
+        }
+
+        static LogFile open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                LogFile file = new LogFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                file.forEach(message -> {
+                    file.messages++;
+                    file.maxId = Math.max(file.maxId, message.getId());
+                    file.maxExpiration = Math.max(file.maxExpiration, epochSecond(message.getExpirationDate()));
+                });
+                return file;
+            }
+        }
+
+        boolean fits(byte[] record) {
+            return end + record.length <= buffer.capacity();
+        }
+
+        void put(byte[] record, HotMessage message) {
+            ByteBuffer target = buffer.duplicate();
+            target.position(end);
+            target.put(record);
+            end += record.length;
+            messages++;
+            maxId = Math.max(maxId, message.getId());
+            maxExpiration = Math.max(maxExpiration, epochSecond(message.getExpirationDate()));
+        }
+
+        /**
+         * @param action Receives the messages of the file, up to its first invalid record
+         */
+        void forEach(Consumer<HotMessage> action) {
+            ByteBuffer records = buffer.duplicate();
+            int position = 0;
+            while (position + RECORD_HEADER_BYTES <= records.capacity()) {
+                int length = records.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > records.capacity()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                records.position(position + RECORD_HEADER_BYTES);
+                records.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != records.getInt(position + 4)) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                int id = record.getInt();
+                LocalDateTime expirationDate = LocalDateTime.ofEpochSecond(record.getLong(), record.getInt(),
+                        ZoneOffset.UTC);
+                HotMessage message = new HotMessage(getString(record), getString(record), expirationDate);
+                message.setId(id);
+                action.accept(message);
+                position += RECORD_HEADER_BYTES + length;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.HotMessage;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hot tier of the unexpired messages, the cache in front of the hot storage. Messages are put once, read by id
+ * and by username, and removed exactly once: by a username read or when they expire.
+ *
+ * @author david.moore
+ */
+public interface HotStore {
+
+    /**
+     * @param message   Message to cache, replaces a message of the same id
+     * @param ttlMillis Time the store keeps the message, negative for the default of the store
+     * @param stored    Whether the message already is in the hot storage, it must not be written behind again
+     */
+    void put(HotMessage message, long ttlMillis, boolean stored);
+
+    /**
+     * Puts new messages.
+     *
+     * @param messages  Messages to cache
+     * @param ttlMillis Time the store keeps each message, negative for the default of the store. Either negative
+     *                  for every message or for none
+     */
+    void putAll(List<HotMessage> messages, ToLongFunction<HotMessage> ttlMillis);
+
+    /**
+     * @param id Message ID
+     * @return The cached message, {@code null} when not cached
+     */
+    HotMessage get(int id);
+
+    /**
+     * @param ids Message IDs
+     * @return The cached messages among them, by id
+     */
+    Map<Integer, HotMessage> getAll(Set<Integer> ids);
+
+    /**
+     * @param username Username
+     * @return Ids of the cached messages of the user
+     */
+    Collection<Integer> idsByUsername(String username);
+
+    /**
+     * Removes messages. When several callers remove the same message concurrently exactly one of them gets it.
+     *
+     * @param ids Message IDs
+     * @return The messages removed by this call, without the ids that were not cached
+     */
+    List<HotMessage> removeAll(Set<Integer> ids);
+
+    /**
+     * Removes the messages expired at the given time, of this instance only when the store is shared by the
+     * instances, so that each message is removed by one of them.
+     *
+     * @param now Current time
+     * @return The removed messages
+     */
+    List<HotMessage> removeExpired(LocalDateTime now);
+
+    /**
+     * Notifies the listener of the messages the store expires on its own, after their TTL, of this instance only.
+     *
+     * @param listener Receives each expired message, on a thread of the store, must not block
+     * @throws IllegalStateException When the store does not expire messages on its own
+     */
+    void addExpirationListener(Consumer<HotMessage> listener);
+
+    /**
+     * Reads the username and id of every cached message, without building the messages.
+     *
+     * @param action Receives each username and id
+     */
+    void forEachUsernameAndId(BiConsumer<String, Integer> action);
+
+    /**
+     * Writes the messages waiting for the write-behind map store to the hot storage, if any.
+     */
+    void flush();
+
+    /**
+     * @return Number of messages held by this instance
+     */
+    long entries();
+
+    /**
+     * @return Bytes held by this instance for the messages
+     */
+    long memory();
+
+    /**
+     * Where the unexpired messages are cached.
+     */
+    enum HotStorage {
+        /**
+         * The hotChatCache IMap, partitioned and backed up across the instances, see {@link HazelcastHotStore}.
+         */
+        HAZELCAST,
+        /**
+         * Direct buffers outside the heap of this instance, see {@link OffHeapHotStore}.
+         */
+        OFF_HEAP
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+/**
+ * Map of positive int keys to long values, in two primitive arrays with linear probing. No entry objects and no
+ * boxing, 12 bytes per slot, at most {@value #MAX_LOAD_PERCENT}% of the slots are used. Removal shifts the
+ * following entries of the probe sequence back rather than leaving tombstones. Not thread safe.
+ *
+ * @author david.moore
+ */
+final class IntLongHashMap {
+    static final long MISSING = -1;
+    private static final int FREE = 0;
+    private static final int MAX_LOAD_PERCENT = 70;
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize Number of entries the map holds without growing
+     */
+    IntLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize * 100L / MAX_LOAD_PERCENT)) * 2 - 1);
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param key Key, greater than 0
+     * @return Value of the key, {@link #MISSING} when absent
+     */
+    long get(int key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            if (keys[slot] == FREE) {
+                return MISSING;
+            }
+        }
+    }
+
+    /**
+     * @param key   Key, greater than 0
+     * @param value Value, not {@link #MISSING}
+     * @return Previous value of the key, {@link #MISSING} when absent
+     */
+    long put(int key, long value) {
+        if (key <= 0) {
+            throw new IllegalArgumentException("Key must be positive: " + key);
+        }
+        int slot = slot(key);
+        for (; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                long previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 100L > keys.length * (long) MAX_LOAD_PERCENT) {
+            grow();
+        }
+        return MISSING;
+    }
+
+    /**
+     * @param key Key
+     * @return Value of the removed key, {@link #MISSING} when absent
+     */
+    long remove(int key) {
+        int slot = slot(key);
+        for (; keys[slot] != key; slot = (slot + 1) & mask) {
+            if (keys[slot] == FREE) {
+                return MISSING;
+            }
+        }
+        long value = values[slot];
+        // Shift back the following entries that probed past the freed slot
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = FREE;
+        size--;
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Bytes of the arrays
+     */
+    long memory() {
+        return keys.length * (4L + 8L);
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private int slot(int key) {
+        // Message ids are sequential, spread them over the slots
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
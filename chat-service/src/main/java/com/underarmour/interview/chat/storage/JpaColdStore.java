@@ -0,0 +1,70 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.repository.ColdChatRepository;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Cold storage in the cold_message table, through the {@link ColdChatRepository}. Archival inserts the cold rows
+ * and deletes the hot rows in one transaction.
+ *
+ * @author david.moore
+ */
+public class JpaColdStore implements ColdStore {
+    private final ColdChatRepository coldChatRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param coldChatRepository Cold Chat Repository
+     */
+    public JpaColdStore(ColdChatRepository coldChatRepository) {
+        this.coldChatRepository = coldChatRepository;
+    }
+
+    @Override
+    public Set<Integer> archive(Collection<ColdMessage> messages, boolean deleteHotMessages) {
+        return coldChatRepository.archive(messages, deleteHotMessages);
+    }
+
+    @Override
+    public Optional<ColdMessage> findById(int id) {
+        return coldChatRepository.findById(id);
+    }
+
+    @Override
+    public int findMaxId() {
+        return coldChatRepository.findMaxId();
+    }
+
+    @Override
+    public void forEachId(IntConsumer action) {
+        coldChatRepository.forEachId(action);
+    }
+
+    @Override
+    public void forEachId(int minId, int maxId, IntConsumer action) {
+        coldChatRepository.forEachId(minId, maxId, action);
+    }
+
+    @Override
+    public long count() {
+        return coldChatRepository.count();
+    }
+}
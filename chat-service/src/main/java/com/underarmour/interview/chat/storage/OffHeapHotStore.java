@@ -0,0 +1,488 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.HotMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hot tier outside the Java heap of this instance. Every message is one record in a slot of a direct buffer, so
+ * tens of millions of short-lived messages are neither scanned nor copied by the garbage collector: the heap only
+ * holds the slabs, a primitive index of the ids, and one entry per username and per second of expiration.
+ * <ul>
+ * <li>Slots come in size classes growing by half, 64, 96, 128, 192... bytes, carved from slabs of
+ * {@code slabBytes}. A removed message frees its slot for the next message of its class. Slabs are never
+ * released, the store stays at its high water mark.</li>
+ * <li>The ids map to the slot addresses in an {@link IntLongHashMap}.</li>
+ * <li>The messages of a username, and those expiring within the same second, are linked through the ids stored
+ * in their records, the heap only holds the first id of each list.</li>
+ * </ul>
+ * <p>The store is local to this instance, unlike the hazelcast cache the other instances do not see its
+ * messages. It fits a single instance, or instances that each only serve the users routed to them. Messages have
+ * no TTL, they are removed by the {@code POLLING} eviction tick, see {@link #removeExpired(LocalDateTime)}.
+ * <p>Reads share a read lock, writes take the write lock.
+ *
+ * @author david.moore
+ */
+public class OffHeapHotStore implements HotStore {
+    // Record layout: id, links of the username and expiration lists, expiration date, then username and text
+    private static final int ID = 0;
+    private static final int USERNAME_PREVIOUS = 4;
+    private static final int USERNAME_NEXT = 8;
+    private static final int EXPIRATION_PREVIOUS = 12;
+    private static final int EXPIRATION_NEXT = 16;
+    private static final int EPOCH_SECOND = 20;
+    private static final int NANO = 28;
+    private static final int STRINGS = 32;
+    // Message ids are positive
+    private static final int NONE = 0;
+    private static final int MIN_SLOT_BYTES = 64;
+
+    private final int slabBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final List<SizeClass> slabClasses = new ArrayList<>();
+    private final List<SizeClass> sizeClasses = new ArrayList<>();
+    private final IntLongHashMap addresses;
+    private final Map<String, Integer> usernames = new HashMap<>();
+    private final TreeMap<Long, Integer> expirations = new TreeMap<>();
+    private long slabMemory;
+
+    /**
+     * Constructor.
+     *
+     * @param slabBytes        Size of the direct buffers slots are carved from
+     * @param expectedMessages Number of messages the id index is sized for, it grows past it
+     */
+    public OffHeapHotStore(int slabBytes, int expectedMessages) {
+        this.slabBytes = slabBytes;
+        addresses = new IntLongHashMap(expectedMessages);
+    }
+
+    /**
+     * Messages have no TTL here, the TTL is ignored. So is whether the message is stored, nothing is written
+     * behind.
+     */
+    @Override
+    public void put(HotMessage message, long ttlMillis, boolean stored) {
+        byte[] username = bytes(message.getUsername());
+        byte[] text = bytes(message.getText());
+        lock.writeLock().lock();
+        try {
+            insert(message, username, text);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void putAll(List<HotMessage> messages, ToLongFunction<HotMessage> ttlMillis) {
+        List<byte[]> strings = new ArrayList<>(messages.size() * 2);
+        for (HotMessage message : messages) {
+            strings.add(bytes(message.getUsername()));
+            strings.add(bytes(message.getText()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                insert(messages.get(i), strings.get(2 * i), strings.get(2 * i + 1));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public HotMessage get(int id) {
+        lock.readLock().lock();
+        try {
+            long address = addresses.get(id);
+            return address == IntLongHashMap.MISSING ? null : read(address);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Integer, HotMessage> getAll(Set<Integer> ids) {
+        Map<Integer, HotMessage> messages = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Integer id : ids) {
+                long address = addresses.get(id);
+                if (address != IntLongHashMap.MISSING) {
+                    messages.put(id, read(address));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    /**
+     * Follows the list of the username, newest message first.
+     */
+    @Override
+    public Collection<Integer> idsByUsername(String username) {
+        List<Integer> ids = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Integer head = usernames.get(username);
+            for (int id = head == null ? NONE : head; id != NONE; id = getInt(addresses.get(id), USERNAME_NEXT)) {
+                ids.add(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ids;
+    }
+
+    @Override
+    public List<HotMessage> removeAll(Set<Integer> ids) {
+        List<HotMessage> removed = new ArrayList<>(ids.size());
+        lock.writeLock().lock();
+        try {
+            for (Integer id : ids) {
+                long address = addresses.get(id);
+                if (address != IntLongHashMap.MISSING) {
+                    HotMessage message = read(address);
+                    unlinkExpiration(address);
+                    unlinkUsername(address, message);
+                    release(id, address);
+                    removed.add(message);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the messages of the expiration seconds that are over, one second at a time so reads are not held
+     * up for the whole removal. A message is removed within a second of its expiration date.
+     */
+    @Override
+    public List<HotMessage> removeExpired(LocalDateTime now) {
+        long over = now.toEpochSecond(ZoneOffset.UTC);
+        List<HotMessage> removed = new ArrayList<>();
+        while (true) {
+            lock.writeLock().lock();
+            try {
+                Map.Entry<Long, Integer> second = expirations.firstEntry();
+                if (second == null || second.getKey() > over) {
+                    return removed;
+                }
+                expirations.remove(second.getKey());
+                for (int id = second.getValue(); id != NONE; ) {
+                    long address = addresses.get(id);
+                    HotMessage message = read(address);
+                    unlinkUsername(address, message);
+                    int next = getInt(address, EXPIRATION_NEXT);
+                    release(id, address);
+                    removed.add(message);
+                    id = next;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalStateException Always, messages have no TTL here
+     */
+    @Override
+    public void addExpirationListener(Consumer<HotMessage> listener) {
+        throw new IllegalStateException("The off-heap hot store does not expire messages on its own, "
+                + "use the POLLING eviction mode");
+    }
+
+    @Override
+    public void forEachUsernameAndId(BiConsumer<String, Integer> action) {
+        lock.readLock().lock();
+        try {
+            usernames.forEach((username, head) -> {
+                for (int id = head; id != NONE; id = getInt(addresses.get(id), USERNAME_NEXT)) {
+                    action.accept(username, id);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Nothing is written behind.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public long entries() {
+        lock.readLock().lock();
+        try {
+            return addresses.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Bytes of the slabs, used or not, and of the id index
+     */
+    @Override
+    public long memory() {
+        lock.readLock().lock();
+        try {
+            return slabMemory + addresses.memory();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(HotMessage message, byte[] username, byte[] text) {
+        int id = message.getId();
+        long previous = addresses.get(id);
+        if (previous != IntLongHashMap.MISSING) {
+            HotMessage replaced = read(previous);
+            unlinkExpiration(previous);
+            unlinkUsername(previous, replaced);
+            release(id, previous);
+        }
+
+        long address = allocate(STRINGS + 4 + length(username) + 4 + length(text));
+        ByteBuffer record = slab(address).duplicate();
+        record.position(offset(address));
+        long epochSecond = message.getExpirationDate().toEpochSecond(ZoneOffset.UTC);
+        int nano = message.getExpirationDate().getNano();
+        Integer usernameHead = usernames.get(message.getUsername());
+        Integer expirationHead = expirations.get(expirationSecond(epochSecond, nano));
+        record.putInt(id);
+        record.putInt(NONE);
+        record.putInt(usernameHead == null ? NONE : usernameHead);
+        record.putInt(NONE);
+        record.putInt(expirationHead == null ? NONE : expirationHead);
+        record.putLong(epochSecond);
+        record.putInt(nano);
+        putBytes(record, username);
+        putBytes(record, text);
+
+        // Put before linking, the lists look their ids up
+        addresses.put(id, address);
+        if (usernameHead != null) {
+            putInt(addresses.get(usernameHead), USERNAME_PREVIOUS, id);
+        }
+        usernames.put(message.getUsername(), id);
+        if (expirationHead != null) {
+            putInt(addresses.get(expirationHead), EXPIRATION_PREVIOUS, id);
+        }
+        expirations.put(expirationSecond(epochSecond, nano), id);
+    }
+
+    private void unlinkUsername(long address, HotMessage message) {
+        int previous = getInt(address, USERNAME_PREVIOUS);
+        int next = getInt(address, USERNAME_NEXT);
+        if (previous != NONE) {
+            putInt(addresses.get(previous), USERNAME_NEXT, next);
+        } else if (next != NONE) {
+            usernames.put(message.getUsername(), next);
+        } else {
+            usernames.remove(message.getUsername());
+        }
+        if (next != NONE) {
+            putInt(addresses.get(next), USERNAME_PREVIOUS, previous);
+        }
+    }
+
+    private void unlinkExpiration(long address) {
+        int previous = getInt(address, EXPIRATION_PREVIOUS);
+        int next = getInt(address, EXPIRATION_NEXT);
+        long second = expirationSecond(getLong(address, EPOCH_SECOND), getInt(address, NANO));
+        if (previous != NONE) {
+            putInt(addresses.get(previous), EXPIRATION_NEXT, next);
+        } else if (next != NONE) {
+            expirations.put(second, next);
+        } else {
+            expirations.remove(second);
+        }
+        if (next != NONE) {
+            putInt(addresses.get(next), EXPIRATION_PREVIOUS, previous);
+        }
+    }
+
+    private void release(int id, long address) {
+        addresses.remove(id);
+        slabClasses.get(slabIndex(address)).free(address);
+    }
+
+    /**
+     * @return Address of a free slot of at least the given size, the slab index in the high int, the offset in
+     * the slab in the low int
+     */
+    private long allocate(int recordBytes) {
+        int index = 0;
+        while (true) {
+            if (index == sizeClasses.size()) {
+                // 64, 96, 128, 192, 256...
+                long slotBytes = (index % 2 == 0 ? MIN_SLOT_BYTES : MIN_SLOT_BYTES * 3 / 2L) << (index / 2);
+                sizeClasses.add(new SizeClass((int) Math.min(slotBytes, Integer.MAX_VALUE)));
+            }
+            if (sizeClasses.get(index).slotBytes >= recordBytes) {
+                break;
+            }
+            index++;
+        }
+        SizeClass sizeClass = sizeClasses.get(index);
+        long address = sizeClass.allocate();
+        if (address == IntLongHashMap.MISSING) {
+            int capacity = Math.max(slabBytes, sizeClass.slotBytes) / sizeClass.slotBytes * sizeClass.slotBytes;
+            slabs.add(ByteBuffer.allocateDirect(capacity));
+            slabClasses.add(sizeClass);
+            slabMemory += capacity;
+            sizeClass.addSlab(slabs.size() - 1, capacity);
+            address = sizeClass.allocate();
+        }
+        return address;
+    }
+
+    private HotMessage read(long address) {
+        ByteBuffer record = slab(address).duplicate();
+        record.position(offset(address) + EPOCH_SECOND);
+        LocalDateTime expirationDate = LocalDateTime.ofEpochSecond(record.getLong(), record.getInt(),
+                ZoneOffset.UTC);
+        String username = getString(record);
+        HotMessage message = new HotMessage(username, getString(record), expirationDate);
+        message.setId(getInt(address, ID));
+        return message;
+    }
+
+    private ByteBuffer slab(long address) {
+        return slabs.get(slabIndex(address));
+    }
+
+    private int getInt(long address, int field) {
+        return slab(address).getInt(offset(address) + field);
+    }
+
+    private long getLong(long address, int field) {
+        return slab(address).getLong(offset(address) + field);
+    }
+
+    private void putInt(long address, int field, int value) {
+        slab(address).putInt(offset(address) + field, value);
+    }
+
+    private static int slabIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    /**
+     * @return The second the message is expired at, its expiration date rounded up
+     */
+    private static long expirationSecond(long epochSecond, int nano) {
+        return nano == 0 ? epochSecond : epochSecond + 1;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Slots of one size: the free ones, then those never used of the last slab of the class.
+     */
+    private static final class SizeClass {
+        private final int slotBytes;
+        private long[] free = new long[16];
+        private int freeCount;
+        private int slab = -1;
+        private int next;
+        private int end;
+
+        SizeClass(int slotBytes) {
+            this.slotBytes = slotBytes;
+        }
+
+        long allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (slab < 0 || next + slotBytes > end) {
+                return IntLongHashMap.MISSING;
+            }
+            long address = (long) slab << 32 | next;
+            next += slotBytes;
+            return address;
+        }
+
+        void addSlab(int slab, int capacity) {
+            this.slab = slab;
+            next = 0;
+            end = capacity;
+        }
+
+        void free(long address) {
+            if (freeCount == free.length) {
+                long[] grown = new long[free.length * 2];
+                System.arraycopy(free, 0, grown, 0, freeCount);
+                free = grown;
+            }
+            free[freeCount++] = address;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One segment file of the {@link SegmentColdStore}, a sequence of deflated blocks of messages. The file is
+ * preallocated to its capacity and memory-mapped, the writer appends blocks into the mapping and readers inflate
+ * them from it.
+ * <p>Every block is a header followed by its payload. The header holds the payload length, the inflated length,
+ * the message count, the id range, the expiration date range and a CRC32 of the payload. A zero length marks the
+ * end of what was written so far, a length of -1 the end of a segment that will not grow anymore. The inflated
+ * payload is a table of (id, offset) sorted by id followed by the messages, a message is found in its block by a
+ * binary search of the table.
+ * <p>The sparse id index holds one entry per block, sorted by lowest id. Blocks of different archivals may
+ * overlap, so each entry also keeps the highest id of itself and of every entry before it: a lookup binary
+ * searches the last block starting at or below the id, then walks back while that highest id still reaches the
+ * id. Ids are assigned in increasing order and mostly archived in that order, the walk rarely visits more than
+ * one block.
+ *
+ * @author david.moore
+ */
+final class Segment {
+    static final int HEADER_BYTES = 40;
+    private static final int SEALED = -1;
+    // Per message at the start of the inflated payload: its id and the offset of the rest of it
+    private static final int TABLE_ENTRY_BYTES = 8;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private volatile Index index = Index.EMPTY;
+    private volatile boolean sealed;
+    // Written by the single writer of the segment, or by the refresh scanning a segment of another instance
+    private int end;
+    private final List<Block> appended = new ArrayList<>();
+
+    private Segment(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates and maps a new, empty segment file.
+     *
+     * @param path     Segment file, must not exist
+     * @param capacity Size of the file
+     * @return Writable segment
+     * @throws IOException When the file cannot be created or mapped
+     */
+    static Segment create(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid once the channel is closed
+            return new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+
+    /**
+     * Maps an existing segment file and indexes the blocks written so far.
+     *
+     * @param path     Segment file
+     * @param writable Whether the segment is mapped for writing, only its writer may seal it
+     * @return Segment, null if the file is not preallocated yet
+     * @throws IOException When the file cannot be mapped
+     */
+    static Segment open(Path path, boolean writable) throws IOException {
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            Segment segment = new Segment(path, channel.map(writable ? FileChannel.MapMode.READ_WRITE
+                    : FileChannel.MapMode.READ_ONLY, 0, size));
+            segment.scan();
+            return segment;
+        }
+    }
+
+    /**
+     * Deflates messages into a block, not yet appended to any segment.
+     *
+     * @param messages Messages sorted by id
+     * @return Block and its payload
+     */
+    static Encoded encode(List<ColdMessage> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(messages.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        long minExpiration = Long.MAX_VALUE;
+        long maxExpiration = Long.MIN_VALUE;
+        try {
+            int offset = messages.size() * TABLE_ENTRY_BYTES;
+            List<byte[]> records = new ArrayList<>(messages.size());
+            for (ColdMessage message : messages) {
+                byte[] record = record(message);
+                out.writeInt(message.getId());
+                out.writeInt(offset);
+                offset += record.length;
+                records.add(record);
+                long expiration = epochSecond(message.getExpirationDate());
+                minExpiration = Math.min(minExpiration, expiration);
+                maxExpiration = Math.max(maxExpiration, expiration);
+            }
+            for (byte[] record : records) {
+                out.write(record);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode a block", e);
+        }
+
+        byte[] inflated = bytes.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(inflated.length / 2);
+        try {
+            deflater.setInput(inflated);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                deflated.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] payload = deflated.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return new Encoded(new Block(-1, payload.length, inflated.length, messages.size(),
+                messages.get(0).getId(), messages.get(messages.size() - 1).getId(), minExpiration, maxExpiration,
+                (int) crc.getValue()), payload);
+    }
+
+    private static byte[] record(ColdMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(epochSecond(message.getExpirationDate()));
+        out.writeInt(message.getExpirationDate().getNano());
+        writeString(out, message.getUsername());
+        writeString(out, message.getText());
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Appends a block after the last one, it is only indexed by the next {@link #flush()}. Called by the writer
+     * of the segment only.
+     *
+     * @param encoded Block and its payload
+     * @return Whether the block fit, room is always left for the seal
+     */
+    boolean append(Encoded encoded) {
+        Block block = encoded.block.at(end);
+        if (block.next() + HEADER_BYTES > buffer.capacity()) {
+            return false;
+        }
+        ByteBuffer out = buffer.duplicate();
+        out.position(end + HEADER_BYTES);
+        out.put(encoded.payload);
+        buffer.putInt(end + 4, block.inflatedLength);
+        buffer.putInt(end + 8, block.count);
+        buffer.putInt(end + 12, block.minId);
+        buffer.putInt(end + 16, block.maxId);
+        buffer.putLong(end + 20, block.minExpiration);
+        buffer.putLong(end + 28, block.maxExpiration);
+        buffer.putInt(end + 36, block.crc);
+        // Last, a reader seeing the length finds the rest of the block written
+        buffer.putInt(end, block.length);
+        appended.add(block);
+        end = block.next();
+        return true;
+    }
+
+    /**
+     * Forces the appended blocks to disk, then indexes them.
+     */
+    void flush() {
+        if (!appended.isEmpty()) {
+            buffer.force();
+            index = index.with(appended);
+            appended.clear();
+        }
+    }
+
+    /**
+     * Marks the end of the segment, no block is appended anymore and the other instances stop rescanning it.
+     * Written over a torn block left by a crash, if any.
+     */
+    void seal() {
+        flush();
+        buffer.putInt(end, SEALED);
+        buffer.force();
+        sealed = true;
+    }
+
+    /**
+     * Indexes the blocks written since the last scan. Stops at the end of what was written, at the seal, or at a
+     * block that is not complete: torn by a crash of its writer, or still being written by another instance.
+     *
+     * @return Whether blocks were indexed
+     */
+    boolean scan() {
+        List<Block> blocks = new ArrayList<>();
+        while (!sealed && end + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(end);
+            if (length == SEALED) {
+                sealed = true;
+                break;
+            }
+            Block block = length > 0 ? readBlock(end, length) : null;
+            if (block == null) {
+                break;
+            }
+            blocks.add(block);
+            end = block.next();
+        }
+        if (!blocks.isEmpty()) {
+            index = index.with(blocks);
+        }
+        return !blocks.isEmpty();
+    }
+
+    private Block readBlock(int offset, int length) {
+        if ((long) offset + HEADER_BYTES + length > buffer.capacity()) {
+            return null;
+        }
+        Block block = new Block(offset, length, buffer.getInt(offset + 4), buffer.getInt(offset + 8),
+                buffer.getInt(offset + 12), buffer.getInt(offset + 16), buffer.getLong(offset + 20),
+                buffer.getLong(offset + 28), buffer.getInt(offset + 36));
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(offset + HEADER_BYTES);
+        payload.limit(offset + HEADER_BYTES + length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return block.count > 0 && (int) crc.getValue() == block.crc ? block : null;
+    }
+
+    /**
+     * @param id Message ID
+     * @return The message, null if not in this segment
+     */
+    ColdMessage find(int id) {
+        Index index = this.index;
+        if (!index.covers(id)) {
+            return null;
+        }
+        // Last block starting at or below the id
+        int low = 0;
+        int high = index.blocks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (index.blocks[mid].minId <= id) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = high; i >= 0 && index.reach[i] >= id; i--) {
+            Block block = index.blocks[i];
+            if (block.maxId >= id) {
+                ColdMessage message = find(inflate(block), block.count, id);
+                if (message != null) {
+                    return message;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ColdMessage find(ByteBuffer payload, int count, int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = payload.getInt(mid * TABLE_ENTRY_BYTES);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                payload.position(payload.getInt(mid * TABLE_ENTRY_BYTES + 4));
+                ColdMessage message = new ColdMessage();
+                message.setId(id);
+                long expiration = payload.getLong();
+                message.setExpirationDate(LocalDateTime.ofEpochSecond(expiration, payload.getInt(), ZoneOffset.UTC));
+                message.setUsername(readString(payload));
+                message.setText(readString(payload));
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    /**
+     * @param action Receives the id of every message of the segment
+     */
+    void forEachId(IntConsumer action) {
+        for (Block block : index.blocks) {
+            ByteBuffer payload = inflate(block);
+            for (int i = 0; i < block.count; i++) {
+                action.accept(payload.getInt(i * TABLE_ENTRY_BYTES));
+            }
+        }
+    }
+
+    /**
+     * Only inflates the blocks whose range of ids overlaps the range.
+     *
+     * @param minId  Lowest id of the range
+     * @param maxId  Highest id of the range
+     * @param action Receives the id of every message of the segment in the range
+     */
+    void forEachId(int minId, int maxId, IntConsumer action) {
+        for (Block block : index.blocks) {
+            if (block.maxId < minId || block.minId > maxId) {
+                continue;
+            }
+            ByteBuffer payload = inflate(block);
+            for (int i = 0; i < block.count; i++) {
+                int id = payload.getInt(i * TABLE_ENTRY_BYTES);
+                if (id >= minId && id <= maxId) {
+                    action.accept(id);
+                }
+            }
+        }
+    }
+
+    private ByteBuffer inflate(Block block) {
+        byte[] deflated = new byte[block.length];
+        ByteBuffer in = buffer.duplicate();
+        in.position(block.offset + HEADER_BYTES);
+        in.get(deflated);
+        byte[] inflated = new byte[block.inflatedLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            if (inflater.inflate(inflated) != inflated.length) {
+                throw new IllegalStateException("Truncated block at " + block.offset + " of " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt block at " + block.offset + " of " + path, e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(inflated);
+    }
+
+    static long epochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    boolean isEmpty() {
+        return index.messages == 0;
+    }
+
+    long messages() {
+        return index.messages;
+    }
+
+    int maxId() {
+        return index.maxId;
+    }
+
+    /**
+     * @param id Message ID
+     * @return Whether the id is in the range of ids of this segment, without reading any block
+     */
+    boolean covers(int id) {
+        return index.covers(id);
+    }
+
+    /**
+     * @return Expiration date of the oldest message, in epoch seconds of the expiration date as UTC
+     */
+    long minExpiration() {
+        return index.minExpiration;
+    }
+
+    /**
+     * @return Expiration date of the newest message, in epoch seconds of the expiration date as UTC
+     */
+    long maxExpiration() {
+        return index.maxExpiration;
+    }
+
+    /**
+     * Block not appended yet, with its payload.
+     */
+    static final class Encoded {
+        private final Block block;
+        private final byte[] payload;
+
+        private Encoded(Block block, byte[] payload) {
+            this.block = block;
+            this.payload = payload;
+        }
+
+        int length() {
+            return payload.length;
+        }
+    }
+
+    /**
+     * Header of a block, the entry of the block in the sparse index.
+     */
+    private static final class Block {
+        private final int offset;
+        private final int length;
+        private final int inflatedLength;
+        private final int count;
+        private final int minId;
+        private final int maxId;
+        private final long minExpiration;
+        private final long maxExpiration;
+        private final int crc;
+
+        private Block(int offset, int length, int inflatedLength, int count, int minId, int maxId,
+                      long minExpiration, long maxExpiration, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.inflatedLength = inflatedLength;
+            this.count = count;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.minExpiration = minExpiration;
+            this.maxExpiration = maxExpiration;
+            this.crc = crc;
+        }
+
+        private Block at(int offset) {
+            return new Block(offset, length, inflatedLength, count, minId, maxId, minExpiration, maxExpiration, crc);
+        }
+
+        private int next() {
+            return offset + HEADER_BYTES + length;
+        }
+    }
+
+    /**
+     * Sparse id index and ranges of the segment, replaced as a whole when blocks are added so readers never lock.
+     */
+    private static final class Index {
+        private static final Index EMPTY = new Index(new Block[0]);
+        private final Block[] blocks;
+        // Highest id of the block at the same position and of every block before it
+        private final int[] reach;
+        private final long messages;
+        private final int minId;
+        private final int maxId;
+        private final long minExpiration;
+        private final long maxExpiration;
+
+        private Index(Block[] blocks) {
+            this.blocks = blocks;
+            this.reach = new int[blocks.length];
+            long messages = 0;
+            int minId = Integer.MAX_VALUE;
+            int maxId = 0;
+            long minExpiration = Long.MAX_VALUE;
+            long maxExpiration = Long.MIN_VALUE;
+            for (int i = 0; i < blocks.length; i++) {
+                Block block = blocks[i];
+                messages += block.count;
+                minId = Math.min(minId, block.minId);
+                maxId = Math.max(maxId, block.maxId);
+                minExpiration = Math.min(minExpiration, block.minExpiration);
+                maxExpiration = Math.max(maxExpiration, block.maxExpiration);
+                reach[i] = maxId;
+            }
+            this.messages = messages;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.minExpiration = minExpiration;
+            this.maxExpiration = maxExpiration;
+        }
+
+        private boolean covers(int id) {
+            return messages > 0 && id >= minId && id <= maxId;
+        }
+
+        private Index with(List<Block> added) {
+            Block[] merged = new Block[blocks.length + added.size()];
+            System.arraycopy(blocks, 0, merged, 0, blocks.length);
+            for (int i = 0; i < added.size(); i++) {
+                merged[blocks.length + i] = added.get(i);
+            }
+            // Mostly sorted already, the new blocks of an archival follow the previous ones
+            Arrays.sort(merged, Comparator.comparingInt((Block block) -> block.minId));
+            return new Index(merged);
+        }
+    }
+}
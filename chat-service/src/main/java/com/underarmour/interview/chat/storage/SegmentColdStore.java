@@ -0,0 +1,355 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cold storage in append-only segment files. Archived messages are written once and only read by id, so rather
+ * than rows of an indexed table they are appended, sorted by id, in deflated blocks of up to {@code blockMessages}
+ * messages to memory-mapped segment files of {@code segmentBytes}. Each segment keeps a sparse index of its blocks,
+ * a read is a binary search of the index plus one mapped read of a block, see {@link Segment}. Segments whose range
+ * of ids does not cover the id are skipped without a search.
+ * <p>Each segment also keeps the range of expiration dates of its messages. Retention deletes whole segments, once
+ * their newest message expired more than {@code retentionDays} ago, messages are never deleted one by one.
+ * <p>Every instance appends to its own segments, named after its {@code writer}, in a directory shared by the
+ * instances. The segments of the other instances are mapped read-only and rescanned by {@link #refresh()} for the
+ * blocks appended since. A full segment is sealed, so that the other instances stop rescanning it, and the writer
+ * rolls to a new one. On restart a writer seals the segment it was appending to, after its last complete block.
+ * <p>The other instances delete the hot storage rows of the messages they archive right away, so a read missing a
+ * message rescans their unsealed segments before answering it is missing, rather than waiting for the refresh.
+ * <p>Archival forces the appended blocks to disk before it deletes the hot storage rows, without a transaction
+ * across both. A crash in between leaves the rows in hot storage, the messages are archived again later and
+ * stored twice, which is harmless.
+ *
+ * @author david.moore
+ */
+public class SegmentColdStore implements ColdStore {
+    private static Logger log = LoggerFactory.getLogger(SegmentColdStore.class);
+    private static final String EXTENSION = ".seg";
+
+    private final HotChatRepository hotChatRepository;
+    private final Path directory;
+    private final String writer;
+    private final int segmentBytes;
+    private final int blockMessages;
+    private final int retentionDays;
+    private final int batchSize;
+    private final Map<Path, Segment> segments = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    // Segments of the other instances are rescanned by one thread at a time
+    private final Object scanLock = new Object();
+    // Guarded by writeLock
+    private Segment active;
+    private long nextSequence;
+
+    /**
+     * Constructor.
+     *
+     * @param hotChatRepository Hot Chat Repository, for the hot storage rows of the archived messages
+     * @param directory         Directory of the segments, shared by the instances
+     * @param writer            Name of this instance in the segment file names, unique among the instances
+     * @param segmentBytes      Size of a segment file
+     * @param blockMessages     Maximum number of messages per block, inflated together to read one
+     * @param retentionDays     Days segments are kept after their newest message expired, 0 keeps them forever
+     * @param batchSize         Maximum number of ids per hot storage delete statement
+     */
+    public SegmentColdStore(HotChatRepository hotChatRepository, Path directory, String writer, int segmentBytes,
+                            int blockMessages, int retentionDays, int batchSize) {
+        this.hotChatRepository = hotChatRepository;
+        this.directory = directory;
+        this.writer = writer;
+        this.segmentBytes = segmentBytes;
+        this.blockMessages = blockMessages;
+        this.retentionDays = retentionDays;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Maps every segment of the directory. The segments of this writer left unsealed by a crash are sealed, empty
+     * ones are deleted.
+     */
+    @PostConstruct
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            for (Path path : list()) {
+                if (!isOwn(path)) {
+                    open(path);
+                    continue;
+                }
+                nextSequence = Math.max(nextSequence, sequence(path) + 1);
+                Segment segment = Segment.open(path, true);
+                if (segment == null || segment.isEmpty()) {
+                    Files.delete(path);
+                } else {
+                    if (!segment.isSealed()) {
+                        segment.seal();
+                        log.info("Sealed segment {} after restart, {} messages", path, segment.messages());
+                    }
+                    segments.put(path, segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the cold storage segments of " + directory, e);
+        }
+        log.info("{} cold storage segments, {} messages", segments.size(), count());
+    }
+
+    /**
+     * Seals the segment being appended to.
+     */
+    @PreDestroy
+    public void stop() {
+        synchronized (writeLock) {
+            if (active != null) {
+                active.seal();
+                active = null;
+            }
+        }
+    }
+
+    /**
+     * Appends the messages in blocks sorted by id, forces them to disk, then deletes their hot storage rows. Blocks
+     * are deflated before taking the write lock, concurrent archivals only append one after the other.
+     * <p>Appends do not look up the messages first, every message is returned as added. Only a retry of an archival
+     * that failed after its append stores a message twice, and the failed call returned nothing.
+     */
+    @Override
+    public Set<Integer> archive(Collection<ColdMessage> messages, boolean deleteHotMessages) {
+        if (messages.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<ColdMessage> sorted = new ArrayList<>(messages);
+        sorted.sort(Comparator.comparingInt(ColdMessage::getId));
+        List<Segment.Encoded> blocks = new ArrayList<>();
+        for (int from = 0; from < sorted.size(); from += blockMessages) {
+            blocks.add(Segment.encode(sorted.subList(from, Math.min(from + blockMessages, sorted.size()))));
+        }
+
+        synchronized (writeLock) {
+            for (Segment.Encoded block : blocks) {
+                if (active == null || !active.append(block)) {
+                    roll(block.length());
+                    active.append(block);
+                }
+            }
+            active.flush();
+        }
+
+        if (deleteHotMessages) {
+            for (int from = 0; from < sorted.size(); from += batchSize) {
+                hotChatRepository.deleteByIds(sorted.subList(from, Math.min(from + batchSize, sorted.size()))
+                        .stream()
+                        .map(ColdMessage::getId)
+                        .collect(Collectors.toList()));
+            }
+        }
+        return sorted.stream().map(ColdMessage::getId).collect(Collectors.toSet());
+    }
+
+    /**
+     * Seals the segment being appended to and starts a new one, large enough for the next block.
+     */
+    private void roll(int blockLength) {
+        if (active != null) {
+            active.seal();
+        }
+        Path path = directory.resolve(String.format("%s-%019d%s", writer, nextSequence++, EXTENSION));
+        try {
+            active = Segment.create(path, Math.max(segmentBytes, blockLength + 2 * Segment.HEADER_BYTES));
+        } catch (IOException e) {
+            active = null;
+            throw new IllegalStateException("Failed to create the cold storage segment " + path, e);
+        }
+        segments.put(path, active);
+        log.debug("Appending to segment {}", path);
+    }
+
+    @Override
+    public Optional<ColdMessage> findById(int id) {
+        ColdMessage message = find(id);
+        if (message == null && catchUp()) {
+            message = find(id);
+        }
+        return Optional.ofNullable(message);
+    }
+
+    private ColdMessage find(int id) {
+        for (Segment segment : segments.values()) {
+            ColdMessage message = segment.covers(id) ? segment.find(id) : null;
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indexes the blocks the other instances appended to their unsealed segments since the last refresh. A segment
+     * found sealed meanwhile means its writer rolled to a new one, mapped by a refresh right away.
+     *
+     * @return Whether blocks were indexed
+     */
+    private boolean catchUp() {
+        synchronized (scanLock) {
+            boolean indexed = false;
+            boolean rolled = false;
+            for (Map.Entry<Path, Segment> entry : segments.entrySet()) {
+                Segment segment = entry.getValue();
+                if (!isOwn(entry.getKey()) && !segment.isSealed()) {
+                    indexed |= segment.scan();
+                    rolled |= segment.isSealed();
+                }
+            }
+            if (rolled) {
+                refresh();
+            }
+            return indexed || rolled;
+        }
+    }
+
+    @Override
+    public int findMaxId() {
+        return segments.values().stream().mapToInt(Segment::maxId).max().orElse(0);
+    }
+
+    @Override
+    public void forEachId(IntConsumer action) {
+        segments.values().forEach(segment -> segment.forEachId(action));
+    }
+
+    @Override
+    public void forEachId(int minId, int maxId, IntConsumer action) {
+        segments.values().forEach(segment -> segment.forEachId(minId, maxId, action));
+    }
+
+    @Override
+    public long count() {
+        return segments.values().stream().mapToLong(Segment::messages).sum();
+    }
+
+    /**
+     * Maps the segments other instances created since the last refresh, indexes the blocks they appended to their
+     * unsealed ones, and forgets the segments deleted by their retention.
+     */
+    @Scheduled(fixedDelayString = "${chat.cold-storage.segment.refresh-delay-ms:1000}")
+    public void refresh() {
+        synchronized (scanLock) {
+            Set<Path> present;
+            try {
+                present = new HashSet<>(list());
+            } catch (IOException e) {
+                log.warn("Failed to list the cold storage segments of {}", directory, e);
+                return;
+            }
+            // The segments of this writer are registered when created, and may be created while listing
+            segments.keySet().removeIf(path -> !isOwn(path) && !present.contains(path));
+            for (Path path : present) {
+                if (isOwn(path)) {
+                    continue;
+                }
+                Segment segment = segments.get(path);
+                if (segment == null) {
+                    open(path);
+                } else if (!segment.isSealed()) {
+                    segment.scan();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments whose newest message expired more than the retention ago. The segment being appended
+     * to is sealed first when it qualifies, the unsealed segments of other instances are left to their writer.
+     */
+    @Scheduled(fixedDelayString = "${chat.cold-storage.segment.retention-check-delay-ms:60000}")
+    public void applyRetention() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        long cutoff = Segment.epochSecond(LocalDateTime.now().minusDays(retentionDays));
+        synchronized (writeLock) {
+            if (active != null && active.maxExpiration() < cutoff) {
+                active.seal();
+                active = null;
+            }
+        }
+        segments.forEach((path, segment) -> {
+            if (segment.isSealed() && segment.maxExpiration() < cutoff) {
+                segments.remove(path);
+                try {
+                    // Readers of the segment keep their mapping
+                    Files.deleteIfExists(path);
+                    log.info("Deleted segment {} past retention, {} messages expired from {} to {}", path,
+                            segment.messages(), segment.minExpiration(), segment.maxExpiration());
+                } catch (IOException e) {
+                    log.warn("Failed to delete segment {} past retention", path, e);
+                }
+            }
+        });
+    }
+
+    private void open(Path path) {
+        try {
+            Segment segment = Segment.open(path, false);
+            // Not preallocated yet, mapped by the next refresh
+            if (segment != null) {
+                segments.put(path, segment);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to map segment {}", path, e);
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private boolean isOwn(Path path) {
+        String name = path.getFileName().toString();
+        return name.lastIndexOf('-') == writer.length() && name.startsWith(writer);
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.length() - EXTENSION.length()));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.underarmour.interview.chat.config.HazelcastConfiguration;
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * JUnit rule starting a cluster of hazelcast members with the chat-service configuration on the loopback
+ * interface. Every rule instance gets its own group, so tests never join each other or a running cluster.
+ * A small partition count keeps the partition wide operations of the tests fast.
+ *
+ * @author david.moore
+ */
+public class EmbeddedHazelcastCluster extends ExternalResource {
+    private final int size;
+    private final Consumer<Config> customizer;
+    private final List<HazelcastInstance> members = new ArrayList<>();
+
+    public EmbeddedHazelcastCluster(int size) {
+        this(size, config -> {
+        });
+    }
+
+    /**
+     * @param size       Number of members
+     * @param customizer Changes to the chat-service configuration of every member
+     */
+    public EmbeddedHazelcastCluster(int size, Consumer<Config> customizer) {
+        this.size = size;
+        this.customizer = customizer;
+    }
+
+    @Override
+    protected void before() {
+        start();
+    }
+
+    @Override
+    protected void after() {
+        members.forEach(m -> m.getLifecycleService().terminate());
+        members.clear();
+    }
+
+    /**
+     * Terminates every member, then starts new ones in a new group: a restart of the whole cluster, nothing held
+     * in the memory of the members is left.
+     */
+    public void restart() {
+        after();
+        start();
+    }
+
+    private void start() {
+        String group = "test-" + UUID.randomUUID();
+        for (int i = 0; i < size; i++) {
+            Config config = new HazelcastConfiguration().chatConfig()
+                    .setInstanceName(group + "-" + i)
+                    .setProperty("hazelcast.phone.home.enabled", "false")
+                    .setProperty("hazelcast.wait.seconds.before.join", "0")
+                    .setProperty("hazelcast.partition.count", "23");
+            config.getGroupConfig().setName(group);
+            JoinConfig join = config.getNetworkConfig().getJoin();
+            join.getMulticastConfig().setEnabled(false);
+            join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+            customizer.accept(config);
+            members.add(Hazelcast.newHazelcastInstance(config));
+        }
+    }
+
+    public HazelcastInstance member(int index) {
+        return members.get(index);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.cache;
+
+import com.hazelcast.core.IMap;
+import com.underarmour.interview.chat.EmbeddedHazelcastCluster;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.config.HazelcastConfiguration;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.ArchiveTrigger;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.service.ArchivalPipeline;
+import com.underarmour.interview.chat.storage.ColdStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Near cache of the hot storage cache: a message archived by one member is never served afterwards from the
+ * near cache of another. Hazelcast's own invalidations are held back for a minute, so only the invalidation of
+ * the archival can keep the near cache from going stale.
+ *
+ * @author david.moore
+ */
+public class HotChatNearCacheTest {
+
+    @Rule
+    public EmbeddedHazelcastCluster cluster = new EmbeddedHazelcastCluster(2, config -> {
+        config.setProperty("hazelcast.map.invalidation.batch.size", "100000")
+                .setProperty("hazelcast.map.invalidation.batchfrequency.seconds", "60")
+                .getMapConfig("hotChatCache").setNearCacheConfig(HazelcastConfiguration.nearCacheConfig(1000, 600));
+    });
+
+    private IMap<Integer, HotMessage> ownerCache;
+    private IMap<Integer, HotMessage> readerCache;
+    private ArchivalPipeline archivalPipeline;
+    private HotMessage message;
+
+    @Before
+    public void setUp() {
+        ownerCache = cluster.member(0).getMap("hotChatCache");
+        readerCache = cluster.member(1).getMap("hotChatCache");
+
+        // Owned by member 0, member 1 near caches it
+        int id = 1;
+        while (!cluster.member(0).getPartitionService().getPartition(id).getOwner().localMember()) {
+            id++;
+        }
+        message = new HotMessage("david", "A popular message", LocalDateTime.now().plusMinutes(1));
+        message.setId(id);
+        ownerCache.put(id, message);
+
+        // Not started, the test archives on its own thread
+        HotChatRepository hotChatRepository = mock(HotChatRepository.class);
+        archivalPipeline = new ArchivalPipeline(mock(ColdStore.class), new MessageMapper(),
+                new HotMessageMapStore(hotChatRepository, HotStorageWrite.THROUGH),
+                new ChatMetrics(new SimpleMeterRegistry(), cluster.member(0)), mock(MessageFilter.class),
+                new HotChatNearCache(cluster.member(0), true), 10, 100, 0, 0, 100, 1);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        archivalPipeline.stop();
+    }
+
+    @Test
+    public void shouldNotServeAMessageArchivedOnAnotherMember() {
+        then(readerCache.get(message.getId())).isNotNull();
+        then(readerCache.get(message.getId())).isNotNull();
+        then(readerCache.getLocalMapStats().getNearCacheStats().getHits()).isEqualTo(1);
+
+        // Removed by a username read or an eviction tick of member 0, the near cache of member 1 is stale
+        then(RemoveMessageProcessor.removedMessages(ownerCache.executeOnKeys(Collections.singleton(message.getId()),
+                new RemoveMessageProcessor()).values())).hasSize(1);
+        then(readerCache.get(message.getId())).isNotNull();
+
+        archivalPipeline.submit(ArchiveTrigger.USERNAME, Collections.singletonList(message));
+        archivalPipeline.archivePending();
+
+        then(readerCache.get(message.getId())).isNull();
+    }
+
+    @Test
+    public void shouldNotServeAMessageArchivedWhileItIsBeingRead() throws Exception {
+        then(readerCache.get(message.getId())).isNotNull();
+
+        // Reads racing the archival may still get the message, no read started after it may
+        AtomicBoolean archived = new AtomicBoolean();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<Integer> staleReads = reader.submit(() -> {
+            int stale = 0;
+            long deadline = Long.MAX_VALUE;
+            while (System.nanoTime() < deadline) {
+                boolean after = archived.get();
+                if (after && deadline == Long.MAX_VALUE) {
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                }
+                if (readerCache.get(message.getId()) != null && after) {
+                    stale++;
+                }
+            }
+            return stale;
+        });
+
+        Thread.sleep(100);
+        RemoveMessageProcessor.removedMessages(ownerCache.executeOnKeys(Collections.singleton(message.getId()),
+                new RemoveMessageProcessor()).values());
+        archivalPipeline.submit(ArchiveTrigger.POLLING, Collections.singletonList(message));
+        archivalPipeline.archivePending();
+        archived.set(true);
+
+        then(staleReads.get(10, TimeUnit.SECONDS)).isZero();
+        reader.shutdown();
+    }
+}
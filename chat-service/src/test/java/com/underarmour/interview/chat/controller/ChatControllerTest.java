@@ -0,0 +1,243 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics.Tier;
+import com.underarmour.interview.chat.model.TimedMessage;
+import com.underarmour.interview.chat.service.ChatService;
+import com.underarmour.interview.chat.service.ChatService.MessageChunkWriter;
+import com.underarmour.interview.chat.service.ChatService.TieredMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Parsing, per message validation and responses of POST /chat/batch, the streamed response of
+ * GET /chats/{username}, and the caching headers of GET /chat/{id}, against a mocked {@link ChatService}.
+ *
+ * @author david.moore
+ */
+public class ChatControllerTest {
+    private ChatService chatService;
+    private MockMvc mockMvc;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        chatService = mock(ChatService.class);
+        AtomicInteger ids = new AtomicInteger(100);
+        when(chatService.saveMessages(anyList())).thenAnswer(invocation ->
+                ((List<TimedMessage>) invocation.getArgument(0)).stream()
+                        .map(m -> {
+                            HotMessage message = new HotMessage(m.getUsername(), m.getText(), LocalDateTime.now());
+                            message.setId(ids.incrementAndGet());
+                            return message;
+                        })
+                        .collect(Collectors.toList()));
+        mockMvc = MockMvcBuilders.standaloneSetup(new ChatController(new MessageMapper(),
+                chatService, new ObjectMapper(), 4, 2, 0)).build();
+    }
+
+    @Test
+    public void shouldSaveJsonArrayAndReportInvalidMessagesInOrder() throws Exception {
+        mockMvc.perform(post("/chat/batch").contentType(MediaType.APPLICATION_JSON).content("[" +
+                "{\"username\":\"a\",\"text\":\"one\",\"timeout\":10}," +
+                "{\"username\":\"\",\"text\":\"two\"}," +
+                "{\"username\":\"b\",\"text\":\"three\",\"timeout\":\"soon\"}," +
+                "{\"username\":\"c\",\"text\":\"four\"}]"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$[0].id").value(101))
+                .andExpect(jsonPath("$[1].error").value("'Username' field can not be null/empty!"))
+                .andExpect(jsonPath("$[2].error").value(startsWith("Malformed message: ")))
+                .andExpect(jsonPath("$[3].id").value(102));
+
+        ArgumentCaptor<List<TimedMessage>> saved = ArgumentCaptor.forClass(List.class);
+        verify(chatService).saveMessages(saved.capture());
+        then(saved.getValue()).extracting(TimedMessage::getText).containsExactly("one", "four");
+        then(saved.getValue()).extracting(TimedMessage::getTimeout).containsExactly(10, 60);
+    }
+
+    @Test
+    public void shouldSaveNdjsonAndRejectMalformedLinesOnly() throws Exception {
+        mockMvc.perform(post("/chat/batch").contentType(ChatController.APPLICATION_NDJSON_VALUE).content(
+                "{\"username\":\"a\",\"text\":\"one\"}\n" +
+                "{\"username\":\"a\",\"text\n" +
+                "\n" +
+                "{\"username\":\"b\",\"text\":\"two\",\"timeout\":-1}\n"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].id").value(101))
+                .andExpect(jsonPath("$[1].error").value(startsWith("Malformed json: ")))
+                .andExpect(jsonPath("$[2].error").value("'Timeout' must be greater than 0!"));
+    }
+
+    @Test
+    public void shouldRejectBatchWithoutValidMessages() throws Exception {
+        mockMvc.perform(post("/chat/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[null, {\"text\":\"one\"}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("[{\"error\":\"Message can not be null!\"}," +
+                        "{\"error\":\"'Username' field can not be null/empty!\"}]", true));
+    }
+
+    @Test
+    public void shouldRejectMalformedJsonArray() throws Exception {
+        mockMvc.perform(post("/chat/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"a\",\"text\":\"one\"}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/chat/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"username\":\"a\",\"text\":\"one\"},{"))
+                .andExpect(status().isBadRequest());
+
+        verify(chatService, never()).saveMessages(anyList());
+    }
+
+    @Test
+    public void shouldRejectBatchAboveMaximumSize() throws Exception {
+        mockMvc.perform(post("/chat/batch").contentType(ChatController.APPLICATION_NDJSON_VALUE)
+                .content("{\"username\":\"a\",\"text\":\"1\"}\n{\"username\":\"a\",\"text\":\"2\"}\n" +
+                        "{\"username\":\"a\",\"text\":\"3\"}\n{\"username\":\"a\",\"text\":\"4\"}\n" +
+                        "{\"username\":\"a\",\"text\":\"5\"}\n"))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(chatService, never()).saveMessages(anyList());
+    }
+
+    @Test
+    public void shouldStreamMessagesOfUsernameChunkByChunk() throws Exception {
+        when(chatService.streamMessagesByUsername(eq("a"), eq(3), eq(2), any())).thenAnswer(invocation -> {
+            MessageChunkWriter writer = invocation.getArgument(3);
+            writer.write(Arrays.asList(hotMessage(1, "one"), hotMessage(2, "two")));
+            writer.write(Collections.singletonList(hotMessage(3, "three")));
+            return 3;
+        });
+
+        MvcResult result = mockMvc.perform(get("/chats/a").param("limit", "3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\":1,\"text\":\"one\"},{\"id\":2,\"text\":\"two\"}," +
+                        "{\"id\":3,\"text\":\"three\"}]", true));
+    }
+
+    @Test
+    public void shouldRejectLimitBelowOne() throws Exception {
+        MvcResult result = mockMvc.perform(get("/chats/a").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
+                .andExpect(content().string("'Limit' must be greater than 0!"));
+
+        verify(chatService, never()).streamMessagesByUsername(any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void shouldMarkColdMessagesImmutable() throws Exception {
+        when(chatService.readMessage(7)).thenReturn(new TieredMessage(message(7, LocalDateTime.now().minusDays(1)),
+                Tier.COLD_STORAGE));
+
+        mockMvc.perform(get("/chat/7"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"7\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, ChatController.IMMUTABLE))
+                .andExpect(jsonPath("$.text").value("seven"));
+        mockMvc.perform(get("/chat/7").header(HttpHeaders.IF_NONE_MATCH, "\"7\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void shouldNotLetColdMessagesBeCachedPastTheirRetention() throws Exception {
+        mockMvc = MockMvcBuilders.standaloneSetup(new ChatController(new MessageMapper(),
+                chatService, new ObjectMapper(), 4, 2, 2)).build();
+        when(chatService.readMessage(7)).thenReturn(new TieredMessage(message(7, LocalDateTime.now().minusDays(1)),
+                Tier.COLD_STORAGE));
+        when(chatService.readMessage(8)).thenReturn(new TieredMessage(message(8, LocalDateTime.now().minusDays(3)),
+                Tier.COLD_STORAGE));
+
+        // Deleted a day from now at the earliest
+        String cacheControl = mockMvc.perform(get("/chat/7"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.CACHE_CONTROL);
+        then(cacheControl).matches("max-age=(86399|86400), public");
+        mockMvc.perform(get("/chat/8"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"));
+    }
+
+    @Test
+    public void shouldNotLetHotMessagesBeCachedPastTheirExpiration() throws Exception {
+        when(chatService.readMessage(8)).thenReturn(new TieredMessage(message(8, LocalDateTime.now().plusMinutes(1)),
+                Tier.CACHE));
+        when(chatService.readMessage(9)).thenReturn(new TieredMessage(message(9, LocalDateTime.now().minusSeconds(1)),
+                Tier.HOT_STORAGE));
+        when(chatService.readMessage(10)).thenReturn(new TieredMessage(null, Tier.NOT_FOUND));
+
+        String cacheControl = mockMvc.perform(get("/chat/8"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.CACHE_CONTROL);
+        then(cacheControl).matches("max-age=(59|60), public");
+        mockMvc.perform(get("/chat/9"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"));
+        mockMvc.perform(get("/chat/10"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist(HttpHeaders.CACHE_CONTROL));
+    }
+
+    private static HotMessage message(int id, LocalDateTime expirationDate) {
+        HotMessage message = new HotMessage("a", id == 7 ? "seven" : "text", expirationDate);
+        message.setId(id);
+        return message;
+    }
+
+    private static HotMessage hotMessage(int id, String text) {
+        HotMessage message = new HotMessage("a", text, LocalDateTime.now());
+        message.setId(id);
+        return message;
+    }
+}
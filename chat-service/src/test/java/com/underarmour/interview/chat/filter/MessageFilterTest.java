@@ -0,0 +1,173 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.filter;
+
+import com.underarmour.interview.chat.EmbeddedHazelcastCluster;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.LookupFilter;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Negative lookup filters: no false negatives, a false positive rate close to the configured one, loading from
+ * the storages at startup and propagation of the updates between the members of a cluster.
+ *
+ * @author david.moore
+ */
+public class MessageFilterTest {
+    private static final int VALUES = 100_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @Rule
+    public EmbeddedHazelcastCluster cluster = new EmbeddedHazelcastCluster(2);
+
+    private final List<MessageFilter> messageFilters = new ArrayList<>();
+
+    @Before
+    public void setUp() throws InterruptedException {
+        // Member 0 finds a cold message and a hot message of david at startup
+        HotChatRepository hotChatRepository = mock(HotChatRepository.class);
+        doAnswer(invocation -> {
+            invocation.<ObjIntConsumer<String>>getArgument(0).accept("david", 2);
+            return null;
+        }).when(hotChatRepository).forEachUsernameAndId(any());
+        ColdStore coldStore = mock(ColdStore.class);
+        doAnswer(invocation -> {
+            invocation.<IntConsumer>getArgument(0).accept(1);
+            return null;
+        }).when(coldStore).forEachId(any());
+
+        for (int i = 0; i < 2; i++) {
+            MessageFilter messageFilter = new MessageFilter(cluster.member(i), hotChatRepository, coldStore,
+                    new HazelcastHotStore(cluster.member(i)),
+                    new HotMessageMapStore(hotChatRepository, HotStorageWrite.THROUGH),
+                    new ChatMetrics(new SimpleMeterRegistry(), cluster.member(i)), true, 1000, 1000,
+                    FALSE_POSITIVE_RATE);
+            messageFilter.start();
+            then(messageFilter.awaitReady(10, TimeUnit.SECONDS)).isTrue();
+            messageFilters.add(messageFilter);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        messageFilters.forEach(MessageFilter::stop);
+    }
+
+    @Test
+    public void shouldNeverForgetAValueAndStayCloseToTheFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(VALUES, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < VALUES; i++) {
+            filter.put(BloomFilter.hash(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < VALUES; i++) {
+            then(filter.mightContain(BloomFilter.hash(i))).isTrue();
+            if (filter.mightContain(BloomFilter.hash(VALUES + i))) {
+                falsePositives++;
+            }
+        }
+        then((double) falsePositives / VALUES).isBetween(0.005, 0.015);
+        then(filter.expectedFalsePositiveRate()).isBetween(0.005, 0.015);
+    }
+
+    @Test
+    public void shouldForgetAUsernameOnceAllItsOccurrencesAreRemoved() {
+        CountingBloomFilter filter = new CountingBloomFilter(VALUES, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < VALUES; i++) {
+            filter.add(BloomFilter.hash("user" + i), 3);
+        }
+        for (int i = 0; i < VALUES; i += 2) {
+            filter.remove(BloomFilter.hash("user" + i), 3);
+        }
+
+        int present = 0;
+        for (int i = 0; i < VALUES; i++) {
+            boolean mightContain = filter.mightContain(BloomFilter.hash("user" + i));
+            if (i % 2 == 1) {
+                then(mightContain).isTrue();
+            } else if (mightContain) {
+                present++;
+            }
+        }
+        // Half the usernames are left, the removed ones only collide with them
+        then((double) present / (VALUES / 2)).isLessThan(0.01);
+    }
+
+    @Test
+    public void shouldLoadTheStoragesAtStartup() {
+        MessageFilter messageFilter = messageFilters.get(0);
+
+        then(messageFilter.mightExist(1)).isTrue();
+        then(messageFilter.mightExist(2)).isTrue();
+        then(messageFilter.mightExist(3)).isFalse();
+        then(messageFilter.mightHaveHotMessages("david")).isTrue();
+        then(messageFilter.mightHaveHotMessages("sarah")).isFalse();
+        then(messageFilter.expectedFalsePositiveRate(LookupFilter.IDS)).isGreaterThan(0).isLessThan(1e-6);
+    }
+
+    @Test
+    public void shouldPropagateSavesAndArchivalsToTheOtherMembers() throws InterruptedException {
+        List<HotMessage> messages = Collections.singletonList(message(3, "sarah"));
+        messageFilters.get(0).added(messages);
+        messageFilters.get(0).publish();
+
+        awaitFilter(() -> messageFilters.get(1).mightExist(3) && messageFilters.get(1).mightHaveHotMessages("sarah"));
+
+        messageFilters.get(1).archived(messages);
+        messageFilters.get(1).publish();
+
+        awaitFilter(() -> !messageFilters.get(0).mightHaveHotMessages("sarah"));
+        then(messageFilters.get(0).mightExist(3)).isTrue();
+        then(messageFilters.get(1).mightHaveHotMessages("sarah")).isFalse();
+        then(messageFilters.get(1).mightHaveHotMessages("david")).isTrue();
+    }
+
+    private static void awaitFilter(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            then(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static HotMessage message(int id, String username) {
+        HotMessage message = new HotMessage(username, "text " + id, LocalDateTime.now().plusMinutes(1));
+        message.setId(id);
+        return message;
+    }
+}
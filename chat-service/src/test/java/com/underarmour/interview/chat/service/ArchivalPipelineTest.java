@@ -0,0 +1,262 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.underarmour.interview.chat.cache.HotChatNearCache;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.ArchiveTrigger;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Batching, coalescing, backpressure and retries of the {@link ArchivalPipeline}, against a mocked cold
+ * storage.
+ *
+ * @author david.moore
+ */
+public class ArchivalPipelineTest {
+    private ColdStore coldStore;
+    private SimpleMeterRegistry registry;
+    private ChatMetrics chatMetrics;
+    private ArchivalPipeline archivalPipeline;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        coldStore = mock(ColdStore.class);
+        registry = new SimpleMeterRegistry();
+        HazelcastInstance instance = mock(HazelcastInstance.class);
+        when(instance.getMap("hotChatCache")).thenReturn(mock(IMap.class));
+        chatMetrics = new ChatMetrics(registry, instance);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        archivalPipeline.stop();
+    }
+
+    @Test
+    public void shouldMergeSubmissionsIntoOneBatchAndArchiveDuplicatesOnce() {
+        archivalPipeline = pipeline(10, 100, 500);
+        archivalPipeline.start();
+
+        archivalPipeline.submit(ArchiveTrigger.USERNAME, messages(1, 2));
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(2, 3));
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(4));
+
+        then(archivedIds(1)).containsExactly(Arrays.asList(1, 2, 3, 4));
+        then(registry.get("chat.archive.messages").summary().totalAmount()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldCloseBatchesAtMaxBatch() {
+        archivalPipeline = pipeline(10, 2, 500);
+        archivalPipeline.start();
+
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(1, 2, 3, 4, 5));
+
+        then(archivedIds(3)).containsExactly(Arrays.asList(1, 2), Arrays.asList(3, 4), Collections.singletonList(5));
+    }
+
+    @Test
+    public void shouldArchiveOnTheSubmittingThreadWhenFull() {
+        // Not started, nothing takes messages from the queue
+        archivalPipeline = pipeline(2, 100, 100);
+
+        archivalPipeline.submit(ArchiveTrigger.USERNAME, messages(1, 2, 3, 4));
+
+        then(archivedIds(1)).containsExactly(Arrays.asList(3, 4));
+        then(archivalPipeline.size()).isEqualTo(2);
+        then(registry.get("chat.archive.caller-runs").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRetryFailedBatches() {
+        doThrow(new DuplicateKeyException("cold_message")).doReturn(Collections.singleton(1))
+                .when(coldStore).archive(anyCollection(), anyBoolean());
+        archivalPipeline = pipeline(10, 100, 0);
+
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(1));
+        archivalPipeline.archivePending();
+
+        then(archivedIds(2)).containsExactly(Collections.singletonList(1), Collections.singletonList(1));
+        then(registry.get("chat.archive.failures").counter().count()).isZero();
+    }
+
+    @Test
+    public void shouldRequeueBatchesFailingLongerThanTheirRetries() {
+        doThrow(new CannotGetJdbcConnectionException("cold storage down")).doThrow(
+                new CannotGetJdbcConnectionException("cold storage down")).doThrow(
+                new CannotGetJdbcConnectionException("cold storage down")).doThrow(
+                new CannotGetJdbcConnectionException("cold storage down"))
+                .doReturn(new HashSet<>(Arrays.asList(1, 2)))
+                .when(coldStore).archive(anyCollection(), anyBoolean());
+        archivalPipeline = pipeline(10, 100, 0);
+
+        // Queued before the worker starts, both messages are in its first batch
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(1, 2));
+        archivalPipeline.start();
+
+        then(archivedIds(5)).hasSize(5).allMatch(Arrays.asList(1, 2)::equals);
+        then(archivalPipeline.size()).isZero();
+        then(registry.get("chat.archive.failures").counter().count()).isEqualTo(2);
+        then(registry.get("chat.archive.messages").summary().totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldHoldSubmittersBackWhileRequeuedMessagesFillThePipeline() throws InterruptedException {
+        AtomicBoolean available = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (!available.get()) {
+                throw new CannotGetJdbcConnectionException("cold storage down");
+            }
+            return Collections.emptySet();
+        }).when(coldStore).archive(anyCollection(), anyBoolean());
+        archivalPipeline = pipeline(1, 100, 0);
+        archivalPipeline.start();
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(1));
+
+        Thread submitter = new Thread(() -> archivalPipeline.submit(ArchiveTrigger.USERNAME, messages(2)));
+        submitter.start();
+
+        // A single attempt on the submitting thread, then it waits for the room of the requeued message
+        verify(coldStore, timeout(5000)).archive(batchOf(2), anyBoolean());
+        submitter.join(200);
+        then(submitter.isAlive()).isTrue();
+        verify(coldStore).archive(batchOf(2), anyBoolean());
+        then(archivalPipeline.size()).isLessThanOrEqualTo(1);
+
+        available.set(true);
+        submitter.join(5000);
+        then(submitter.isAlive()).isFalse();
+        verify(coldStore, timeout(5000).atLeastOnce()).archive(batchOf(1), anyBoolean());
+        verify(coldStore, timeout(5000).times(2)).archive(batchOf(2), anyBoolean());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldOnlyCountOutOfTheFiltersTheMessagesAddedToColdStorage() {
+        when(coldStore.archive(anyCollection(), anyBoolean())).thenReturn(new HashSet<>(Arrays.asList(1, 3)));
+        MessageFilter messageFilter = mock(MessageFilter.class);
+        archivalPipeline = new ArchivalPipeline(coldStore, new MessageMapper(),
+                new HotMessageMapStore(mock(HotChatRepository.class), HotStorageWrite.THROUGH),
+                chatMetrics, messageFilter, mock(HotChatNearCache.class), 10, 100, 0, 0, 1, 1);
+
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(1, 2, 3));
+        archivalPipeline.archivePending();
+
+        ArgumentCaptor<Collection<HotMessage>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(messageFilter).archived(captor.capture());
+        then(captor.getValue()).extracting(HotMessage::getId).containsExactly(1, 3);
+    }
+
+    @Test
+    public void shouldArchiveQueuedMessagesOnStop() throws InterruptedException {
+        archivalPipeline = pipeline(10, 100, 60_000);
+        archivalPipeline.start();
+
+        archivalPipeline.submit(ArchiveTrigger.POLLING, messages(1, 2));
+        archivalPipeline.stop();
+
+        then(archivedIds(1)).containsExactly(Arrays.asList(1, 2));
+        then(archivalPipeline.size()).isZero();
+    }
+
+    @Test
+    public void shouldOnlyDeleteHotRowsOfExpiredMessagesWithWriteBehind() {
+        archivalPipeline = new ArchivalPipeline(coldStore, new MessageMapper(),
+                new HotMessageMapStore(mock(HotChatRepository.class), HotStorageWrite.BEHIND),
+                chatMetrics, mock(MessageFilter.class), mock(HotChatNearCache.class), 10, 100, 0, 0, 1, 1);
+
+        archivalPipeline.submit(ArchiveTrigger.USERNAME, messages(1));
+        archivalPipeline.archivePending();
+        archivalPipeline.submit(ArchiveTrigger.LISTENER, messages(2));
+        archivalPipeline.archivePending();
+
+        verify(coldStore).archive(anyCollection(), eq(false));
+        verify(coldStore).archive(anyCollection(), eq(true));
+    }
+
+    private ArchivalPipeline pipeline(int capacity, int maxBatch, long lingerMillis) {
+        return new ArchivalPipeline(coldStore, new MessageMapper(),
+                new HotMessageMapStore(mock(HotChatRepository.class), HotStorageWrite.THROUGH),
+                chatMetrics, mock(MessageFilter.class), mock(HotChatNearCache.class), capacity, maxBatch,
+                lingerMillis, 10, 1, 1);
+    }
+
+    /**
+     * Waits for the archivals, then returns the ids of each.
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<Integer>> archivedIds(int archivals) {
+        ArgumentCaptor<Collection<ColdMessage>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(coldStore, timeout(5000).times(archivals)).archive(captor.capture(), anyBoolean());
+        verify(coldStore, times(archivals)).archive(anyCollection(), anyBoolean());
+        return captor.getAllValues().stream()
+                .map(batch -> batch.stream().map(ColdMessage::getId).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    private static Collection<ColdMessage> batchOf(Integer... ids) {
+        return argThat(batch -> batch.stream().map(ColdMessage::getId).collect(Collectors.toList())
+                .equals(Arrays.asList(ids)));
+    }
+
+    private static List<HotMessage> messages(int... ids) {
+        List<HotMessage> messages = new ArrayList<>();
+        for (int id : ids) {
+            HotMessage message = new HotMessage("david", "message " + id, LocalDateTime.now());
+            message.setId(id);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
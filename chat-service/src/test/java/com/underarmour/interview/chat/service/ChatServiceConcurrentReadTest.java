@@ -0,0 +1,229 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.underarmour.interview.chat.EmbeddedHazelcastCluster;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
+import com.underarmour.interview.chat.cache.HotChatUserIndex.UsernameLookup;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.id.BlockMessageIdGenerator;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.model.TimedMessage;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.repository.MessageIdCounterRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import com.underarmour.interview.chat.storage.HotMessageLog;
+import com.underarmour.interview.chat.storage.HotStore;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Load test for {@link ChatService#getMessageByUsername(String)} with many concurrent readers of the same
+ * username, spread over the members of a cluster, while messages keep being written. Also covers the chunks
+ * and limit of the streaming read, unexpiring the chunk a writer failed on, reads by id before the archival of a
+ * username read, and the removal of expired messages from the username index. Runs for every
+ * {@link UsernameLookup}.
+ *
+ * @author david.moore
+ */
+@RunWith(Parameterized.class)
+public class ChatServiceConcurrentReadTest {
+    private static final String USERNAME = "david";
+    private static final int MEMBERS = 2;
+    private static final int READERS = 6;
+    private static final int MESSAGES = 500;
+
+    @Parameter
+    public UsernameLookup usernameLookup;
+
+    @Rule
+    public EmbeddedHazelcastCluster cluster = new EmbeddedHazelcastCluster(MEMBERS);
+
+    private final List<ChatService> chatServices = new ArrayList<>();
+    private final HotChatRepository hotChatRepository = mock(HotChatRepository.class);
+
+    @Parameters(name = "{0}")
+    public static Iterable<UsernameLookup> usernameLookups() {
+        return Arrays.asList(UsernameLookup.values());
+    }
+
+    @Before
+    public void setUp() {
+        ColdStore coldStore = mock(ColdStore.class);
+
+        // Small id blocks, so the members interleave their reservations on the shared counter
+        for (int i = 0; i < MEMBERS; i++) {
+            HotMessageMapStore hotMessageMapStore = new HotMessageMapStore(hotChatRepository, HotStorageWrite.THROUGH);
+            ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry(), cluster.member(i));
+            HotStore hotStore = new HazelcastHotStore(cluster.member(i));
+            chatServices.add(new ChatService(hotChatRepository, coldStore,
+                    new MessageMapper(), hotStore, mock(MessageFacilitator.class),
+                    new HotChatUserIndex(cluster.member(i), usernameLookup, HotStorage.HAZELCAST),
+                    new BlockMessageIdGenerator(cluster.member(i), hotChatRepository, coldStore,
+                            mock(MessageIdCounterRepository.class), 10),
+                    hotMessageMapStore, chatMetrics, new MessageFilter(cluster.member(i), hotChatRepository,
+                    coldStore, hotStore, hotMessageMapStore, chatMetrics, false, 1, 1, 0.01),
+                    mock(HotMessageLog.class)));
+        }
+    }
+
+    @Test
+    public void shouldDeliverEveryMessageToExactlyOneReader() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(READERS);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            ChatService chatService = chatServices.get(i % MEMBERS);
+            readers.add(pool.submit(() -> {
+                List<Integer> delivered = new ArrayList<>();
+                start.await();
+                // One more read after the writer finished picks up whatever is left
+                boolean last;
+                do {
+                    last = !writing.get();
+                    chatService.getMessageByUsername(USERNAME).forEach(m -> delivered.add(m.getId()));
+                } while (!last);
+                return delivered;
+            }));
+        }
+
+        start.countDown();
+        for (int i = 0; i < MESSAGES; i++) {
+            chatServices.get(i % MEMBERS).saveMessage(timedMessage(USERNAME));
+            chatServices.get(i % MEMBERS).saveMessage(timedMessage("someone-else"));
+        }
+        writing.set(false);
+
+        List<Integer> delivered = new ArrayList<>();
+        for (Future<List<Integer>> reader : readers) {
+            delivered.addAll(reader.get(1, TimeUnit.MINUTES));
+        }
+        pool.shutdown();
+
+        then(delivered).hasSize(MESSAGES);
+        then(new HashSet<>(delivered)).hasSize(MESSAGES);
+        then(chatServices.get(0).getMessageByUsername(USERNAME)).isEmpty();
+        then(chatServices.get(0).getMessageByUsername("someone-else")).hasSize(MESSAGES);
+    }
+
+    @Test
+    public void shouldStreamChunksUpToTheLimit() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            chatServices.get(i % MEMBERS).saveMessage(timedMessage(USERNAME));
+        }
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        int delivered = chatServices.get(0).streamMessagesByUsername(USERNAME, 10, 4,
+                messages -> chunkSizes.add(messages.size()));
+
+        then(delivered).isEqualTo(10);
+        then(chunkSizes).containsExactly(4, 4, 2);
+        then(chatServices.get(1).getMessageByUsername(USERNAME)).hasSize(15);
+    }
+
+    @Test
+    public void shouldUnexpireTheChunkTheWriterFailedOn() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            chatServices.get(i % MEMBERS).saveMessage(timedMessage(USERNAME));
+        }
+
+        List<Integer> written = new ArrayList<>();
+        thenThrownBy(() -> chatServices.get(0).streamMessagesByUsername(USERNAME, Integer.MAX_VALUE, 4,
+                messages -> {
+                    if (!written.isEmpty()) {
+                        throw new IOException("Client went away");
+                    }
+                    messages.forEach(m -> written.add(m.getId()));
+                })).isInstanceOf(IOException.class);
+
+        then(written).hasSize(4);
+        then(chatServices.get(1).getMessageByUsername(USERNAME))
+                .hasSize(6)
+                .extracting(HotMessage::getId)
+                .doesNotContainAnyElementsOf(written);
+    }
+
+    @Test
+    public void shouldNotReturnMessagesReadByIdBeforeTheirArchivalAgain() {
+        HotMessage message = chatServices.get(0).saveMessage(timedMessage(USERNAME));
+        then(chatServices.get(1).getMessageByUsername(USERNAME)).extracting(HotMessage::getId)
+                .containsExactly(message.getId());
+
+        // Not archived yet, the hot storage row is still there
+        when(hotChatRepository.findById(message.getId())).thenReturn(Optional.of(message));
+        then(chatServices.get(0).getMessage(message.getId()).getText()).isEqualTo(message.getText());
+
+        then(chatServices.get(1).getMessageByUsername(USERNAME)).isEmpty();
+    }
+
+    @Test
+    public void shouldRemoveExpiredMessagesFromTheIndexOfEachUsername() {
+        HotChatUserIndex index = new HotChatUserIndex(cluster.member(1), usernameLookup, HotStorage.HAZELCAST);
+        List<HotMessage> messages = new ArrayList<>();
+        for (int id = 1; id <= 6; id++) {
+            HotMessage message = new HotMessage(id % 2 == 0 ? "alice" : "bob", "Indexed", LocalDateTime.now());
+            message.setId(id);
+            messages.add(message);
+            index.add(message);
+        }
+
+        index.remove(messages.subList(0, 4));
+
+        if (usernameLookup == UsernameLookup.INDEX) {
+            then(index.ids("alice")).containsOnly(6);
+            then(index.ids("bob")).containsOnly(5);
+        } else {
+            then(index.ids("alice")).isEmpty();
+        }
+    }
+
+    private static TimedMessage timedMessage(String username) {
+        TimedMessage timedMessage = new TimedMessage();
+        timedMessage.setUsername(username);
+        timedMessage.setText("Concurrent message");
+        timedMessage.setTimeout(600);
+        return timedMessage;
+    }
+}
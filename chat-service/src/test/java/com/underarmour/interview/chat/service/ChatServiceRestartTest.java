@@ -0,0 +1,161 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.underarmour.interview.chat.EmbeddedHazelcastCluster;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
+import com.underarmour.interview.chat.cache.HotChatUserIndex.UsernameLookup;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.id.BlockMessageIdGenerator;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.model.TimedMessage;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.repository.MessageIdCounterRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import com.underarmour.interview.chat.storage.HotMessageLog;
+import com.underarmour.interview.chat.storage.HotStore;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Restart of the whole cluster with the write-ahead log: the logged messages are neither in the hot nor in the
+ * cold storage, the ids of the messages posted after the restart must not collide with theirs.
+ *
+ * @author david.moore
+ */
+public class ChatServiceRestartTest {
+    @Rule
+    public EmbeddedHazelcastCluster cluster = new EmbeddedHazelcastCluster(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HotChatRepository hotChatRepository = mock(HotChatRepository.class);
+    private final ColdStore coldStore = mock(ColdStore.class);
+    private final MessageIdCounterRepository messageIdCounterRepository = mock(MessageIdCounterRepository.class);
+    private final AtomicLong highWater = new AtomicLong();
+    private final List<HotMessageLog> logs = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        when(messageIdCounterRepository.findHighWater(anyInt())).thenAnswer(invocation -> highWater.get());
+        when(messageIdCounterRepository.raise(anyInt(), anyLong())).thenAnswer(invocation -> {
+            long raised = invocation.getArgument(1);
+            return highWater.getAndAccumulate(raised, Math::max) < raised ? 1 : 0;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        logs.forEach(HotMessageLog::stop);
+    }
+
+    @Test
+    public void shouldNotHandOutTheIdsOfLoggedMessagesAfterAFullClusterRestart() {
+        ChatService chatService = chatService(folder.getRoot());
+        List<HotMessage> posted = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            posted.add(chatService.saveMessage(timedMessage("Before restart " + i)));
+        }
+        logs.forEach(HotMessageLog::stop);
+        cluster.restart();
+
+        ChatService restarted = chatService(folder.getRoot());
+        HotMessage message = restarted.saveMessage(timedMessage("After restart"));
+
+        then(posted).extracting(HotMessage::getId).doesNotContain(message.getId());
+        then(restarted.getMessage(message.getId()).getText()).isEqualTo("After restart");
+        for (HotMessage logged : posted) {
+            then(restarted.getMessage(logged.getId()).getText()).isEqualTo(logged.getText());
+        }
+    }
+
+    @Test
+    public void shouldNotHandOutTheIdsLoggedByAnInstanceNotRestartedYet() throws IOException {
+        File first = folder.newFolder();
+        File second = folder.newFolder();
+        ChatService firstService = chatService(first);
+        ChatService secondService = chatService(second);
+        firstService.saveMessage(timedMessage("First instance"));
+        List<HotMessage> posted = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            posted.add(secondService.saveMessage(timedMessage("Second instance " + i)));
+        }
+        logs.forEach(HotMessageLog::stop);
+        cluster.restart();
+
+        ChatService firstRestarted = chatService(first);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(firstRestarted.saveMessage(timedMessage("After restart " + i)).getId());
+        }
+        ChatService secondRestarted = chatService(second);
+
+        then(posted).extracting(HotMessage::getId).doesNotContainAnyElementsOf(ids);
+        for (HotMessage logged : posted) {
+            then(secondRestarted.getMessage(logged.getId()).getText()).isEqualTo(logged.getText());
+        }
+    }
+
+    /**
+     * Starts a chat-service instance on the cluster and the log directory, and replays its log.
+     */
+    private ChatService chatService(File directory) {
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry(), cluster.member(0));
+        HotStore hotStore = new HazelcastHotStore(cluster.member(0));
+        HotMessageMapStore hotMessageMapStore = new HotMessageMapStore(hotChatRepository, HotStorageWrite.LOG);
+        HotMessageLog hotMessageLog = new HotMessageLog(hotStore, coldStore, chatMetrics, HotStorageWrite.LOG,
+                directory.getPath(), 4096, 60);
+        hotMessageLog.start();
+        logs.add(hotMessageLog);
+        ChatService chatService = new ChatService(hotChatRepository, coldStore, new MessageMapper(), hotStore,
+                mock(MessageFacilitator.class),
+                new HotChatUserIndex(cluster.member(0), UsernameLookup.QUERY, HotStorage.HAZELCAST),
+                new BlockMessageIdGenerator(cluster.member(0), hotChatRepository, coldStore,
+                        messageIdCounterRepository, 10),
+                hotMessageMapStore, chatMetrics, new MessageFilter(cluster.member(0), hotChatRepository,
+                coldStore, hotStore, hotMessageMapStore, chatMetrics, false, 1, 1, 0.01), hotMessageLog);
+        chatService.replayHotMessageLog();
+        return chatService;
+    }
+
+    private static TimedMessage timedMessage(String text) {
+        TimedMessage timedMessage = new TimedMessage();
+        timedMessage.setUsername("david");
+        timedMessage.setText(text);
+        timedMessage.setTimeout(600);
+        return timedMessage;
+    }
+}
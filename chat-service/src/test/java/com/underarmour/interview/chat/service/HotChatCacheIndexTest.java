@@ -0,0 +1,154 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.service;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.monitor.LocalIndexStats;
+import com.hazelcast.monitor.LocalMapStats;
+import com.underarmour.interview.chat.EmbeddedHazelcastCluster;
+import com.underarmour.interview.chat.cache.HotChatUserIndex;
+import com.underarmour.interview.chat.cache.HotChatUserIndex.UsernameLookup;
+import com.underarmour.interview.chat.cache.HotMessageMapStore;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.filter.MessageFilter;
+import com.underarmour.interview.chat.id.BlockMessageIdGenerator;
+import com.underarmour.interview.chat.mapper.MessageMapper;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import com.underarmour.interview.chat.metrics.ChatMetrics.ArchiveTrigger;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import com.underarmour.interview.chat.repository.MessageIdCounterRepository;
+import com.underarmour.interview.chat.storage.ColdStore;
+import com.underarmour.interview.chat.storage.HazelcastHotStore;
+import com.underarmour.interview.chat.storage.HotMessageLog;
+import com.underarmour.interview.chat.storage.HotStore;
+import com.underarmour.interview.chat.storage.HotStore.HotStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.mockito.ArgumentCaptor;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * The hot cache queries, the username query of {@link UsernameLookup#QUERY} and the eviction tick, are
+ * answered from the cache indexes of the chat-service configuration: the index statistics of the member count
+ * them, and they return the same messages as a full scan of a cache without indexes.
+ *
+ * @author david.moore
+ */
+@RunWith(Parameterized.class)
+public class HotChatCacheIndexTest {
+    private static final int USERS = 10;
+    private static final int MESSAGES_PER_USER = 100;
+    private static final int EXPIRED = 30;
+
+    @Parameter
+    public boolean indexed;
+
+    @Rule
+    public EmbeddedHazelcastCluster cluster = new EmbeddedHazelcastCluster(1, config -> {
+        if (!indexed) {
+            config.getMapConfig("hotChatCache").getMapIndexConfigs().clear();
+        }
+    });
+
+    private IMap<Integer, HotMessage> hotChatCache;
+    private ChatService chatService;
+    private MessageFacilitator messageFacilitator;
+    private ArchivalPipeline archivalPipeline;
+
+    @Parameters(name = "indexed={0}")
+    public static Iterable<Boolean> indexed() {
+        return Arrays.asList(true, false);
+    }
+
+    @Before
+    public void setUp() {
+        HotChatRepository hotChatRepository = mock(HotChatRepository.class);
+        ColdStore coldStore = mock(ColdStore.class);
+        HotMessageMapStore hotMessageMapStore = new HotMessageMapStore(hotChatRepository, HotStorageWrite.THROUGH);
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry(), cluster.member(0));
+        HotStore hotStore = new HazelcastHotStore(cluster.member(0));
+        HotChatUserIndex hotChatUserIndex = new HotChatUserIndex(cluster.member(0), UsernameLookup.QUERY,
+                HotStorage.HAZELCAST);
+        archivalPipeline = mock(ArchivalPipeline.class);
+        messageFacilitator = new MessageFacilitator(coldStore, hotStore, hotChatUserIndex,
+                archivalPipeline, chatMetrics, MessageFacilitator.EvictionMode.POLLING);
+        chatService = new ChatService(hotChatRepository, coldStore, new MessageMapper(),
+                hotStore, mock(MessageFacilitator.class), hotChatUserIndex,
+                new BlockMessageIdGenerator(cluster.member(0), hotChatRepository, coldStore,
+                        mock(MessageIdCounterRepository.class), 1000),
+                hotMessageMapStore, chatMetrics, new MessageFilter(cluster.member(0), hotChatRepository,
+                coldStore, hotStore, hotMessageMapStore, chatMetrics, false, 1, 1, 0.01), mock(HotMessageLog.class));
+
+        // The first messages of every user are expired
+        hotChatCache = cluster.member(0).getMap("hotChatCache");
+        LocalDateTime now = LocalDateTime.now();
+        Map<Integer, HotMessage> messages = new HashMap<>();
+        for (int i = 0; i < USERS * MESSAGES_PER_USER; i++) {
+            HotMessage message = new HotMessage("user" + i % USERS, "text " + i,
+                    i < EXPIRED ? now.minusMinutes(1) : now.plusDays(1));
+            message.setId(i);
+            messages.put(i, message);
+        }
+        hotChatCache.putAll(messages);
+    }
+
+    @Test
+    public void shouldQueryTheUsernameIndex() {
+        Collection<HotMessage> messages = chatService.getMessageByUsername("user3");
+
+        then(messages).hasSize(MESSAGES_PER_USER).allMatch(m -> m.getUsername().equals("user3"));
+        thenQueriedIndex("username");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldQueryTheExpirationDateIndex() {
+        messageFacilitator.evictionTick();
+
+        ArgumentCaptor<Collection<HotMessage>> expired = ArgumentCaptor.forClass(Collection.class);
+        verify(archivalPipeline).submit(eq(ArchiveTrigger.POLLING), expired.capture());
+        then(expired.getValue()).hasSize(EXPIRED).allMatch(m -> m.getId() < EXPIRED);
+        then(hotChatCache.size()).isEqualTo(USERS * MESSAGES_PER_USER - EXPIRED);
+        thenQueriedIndex("expirationDate");
+    }
+
+    private void thenQueriedIndex(String attribute) {
+        LocalMapStats stats = hotChatCache.getLocalMapStats();
+        if (!indexed) {
+            then(stats.getIndexedQueryCount()).isZero();
+            then(stats.getIndexStats()).isEmpty();
+            return;
+        }
+        then(stats.getIndexedQueryCount()).isEqualTo(1);
+        LocalIndexStats indexStats = stats.getIndexStats().get(attribute);
+        then(indexStats.getQueryCount()).isEqualTo(1);
+        then(indexStats.getHitCount()).isEqualTo(1);
+    }
+}
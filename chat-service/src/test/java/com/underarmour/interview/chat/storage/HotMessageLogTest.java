@@ -0,0 +1,227 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.hazelcast.core.IMap;
+import com.underarmour.interview.chat.EmbeddedHazelcastCluster;
+import com.underarmour.interview.chat.cache.HotMessageMapStore.HotStorageWrite;
+import com.underarmour.interview.chat.entity.HotMessage;
+import com.underarmour.interview.chat.metrics.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Write-ahead log of the hot cache: replay of the messages neither archived nor cached, recovery of a torn record,
+ * and truncation of the files whose messages were archived.
+ *
+ * @author david.moore
+ */
+public class HotMessageLogTest {
+    // Records of the truncation test are 46 bytes, 10 per file
+    private static final int FILE_BYTES = 460;
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    @Rule
+    public EmbeddedHazelcastCluster cluster = new EmbeddedHazelcastCluster(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ColdStore coldStore = mock(ColdStore.class);
+    private final List<HotMessageLog> logs = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        logs.forEach(HotMessageLog::stop);
+    }
+
+    @Test
+    public void shouldReplayTheMessagesOfConcurrentAppendsNeitherArchivedNorCached() throws Exception {
+        HotMessageLog hotMessageLog = hotMessageLog(4096);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> appends = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            int first = thread * 250 + 1;
+            appends.add(executor.submit(() -> IntStream.range(first, first + 250)
+                    .forEach(id -> hotMessageLog.append(Collections.singletonList(message(id, NOW))))));
+        }
+        for (Future<?> append : appends) {
+            append.get();
+        }
+        executor.shutdown();
+        hotMessageLog.stop();
+
+        // Read by username and archived, and still cached on the instances that did not restart
+        archived(IntStream.rangeClosed(1, 100));
+        IMap<Integer, HotMessage> hotChatCache = cluster.member(0).getMap("hotChatCache");
+        hotChatCache.put(1000, message(1000, NOW));
+        List<HotMessage> replayed = new ArrayList<>();
+        then(hotMessageLog(4096).replay(replayed::addAll)).isEqualTo(899);
+
+        then(replayed).extracting(HotMessage::getId)
+                .containsExactlyInAnyOrderElementsOf(IntStream.range(101, 1000).boxed().collect(Collectors.toList()));
+        HotMessage message = replayed.stream().filter(m -> m.getId() == 500).findFirst().orElse(null);
+        then(message).isNotNull();
+        then(message.getUsername()).isEqualTo("user");
+        then(message.getText()).isEqualTo("Message 500");
+        then(message.getExpirationDate()).isEqualTo(NOW);
+    }
+
+    @Test
+    public void shouldReplayUpToATornRecord() throws IOException {
+        HotMessageLog hotMessageLog = hotMessageLog(FILE_BYTES);
+        hotMessageLog.append(IntStream.rangeClosed(1, 5).mapToObj(id -> message(id, NOW))
+                .collect(Collectors.toList()));
+        hotMessageLog.stop();
+        // The last byte of the last record did not reach the disk
+        try (RandomAccessFile file = new RandomAccessFile(logFiles().get(0).toFile(), "rw")) {
+            long last = file.length() - 1;
+            file.seek(last);
+            while (file.read() == 0) {
+                file.seek(--last);
+            }
+            file.seek(last);
+            file.write(0);
+        }
+
+        List<HotMessage> replayed = new ArrayList<>();
+        hotMessageLog(FILE_BYTES).replay(replayed::addAll);
+
+        then(replayed).extracting(HotMessage::getId).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    public void shouldKeepADifferentCachedMessageWithTheIdOfALoggedOne() {
+        HotMessageLog hotMessageLog = hotMessageLog(4096);
+        hotMessageLog.append(IntStream.rangeClosed(1, 5).mapToObj(id -> message(id, NOW))
+                .collect(Collectors.toList()));
+        hotMessageLog.stop();
+
+        // Message 2 is still cached, id 3 was handed out again to another message
+        archived(IntStream.empty());
+        IMap<Integer, HotMessage> hotChatCache = cluster.member(0).getMap("hotChatCache");
+        hotChatCache.put(2, message(2, NOW));
+        HotMessage other = new HotMessage("other", "Other message", NOW.plusMinutes(1));
+        other.setId(3);
+        hotChatCache.put(3, other);
+        List<HotMessage> replayed = new ArrayList<>();
+        then(hotMessageLog(4096).replay(replayed::addAll)).isEqualTo(3);
+
+        then(replayed).extracting(HotMessage::getId).containsExactly(1, 4, 5);
+        then(hotChatCache.get(3).getText()).isEqualTo("Other message");
+        then(registry.get("chat.hot-log.conflicts").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDeleteArchivedFilesAndCopyTheLastLiveMessagesForward() throws IOException {
+        HotMessageLog hotMessageLog = hotMessageLog(FILE_BYTES);
+        LocalDateTime expired = NOW.minusMinutes(2);
+        HotMessage live = message(31, NOW.plusHours(1));
+        IntStream.rangeClosed(1, 50).forEach(id -> hotMessageLog.append(Collections.singletonList(
+                id == live.getId() ? live : message(id, expired))));
+        IMap<Integer, HotMessage> hotChatCache = cluster.member(0).getMap("hotChatCache");
+        hotChatCache.put(live.getId(), live);
+        archived(IntStream.rangeClosed(1, 50).filter(id -> id != live.getId()));
+        then(logFiles()).hasSize(5);
+
+        hotMessageLog.truncate();
+
+        // The first three files were archived, the fourth only had the live message left, the last was rolled from
+        then(logFiles()).hasSize(1);
+        hotMessageLog.stop();
+        hotChatCache.clear();
+        List<HotMessage> replayed = new ArrayList<>();
+        hotMessageLog(FILE_BYTES).replay(replayed::addAll);
+        then(replayed).extracting(HotMessage::getId).containsExactly(live.getId());
+    }
+
+    @Test
+    public void shouldCopyExpiredMessagesNotArchivedYetForward() throws IOException {
+        HotMessageLog hotMessageLog = hotMessageLog(FILE_BYTES);
+        LocalDateTime expired = NOW.minusMinutes(2);
+        IntStream.rangeClosed(1, 50).forEach(id -> hotMessageLog.append(Collections.singletonList(
+                message(id, expired))));
+        // The archival pipeline is behind: two stragglers of the first files, and the whole last one
+        archived(IntStream.rangeClosed(1, 40).filter(id -> id != 5 && id != 25));
+        then(logFiles()).hasSize(5);
+
+        hotMessageLog.truncate();
+
+        // The stragglers were copied forward, the last file waits for its archival
+        then(logFiles()).hasSize(2);
+        hotMessageLog.stop();
+        List<HotMessage> replayed = new ArrayList<>();
+        hotMessageLog(FILE_BYTES).replay(replayed::addAll);
+        then(replayed).extracting(HotMessage::getId).containsExactlyInAnyOrderElementsOf(
+                IntStream.concat(IntStream.of(5, 25), IntStream.rangeClosed(41, 50)).boxed()
+                        .collect(Collectors.toList()));
+    }
+
+    private HotMessageLog hotMessageLog(int fileBytes) {
+        HotMessageLog hotMessageLog = new HotMessageLog(new HazelcastHotStore(cluster.member(0)), coldStore,
+                new ChatMetrics(registry, cluster.member(0)), HotStorageWrite.LOG,
+                folder.getRoot().getPath(), fileBytes, 60);
+        hotMessageLog.start();
+        logs.add(hotMessageLog);
+        return hotMessageLog;
+    }
+
+    private void archived(IntStream ids) {
+        int[] archived = ids.toArray();
+        doAnswer(invocation -> {
+            int minId = invocation.getArgument(0);
+            int maxId = invocation.getArgument(1);
+            IntConsumer action = invocation.getArgument(2);
+            IntStream.of(archived).filter(id -> id >= minId && id <= maxId).forEach(action);
+            return null;
+        }).when(coldStore).forEachId(anyInt(), anyInt(), any());
+    }
+
+    private List<Path> logFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static HotMessage message(int id, LocalDateTime expirationDate) {
+        HotMessage message = new HotMessage("user", String.format("Message %02d", id), expirationDate);
+        message.setId(id);
+        return message;
+    }
+}
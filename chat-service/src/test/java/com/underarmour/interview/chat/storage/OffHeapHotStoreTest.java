@@ -0,0 +1,137 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.HotMessage;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Off-heap hot store: records round trip through the slabs, the username and expiration lists, single removal
+ * and slot reuse.
+ *
+ * @author david.moore
+ */
+public class OffHeapHotStoreTest {
+    private static final int SLAB_BYTES = 4 * 1024;
+    private static final LocalDateTime NOW = LocalDateTime.of(2019, 3, 1, 12, 0);
+
+    private final OffHeapHotStore store = new OffHeapHotStore(SLAB_BYTES, 16);
+
+    @Test
+    public void shouldReadBackEveryField() {
+        String longText = String.join("", Collections.nCopies(3 * SLAB_BYTES, "\u00e9"));
+        store.put(message(1, "alice", "Hello", NOW.plusNanos(123_456_789)), -1, false);
+        store.put(message(2, "bob", null, NOW), -1, false);
+        store.put(message(3, "alice", longText, NOW), -1, false);
+
+        HotMessage message = store.get(1);
+        then(message.getId()).isEqualTo(1);
+        then(message.getUsername()).isEqualTo("alice");
+        then(message.getText()).isEqualTo("Hello");
+        then(message.getExpirationDate()).isEqualTo(NOW.plusNanos(123_456_789));
+        then(store.get(2).getText()).isNull();
+        then(store.get(3).getText()).isEqualTo(longText);
+        then(store.get(4)).isNull();
+        then(store.getAll(new HashSet<>(Arrays.asList(1, 3, 4))).keySet()).containsOnly(1, 3);
+        then(store.entries()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldListTheMessagesOfAUsername() {
+        List<HotMessage> messages = IntStream.rangeClosed(1, 100)
+                .mapToObj(id -> message(id, "user" + id % 3, "Message " + id, NOW))
+                .collect(Collectors.toList());
+        store.putAll(messages, message -> -1);
+        store.removeAll(new HashSet<>(Arrays.asList(3, 4, 99)));
+
+        then(store.idsByUsername("user1")).hasSize(33).doesNotContain(4).allMatch(id -> id % 3 == 1);
+        then(store.idsByUsername("user0")).doesNotContain(3, 99).hasSize(31);
+        then(store.idsByUsername("nobody")).isEmpty();
+        List<Integer> visited = new ArrayList<>();
+        store.forEachUsernameAndId((username, id) -> {
+            then(username).isEqualTo("user" + id % 3);
+            visited.add(id);
+        });
+        then(visited).hasSize(97).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void shouldRemoveEachMessageOnce() {
+        store.put(message(1, "alice", "Hello", NOW), -1, false);
+        store.put(message(2, "alice", "Again", NOW), -1, false);
+
+        then(store.removeAll(Collections.singleton(1))).extracting(HotMessage::getText).containsExactly("Hello");
+        then(store.removeAll(new HashSet<>(Arrays.asList(1, 2)))).extracting(HotMessage::getId).containsExactly(2);
+        then(store.get(1)).isNull();
+        then(store.idsByUsername("alice")).isEmpty();
+        then(store.removeExpired(NOW.plusDays(1))).isEmpty();
+        then(store.entries()).isZero();
+    }
+
+    @Test
+    public void shouldRemoveTheMessagesOfTheSecondsThatAreOver() {
+        store.put(message(1, "alice", "Expired", NOW.minusSeconds(5)), -1, false);
+        store.put(message(2, "alice", "Expiring", NOW.plusNanos(500_000_000)), -1, false);
+        store.put(message(3, "bob", "Exact", NOW), -1, false);
+        store.put(message(4, "bob", "Later", NOW.plusSeconds(10)), -1, false);
+
+        then(store.removeExpired(NOW)).extracting(HotMessage::getId).containsOnly(1, 3);
+        // Rounded up to the next second
+        then(store.removeExpired(NOW.plusNanos(700_000_000))).isEmpty();
+        then(store.removeExpired(NOW.plusSeconds(1))).extracting(HotMessage::getId).containsExactly(2);
+        then(store.idsByUsername("alice")).isEmpty();
+        then(store.idsByUsername("bob")).containsExactly(4);
+    }
+
+    @Test
+    public void shouldReuseTheSlotsOfRemovedMessages() {
+        store.putAll(messages(ids(1, 1000)), message -> -1);
+        long memory = store.memory();
+
+        // The ids of every wave replace those of the previous one in the same slots
+        for (int wave = 1; wave <= 10; wave++) {
+            store.removeAll(new HashSet<>(ids(1 + (wave - 1) * 1000, wave * 1000)));
+            store.putAll(messages(ids(1 + wave * 1000, (wave + 1) * 1000)), message -> -1);
+        }
+
+        then(store.entries()).isEqualTo(1000);
+        then(store.memory()).isEqualTo(memory);
+        then(store.get(10_500).getText()).isEqualTo("Message 10500");
+    }
+
+    private static List<Integer> ids(int from, int to) {
+        return IntStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+
+    private static List<HotMessage> messages(List<Integer> ids) {
+        return ids.stream().map(id -> message(id, "user" + id % 10, "Message " + id, NOW))
+                .collect(Collectors.toList());
+    }
+
+    private static HotMessage message(int id, String username, String text, LocalDateTime expirationDate) {
+        HotMessage message = new HotMessage(username, text, expirationDate);
+        message.setId(id);
+        return message;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Chat Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.chat.storage;
+
+import com.underarmour.interview.chat.entity.ColdMessage;
+import com.underarmour.interview.chat.repository.HotChatRepository;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Segment file cold storage: reads by id across blocks and segments, recovery of a crashed writer, segments of
+ * other instances and retention.
+ *
+ * @author david.moore
+ */
+public class SegmentColdStoreTest {
+    private static final int SEGMENT_BYTES = 4 * 1024;
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HotChatRepository hotChatRepository = mock(HotChatRepository.class);
+    private final List<SegmentColdStore> stores = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        stores.forEach(SegmentColdStore::stop);
+    }
+
+    @Test
+    public void shouldFindEveryMessageAcrossOverlappingBlocksAndSegments() throws IOException {
+        SegmentColdStore store = store("a", 0);
+
+        // Even ids then odd ids, the blocks of the second archival overlap those of the first
+        store.archive(messages(IntStream.rangeClosed(1, 1000).filter(id -> id % 2 == 0), NOW), false);
+        store.archive(messages(IntStream.rangeClosed(1, 1000).filter(id -> id % 2 == 1), NOW), true);
+
+        then(segmentFiles().size()).isGreaterThan(1);
+        for (int id = 1; id <= 1000; id++) {
+            ColdMessage message = store.findById(id).orElse(null);
+            then(message).isNotNull();
+            then(message.getId()).isEqualTo(id);
+            then(message.getUsername()).isEqualTo("user" + id % 10);
+            then(message.getText()).isEqualTo("Message " + id);
+            then(message.getExpirationDate()).isEqualTo(NOW);
+        }
+        then(store.findById(0)).isEmpty();
+        then(store.findById(1001)).isEmpty();
+        then(store.findMaxId()).isEqualTo(1000);
+        then(store.count()).isEqualTo(1000);
+        Set<Integer> ids = new HashSet<>();
+        store.forEachId(ids::add);
+        then(ids).hasSize(1000);
+        List<Integer> range = new ArrayList<>();
+        store.forEachId(400, 420, range::add);
+        then(range).containsExactlyInAnyOrderElementsOf(IntStream.rangeClosed(400, 420).boxed()
+                .collect(Collectors.toList()));
+        verify(hotChatRepository, atLeastOnce()).deleteByIds(anyCollection());
+    }
+
+    @Test
+    public void shouldSealTheSegmentOfACrashedWriterAfterItsLastCompleteBlock() throws IOException {
+        SegmentColdStore crashed = new SegmentColdStore(hotChatRepository, folder.getRoot().toPath(), "a",
+                1024 * 1024, 16, 0, 1000);
+        crashed.start();
+        crashed.archive(messages(IntStream.rangeClosed(1, 100), NOW), false);
+        crashed.archive(messages(IntStream.rangeClosed(101, 110), NOW), false);
+        // Torn write of the last block, its payload was not all written
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long last = file.length() - 1;
+            file.seek(last);
+            while (file.read() == 0) {
+                file.seek(--last);
+            }
+            file.seek(last);
+            file.write(0);
+        }
+
+        SegmentColdStore store = store("a", 0);
+
+        then(store.findById(100)).isPresent();
+        then(store.findById(101)).isEmpty();
+        then(store.count()).isEqualTo(100);
+        store.archive(messages(IntStream.rangeClosed(101, 110), NOW), false);
+        then(segmentFiles()).hasSize(2);
+        then(store.findById(101)).isPresent();
+        then(store("a", 0).count()).isEqualTo(110);
+        verify(hotChatRepository, never()).deleteByIds(anyCollection());
+    }
+
+    @Test
+    public void shouldReadTheSegmentsOfAnotherInstanceOnceRefreshed() throws IOException {
+        SegmentColdStore writer = store("a", 0);
+        SegmentColdStore reader = store("b", 0);
+
+        writer.archive(messages(IntStream.rangeClosed(1, 10), NOW), false);
+        then(reader.findById(1)).isEmpty();
+        reader.refresh();
+        then(reader.findById(1)).isPresent();
+
+        // Appended to the segment already mapped, rescanned by the read missing it
+        writer.archive(messages(IntStream.rangeClosed(11, 20), NOW), false);
+        then(reader.findById(11)).isPresent();
+        then(reader.findMaxId()).isEqualTo(20);
+        then(reader.findById(21)).isEmpty();
+    }
+
+    @Test
+    public void shouldFindMessagesOfAnotherInstanceThatRolledItsSegmentBeforeRefresh() throws IOException {
+        SegmentColdStore writer = store("a", 0);
+        SegmentColdStore reader = store("b", 0);
+        writer.archive(messages(IntStream.rangeClosed(1, 10), NOW), false);
+        reader.refresh();
+
+        // More than a segment, the writer seals the segment the reader mapped and rolls
+        writer.archive(messages(IntStream.rangeClosed(11, 2000), NOW), false);
+        then(segmentFiles().size()).isGreaterThan(2);
+
+        then(reader.findById(2000)).isPresent();
+        then(reader.count()).isEqualTo(2000);
+    }
+
+    @Test
+    public void shouldDeleteWholeSegmentsPastRetention() throws IOException {
+        SegmentColdStore store = store("a", 1);
+        SegmentColdStore reader = store("b", 1);
+
+        store.archive(messages(IntStream.rangeClosed(1, 10), NOW.minusDays(2)), false);
+        store.applyRetention();
+        store.archive(messages(IntStream.rangeClosed(11, 20), NOW.minusHours(12)), false);
+        store.applyRetention();
+
+        then(segmentFiles()).hasSize(1);
+        then(store.findById(1)).isEmpty();
+        then(store.findById(11)).isPresent();
+        then(store.count()).isEqualTo(10);
+        reader.refresh();
+        then(reader.count()).isEqualTo(10);
+    }
+
+    private SegmentColdStore store(String writer, int retentionDays) {
+        SegmentColdStore store = new SegmentColdStore(hotChatRepository, folder.getRoot().toPath(), writer,
+                SEGMENT_BYTES, 16, retentionDays, 100);
+        store.start();
+        stores.add(store);
+        return store;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Collection<ColdMessage> messages(IntStream ids, LocalDateTime expirationDate) {
+        return ids.mapToObj(id -> {
+            ColdMessage message = new ColdMessage();
+            message.setId(id);
+            message.setUsername("user" + id % 10);
+            message.setText("Message " + id);
+            message.setExpirationDate(expirationDate);
+            return message;
+        }).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Edge Gateway
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.gateway;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * Edge Gateway Application, the non-blocking counterpart of the Zuul edge-service. Requests are routed on the
+ * Netty event loops, no thread waits for a chat-service response.
+ *
+ * @author david.moore
+ */
+@SpringBootApplication
+public class EdgeGatewayApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.run(EdgeGatewayApplication.class, args);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.balancer;
+
+import com.netflix.loadbalancer.LoadBalancerStats;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+
+/**
+ * Load balancer statistics whose server statistics also keep a peak-EWMA of the response times the edge
+ * observed, see {@link PeakEwmaServerStats}. Ribbon records every response of a server in its statistics, the
+ * time it took and the requests it has outstanding, which is all the {@link PeakEwmaRule} reads.
+ *
+ * @author david.moore
+ */
+public class PeakEwmaLoadBalancerStats extends LoadBalancerStats {
+    private final long decayMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param name        Name of the load balancer, the service
+     * @param decayMillis Time constant of the decay of the response times
+     */
+    public PeakEwmaLoadBalancerStats(String name, long decayMillis) {
+        super(name);
+        this.decayMillis = decayMillis;
+    }
+
+    /**
+     * Same statistics as the Ribbon ones, with the peak-EWMA.
+     */
+    @Override
+    protected ServerStats createServerStats(Server server) {
+        ServerStats stats = new PeakEwmaServerStats(this, decayMillis);
+        stats.setBufferSize(1000);
+        stats.setPublishInterval(1000);
+        stats.initialize(server);
+        return stats;
+    }
+
+    /**
+     * Statistics of a server with an exponentially weighted moving average of its response times that jumps to
+     * any response slower than the average, and decays back over the time constant. A single slow response, e.g.
+     * of a garbage collection pause or a timeout, makes the server expensive at once; it has to be fast for a
+     * while to be cheap again. Without responses the average decays towards 0, so a server that was slow is
+     * tried again once the others have been observed slower than what is left of its average.
+     */
+    public static class PeakEwmaServerStats extends ServerStats {
+        // Cost of a server that has requests outstanding and never answered one
+        static final double UNMEASURED_PENALTY = 1e9;
+
+        private final double decayNanos;
+        private double ewma;
+        private long stamp = System.nanoTime();
+
+        /**
+         * Constructor.
+         *
+         * @param stats       Load balancer statistics of the server
+         * @param decayMillis Time constant of the decay of the response times
+         */
+        public PeakEwmaServerStats(LoadBalancerStats stats, long decayMillis) {
+            super(stats);
+            decayNanos = decayMillis * 1_000_000.0;
+        }
+
+        @Override
+        public void noteResponseTime(double msecs) {
+            super.noteResponseTime(msecs);
+            observe(msecs);
+        }
+
+        /**
+         * @return Peak-EWMA of the response times in milliseconds, times the outstanding requests plus one: the
+         * time a new request would wait
+         */
+        public double cost() {
+            double latency = observe(0);
+            int outstanding = getActiveRequestsCount(System.currentTimeMillis());
+            if (latency == 0 && outstanding > 0) {
+                return UNMEASURED_PENALTY + outstanding;
+            }
+            return latency * (outstanding + 1);
+        }
+
+        /**
+         * Applies the decay since the last observation, then the response time.
+         *
+         * @return The average
+         */
+        private synchronized double observe(double millis) {
+            long now = System.nanoTime();
+            double weight = Math.exp(-Math.max(0, now - stamp) / decayNanos);
+            stamp = now;
+            ewma = millis > ewma ? millis : ewma * weight + millis * (1 - weight);
+            return ewma;
+        }
+    }
+}
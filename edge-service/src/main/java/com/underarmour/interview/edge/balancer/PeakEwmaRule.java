@@ -0,0 +1,114 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.balancer;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.AbstractLoadBalancer;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+import com.underarmour.interview.edge.balancer.PeakEwmaLoadBalancerStats.PeakEwmaServerStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ribbon rule routing to the chat-service instance a request would wait the least on, by the response times the
+ * edge itself observed: of two instances picked at random, the one of the lower peak-EWMA latency times
+ * outstanding requests plus one, see {@link PeakEwmaServerStats}. An instance in a garbage collection pause, or
+ * behind on its archival, answers slower and piles up outstanding requests, and stops being picked after its
+ * first slow response or stalled request instead of getting its share of the requests. Comparing two instances
+ * rather than all of them keeps the edges, and concurrent requests of one edge, from all piling on the instance
+ * that looked best a moment ago.
+ * <p>Instances whose Ribbon circuit breaker tripped, after successive connection failures, are left out while
+ * others are available.
+ * <p>Configured with {@code <service>.ribbon.NFLoadBalancerRuleClassName}; the time constant of the decay of
+ * the response times is {@code <service>.ribbon.PeakEwmaDecayMillis}, 10 seconds by default.
+ *
+ * @author david.moore
+ */
+public class PeakEwmaRule extends AbstractLoadBalancerRule {
+    static final IClientConfigKey<Integer> DECAY_MILLIS = new CommonClientConfigKey<Integer>("PeakEwmaDecayMillis") {
+    };
+    private static final int DEFAULT_DECAY_MILLIS = 10_000;
+
+    private long decayMillis = DEFAULT_DECAY_MILLIS;
+
+    @Override
+    public void initWithNiwsConfig(IClientConfig clientConfig) {
+        decayMillis = clientConfig.getPropertyAsInteger(DECAY_MILLIS, DEFAULT_DECAY_MILLIS);
+    }
+
+    /**
+     * Replaces the statistics of the load balancer with ones keeping the peak-EWMA, once. Ribbon records the
+     * responses in whatever statistics the load balancer holds when they complete.
+     */
+    @Override
+    public void setLoadBalancer(ILoadBalancer lb) {
+        super.setLoadBalancer(lb);
+        if (lb instanceof BaseLoadBalancer
+                && !(((BaseLoadBalancer) lb).getLoadBalancerStats() instanceof PeakEwmaLoadBalancerStats)) {
+            ((BaseLoadBalancer) lb).setLoadBalancerStats(new PeakEwmaLoadBalancerStats(
+                    ((BaseLoadBalancer) lb).getName(), decayMillis));
+        }
+    }
+
+    @Override
+    public Server choose(Object key) {
+        ILoadBalancer lb = getLoadBalancer();
+        List<Server> reachable = lb.getReachableServers();
+        List<Server> servers = new ArrayList<>(reachable.size());
+        long now = System.currentTimeMillis();
+        for (Server server : reachable) {
+            if (!stats(lb, server).isCircuitBreakerTripped(now)) {
+                servers.add(server);
+            }
+        }
+        if (servers.isEmpty()) {
+            servers = reachable;
+        }
+        if (servers.isEmpty()) {
+            return null;
+        }
+        if (servers.size() == 1) {
+            return servers.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(servers.size());
+        int second = random.nextInt(servers.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        return cost(lb, servers.get(first)) <= cost(lb, servers.get(second)) ? servers.get(first)
+                : servers.get(second);
+    }
+
+    private static ServerStats stats(ILoadBalancer lb, Server server) {
+        return ((AbstractLoadBalancer) lb).getLoadBalancerStats().getSingleServerStat(server);
+    }
+
+    /**
+     * Outstanding requests only, when the load balancer keeps other statistics.
+     */
+    private static double cost(ILoadBalancer lb, Server server) {
+        ServerStats stats = stats(lb, server);
+        return stats instanceof PeakEwmaServerStats ? ((PeakEwmaServerStats) stats).cost()
+                : stats.getActiveRequestsCount();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of the responses the chat-service allows caching, by service and request URI. The
+ * entries are split in stripes, each a least recently used map behind its own lock, so that concurrent requests
+ * for different messages rarely contend. A stripe evicts its least recently used entry past its share of
+ * {@code edge.response-cache.max-entries}, and an entry is dropped once expired, on its next read.
+ *
+ * @author david.moore
+ */
+@Component
+public class ResponseCache {
+    private static final int STRIPES = 16;
+
+    private final boolean enabled;
+    private final int maxBodyBytes;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Constructor.
+     *
+     * @param enabled      Whether the responses are cached
+     * @param maxEntries   Number of responses held at most
+     * @param maxBodyBytes Largest body cached, larger responses are not
+     */
+    @Autowired
+    public ResponseCache(@Value("${edge.response-cache.enabled:true}") boolean enabled,
+                         @Value("${edge.response-cache.max-entries:10000}") int maxEntries,
+                         @Value("${edge.response-cache.max-body-bytes:65536}") int maxBodyBytes) {
+        this.enabled = enabled;
+        this.maxBodyBytes = maxBodyBytes;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxEntries / STRIPES));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * @param key Service and request URI
+     * @param now Current time in milliseconds
+     * @return The unexpired response, {@code null} when not cached
+     */
+    public CachedResponse get(String key, long now) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            CachedResponse response = stripe.get(key);
+            if (response != null && response.getExpiresAt() <= now) {
+                stripe.remove(key);
+                return null;
+            }
+            return response;
+        }
+    }
+
+    /**
+     * @param key      Service and request URI
+     * @param response Response to cache, replaces the response of the same key
+     */
+    public void put(String key, CachedResponse response) {
+        if (response.getBody().length > maxBodyBytes) {
+            return;
+        }
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, response);
+        }
+    }
+
+    /**
+     * @return Number of responses held
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(String key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Least recently used map of a stripe, guarded by its own monitor.
+     */
+    private static final class Stripe extends LinkedHashMap<String, CachedResponse> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+
+        Stripe(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    /**
+     * A cached 200 response: its body and the headers replayed with it.
+     */
+    public static class CachedResponse {
+        private final byte[] body;
+        private final String contentType;
+        private final String eTag;
+        private final String cacheControl;
+        private final boolean immutable;
+        private final long expiresAt;
+
+        /**
+         * Constructor.
+         *
+         * @param body         Response body
+         * @param contentType  Content-Type of the body, may be {@code null}
+         * @param eTag         ETag of the response, may be {@code null}
+         * @param cacheControl Cache-Control of the response
+         * @param immutable    Whether the response never changes
+         * @param expiresAt    Time in milliseconds the response may be served until
+         */
+        public CachedResponse(byte[] body, String contentType, String eTag, String cacheControl, boolean immutable,
+                              long expiresAt) {
+            this.body = body;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.cacheControl = cacheControl;
+            this.immutable = immutable;
+            this.expiresAt = expiresAt;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        public boolean isImmutable() {
+            return immutable;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
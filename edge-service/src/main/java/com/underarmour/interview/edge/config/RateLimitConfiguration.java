@@ -0,0 +1,70 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.config;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.GroupConfig;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.underarmour.interview.edge.ratelimit.HazelcastTokenBuckets;
+import com.underarmour.interview.edge.ratelimit.LocalTokenBuckets;
+import com.underarmour.interview.edge.ratelimit.TokenBuckets;
+import com.underarmour.interview.edge.ratelimit.TokenBuckets.Sharing;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Rate limit configuration
+ *
+ * @author david.moore
+ */
+@Configuration
+public class RateLimitConfiguration {
+
+    /**
+     * Hazelcast configuration of the edges sharing their token buckets, Spring Boot starts the member from it.
+     * The edges form a cluster of their own, apart from the chat-services. A bucket idle for longer than
+     * {@code maxIdleSeconds} is dropped, it must be at least the refill time of the largest bucket.
+     *
+     * @param maxIdleSeconds Seconds a bucket is kept without being used
+     * @return Configuration
+     */
+    @Bean
+    @ConditionalOnProperty(name = "edge.rate-limit.sharing", havingValue = "HAZELCAST")
+    public Config hazelcastConfig(@Value("${edge.rate-limit.hazelcast.max-idle-seconds:300}") int maxIdleSeconds) {
+        return new Config().setInstanceName("edge-hazelcast-instance")
+                .setGroupConfig(new GroupConfig("edge-service"))
+                .addMapConfig(new MapConfig(HazelcastTokenBuckets.MAP).setMaxIdleSeconds(maxIdleSeconds));
+    }
+
+    /**
+     * Token buckets of the rate limit, of this edge or shared by the edges.
+     *
+     * @param sharing    Where the buckets are held
+     * @param instance   Hazelcast instance of the edges, only started when shared
+     * @param maxBuckets Number of buckets an edge holds before the full ones are swept
+     * @return Token buckets
+     */
+    @Bean
+    public TokenBuckets tokenBuckets(@Value("${edge.rate-limit.sharing:LOCAL}") Sharing sharing,
+                                     ObjectProvider<HazelcastInstance> instance,
+                                     @Value("${edge.rate-limit.max-buckets:100000}") int maxBuckets) {
+        if (sharing == Sharing.HAZELCAST) {
+            return new HazelcastTokenBuckets(instance.getObject());
+        }
+        return new LocalTokenBuckets(maxBuckets);
+    }
+}
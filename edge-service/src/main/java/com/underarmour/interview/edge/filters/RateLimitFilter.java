@@ -0,0 +1,288 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.filters;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import com.underarmour.interview.edge.ratelimit.TokenBuckets;
+import com.underarmour.interview.edge.ratelimit.TokenBuckets.Limit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.PRE_DECORATION_FILTER_ORDER;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.PRE_TYPE;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.REQUEST_ENTITY_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.REQUEST_URI_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.SERVICE_ID_KEY;
+
+/**
+ * Limits the request rate of each client, by remote address, and the message rate of each username, with
+ * {@link TokenBuckets}. Every routed request takes a token of its client. POST /chat and POST /chat/batch take
+ * a token of the username of each message of the body, and GET /chats/{username} one of the username: a batch
+ * counts as many messages as it holds. A request takes the tokens of all its usernames or none, those taken
+ * before a username over its limit are given back. A request over a limit is answered TOO_MANY_REQUESTS with a
+ * Retry-After of the seconds until it would be allowed, without reaching a chat-service.
+ * <p>The body of a POST is read here to find its usernames, and handed on to the routing from memory. A body over
+ * {@code maxBodyBytes} is not read past the limit, and a batch holding more messages of a username than its burst
+ * could never be allowed: both are answered PAYLOAD_TOO_LARGE rather than TOO_MANY_REQUESTS.
+ * <p>Meters, per bucket kind rather than per key, of which there are as many as clients and users:
+ * <ul>
+ * <li>{@code edge.rate-limit.requests}: requests by bucket and outcome, allowed or limited. A request limited
+ * by its client never reaches the username buckets</li>
+ * <li>{@code edge.rate-limit.buckets}: buckets held by this edge</li>
+ * </ul>
+ *
+ * @author david.moore
+ */
+@Component
+public class RateLimitFilter extends ZuulFilter {
+    private static Logger log = LoggerFactory.getLogger(RateLimitFilter.class);
+    private static final Pattern USERNAME_URI = Pattern.compile("/chats/([^/]+)");
+    private static final Pattern MESSAGE_URI = Pattern.compile("/chat(/batch)?");
+
+    private final TokenBuckets tokenBuckets;
+    private final boolean enabled;
+    private final int usernameBurst;
+    private final int maxBodyBytes;
+    private final Map<Bucket, Limit> limits = new EnumMap<>(Bucket.class);
+    private final Map<Bucket, Counter> allowed = new EnumMap<>(Bucket.class);
+    private final Map<Bucket, Counter> limited = new EnumMap<>(Bucket.class);
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Constructor.
+     *
+     * @param tokenBuckets  Token buckets of the clients and usernames
+     * @param registry      Registry of the meters
+     * @param enabled       Whether requests are limited
+     * @param clientRate    Requests per second of a client
+     * @param clientBurst   Requests a client may send at once
+     * @param usernameRate  Messages per second of a username
+     * @param usernameBurst Messages a username may send at once, at least the largest batch
+     * @param maxBodyBytes  Largest body of a POST read, at least the largest batch
+     */
+    @Autowired
+    public RateLimitFilter(TokenBuckets tokenBuckets, MeterRegistry registry,
+                           @Value("${edge.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${edge.rate-limit.client.rate:1000}") double clientRate,
+                           @Value("${edge.rate-limit.client.burst:2000}") int clientBurst,
+                           @Value("${edge.rate-limit.username.rate:100}") double usernameRate,
+                           @Value("${edge.rate-limit.username.burst:10000}") int usernameBurst,
+                           @Value("${edge.rate-limit.max-body-bytes:10485760}") int maxBodyBytes) {
+        this.tokenBuckets = tokenBuckets;
+        this.enabled = enabled;
+        this.usernameBurst = usernameBurst;
+        this.maxBodyBytes = maxBodyBytes;
+        limits.put(Bucket.CLIENT, new Limit(clientRate, clientBurst));
+        limits.put(Bucket.USERNAME, new Limit(usernameRate, usernameBurst));
+        for (Bucket bucket : Bucket.values()) {
+            allowed.put(bucket, counter(registry, bucket, "allowed"));
+            limited.put(bucket, counter(registry, bucket, "limited"));
+        }
+        Gauge.builder("edge.rate-limit.buckets", tokenBuckets, TokenBuckets::size)
+                .description("Token buckets held by this edge")
+                .register(registry);
+    }
+
+    @Override
+    public String filterType() {
+        return PRE_TYPE;
+    }
+
+    @Override
+    public int filterOrder() {
+        return PRE_DECORATION_FILTER_ORDER + 1;
+    }
+
+    @Override
+    public boolean shouldFilter() {
+        return enabled && RequestContext.getCurrentContext().get(SERVICE_ID_KEY) != null;
+    }
+
+    @Override
+    public Object run() {
+        RequestContext ctx = RequestContext.getCurrentContext();
+        String client = ctx.getRequest().getRemoteAddr();
+        long wait = take(Bucket.CLIENT, client, 1);
+        if (wait > 0) {
+            limit(ctx, Bucket.CLIENT, client, wait);
+            return null;
+        }
+        allowed.get(Bucket.CLIENT).increment();
+        Map<String, Integer> usernames = usernames(ctx);
+        if (usernames == null) {
+            return null;
+        }
+        for (Map.Entry<String, Integer> username : usernames.entrySet()) {
+            if (username.getValue() > usernameBurst) {
+                reject(ctx, HttpStatus.PAYLOAD_TOO_LARGE, username.getValue() + " messages of username '"
+                        + username.getKey() + "' exceed its burst of " + usernameBurst + ", split the batch.");
+                return null;
+            }
+        }
+        List<Map.Entry<String, Integer>> taken = new ArrayList<>();
+        for (Map.Entry<String, Integer> username : usernames.entrySet()) {
+            wait = take(Bucket.USERNAME, username.getKey(), username.getValue());
+            if (wait > 0) {
+                taken.forEach(t -> tokenBuckets.giveBack(key(Bucket.USERNAME, t.getKey()), t.getValue(),
+                        limits.get(Bucket.USERNAME)));
+                limit(ctx, Bucket.USERNAME, username.getKey(), wait);
+                return null;
+            }
+            taken.add(username);
+        }
+        allowed.get(Bucket.USERNAME).increment(taken.size());
+        return null;
+    }
+
+    /**
+     * @return 0 or less when the tokens were taken, otherwise nanoseconds until the bucket holds them
+     */
+    private long take(Bucket bucket, String key, int tokens) {
+        return tokenBuckets.take(key(bucket, key), tokens, limits.get(bucket));
+    }
+
+    private static String key(Bucket bucket, String key) {
+        return bucket.name().toLowerCase() + ":" + key;
+    }
+
+    /**
+     * Answers the request TOO_MANY_REQUESTS, with a Retry-After of the wait of the bucket.
+     */
+    private void limit(RequestContext ctx, Bucket bucket, String key, long wait) {
+        limited.get(bucket).increment();
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+        log.debug("Rate limit of {} '{}' exceeded, retry after {}s", bucket, key, retryAfter);
+        ctx.addZuulResponseHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        reject(ctx, HttpStatus.TOO_MANY_REQUESTS, "Rate limit of " + bucket.name().toLowerCase() + " '" + key
+                + "' exceeded, retry in " + retryAfter + " seconds.");
+    }
+
+    private static void reject(RequestContext ctx, HttpStatus status, String body) {
+        ctx.setSendZuulResponse(false);
+        ctx.setResponseStatusCode(status.value());
+        ctx.setResponseBody(body);
+    }
+
+    /**
+     * @return Usernames of the request, with the number of messages of each, null when the body is too large and
+     * the request was answered
+     */
+    private Map<String, Integer> usernames(RequestContext ctx) {
+        String uri = (String) ctx.get(REQUEST_URI_KEY);
+        HttpServletRequest request = ctx.getRequest();
+        Matcher username = USERNAME_URI.matcher(uri);
+        if ("GET".equals(request.getMethod()) && username.matches()) {
+            return Collections.singletonMap(username.group(1), 1);
+        }
+        if (!"POST".equals(request.getMethod()) || !MESSAGE_URI.matcher(uri).matches()) {
+            return Collections.emptyMap();
+        }
+
+        byte[] body;
+        try {
+            body = request.getContentLengthLong() > maxBodyBytes ? null : read(request.getInputStream());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read the body of POST " + uri, e);
+        }
+        if (body == null) {
+            log.debug("Body of POST {} over {} bytes", uri, maxBodyBytes);
+            reject(ctx, HttpStatus.PAYLOAD_TOO_LARGE, "Body over " + maxBodyBytes + " bytes, split the batch.");
+            return null;
+        }
+        ctx.set(REQUEST_ENTITY_KEY, new ByteArrayInputStream(body));
+
+        // Messages have no nested objects, every username field is the username of a message, of a json object,
+        // a json array of them or an NDJSON stream of them
+        Map<String, Integer> usernames = new LinkedHashMap<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                if (token == JsonToken.FIELD_NAME && "username".equals(parser.getCurrentName())
+                        && parser.nextToken() == JsonToken.VALUE_STRING) {
+                    usernames.merge(parser.getText(), 1, Integer::sum);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // Malformed, the chat-service answers BAD_REQUEST, the messages read so far are still limited
+            log.debug("Malformed body of POST {}: {}", uri, e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to parse the body of POST " + uri, e);
+        }
+        return usernames;
+    }
+
+    /**
+     * @return The body, null when it is longer than {@code maxBodyBytes}, read no further
+     */
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            if (body.size() + read > maxBodyBytes) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static Counter counter(MeterRegistry registry, Bucket bucket, String outcome) {
+        return Counter.builder("edge.rate-limit.requests")
+                .description("Requests by the token bucket that allowed or limited them")
+                .tag("bucket", bucket.name().toLowerCase())
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * Kind of token bucket.
+     */
+    enum Bucket {
+        /**
+         * A bucket per remote address, of every request.
+         */
+        CLIENT,
+        /**
+         * A bucket per username, of the messages posted and the reads of the messages of the username.
+         */
+        USERNAME
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.filters;
+
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import com.underarmour.interview.edge.cache.ResponseCache;
+import com.underarmour.interview.edge.cache.ResponseCache.CachedResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.util.regex.Pattern;
+
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.PRE_DECORATION_FILTER_ORDER;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.PRE_TYPE;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.REQUEST_URI_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.SERVICE_ID_KEY;
+
+/**
+ * Answers GET /chat/{id} from the {@link ResponseCache} without routing to a chat-service instance. Runs once the
+ * route is decorated, after the {@link RateLimitFilter}, the cache key is the service and the URI of the request
+ * within it. A request holding the
+ * ETag of the cached response in its If-None-Match is answered NOT_MODIFIED. On a miss the key is left in the
+ * request context for the {@link ResponseCacheStoreFilter}.
+ *
+ * @author david.moore
+ */
+@Component
+public class ResponseCacheLookupFilter extends ZuulFilter {
+    static final String CACHE_KEY = "responseCacheKey";
+    static final String X_EDGE_CACHE = "X-Edge-Cache";
+    private static final Pattern CACHEABLE_URI = Pattern.compile("/chat/\\d+");
+
+    private final ResponseCache responseCache;
+
+    /**
+     * Constructor.
+     *
+     * @param responseCache Cache of the responses
+     */
+    @Autowired
+    public ResponseCacheLookupFilter(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public String filterType() {
+        return PRE_TYPE;
+    }
+
+    @Override
+    public int filterOrder() {
+        return PRE_DECORATION_FILTER_ORDER + 2;
+    }
+
+    @Override
+    public boolean shouldFilter() {
+        RequestContext ctx = RequestContext.getCurrentContext();
+        Object uri = ctx.get(REQUEST_URI_KEY);
+        return responseCache.isEnabled() && ctx.sendZuulResponse() && "GET".equals(ctx.getRequest().getMethod())
+                && ctx.get(SERVICE_ID_KEY) != null && uri != null && CACHEABLE_URI.matcher((String) uri).matches();
+    }
+
+    @Override
+    public Object run() {
+        RequestContext ctx = RequestContext.getCurrentContext();
+        String key = ctx.get(SERVICE_ID_KEY) + ":" + ctx.get(REQUEST_URI_KEY);
+        long now = System.currentTimeMillis();
+        CachedResponse response = responseCache.get(key, now);
+        if (response == null) {
+            ctx.set(CACHE_KEY, key);
+            ctx.addZuulResponseHeader(X_EDGE_CACHE, "MISS");
+            return null;
+        }
+
+        ctx.setSendZuulResponse(false);
+        ctx.addZuulResponseHeader(X_EDGE_CACHE, "HIT");
+        if (response.getETag() != null) {
+            ctx.addZuulResponseHeader(HttpHeaders.ETAG, response.getETag());
+        }
+        // Downstream caches must not keep a hot tier response past the expiration date of its message either
+        ctx.addZuulResponseHeader(HttpHeaders.CACHE_CONTROL, response.isImmutable() ? response.getCacheControl()
+                : "max-age=" + Math.max(0, (response.getExpiresAt() - now) / 1000) + ", public");
+        if (matches(ctx.getRequest(), response.getETag())) {
+            ctx.setResponseStatusCode(HttpStatus.NOT_MODIFIED.value());
+            return null;
+        }
+        ctx.setResponseStatusCode(HttpStatus.OK.value());
+        if (response.getContentType() != null) {
+            ctx.addZuulResponseHeader(HttpHeaders.CONTENT_TYPE, response.getContentType());
+        }
+        ctx.setOriginContentLength((long) response.getBody().length);
+        ctx.setResponseDataStream(new ByteArrayInputStream(response.getBody()));
+        return null;
+    }
+
+    /**
+     * @return Whether the If-None-Match of the request holds the ETag, weak or strong
+     */
+    private static boolean matches(HttpServletRequest request, String eTag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        String strong = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(strong) || candidate.equals("W/" + strong)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
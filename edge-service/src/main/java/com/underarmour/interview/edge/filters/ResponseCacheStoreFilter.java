@@ -0,0 +1,152 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.filters;
+
+import com.netflix.util.Pair;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import com.underarmour.interview.edge.cache.ResponseCache;
+import com.underarmour.interview.edge.cache.ResponseCache.CachedResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.underarmour.interview.edge.filters.ResponseCacheLookupFilter.CACHE_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.POST_TYPE;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.SEND_RESPONSE_FILTER_ORDER;
+
+/**
+ * Puts the responses the {@link ResponseCacheLookupFilter} missed in the {@link ResponseCache}, before they are
+ * sent. Only a 200 response that is not compressed, whose Cache-Control has a max-age and neither no-store,
+ * no-cache nor private, is cached, until its max-age: a year for an immutable cold tier message, the expiration
+ * date for a hot tier one. The body is read into memory and handed on to the response again.
+ *
+ * @author david.moore
+ */
+@Component
+public class ResponseCacheStoreFilter extends ZuulFilter {
+    private static Logger log = LoggerFactory.getLogger(ResponseCacheStoreFilter.class);
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final Pattern UNCACHEABLE = Pattern.compile("no-store|no-cache|private");
+
+    private final ResponseCache responseCache;
+
+    /**
+     * Constructor.
+     *
+     * @param responseCache Cache of the responses
+     */
+    @Autowired
+    public ResponseCacheStoreFilter(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public String filterType() {
+        return POST_TYPE;
+    }
+
+    @Override
+    public int filterOrder() {
+        return SEND_RESPONSE_FILTER_ORDER - 1;
+    }
+
+    @Override
+    public boolean shouldFilter() {
+        RequestContext ctx = RequestContext.getCurrentContext();
+        return ctx.get(CACHE_KEY) != null && ctx.sendZuulResponse() && ctx.getThrowable() == null
+                && ctx.getResponseStatusCode() == HttpStatus.OK.value() && !ctx.getResponseGZipped();
+    }
+
+    @Override
+    public Object run() {
+        RequestContext ctx = RequestContext.getCurrentContext();
+        String contentType = null;
+        String eTag = null;
+        String cacheControl = null;
+        for (Pair<String, String> header : ctx.getZuulResponseHeaders()) {
+            if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.first())) {
+                contentType = header.second();
+            } else if (HttpHeaders.ETAG.equalsIgnoreCase(header.first())) {
+                eTag = header.second();
+            } else if (HttpHeaders.CACHE_CONTROL.equalsIgnoreCase(header.first())) {
+                cacheControl = header.second();
+            }
+        }
+        if (cacheControl == null || UNCACHEABLE.matcher(cacheControl).find()) {
+            return null;
+        }
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        if (!maxAge.find() || Long.parseLong(maxAge.group(1)) == 0) {
+            return null;
+        }
+
+        byte[] body = body(ctx);
+        if (body != null) {
+            responseCache.put((String) ctx.get(CACHE_KEY), new CachedResponse(body, contentType, eTag, cacheControl,
+                    cacheControl.contains("immutable"),
+                    System.currentTimeMillis() + Long.parseLong(maxAge.group(1)) * 1000));
+        }
+        return null;
+    }
+
+    /**
+     * Reads the body of the response, at most {@code edge.response-cache.max-body-bytes} of it, and puts it back
+     * for the response. A body larger than that, or whose read failed, is put back as the bytes read followed by
+     * the rest of the stream, the send filter then streams it or fails on it the way it would without the cache.
+     *
+     * @return The body, {@code null} when larger or its read failed
+     */
+    private byte[] body(RequestContext ctx) {
+        if (ctx.getResponseBody() != null) {
+            return ctx.getResponseBody().getBytes(StandardCharsets.UTF_8);
+        }
+        InputStream stream = ctx.getResponseDataStream();
+        if (stream == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try {
+            for (int n; (n = stream.read(buffer)) != -1; ) {
+                read.write(buffer, 0, n);
+                if (read.size() > responseCache.getMaxBodyBytes()) {
+                    return putBack(ctx, read, stream);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Response of {} not cached, reading it failed", ctx.get(CACHE_KEY), e);
+            return putBack(ctx, read, stream);
+        }
+        byte[] body = read.toByteArray();
+        ctx.setResponseDataStream(new ByteArrayInputStream(body));
+        return body;
+    }
+
+    private static byte[] putBack(RequestContext ctx, ByteArrayOutputStream read, InputStream stream) {
+        ctx.setResponseDataStream(new SequenceInputStream(new ByteArrayInputStream(read.toByteArray()), stream));
+        return null;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.ratelimit;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+
+import java.util.Map;
+
+/**
+ * Token buckets in the edgeRateLimits IMap, shared by the edges of a Hazelcast cluster, so that a client
+ * spreading its requests over the edges gets the limit once, not once per edge. Each take is an entry processor
+ * on the partition owner of the bucket, one round trip and no lock held across it. Buckets idle for longer than
+ * their refill time are full, the map drops them after its max idle time, see
+ * {@link com.underarmour.interview.edge.config.RateLimitConfiguration}.
+ *
+ * @author david.moore
+ */
+public class HazelcastTokenBuckets implements TokenBuckets {
+    public static final String MAP = "edgeRateLimits";
+
+    private final IMap<String, Long> buckets;
+
+    /**
+     * Constructor.
+     *
+     * @param instance Hazelcast instance of the edges
+     */
+    public HazelcastTokenBuckets(HazelcastInstance instance) {
+        buckets = instance.getMap(MAP);
+    }
+
+    @Override
+    public long take(String key, int tokens, Limit limit) {
+        return (Long) buckets.executeOnKey(key, new TakeProcessor(tokens, limit));
+    }
+
+    @Override
+    public void giveBack(String key, int tokens, Limit limit) {
+        buckets.executeOnKey(key, new GiveBackProcessor(tokens, limit));
+    }
+
+    /**
+     * Local statistics only, the cluster wide size would ask every member.
+     */
+    @Override
+    public long size() {
+        return buckets.getLocalMapStats().getOwnedEntryCount();
+    }
+
+    /**
+     * Takes the tokens on the partition owner, by the wall clock of the owner: the clock of an edge would move
+     * the buckets back and forth by the skew between the edges. The backups are handed the result rather than
+     * running the processor again with their own clock.
+     */
+    static class TakeProcessor implements EntryProcessor<String, Long>, EntryBackupProcessor<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int tokens;
+        private final Limit limit;
+        private Long next;
+
+        TakeProcessor(int tokens, Limit limit) {
+            this.tokens = tokens;
+            this.limit = limit;
+        }
+
+        @Override
+        public Object process(Map.Entry<String, Long> entry) {
+            long now = System.currentTimeMillis() * 1_000_000;
+            long candidate = limit.next(entry.getValue() == null ? Long.MIN_VALUE : entry.getValue(), now, tokens);
+            long wait = limit.wait(candidate, now);
+            if (wait > 0) {
+                return wait;
+            }
+            next = candidate;
+            entry.setValue(next);
+            return 0L;
+        }
+
+        @Override
+        public EntryBackupProcessor<String, Long> getBackupProcessor() {
+            return next == null ? null : this;
+        }
+
+        @Override
+        public void processBackup(Map.Entry<String, Long> entry) {
+            entry.setValue(next);
+        }
+    }
+
+    /**
+     * Gives the tokens back on the partition owner. A bucket dropped since the tokens were taken is full already.
+     */
+    static class GiveBackProcessor implements EntryProcessor<String, Long>, EntryBackupProcessor<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int tokens;
+        private final Limit limit;
+        private Long previous;
+
+        GiveBackProcessor(int tokens, Limit limit) {
+            this.tokens = tokens;
+            this.limit = limit;
+        }
+
+        @Override
+        public Object process(Map.Entry<String, Long> entry) {
+            if (entry.getValue() != null) {
+                previous = limit.previous(entry.getValue(), tokens);
+                entry.setValue(previous);
+            }
+            return null;
+        }
+
+        @Override
+        public EntryBackupProcessor<String, Long> getBackupProcessor() {
+            return previous == null ? null : this;
+        }
+
+        @Override
+        public void processBackup(Map.Entry<String, Long> entry) {
+            entry.setValue(previous);
+        }
+    }
+}
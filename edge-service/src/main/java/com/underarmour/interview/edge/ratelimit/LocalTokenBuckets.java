@@ -0,0 +1,90 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets in memory of this edge. Each bucket is an {@link AtomicLong} updated by compare-and-set, no
+ * request waits for a lock; the buckets are found in a {@link ConcurrentHashMap}, whose reads do not lock
+ * either. Once the map holds {@code maxBuckets} a new bucket first sweeps the full ones away, a full bucket
+ * is the same as no bucket. A request racing the sweep may take tokens from a bucket just removed, letting
+ * a few requests more through.
+ *
+ * @author david.moore
+ */
+public class LocalTokenBuckets implements TokenBuckets {
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final int maxBuckets;
+    private volatile int sweepAt;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBuckets Number of buckets held before the full ones are swept
+     */
+    public LocalTokenBuckets(int maxBuckets) {
+        this.maxBuckets = maxBuckets;
+        sweepAt = maxBuckets;
+    }
+
+    @Override
+    public long take(String key, int tokens, Limit limit) {
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= sweepAt) {
+                sweep(now);
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        }
+        while (true) {
+            long arrival = bucket.get();
+            long next = limit.next(arrival, now, tokens);
+            long wait = limit.wait(next, now);
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A bucket swept away since the tokens were taken is full already.
+     */
+    @Override
+    public void giveBack(String key, int tokens, Limit limit) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.getAndUpdate(arrival -> limit.previous(arrival, tokens));
+        }
+    }
+
+    @Override
+    public long size() {
+        return buckets.size();
+    }
+
+    /**
+     * Removes the full buckets. When most are not full, e.g. many clients at their limit, the next sweep
+     * waits for the map to double rather than sweeping on every new bucket.
+     */
+    private void sweep(long now) {
+        buckets.values().removeIf(bucket -> bucket.get() <= now);
+        sweepAt = Math.max(maxBuckets, 2 * buckets.size());
+    }
+}
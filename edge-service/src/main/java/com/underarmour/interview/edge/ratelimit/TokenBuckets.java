@@ -0,0 +1,124 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.ratelimit;
+
+import java.io.Serializable;
+
+/**
+ * Token buckets by key, each refilled at the rate of its {@link Limit} up to its burst. A bucket is held as its
+ * theoretical arrival time, the time it would be full again: taking n tokens pushes it n emission intervals
+ * further, and is refused while it would end up more than the burst ahead of now. A single number per bucket,
+ * updated in one step, with no refill task. Buckets that are not held are full.
+ *
+ * @author david.moore
+ */
+public interface TokenBuckets {
+
+    /**
+     * Takes tokens from a bucket, all of them or none.
+     *
+     * @param key    Bucket key
+     * @param tokens Number of tokens to take
+     * @param limit  Rate and burst of the bucket
+     * @return 0 when taken, otherwise nanoseconds until the bucket holds the tokens
+     */
+    long take(String key, int tokens, Limit limit);
+
+    /**
+     * Gives tokens taken back to a bucket, when the request that took them was refused by another bucket.
+     *
+     * @param key    Bucket key
+     * @param tokens Number of tokens taken
+     * @param limit  Rate and burst of the bucket
+     */
+    void giveBack(String key, int tokens, Limit limit);
+
+    /**
+     * @return Number of buckets held by this instance, full ones may be among them
+     */
+    long size();
+
+    /**
+     * Where the buckets are held.
+     */
+    enum Sharing {
+        /**
+         * In memory of this edge, each edge limits on its own, see {@link LocalTokenBuckets}.
+         */
+        LOCAL,
+        /**
+         * In a Hazelcast map shared by the edges, see {@link HazelcastTokenBuckets}.
+         */
+        HAZELCAST
+    }
+
+    /**
+     * Rate and burst of a bucket.
+     */
+    final class Limit implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long intervalNanos;
+        private final long toleranceNanos;
+
+        /**
+         * Constructor.
+         *
+         * @param ratePerSecond Tokens added per second
+         * @param burst         Tokens a full bucket holds
+         */
+        public Limit(double ratePerSecond, int burst) {
+            if (ratePerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Rate and burst must be positive: " + ratePerSecond + ", "
+                        + burst);
+            }
+            intervalNanos = Math.max(1, (long) (1_000_000_000 / ratePerSecond));
+            toleranceNanos = burst * intervalNanos;
+        }
+
+        /**
+         * @param arrival Theoretical arrival time of the bucket, {@link Long#MIN_VALUE} when full
+         * @param now     Current time in nanoseconds
+         * @param tokens  Number of tokens taken
+         * @return Theoretical arrival time once the tokens are taken
+         */
+        public long next(long arrival, long now, int tokens) {
+            return Math.max(arrival, now) + tokens * intervalNanos;
+        }
+
+        /**
+         * @param arrival Theoretical arrival time of the bucket, {@link Long#MIN_VALUE} when full
+         * @param tokens  Number of tokens given back
+         * @return Theoretical arrival time once the tokens are given back, in the past when the bucket is full
+         */
+        public long previous(long arrival, int tokens) {
+            return arrival == Long.MIN_VALUE ? arrival : arrival - tokens * intervalNanos;
+        }
+
+        /**
+         * @param next Theoretical arrival time once the tokens are taken, see {@link #next(long, long, int)}
+         * @param now  Current time in nanoseconds
+         * @return Nanoseconds until the tokens may be taken, 0 or less when they may now
+         */
+        public long wait(long next, long now) {
+            return next - now - toleranceNanos;
+        }
+
+        /**
+         * @return Seconds an empty bucket takes to be full again
+         */
+        public long refillSeconds() {
+            return (toleranceNanos + 999_999_999) / 1_000_000_000;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.balancer;
+
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Peak-EWMA rule: instances picked by their observed latency and outstanding requests, a stalled instance
+ * avoided, a recovered one tried again, and the p99 latency with one degraded instance out of three against
+ * round robin.
+ *
+ * @author david.moore
+ */
+public class PeakEwmaRuleTest {
+    private final Server fast1 = new Server("fast1", 9000);
+    private final Server fast2 = new Server("fast2", 9001);
+    private final Server slow = new Server("slow", 9002);
+
+    @Test
+    public void shouldAvoidTheSlowInstance() {
+        BaseLoadBalancer lb = loadBalancer(new PeakEwmaRule());
+        respond(lb, fast1, 5);
+        respond(lb, fast2, 6);
+        respond(lb, slow, 100);
+
+        Map<Server, AtomicInteger> picks = choose(lb, 1000);
+        then(picks.get(slow)).isNull();
+        then(picks.get(fast1).get()).isGreaterThan(picks.get(fast2).get()).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldAvoidAStalledInstance() {
+        BaseLoadBalancer lb = loadBalancer(new PeakEwmaRule());
+        for (Server server : lb.getAllServers()) {
+            respond(lb, server, 5);
+        }
+        // A request to the instance never completes, a second one would wait behind it
+        lb.getLoadBalancerStats().getSingleServerStat(slow).incrementActiveRequestsCount();
+
+        then(choose(lb, 1000).get(slow)).isNull();
+    }
+
+    @Test
+    public void shouldTryASlowInstanceAgainOnceItsLatencyDecayed() throws InterruptedException {
+        PeakEwmaRule rule = new PeakEwmaRule();
+        DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+        config.setProperty(PeakEwmaRule.DECAY_MILLIS, 20);
+        rule.initWithNiwsConfig(config);
+        BaseLoadBalancer lb = loadBalancer(rule);
+        respond(lb, slow, 100);
+
+        Thread.sleep(200);
+        respond(lb, fast1, 5);
+        respond(lb, fast2, 5);
+        then(choose(lb, 1000).get(slow).get()).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldImproveTheP99WithADegradedInstance() throws Exception {
+        long roundRobin = p99(new RoundRobinRule());
+        long peakEwma = p99(new PeakEwmaRule());
+
+        then(roundRobin).isGreaterThanOrEqualTo(40);
+        then(peakEwma).isLessThan(20);
+    }
+
+    /**
+     * Requests of 6 concurrent clients through the rule, to instances answering after 2 ms but one after 40 ms.
+     * The statistics are recorded the way Ribbon records them around each request.
+     *
+     * @return p99 latency in milliseconds
+     */
+    private long p99(IRule rule) throws Exception {
+        BaseLoadBalancer lb = loadBalancer(rule);
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(clients.submit(() -> {
+                    for (int j = 0; j < 150; j++) {
+                        Server server = lb.chooseServer(null);
+                        ServerStats stats = lb.getLoadBalancerStats().getSingleServerStat(server);
+                        stats.incrementActiveRequestsCount();
+                        long start = System.nanoTime();
+                        Thread.sleep(server == slow ? 40 : 2);
+                        long millis = (System.nanoTime() - start) / 1_000_000;
+                        stats.decrementActiveRequestsCount();
+                        stats.noteResponseTime(millis);
+                        latencies.add(millis);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        Collections.sort(latencies);
+        return latencies.get(latencies.size() * 99 / 100);
+    }
+
+    private BaseLoadBalancer loadBalancer(IRule rule) {
+        BaseLoadBalancer lb = new BaseLoadBalancer();
+        lb.setRule(rule);
+        for (Server server : Arrays.asList(fast1, fast2, slow)) {
+            server.setAlive(true);
+        }
+        lb.addServers(Arrays.asList(fast1, fast2, slow));
+        return lb;
+    }
+
+    private static void respond(BaseLoadBalancer lb, Server server, double millis) {
+        lb.getLoadBalancerStats().getSingleServerStat(server).noteResponseTime(millis);
+    }
+
+    private static Map<Server, AtomicInteger> choose(BaseLoadBalancer lb, int times) {
+        Map<Server, AtomicInteger> picks = new ConcurrentHashMap<>();
+        for (int i = 0; i < times; i++) {
+            picks.computeIfAbsent(lb.chooseServer(null), server -> new AtomicInteger()).incrementAndGet();
+        }
+        return picks;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.filters;
+
+import com.netflix.zuul.context.RequestContext;
+import com.underarmour.interview.edge.ratelimit.LocalTokenBuckets;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.REQUEST_ENTITY_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.REQUEST_URI_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.SERVICE_ID_KEY;
+
+/**
+ * Rate limit filter: the client and username buckets a request takes from, the TOO_MANY_REQUESTS answer and its
+ * Retry-After, the tokens of all the usernames of a request or none, the PAYLOAD_TOO_LARGE answer of bodies no
+ * limit allows, the body handed on to the routing, and the meters.
+ *
+ * @author david.moore
+ */
+public class RateLimitFilterTest {
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    // 2 requests of a client and 5 messages of a username, then a token a minute, bodies of up to 256 bytes
+    private final RateLimitFilter filter = new RateLimitFilter(new LocalTokenBuckets(100), registry, true,
+            1 / 60.0, 2, 1 / 60.0, 5, 256);
+
+    @After
+    public void tearDown() {
+        RequestContext.getCurrentContext().unset();
+    }
+
+    @Test
+    public void shouldLimitEachClient() {
+        then(run(request("GET", "/chat/1", "10.0.0.1", null)).sendZuulResponse()).isTrue();
+        then(run(request("GET", "/chat/2", "10.0.0.1", null)).sendZuulResponse()).isTrue();
+        RequestContext limited = run(request("GET", "/chat/3", "10.0.0.1", null));
+        then(run(request("GET", "/chat/3", "10.0.0.2", null)).sendZuulResponse()).isTrue();
+
+        then(limited.sendZuulResponse()).isFalse();
+        then(limited.getResponseStatusCode()).isEqualTo(429);
+        then(limited.getResponseBody()).contains("client '10.0.0.1'");
+        then(Integer.parseInt(limited.getZuulResponseHeaders().get(0).second())).isBetween(59, 60);
+        then(limited.getZuulResponseHeaders().get(0).first()).isEqualTo(HttpHeaders.RETRY_AFTER);
+        then(registry.get("edge.rate-limit.requests").tags("bucket", "client", "outcome", "allowed").counter()
+                .count()).isEqualTo(3);
+        then(registry.get("edge.rate-limit.requests").tags("bucket", "client", "outcome", "limited").counter()
+                .count()).isEqualTo(1);
+        then(registry.get("edge.rate-limit.buckets").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldLimitTheMessagesOfEachUsername() throws IOException {
+        String batch = "[{\"username\":\"alice\",\"text\":\"a\",\"timeout\":60},"
+                + "{\"username\":\"bob\",\"text\":\"b\",\"timeout\":60},"
+                + "{\"username\":\"alice\",\"text\":\"c\",\"timeout\":60}]";
+        RequestContext allowed = run(request("POST", "/chat/batch", "10.0.0.1", batch));
+        then(allowed.sendZuulResponse()).isTrue();
+        then(StreamUtils.copyToString((InputStream) allowed.get(REQUEST_ENTITY_KEY), StandardCharsets.UTF_8))
+                .isEqualTo(batch);
+
+        String ndjson = "{\"username\":\"alice\",\"text\":\"d\",\"timeout\":60}\n"
+                + "{\"username\":\"alice\",\"text\":\"e\",\"timeout\":60}\n"
+                + "{\"username\":\"alice\",\"text\":\"f\",\"timeout\":60}\n";
+        then(run(request("POST", "/chat/batch", "10.0.0.2", ndjson)).sendZuulResponse()).isTrue();
+        RequestContext limited = run(request("GET", "/chats/alice", "10.0.0.3", null));
+        then(limited.getResponseStatusCode()).isEqualTo(429);
+        then(limited.getResponseBody()).contains("username 'alice'");
+        then(run(request("POST", "/chat", "10.0.0.4", "{\"username\":\"bob\",\"text\":\"g\"}")).sendZuulResponse())
+                .isTrue();
+        then(run(request("POST", "/chat", "10.0.0.5", "{\"username\":")).sendZuulResponse()).isTrue();
+        then(registry.get("edge.rate-limit.requests").tags("bucket", "username", "outcome", "allowed").counter()
+                .count()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldTakeTheTokensOfAllTheUsernamesOrNone() {
+        then(run(request("POST", "/chat/batch", "10.0.0.1", messages("alice", "alice", "alice", "alice")))
+                .sendZuulResponse()).isTrue();
+        RequestContext limited = run(request("POST", "/chat/batch", "10.0.0.2",
+                messages("bob", "bob", "alice", "alice")));
+        then(limited.getResponseStatusCode()).isEqualTo(429);
+        then(limited.getResponseBody()).contains("username 'alice'");
+
+        // The 2 tokens bob's messages took from the refused batch were given back
+        then(run(request("POST", "/chat/batch", "10.0.0.3", messages("bob", "bob", "bob", "bob", "bob")))
+                .sendZuulResponse()).isTrue();
+        then(registry.get("edge.rate-limit.requests").tags("bucket", "username", "outcome", "allowed").counter()
+                .count()).isEqualTo(2);
+        then(registry.get("edge.rate-limit.requests").tags("bucket", "username", "outcome", "limited").counter()
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRejectBodiesNoLimitAllows() {
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 6; i++) {
+            batch.append(i == 0 ? "" : ",").append("{\"username\":\"alice\",\"text\":\"").append(i).append("\"}");
+        }
+        RequestContext overBurst = run(request("POST", "/chat/batch", "10.0.0.1", batch.append("]").toString()));
+        then(overBurst.sendZuulResponse()).isFalse();
+        then(overBurst.getResponseStatusCode()).isEqualTo(413);
+        then(overBurst.getResponseBody()).contains("6 messages of username 'alice'");
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            text.append('x');
+        }
+        RequestContext overSize = run(request("POST", "/chat", "10.0.0.2", "{\"username\":\"bob\",\"text\":\""
+                + text + "\"}"));
+        then(overSize.sendZuulResponse()).isFalse();
+        then(overSize.getResponseStatusCode()).isEqualTo(413);
+        then(overSize.get(REQUEST_ENTITY_KEY)).isNull();
+
+        // Neither took a username token
+        then(run(request("POST", "/chat/batch", "10.0.0.3", "[{\"username\":\"alice\",\"text\":\"a\"},"
+                + "{\"username\":\"alice\",\"text\":\"b\"},{\"username\":\"alice\",\"text\":\"c\"},"
+                + "{\"username\":\"alice\",\"text\":\"d\"},{\"username\":\"alice\",\"text\":\"e\"}]"))
+                .sendZuulResponse()).isTrue();
+    }
+
+    @Test
+    public void shouldOnlyLimitRoutedRequestsWhenEnabled() {
+        RequestContext ctx = request("GET", "/chat/1", "10.0.0.1", null);
+        ctx.remove(SERVICE_ID_KEY);
+        then(filter.shouldFilter()).isFalse();
+
+        RateLimitFilter disabled = new RateLimitFilter(new LocalTokenBuckets(100), new SimpleMeterRegistry(), false,
+                1, 1, 1, 1, 1);
+        request("GET", "/chat/1", "10.0.0.1", null);
+        then(disabled.shouldFilter()).isFalse();
+        then(filter.shouldFilter()).isTrue();
+    }
+
+    private RequestContext run(RequestContext ctx) {
+        if (filter.shouldFilter()) {
+            filter.run();
+        }
+        return ctx;
+    }
+
+    private static String messages(String... usernames) {
+        return Arrays.stream(usernames).map(username -> "{\"username\":\"" + username + "\"}")
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private static RequestContext request(String method, String uri, String remoteAddr, String body) {
+        RequestContext.getCurrentContext().unset();
+        RequestContext ctx = RequestContext.getCurrentContext();
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/chat-service" + uri);
+        request.setRemoteAddr(remoteAddr);
+        if (body != null) {
+            request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        }
+        ctx.setRequest(request);
+        ctx.setResponse(new MockHttpServletResponse());
+        ctx.set(SERVICE_ID_KEY, "chat-service");
+        ctx.set(REQUEST_URI_KEY, uri);
+        return ctx;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.filters;
+
+import com.netflix.zuul.context.RequestContext;
+import com.underarmour.interview.edge.cache.ResponseCache;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.REQUEST_URI_KEY;
+import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.SERVICE_ID_KEY;
+
+/**
+ * Response cache filters: a cacheable response stored on a miss and served by the next request, conditional
+ * requests, uncacheable responses, the bounds of the cache and a body whose read failed.
+ *
+ * @author david.moore
+ */
+public class ResponseCacheFilterTest {
+    private static final String BODY = "{\"id\":5,\"username\":\"alice\",\"text\":\"Hello\"}";
+    private static final String IMMUTABLE = "max-age=31536000, public, immutable";
+
+    private final ResponseCache responseCache = new ResponseCache(true, 100, 1024);
+    private final ResponseCacheLookupFilter lookupFilter = new ResponseCacheLookupFilter(responseCache);
+    private final ResponseCacheStoreFilter storeFilter = new ResponseCacheStoreFilter(responseCache);
+
+    @After
+    public void tearDown() {
+        RequestContext.getCurrentContext().unset();
+    }
+
+    @Test
+    public void shouldServeACachedResponseWithoutRouting() throws IOException {
+        RequestContext miss = request("GET", "/chat/5", null);
+        then(lookupFilter.shouldFilter()).isTrue();
+        lookupFilter.run();
+        then(miss.sendZuulResponse()).isTrue();
+        respond(miss, BODY, IMMUTABLE);
+        then(storeFilter.shouldFilter()).isTrue();
+        storeFilter.run();
+        then(StreamUtils.copyToString(miss.getResponseDataStream(), StandardCharsets.UTF_8)).isEqualTo(BODY);
+
+        RequestContext hit = request("GET", "/chat/5", null);
+        lookupFilter.run();
+        then(hit.sendZuulResponse()).isFalse();
+        then(hit.getResponseStatusCode()).isEqualTo(200);
+        then(StreamUtils.copyToString(hit.getResponseDataStream(), StandardCharsets.UTF_8)).isEqualTo(BODY);
+        then(header(hit, HttpHeaders.ETAG)).isEqualTo("\"5\"");
+        then(header(hit, HttpHeaders.CACHE_CONTROL)).isEqualTo(IMMUTABLE);
+        then(header(hit, HttpHeaders.CONTENT_TYPE)).isEqualTo("application/json;charset=UTF-8");
+        then(header(hit, ResponseCacheLookupFilter.X_EDGE_CACHE)).isEqualTo("HIT");
+        then(storeFilter.shouldFilter()).isFalse();
+    }
+
+    @Test
+    public void shouldAnswerNotModifiedToAMatchingETag() {
+        responseCache.put("chat-service:/chat/5", new ResponseCache.CachedResponse(BODY.getBytes(
+                StandardCharsets.UTF_8), null, "\"5\"", IMMUTABLE, true, Long.MAX_VALUE));
+
+        RequestContext notModified = request("GET", "/chat/5", "\"4\", W/\"5\"");
+        lookupFilter.run();
+        then(notModified.sendZuulResponse()).isFalse();
+        then(notModified.getResponseStatusCode()).isEqualTo(304);
+        then(notModified.getResponseDataStream()).isNull();
+
+        RequestContext modified = request("GET", "/chat/5", "\"4\"");
+        lookupFilter.run();
+        then(modified.getResponseStatusCode()).isEqualTo(200);
+        then(modified.getResponseDataStream()).isNotNull();
+    }
+
+    @Test
+    public void shouldCacheHotResponsesUntilTheirMaxAgeOnly() {
+        request("GET", "/chat/6", null);
+        lookupFilter.run();
+        respond(RequestContext.getCurrentContext(), BODY, "max-age=60, public");
+        storeFilter.run();
+        request("GET", "/chat/7", null);
+        lookupFilter.run();
+        respond(RequestContext.getCurrentContext(), BODY, "no-cache");
+        storeFilter.run();
+
+        long now = System.currentTimeMillis();
+        then(responseCache.get("chat-service:/chat/6", now)).isNotNull();
+        then(responseCache.get("chat-service:/chat/6", now + 61_000)).isNull();
+        then(responseCache.get("chat-service:/chat/7", now)).isNull();
+        then(responseCache.size()).isZero();
+
+        request("GET", "/chats/alice", null);
+        then(lookupFilter.shouldFilter()).isFalse();
+        request("POST", "/chat/5", null);
+        then(lookupFilter.shouldFilter()).isFalse();
+    }
+
+    @Test
+    public void shouldBoundTheCache() throws IOException {
+        for (int id = 1; id <= 1000; id++) {
+            responseCache.put("chat-service:/chat/" + id, new ResponseCache.CachedResponse(new byte[1], null, null,
+                    IMMUTABLE, true, Long.MAX_VALUE));
+        }
+        then(responseCache.size()).isLessThanOrEqualTo(100);
+
+        String large = new String(new char[2048]).replace('\0', 'x');
+        RequestContext ctx = request("GET", "/chat/2000", null);
+        lookupFilter.run();
+        respond(ctx, large, IMMUTABLE);
+        storeFilter.run();
+        then(responseCache.get("chat-service:/chat/2000", 0)).isNull();
+        then(StreamUtils.copyToString(ctx.getResponseDataStream(), StandardCharsets.UTF_8)).isEqualTo(large);
+    }
+
+    @Test
+    public void shouldPutBackTheBodyOfAResponseWhoseReadFailed() throws IOException {
+        RequestContext ctx = request("GET", "/chat/5", null);
+        lookupFilter.run();
+        respond(ctx, BODY, IMMUTABLE);
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        ctx.setResponseDataStream(new SequenceInputStream(
+                new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8)), failing));
+        storeFilter.run();
+
+        then(responseCache.get("chat-service:/chat/5", 0)).isNull();
+        InputStream stream = ctx.getResponseDataStream();
+        byte[] buffer = new byte[4096];
+        int n = stream.read(buffer);
+        then(new String(buffer, 0, n, StandardCharsets.UTF_8)).isEqualTo(BODY);
+        thenThrownBy(() -> stream.read(buffer)).isInstanceOf(IOException.class);
+    }
+
+    private static RequestContext request(String method, String uri, String ifNoneMatch) {
+        RequestContext.getCurrentContext().unset();
+        RequestContext ctx = RequestContext.getCurrentContext();
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/chat-service" + uri);
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        ctx.setRequest(request);
+        ctx.setResponse(new MockHttpServletResponse());
+        ctx.set(SERVICE_ID_KEY, "chat-service");
+        ctx.set(REQUEST_URI_KEY, uri);
+        return ctx;
+    }
+
+    private static void respond(RequestContext ctx, String body, String cacheControl) {
+        ctx.setResponseStatusCode(200);
+        ctx.setResponseGZipped(false);
+        ctx.addZuulResponseHeader(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8");
+        ctx.addZuulResponseHeader(HttpHeaders.ETAG, "\"5\"");
+        ctx.addZuulResponseHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        ctx.setResponseDataStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String header(RequestContext ctx, String name) {
+        return ctx.getZuulResponseHeaders().stream().filter(h -> h.first().equals(name)).map(h -> h.second())
+                .findFirst().orElse(null);
+    }
+}
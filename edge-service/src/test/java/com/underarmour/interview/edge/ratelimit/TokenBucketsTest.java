@@ -0,0 +1,145 @@
+/*
+ * Edge Service
+ *
+ * Copyright (c) 2018-2019 Under Armour [https://www.underarmour.com/]
+ *
+ * The  information  contained  herein  is  the  confidential  and  proprietary
+ * information of  Under Armour.  This information is protected,  among others,
+ * by the patent,  copyright,  trademark,  and trade secret laws of  the United
+ * States and its several states.  Any use,  copying, or reverse engineering is
+ * strictly prohibited. By  viewing or receiving this information, you  consent
+ * to the foregoing.
+ */
+package com.underarmour.interview.edge.ratelimit;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.GroupConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.underarmour.interview.edge.ratelimit.TokenBuckets.Limit;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Token buckets: bursts, refusals with the time to wait, tokens given back, concurrent takes from one bucket, the
+ * sweep of the full buckets, and the buckets shared by two edges through Hazelcast.
+ *
+ * @author david.moore
+ */
+public class TokenBucketsTest {
+    // A token a minute, no bucket refills during a test
+    private static final Limit LIMIT = new Limit(1 / 60.0, 10);
+
+    @Test
+    public void shouldAllowTheBurstThenRefuse() {
+        TokenBuckets buckets = new LocalTokenBuckets(100);
+
+        then(buckets.take("alice", 4, LIMIT)).isZero();
+        then(buckets.take("alice", 6, LIMIT)).isZero();
+        long wait = buckets.take("alice", 1, LIMIT);
+        then(wait).isGreaterThan(TimeUnit.SECONDS.toNanos(50)).isLessThanOrEqualTo(TimeUnit.MINUTES.toNanos(1));
+        then(buckets.take("bob", 11, LIMIT)).isGreaterThan(0);
+        then(buckets.take("bob", 10, LIMIT)).isZero();
+    }
+
+    @Test
+    public void shouldTakeTheTokensGivenBackAgain() {
+        TokenBuckets buckets = new LocalTokenBuckets(100);
+
+        then(buckets.take("alice", 10, LIMIT)).isZero();
+        buckets.giveBack("alice", 4, LIMIT);
+        then(buckets.take("alice", 4, LIMIT)).isZero();
+        then(buckets.take("alice", 1, LIMIT)).isGreaterThan(0);
+        // Not held, full already
+        buckets.giveBack("bob", 4, LIMIT);
+        then(buckets.take("bob", 11, LIMIT)).isGreaterThan(0);
+        then(buckets.take("bob", 10, LIMIT)).isZero();
+    }
+
+    @Test
+    public void shouldRefillAtTheRate() throws InterruptedException {
+        TokenBuckets buckets = new LocalTokenBuckets(100);
+        Limit limit = new Limit(100, 1);
+
+        then(buckets.take("alice", 1, limit)).isZero();
+        then(buckets.take("alice", 1, limit)).isGreaterThan(0);
+        Thread.sleep(20);
+        then(buckets.take("alice", 1, limit)).isZero();
+    }
+
+    @Test
+    public void shouldGiveEachTokenOnceToConcurrentTakes() throws Exception {
+        TokenBuckets buckets = new LocalTokenBuckets(100);
+        Limit limit = new Limit(1 / 60.0, 1000);
+        AtomicInteger taken = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> takers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                takers.add(executor.submit(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        if (buckets.take("alice", 1, limit) == 0) {
+                            taken.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> taker : takers) {
+                taker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        then(taken.get()).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldSweepTheFullBuckets() {
+        TokenBuckets buckets = new LocalTokenBuckets(10);
+        Limit refilled = new Limit(1_000_000_000, 1);
+        for (int i = 0; i < 10; i++) {
+            buckets.take("client" + i, 1, refilled);
+        }
+        buckets.take("alice", 1, LIMIT);
+        then(buckets.size()).isEqualTo(1);
+
+        for (int i = 0; i < 30; i++) {
+            buckets.take("user" + i, 1, LIMIT);
+        }
+        then(buckets.size()).isEqualTo(31);
+        then(buckets.take("alice", 10, LIMIT)).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldShareTheBucketsOfTheEdges() {
+        Config config = new Config().setInstanceName("edge-test")
+                .setGroupConfig(new GroupConfig("edge-test-" + System.nanoTime()));
+        config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+        HazelcastInstance instance = Hazelcast.newHazelcastInstance(config);
+        try {
+            TokenBuckets edge1 = new HazelcastTokenBuckets(instance);
+            TokenBuckets edge2 = new HazelcastTokenBuckets(instance);
+
+            then(edge1.take("alice", 6, LIMIT)).isZero();
+            then(edge2.take("alice", 5, LIMIT)).isGreaterThan(0);
+            then(edge2.take("alice", 4, LIMIT)).isZero();
+            then(edge1.take("alice", 1, LIMIT)).isGreaterThan(TimeUnit.SECONDS.toNanos(50));
+            edge2.giveBack("alice", 3, LIMIT);
+            then(edge1.take("alice", 3, LIMIT)).isZero();
+            then(edge1.take("alice", 1, LIMIT)).isGreaterThan(0);
+            then(edge1.take("bob", 10, LIMIT)).isZero();
+            then(edge1.size()).isEqualTo(2);
+        } finally {
+            instance.shutdown();
+        }
+    }
+}